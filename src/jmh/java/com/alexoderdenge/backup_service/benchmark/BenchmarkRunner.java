@@ -0,0 +1,29 @@
+package com.alexoderdenge.backup_service.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks matching the given regular expression (all by default) with the GC profiler,
+ * so every result also reports the allocation rate ({@code gc.alloc.rate.norm} is bytes per operation).
+ * Results are written to {@code target/jmh-result.json}.
+ * <p>
+ * {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark.include=CompressionBenchmark}
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 && !args[0].isBlank() ? args[0] : ".*";
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-result.json")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,86 @@
+package com.alexoderdenge.backup_service.benchmark;
+
+import com.alexoderdenge.backup_service.service.ParallelZipCompressionService;
+import com.alexoderdenge.backup_service.service.ZipCompressionService;
+import com.alexoderdenge.backup_service.service.exception.CompressionException;
+import com.alexoderdenge.backup_service.util.FileUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@code compressToZip} per engine and tree shape. Besides operations per second, the
+ * {@code sourceBytes} counter reports uncompressed bytes per second and {@code archiveBytes} the
+ * archive bytes per second, so the numbers are comparable across tree shapes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g"})
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+
+    @Param({"TINY_FILES", "HUGE_FILES", "INCOMPRESSIBLE"})
+    private SyntheticTree tree;
+
+    @Param({"zip", "parallel"})
+    private String engine;
+
+    private Path workDirectory;
+    private Path sourceDirectory;
+    private Path outputDirectory;
+    private long sourceBytes;
+    private ZipCompressionService compressionService;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long sourceBytes;
+        public long archiveBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDirectory = Files.createTempDirectory("compression-benchmark-");
+        sourceDirectory = workDirectory.resolve("source");
+        outputDirectory = Files.createDirectories(workDirectory.resolve("output"));
+        sourceBytes = tree.create(sourceDirectory);
+        compressionService = "parallel".equals(engine)
+                ? new ParallelZipCompressionService(0)
+                : new ZipCompressionService();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (compressionService instanceof ParallelZipCompressionService parallel) {
+            parallel.close();
+        }
+        FileUtils.deleteDirectoryRecursively(workDirectory);
+    }
+
+    @Benchmark
+    public Path compressToZip(Bytes bytes) throws CompressionException, IOException {
+        // Each invocation overwrites the archive of the previous one
+        Path archive = compressionService.compressToZip(sourceDirectory, outputDirectory);
+        bytes.sourceBytes += sourceBytes;
+        bytes.archiveBytes += Files.size(archive);
+        return archive;
+    }
+}
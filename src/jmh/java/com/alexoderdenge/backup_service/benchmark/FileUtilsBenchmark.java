@@ -0,0 +1,95 @@
+package com.alexoderdenge.backup_service.benchmark;
+
+import com.alexoderdenge.backup_service.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the file utilities that run on every backup entry.
+ */
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FileUtilsBenchmark {
+
+    /**
+     * A deep tree, rebuilt before every invocation (outside the measured time) since deletion consumes it.
+     */
+    @State(Scope.Thread)
+    public static class DeepTree {
+
+        @Param({"50", "200"})
+        private int depth;
+
+        @Param({"10"})
+        private int filesPerLevel;
+
+        private Path workDirectory;
+        private Path treeRoot;
+
+        @Setup(Level.Trial)
+        public void createWorkDirectory() throws IOException {
+            workDirectory = Files.createTempDirectory("delete-benchmark-");
+        }
+
+        @Setup(Level.Invocation)
+        public void createTree() throws IOException {
+            treeRoot = workDirectory.resolve("tree");
+            SyntheticTree.createDeepTree(treeRoot, depth, filesPerLevel);
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteWorkDirectory() throws IOException {
+            FileUtils.deleteDirectoryRecursively(workDirectory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SourceDirectory {
+
+        private Path directory;
+        private String path;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("validate-benchmark-");
+            Files.writeString(directory.resolve("file.txt"), "content");
+            path = directory.toString();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            FileUtils.deleteDirectoryRecursively(directory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void deleteDirectoryRecursively(DeepTree tree) throws IOException {
+        FileUtils.deleteDirectoryRecursively(tree.treeRoot);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public String validateSourcePath(SourceDirectory source) {
+        return FileUtils.validateSourcePath(source.path);
+    }
+}
@@ -0,0 +1,108 @@
+package com.alexoderdenge.backup_service.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates reproducible source trees for the benchmarks.
+ */
+public enum SyntheticTree {
+
+    /** 10,000 files of 1 KB of text spread over 100 directories - dominated by per-entry overhead. */
+    TINY_FILES {
+        @Override
+        long create(Path root, Random random) throws IOException {
+            long total = 0;
+            for (int dir = 0; dir < 100; dir++) {
+                Path directory = Files.createDirectories(root.resolve("dir" + dir));
+                for (int file = 0; file < 100; file++) {
+                    total += writeText(directory.resolve("file" + file + ".txt"), 1024, random);
+                }
+            }
+            return total;
+        }
+    },
+
+    /** 4 files of 64 MB of text - dominated by deflate throughput. */
+    HUGE_FILES {
+        @Override
+        long create(Path root, Random random) throws IOException {
+            long total = 0;
+            for (int file = 0; file < 4; file++) {
+                total += writeText(root.resolve("huge" + file + ".log"), 64 * 1024 * 1024, random);
+            }
+            return total;
+        }
+    },
+
+    /** 16 files of 16 MB of random bytes, like photos or existing archives. */
+    INCOMPRESSIBLE {
+        @Override
+        long create(Path root, Random random) throws IOException {
+            long total = 0;
+            byte[] block = new byte[64 * 1024];
+            for (int file = 0; file < 16; file++) {
+                try (OutputStream out = Files.newOutputStream(root.resolve("random" + file + ".bin"))) {
+                    for (int written = 0; written < 16 * 1024 * 1024; written += block.length) {
+                        random.nextBytes(block);
+                        out.write(block);
+                    }
+                }
+                total += 16 * 1024 * 1024;
+            }
+            return total;
+        }
+    };
+
+    private static final String[] WORDS = {
+            "backup", "service", "rclone", "remote", "archive", "compression", "entry", "upload",
+            "directory", "file", "cloud", "sync", "2024-01-01T00:00:00Z", "INFO", "WARN", "12345"
+    };
+
+    /**
+     * Creates the tree below the given root, seeded so every run produces identical content.
+     *
+     * @return the total number of bytes written
+     */
+    public long create(Path root) throws IOException {
+        Files.createDirectories(root);
+        return create(root, new Random(42));
+    }
+
+    abstract long create(Path root, Random random) throws IOException;
+
+    /**
+     * Creates a directory chain of the given depth with a few small files at every level.
+     */
+    public static void createDeepTree(Path root, int depth, int filesPerLevel) throws IOException {
+        Path directory = root;
+        for (int level = 0; level < depth; level++) {
+            directory = Files.createDirectories(directory.resolve("level" + level));
+            for (int file = 0; file < filesPerLevel; file++) {
+                Files.writeString(directory.resolve("file" + file + ".txt"), "level " + level);
+            }
+        }
+    }
+
+    private static long writeText(Path file, int size, Random random) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+            int written = 0;
+            while (written < size) {
+                byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes(StandardCharsets.US_ASCII);
+                int length = Math.min(word.length, size - written);
+                out.write(word, 0, length);
+                written += length;
+                if (written < size) {
+                    out.write(random.nextInt(8) == 0 ? '\n' : ' ');
+                    written++;
+                }
+            }
+        }
+        return size;
+    }
+}
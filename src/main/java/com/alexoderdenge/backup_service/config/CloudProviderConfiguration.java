@@ -0,0 +1,74 @@
+package com.alexoderdenge.backup_service.config;
+
+import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.service.BandwidthScheduler;
+import com.alexoderdenge.backup_service.service.CloudProvider;
+import com.alexoderdenge.backup_service.service.RcloneCloudProvider;
+import com.alexoderdenge.backup_service.service.RcloneRcCloudProvider;
+import com.alexoderdenge.backup_service.service.TransferProgressTracker;
+import com.alexoderdenge.backup_service.service.exception.RcloneException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.time.Duration;
+
+/**
+ * Selects the {@link CloudProvider} used for backups from the {@code cloudProvider} field of the backup config.
+ * <ul>
+ *     <li>{@code rclone} (default): forks one rclone process per operation</li>
+ *     <li>{@code rclone-rcd}: sends operations to a long-lived rclone remote control daemon</li>
+ * </ul>
+ */
+@Configuration
+@Slf4j
+public class CloudProviderConfiguration {
+
+    @Value("${rclone.config-path:}")
+    private String rcloneConfigPath;
+
+    @Value("${rclone.rc.url:}")
+    private String rcUrl;
+
+    @Value("${rclone.rc.user:}")
+    private String rcUser;
+
+    @Value("${rclone.rc.pass:}")
+    private String rcPassword;
+
+    @Value("${rclone.rc.poll-interval:PT1S}")
+    private Duration rcPollInterval;
+
+    @Value("${rclone.rc.startup-timeout:PT15S}")
+    private Duration rcStartupTimeout;
+
+    @Bean
+    @Primary
+    public CloudProvider cloudProvider(BackupConfig backupConfig, RcloneCloudProvider rcloneCloudProvider,
+                                       BandwidthScheduler bandwidthScheduler,
+                                       TransferProgressTracker progressTracker) {
+        String providerName = backupConfig.getCloudProvider();
+
+        if (RcloneRcCloudProvider.PROVIDER_NAME.equalsIgnoreCase(providerName)) {
+            log.info("☁️ Using cloud provider: {}", RcloneRcCloudProvider.PROVIDER_NAME);
+            RcloneRcCloudProvider provider = new RcloneRcCloudProvider(
+                    rcUrl, rcUser, rcPassword, rcloneConfigPath, rcPollInterval, rcStartupTimeout, bandwidthScheduler,
+                    progressTracker);
+            try {
+                provider.start();
+            } catch (RcloneException e) {
+                // Keep the application up; the provider retries starting the daemon on first use
+                log.error("Failed to start rclone remote control daemon: {}", e.getMessage());
+            }
+            return provider;
+        }
+
+        if (providerName != null && !providerName.isBlank() && !"rclone".equalsIgnoreCase(providerName)) {
+            log.warn("⚠️ Unknown cloud provider '{}', falling back to 'rclone'", providerName);
+        }
+        log.info("☁️ Using cloud provider: rclone");
+        return rcloneCloudProvider;
+    }
+}
@@ -1,16 +1,24 @@
 package com.alexoderdenge.backup_service.controller;
 
+import com.alexoderdenge.backup_service.model.BackupJob;
+import com.alexoderdenge.backup_service.model.RunHistory;
+import com.alexoderdenge.backup_service.service.BackupJobService;
 import com.alexoderdenge.backup_service.service.BackupService;
 import com.alexoderdenge.backup_service.service.RcloneValidator;
+import com.alexoderdenge.backup_service.service.RunJournal;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
     @RestController
@@ -19,8 +27,10 @@ import java.util.Map;
     @Slf4j
     public class BackupController {
 
+        private final BackupJobService backupJobService;
         private final BackupService backupService;
         private final RcloneValidator rcloneValidator;
+        private final RunJournal runJournal;
 
         @Value("${config:classpath:backup-config.json}")
         private String configPath;
@@ -29,30 +39,88 @@ import java.util.Map;
         private String rcloneConfigPath;
 
         @PostMapping("/run")
-        public ResponseEntity<Map<String, Object>> runBackupNow() {
+        public ResponseEntity<Map<String, Object>> runBackupNow(@RequestParam(defaultValue = "false") boolean force) {
         String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
         log.info("🚀 Manual backup triggered via API at: {}", timestamp);
         log.info("📁 Using backup config: {}", configPath);
         log.info("🔧 Using rclone config: {}", rcloneConfigPath.isEmpty() ? "default" : rcloneConfigPath);
         
         Map<String, Object> response = new HashMap<>();
-        response.put("status", "success");
-        response.put("message", "Backup started successfully");
         response.put("timestamp", timestamp);
         response.put("configFile", configPath);
         response.put("rcloneConfig", rcloneConfigPath.isEmpty() ? "default" : rcloneConfigPath);
+        response.put("force", force);
         
         try {
-            backupService.runBackup();
-            return ResponseEntity.ok(response);
+            BackupJob job = backupJobService.submit(force, "api");
+            response.put("status", "accepted");
+            response.put("message", "Backup job queued");
+            response.put("jobId", job.getId());
+            response.put("jobStatus", job.getStatus());
+            response.put("statusUrl", "/api/backup/jobs/" + job.getId());
+            return ResponseEntity.accepted().body(response);
         } catch (Exception e) {
-            log.error("Backup failed", e);
+            log.error("Failed to queue backup job", e);
             response.put("status", "error");
-            response.put("message", "Backup failed: " + e.getMessage());
+            response.put("message", "Failed to queue backup job: " + e.getMessage());
             return ResponseEntity.internalServerError().body(response);
         }
     }
 
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<BackupJob> getJob(@PathVariable String jobId) {
+        return backupJobService.getJob(jobId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/jobs")
+    public ResponseEntity<List<BackupJob>> getJobs() {
+        return ResponseEntity.ok(backupJobService.getJobs());
+    }
+
+    /**
+     * Entry results of past runs from the run journal, most recent first, with aggregates over all matches.
+     */
+    @GetMapping("/history")
+    public ResponseEntity<RunHistory> getHistory(@RequestParam(required = false) String entry,
+                                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+                                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+                                                 @RequestParam(defaultValue = "100") int limit) throws IOException {
+        return ResponseEntity.ok(runJournal.query(entry, from, to, limit));
+    }
+
+    /**
+     * Queues the restore of a dedup snapshot into a directory below {@code backup.restore.root}.
+     */
+    @PostMapping("/restore")
+    public ResponseEntity<Map<String, Object>> restoreSnapshot(@RequestParam String cloudPath,
+                                                               @RequestParam String snapshot,
+                                                               @RequestParam String target) {
+        log.info("♻️ Restore of snapshot {} from {} to {} requested via API", snapshot, cloudPath, target);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("cloudPath", cloudPath);
+        response.put("snapshot", snapshot);
+
+        try {
+            String resolvedTarget = backupService.resolveRestoreTarget(target).toString();
+            response.put("target", resolvedTarget);
+            BackupJob job = backupJobService.submitRestore(cloudPath, snapshot, resolvedTarget);
+            response.put("status", "accepted");
+            response.put("message", "Restore job queued");
+            response.put("jobId", job.getId());
+            response.put("jobStatus", job.getStatus());
+            response.put("statusUrl", "/api/backup/jobs/" + job.getId());
+            return ResponseEntity.accepted().body(response);
+        } catch (IllegalArgumentException e) {
+            response.put("target", target);
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
     @GetMapping("/validate")
     public ResponseEntity<Map<String, Object>> validateRcloneSetup() {
         log.info("🔍 Rclone validation requested via API");
@@ -0,0 +1,37 @@
+package com.alexoderdenge.backup_service.controller;
+
+import com.alexoderdenge.backup_service.model.TransferProgress;
+import com.alexoderdenge.backup_service.service.TransferProgressTracker;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/backup/progress")
+@RequiredArgsConstructor
+@Slf4j
+public class BackupProgressController {
+
+    private final TransferProgressTracker progressTracker;
+
+    /**
+     * Streams live transfer progress as Server-Sent Events named "progress", one per upload destination.
+     */
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamProgress() {
+        log.info("📡 New transfer progress subscriber");
+        return progressTracker.subscribe();
+    }
+
+    @GetMapping(value = "/current", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<TransferProgress>> getCurrentProgress() {
+        return ResponseEntity.ok(progressTracker.getActiveTransfers());
+    }
+}
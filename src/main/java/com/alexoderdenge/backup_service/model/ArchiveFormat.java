@@ -0,0 +1,53 @@
+package com.alexoderdenge.backup_service.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Locale;
+
+/**
+ * Archive formats a compressed backup entry can be written as.
+ */
+public enum ArchiveFormat {
+
+    /** One deflate stream per file; any file can be extracted on its own. */
+    ZIP("zip", ".zip"),
+
+    /** POSIX tar compressed as a whole with gzip; keeps permissions and compresses small files better. */
+    TAR_GZ("tar.gz", ".tar.gz");
+
+    private final String id;
+    private final String extension;
+
+    ArchiveFormat(String id, String extension) {
+        this.id = id;
+        this.extension = extension;
+    }
+
+    @JsonValue
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the file name suffix of this format, including the leading dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    @JsonCreator
+    public static ArchiveFormat fromId(String value) {
+        String normalized = value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+        return switch (normalized) {
+            case "zip" -> ZIP;
+            case "tar.gz", "tgz", "tar_gz" -> TAR_GZ;
+            default -> throw new IllegalArgumentException("Unknown archive format: " + value + " (expected zip or tar.gz)");
+        };
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
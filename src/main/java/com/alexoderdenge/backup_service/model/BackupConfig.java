@@ -1,19 +1,43 @@
 package com.alexoderdenge.backup_service.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
+import org.springframework.util.unit.DataSize;
 
 import java.util.List;
 
 @Data
 public class BackupConfig {
     private List<BackupEntry> backupEntries;
-    private String scheduleCron;
+    private String scheduleCron; // Schedule of entries without their own, "-" to only run them on demand
+    private String scheduleJitter; // e.g. "10m": random delay added to every scheduled start
     private String cloudProvider;
+    private int maxConcurrentEntries = 4; // Entries uploading at the same time across all remotes
+    private int maxConcurrentPerRemote = 2; // Entries uploading at the same time to a single remote
+    private BandwidthSchedule bandwidth = new BandwidthSchedule(); // Upload bandwidth shared by all transfers
 
     @Data
     public static class BackupEntry {
         private String localPath;
         private String cloudPath;
         private boolean compress = false; // Default to false for backward compatibility
+        private boolean stream = false; // Pipe the archive straight into the upload instead of a temp file
+        private CompressionPolicy compression = new CompressionPolicy(); // How files are compressed into the archive
+        private ArchiveFormat format = ArchiveFormat.ZIP; // Archive written when compression is enabled
+        private boolean dedup = false; // Upload only new content-defined chunks into a repository at the cloud path
+        private String volumeSize; // e.g. "1GB": split the archive into volumes uploaded while compression continues
+        private String schedule; // Cron expression for this entry, "-" to only run it on demand
+        private String interval; // e.g. "6h": run this entry at a fixed interval instead of a cron expression
+        private String jitter; // e.g. "5m": overrides scheduleJitter for this entry
+        private boolean watch = false; // Upload changed files as they change, in addition to the schedule
+        private boolean checksum = false; // Compare file contents, not just size and modification time
+
+        /**
+         * @return the volume size in bytes, or 0 if the archive is not split
+         */
+        @JsonIgnore
+        public long getVolumeSizeBytes() {
+            return volumeSize == null || volumeSize.isBlank() ? 0 : DataSize.parse(volumeSize.trim()).toBytes();
+        }
     }
 }
@@ -0,0 +1,72 @@
+package com.alexoderdenge.backup_service.model;
+
+import lombok.Data;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of backing up a single entry during a run.
+ */
+@Data
+public class BackupEntryResult {
+
+    public enum Status {
+        SUCCEEDED,
+        SKIPPED,
+        FAILED
+    }
+
+    private String localPath;
+    private String cloudPath;
+    private Status status;
+    private String message;
+    private Long bytes; // Bytes handed to the cloud provider, null when unknown (e.g. plain sync)
+    private Long sourceBytes; // Size of the scanned source, null if the entry stopped before the scan
+    private Map<String, Long> stageMillis = new LinkedHashMap<>(); // Time per stage, summed over retries
+    private Instant startedAt;
+    private Instant finishedAt;
+    private long durationMillis;
+
+    public static BackupEntryResult start(BackupConfig.BackupEntry entry) {
+        BackupEntryResult result = new BackupEntryResult();
+        result.setLocalPath(entry.getLocalPath());
+        result.setCloudPath(entry.getCloudPath());
+        result.setStartedAt(Instant.now());
+        return result;
+    }
+
+    public BackupEntryResult succeeded(Long bytes) {
+        return succeeded(bytes, null);
+    }
+
+    public BackupEntryResult succeeded(Long bytes, String message) {
+        this.bytes = bytes;
+        return finish(Status.SUCCEEDED, message);
+    }
+
+    public BackupEntryResult skipped(String reason) {
+        return finish(Status.SKIPPED, reason);
+    }
+
+    public BackupEntryResult failed(String reason) {
+        return finish(Status.FAILED, reason);
+    }
+
+    /**
+     * Adds time spent in a stage; a stage that runs again (e.g. a retried upload) adds up.
+     */
+    public void addStageTime(String stage, long millis) {
+        stageMillis.merge(stage, millis, Long::sum);
+    }
+
+    private BackupEntryResult finish(Status status, String message) {
+        this.status = status;
+        this.message = message;
+        this.finishedAt = Instant.now();
+        this.durationMillis = Duration.between(startedAt, finishedAt).toMillis();
+        return this;
+    }
+}
@@ -0,0 +1,60 @@
+package com.alexoderdenge.backup_service.model;
+
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A backup run submitted for asynchronous execution, with its progress and per-entry results.
+ */
+@Data
+public class BackupJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    private final String id;
+    private final String trigger;
+    private final boolean force;
+    private final Instant submittedAt = Instant.now();
+    private final List<BackupEntryResult> entries = new CopyOnWriteArrayList<>();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    public long getSucceededEntries() {
+        return countEntries(BackupEntryResult.Status.SUCCEEDED);
+    }
+
+    public long getSkippedEntries() {
+        return countEntries(BackupEntryResult.Status.SKIPPED);
+    }
+
+    public long getFailedEntries() {
+        return countEntries(BackupEntryResult.Status.FAILED);
+    }
+
+    public long getTotalBytes() {
+        return entries.stream().mapToLong(entry -> entry.getBytes() == null ? 0 : entry.getBytes()).sum();
+    }
+
+    public Long getDurationMillis() {
+        if (startedAt == null) {
+            return null;
+        }
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        return end.toEpochMilli() - startedAt.toEpochMilli();
+    }
+
+    private long countEntries(BackupEntryResult.Status entryStatus) {
+        return entries.stream().filter(entry -> entry.getStatus() == entryStatus).count();
+    }
+}
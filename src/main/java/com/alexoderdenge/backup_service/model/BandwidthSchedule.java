@@ -0,0 +1,118 @@
+package com.alexoderdenge.backup_service.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+import org.springframework.util.unit.DataSize;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Upload bandwidth allowed at each time of day, shared by all transfers running at the same time.
+ * The first window containing the current time applies; outside all windows {@code defaultLimit} does.
+ * Limits are sizes per second such as {@code "2MB"}; empty or {@code "off"} means unlimited.
+ */
+@Data
+public class BandwidthSchedule {
+
+    private String defaultLimit; // Limit outside all windows, unlimited if not set
+    private List<Window> windows = new ArrayList<>();
+
+    @Data
+    public static class Window {
+        private String from; // "HH:mm", inclusive
+        private String to;   // "HH:mm", exclusive; before "from" for windows spanning midnight
+        private String limit;
+        private Set<DayOfWeek> days; // Days the window starts on, every day if not set
+    }
+
+    /**
+     * @return whether any limit is configured at all
+     */
+    @JsonIgnore
+    public boolean isEnabled() {
+        return parseLimit(defaultLimit) > 0 || (windows != null && !windows.isEmpty());
+    }
+
+    /**
+     * @return the limit in bytes per second at the given local time, 0 if unlimited
+     */
+    public long limitAt(LocalDateTime time) {
+        if (windows != null) {
+            for (Window window : windows) {
+                if (contains(window, time)) {
+                    return parseLimit(window.getLimit());
+                }
+            }
+        }
+        return parseLimit(defaultLimit);
+    }
+
+    /**
+     * Checks every window and limit, so a broken schedule is reported at startup rather than mid-run.
+     *
+     * @throws IllegalArgumentException if a window or limit cannot be parsed
+     */
+    public void validate() {
+        parseLimit(defaultLimit);
+        if (windows == null) {
+            return;
+        }
+        for (Window window : windows) {
+            LocalTime from = parseTime(window.getFrom(), "from");
+            LocalTime to = parseTime(window.getTo(), "to");
+            if (from.equals(to)) {
+                throw new IllegalArgumentException("Bandwidth window " + from + "-" + to + " is empty");
+            }
+            parseLimit(window.getLimit());
+        }
+    }
+
+    /**
+     * @return the limit in bytes per second, 0 if unlimited
+     */
+    public static long parseLimit(String limit) {
+        if (limit == null || limit.isBlank() || "off".equals(limit.trim().toLowerCase(Locale.ROOT))) {
+            return 0;
+        }
+        String value = limit.trim();
+        if (value.toLowerCase(Locale.ROOT).endsWith("/s")) {
+            value = value.substring(0, value.length() - 2).trim();
+        }
+        long bytes = DataSize.parse(value).toBytes();
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Bandwidth limit cannot be negative: " + limit);
+        }
+        return bytes;
+    }
+
+    private static boolean contains(Window window, LocalDateTime time) {
+        LocalTime from = parseTime(window.getFrom(), "from");
+        LocalTime to = parseTime(window.getTo(), "to");
+        LocalTime now = time.toLocalTime();
+        DayOfWeek startDay = time.getDayOfWeek();
+        boolean inside;
+        if (from.isBefore(to)) {
+            inside = !now.isBefore(from) && now.isBefore(to);
+        } else {
+            // Spans midnight: the part after midnight belongs to the window that started the day before
+            inside = !now.isBefore(from) || now.isBefore(to);
+            if (now.isBefore(to)) {
+                startDay = startDay.minus(1);
+            }
+        }
+        return inside && (window.getDays() == null || window.getDays().isEmpty() || window.getDays().contains(startDay));
+    }
+
+    private static LocalTime parseTime(String value, String field) {
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Bandwidth window is missing '" + field + "'");
+        }
+        return LocalTime.parse(value.trim());
+    }
+}
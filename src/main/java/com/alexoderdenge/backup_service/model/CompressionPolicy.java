@@ -0,0 +1,56 @@
+package com.alexoderdenge.backup_service.model;
+
+import lombok.Data;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Per-entry control over how files are written into the archive: the deflate level, extensions that are
+ * always stored uncompressed, and automatic detection of incompressible content by trial-deflating a sample.
+ */
+@Data
+public class CompressionPolicy {
+
+    /** Formats that are already compressed; deflating them costs CPU for next to no gain. */
+    public static final Set<String> DEFAULT_STORE_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "heif", "avif",
+            "mp4", "m4v", "mov", "mkv", "avi", "webm",
+            "mp3", "m4a", "aac", "ogg", "opus", "flac",
+            "zip", "gz", "tgz", "bz2", "xz", "zst", "7z", "rar", "jar",
+            "docx", "xlsx", "pptx", "odt", "ods", "epub");
+
+    private int level = -1; // java.util.zip.Deflater level 0-9, -1 for the default (6)
+    private Set<String> storeExtensions = new LinkedHashSet<>(DEFAULT_STORE_EXTENSIONS);
+    private boolean autoDetect = true; // Trial-deflate the start of other files and store them if it doesn't pay off
+    private int sampleSize = 64 * 1024;
+    private double minSavings = 0.05; // Sample must shrink by at least this fraction to be deflated
+
+    public static CompressionPolicy defaults() {
+        return new CompressionPolicy();
+    }
+
+    /**
+     * @return true if the file name has one of the configured store extensions (case-insensitive)
+     */
+    public boolean isStoredByExtension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot == fileName.length() - 1 || storeExtensions == null) {
+            return false;
+        }
+        String extension = fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return storeExtensions.contains(extension);
+    }
+
+    public void setStoreExtensions(Set<String> storeExtensions) {
+        Set<String> normalized = new LinkedHashSet<>();
+        if (storeExtensions != null) {
+            for (String extension : storeExtensions) {
+                String value = extension.trim().toLowerCase(Locale.ROOT);
+                normalized.add(value.startsWith(".") ? value.substring(1) : value);
+            }
+        }
+        this.storeExtensions = normalized;
+    }
+}
@@ -0,0 +1,40 @@
+package com.alexoderdenge.backup_service.model;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Manifest of one dedup backup run: every file of the source with the hashes of the chunks it is made of.
+ * Stored gzipped under {@code snapshots/} in the repository; the chunks themselves live in the pack files.
+ */
+@Data
+public class DedupSnapshot {
+
+    private String id;
+    private String localPath;
+    private String repository;
+    private String createdAt;
+    private List<Node> nodes = new ArrayList<>();
+
+    private long fileCount;
+    private long totalBytes;
+    private long newChunks;
+    private long reusedChunks;
+    private long uploadedBytes; // Pack bytes uploaded by this run
+
+    @Data
+    public static class Node {
+        public static final String FILE = "file";
+        public static final String DIRECTORY = "dir";
+        public static final String SYMLINK = "symlink";
+
+        private String path; // Relative to the source, '/' separated; the file name for a single-file source
+        private String type;
+        private long size;
+        private long modifiedMillis;
+        private String linkTarget;
+        private List<String> chunks = new ArrayList<>(); // Hex SHA-256 of each chunk, in order
+    }
+}
@@ -0,0 +1,33 @@
+package com.alexoderdenge.backup_service.model;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry results from the run journal matching a query, with aggregates over all of them.
+ */
+@Data
+public class RunHistory {
+
+    private Summary summary = new Summary();
+    private List<RunRecord> records = new ArrayList<>(); // Most recent first, at most the requested limit
+
+    /**
+     * Aggregates over every matching record, including those beyond the limit.
+     * Durations only count entries that were not skipped, which finish in no time.
+     */
+    @Data
+    public static class Summary {
+        private long runs;
+        private long succeeded;
+        private long skipped;
+        private long failed;
+        private long sourceBytes;
+        private long uploadedBytes;
+        private Long p50DurationMillis;
+        private Long p95DurationMillis;
+        private Long maxDurationMillis;
+    }
+}
@@ -0,0 +1,18 @@
+package com.alexoderdenge.backup_service.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of the run journal: the result of one entry in one backup run.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RunRecord {
+
+    private String runId;   // ID of the backup job the entry ran in
+    private String trigger; // What submitted the job, e.g. "api" or "schedule"
+    private BackupEntryResult result;
+}
@@ -0,0 +1,24 @@
+package com.alexoderdenge.backup_service.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Summary of a source tree, and of the settings it was archived with, used to detect whether anything
+ * changed since the last successful backup.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SourceFingerprint {
+    private long fileCount;
+    private long totalSize;
+    private long maxModifiedMillis;
+    private String digest; // Order-independent hash over every file's relative path, size and mtime
+    private String settings; // Hash of the archive format, compression policy and volume size, null if unknown
+
+    public SourceFingerprint(long fileCount, long totalSize, long maxModifiedMillis, String digest) {
+        this(fileCount, totalSize, maxModifiedMillis, digest, null);
+    }
+}
@@ -0,0 +1,32 @@
+package com.alexoderdenge.backup_service.model;
+
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * Latest transfer statistics reported by rclone for one upload destination.
+ */
+@Data
+public class TransferProgress {
+
+    public enum State {
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    private String destination;
+    private State state = State.RUNNING;
+    private long bytes;
+    private long totalBytes;
+    private double bytesPerSecond;
+    /** Estimated seconds remaining, null while rclone cannot estimate it yet. */
+    private Long etaSeconds;
+    private long transfers;
+    private long totalTransfers;
+    private long errors;
+    private String lastError;
+    private Instant startedAt;
+    private Instant updatedAt;
+}
@@ -0,0 +1,27 @@
+package com.alexoderdenge.backup_service.model;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes a split archive: its volumes in order with their sizes and hashes. Uploaded next to the volumes
+ * after all of them, so it marks the set as complete and tells which volumes belong to the latest run.
+ */
+@Data
+public class VolumeManifest {
+
+    private String archive; // Cloud path of the archive the volumes make up when concatenated
+    private long volumeSize;
+    private long totalSize;
+    private String createdAt;
+    private List<Volume> volumes = new ArrayList<>();
+
+    @Data
+    public static class Volume {
+        private String name;
+        private long size;
+        private String sha256;
+    }
+}
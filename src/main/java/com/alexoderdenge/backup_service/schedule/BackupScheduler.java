@@ -1,36 +1,222 @@
 package com.alexoderdenge.backup_service.schedule;
 
-import com.alexoderdenge.backup_service.service.BackupService;
-import lombok.RequiredArgsConstructor;
+import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.model.BackupJob;
+import com.alexoderdenge.backup_service.service.BackupJobService;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.random.RandomGenerator;
 
+/**
+ * Starts every backup entry on its own schedule: its {@code schedule} cron expression or {@code interval},
+ * or the global {@code scheduleCron} if it has neither.
+ * <p>
+ * All entries wait in one priority queue ordered by their next start, served by a single thread that
+ * sleeps until the head is due. Entries due at the same moment are submitted together as one job. Each
+ * start is delayed by a random jitter of up to {@code jitter}, so entries sharing a schedule don't all
+ * hit the disk and uplink at the same second. The jitter is not carried over: the next start is computed
+ * from the scheduled time, so it doesn't drift.
+ * <p>
+ * An entry whose previous scheduled job has not finished yet skips its turn instead of queueing twice.
+ */
 @Component
-@RequiredArgsConstructor
 @Slf4j
 public class BackupScheduler {
 
-    private final BackupService backupService;
+    /**
+     * Longest sleep, so a jump of the wall clock (suspend, NTP) delays a start by at most this much.
+     */
+    private static final Duration MAX_SLEEP = Duration.ofMinutes(1);
 
-    @Value("${config:classpath:backup-config.json}")
-    private String configPath;
+    private final BackupJobService backupJobService;
+    private final Clock clock;
+    private final RandomGenerator random; // Only used under the scheduler's lock
+    private final PriorityQueue<Slot> queue = new PriorityQueue<>(Comparator.comparing(slot -> slot.startAt));
+    private Thread thread;
+    private volatile boolean running;
 
-    @Value("${rclone.config-path:}")
-    private String rcloneConfigPath;
+    /**
+     * @param defaultCron schedule of entries without their own if the config has no {@code scheduleCron}
+     */
+    @Autowired
+    public BackupScheduler(BackupJobService backupJobService, BackupConfig config,
+                           @Value("${backup.schedule-cron:0 0 0 * * *}") String defaultCron) {
+        this(backupJobService, config, defaultCron, Clock.systemDefaultZone(), new Random());
+    }
+
+    BackupScheduler(BackupJobService backupJobService, BackupConfig config, String defaultCron,
+                    Clock clock, RandomGenerator random) {
+        this.backupJobService = backupJobService;
+        this.clock = clock;
+        this.random = random;
+
+        String globalCron = config.getScheduleCron() != null && !config.getScheduleCron().isBlank()
+                ? config.getScheduleCron() : defaultCron;
+        Duration globalJitter = parseJitter(config.getScheduleJitter());
+        Instant now = clock.instant();
+        for (BackupConfig.BackupEntry entry : config.getBackupEntries()) {
+            boolean ownSchedule = (entry.getSchedule() != null && !entry.getSchedule().isBlank())
+                    || (entry.getInterval() != null && !entry.getInterval().isBlank());
+            EntrySchedule schedule;
+            try {
+                schedule = ownSchedule
+                        ? EntrySchedule.parse(entry.getSchedule(), entry.getInterval(), clock.getZone())
+                        : EntrySchedule.parse(globalCron, null, clock.getZone());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid schedule for " + entry.getLocalPath() + ": " + e.getMessage(), e);
+            }
+            if (schedule == null) {
+                log.info("🕒 {} only runs on demand", entry.getLocalPath());
+                continue;
+            }
+            Duration jitter = entry.getJitter() != null && !entry.getJitter().isBlank()
+                    ? parseJitter(entry.getJitter()) : globalJitter;
+            Slot slot = new Slot(entry, schedule, jitter);
+            if (slot.advance(now)) {
+                queue.add(slot);
+                log.info("🕒 Next backup of {} at {}", entry.getLocalPath(), slot.startAt);
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (thread != null || queue.isEmpty()) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::loop, "backup-scheduler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Submits every entry that is due and schedules its next start.
+     *
+     * @return when to look again
+     */
+    synchronized Instant runDue() {
+        Instant now = clock.instant();
+        List<Slot> due = new ArrayList<>();
+        while (!queue.isEmpty() && !queue.peek().startAt.isAfter(now)) {
+            due.add(queue.poll());
+        }
+
+        List<Slot> submitted = new ArrayList<>();
+        for (Slot slot : due) {
+            if (slot.lastJob != null && slot.lastJob.getFinishedAt() == null) {
+                log.warn("⏭️ Skipping scheduled backup of {}: its previous job {} has not finished yet",
+                        slot.entry.getLocalPath(), slot.lastJob.getId());
+            } else {
+                submitted.add(slot);
+            }
+            if (slot.advance(now)) {
+                queue.add(slot);
+            }
+        }
+
+        if (!submitted.isEmpty()) {
+            log.info("🕒 Scheduled backup of {} entries triggered at {}", submitted.size(), now);
+            BackupJob job = backupJobService.submit(false, "schedule",
+                    submitted.stream().map(slot -> slot.entry).toList());
+            submitted.forEach(slot -> slot.lastJob = job);
+        }
+
+        Instant wakeUp = now.plus(MAX_SLEEP);
+        return queue.isEmpty() || queue.peek().startAt.isAfter(wakeUp) ? wakeUp : queue.peek().startAt;
+    }
+
+    private void loop() {
+        while (running) {
+            Instant next;
+            try {
+                next = runDue();
+            } catch (RuntimeException e) {
+                log.error("Scheduled backup failed to start", e);
+                next = clock.instant().plus(MAX_SLEEP);
+            }
+            synchronized (this) {
+                long millis = Duration.between(clock.instant(), next).toMillis();
+                if (running && millis > 0) {
+                    try {
+                        wait(millis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private static Duration parseJitter(String jitter) {
+        if (jitter == null || jitter.isBlank()) {
+            return Duration.ZERO;
+        }
+        Duration parsed = DurationStyle.detectAndParse(jitter.trim());
+        if (parsed.isNegative()) {
+            throw new IllegalArgumentException("Schedule jitter cannot be negative: " + jitter);
+        }
+        return parsed;
+    }
+
+    /**
+     * An entry in the queue with its next scheduled and jittered start.
+     */
+    private final class Slot {
+        private final BackupConfig.BackupEntry entry;
+        private final EntrySchedule schedule;
+        private final Duration jitter;
+        private Instant scheduledAt; // Start according to the schedule
+        private Instant startAt;     // Scheduled start plus jitter
+        private BackupJob lastJob;
+
+        private Slot(BackupConfig.BackupEntry entry, EntrySchedule schedule, Duration jitter) {
+            this.entry = entry;
+            this.schedule = schedule;
+            this.jitter = jitter;
+        }
 
-    // Run every 24h (midnight) by default
-    @Scheduled(cron = "${backup.schedule-cron:0 0 0 * * *}")
-    public void runScheduledBackup() {
-        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-        log.info("🕒 Scheduled backup triggered at: {}", timestamp);
-        log.info("📁 Using backup config: {}", configPath);
-        log.info("🔧 Using rclone config: {}", rcloneConfigPath.isEmpty() ? "default" : rcloneConfigPath);
-        
-        backupService.runBackup();
+        /**
+         * Moves to the next scheduled start after the current one; starts missed in the meantime are skipped.
+         *
+         * @return false if the schedule has no further start
+         */
+        private boolean advance(Instant now) {
+            Instant next = scheduledAt == null ? null : schedule.next(scheduledAt);
+            if (next == null || !next.isAfter(now)) {
+                next = schedule.next(now);
+            }
+            if (next == null) {
+                return false;
+            }
+            scheduledAt = next;
+            long jitterMillis = jitter.toMillis();
+            startAt = jitterMillis > 0 ? next.plusMillis(random.nextLong(jitterMillis + 1)) : next;
+            return true;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,56 @@
+package com.alexoderdenge.backup_service.schedule;
+
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.scheduling.support.CronExpression;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * When a backup entry runs: a cron expression or a fixed interval.
+ */
+interface EntrySchedule {
+
+    /**
+     * Spring's marker for a disabled cron schedule.
+     */
+    String DISABLED = "-";
+
+    /**
+     * @return the first start strictly after the given time, or null if there is none
+     */
+    Instant next(Instant after);
+
+    /**
+     * Parses the schedule of an entry. Cron expressions take Spring's six fields (with seconds); classic
+     * five-field expressions are accepted too and run at second 0.
+     *
+     * @param cron     cron expression, used if no interval is given
+     * @param interval e.g. {@code "6h"} or {@code "PT6H"}
+     * @return the schedule, or null if the entry only runs on demand
+     * @throws IllegalArgumentException if the cron expression or interval cannot be parsed
+     */
+    static EntrySchedule parse(String cron, String interval, ZoneId zone) {
+        if (interval != null && !interval.isBlank()) {
+            Duration period = DurationStyle.detectAndParse(interval.trim());
+            if (period.isNegative() || period.isZero()) {
+                throw new IllegalArgumentException("Schedule interval must be positive: " + interval);
+            }
+            return after -> after.plus(period);
+        }
+        if (cron == null || cron.isBlank() || DISABLED.equals(cron.trim())) {
+            return null;
+        }
+        String expression = cron.trim();
+        if (expression.split("\\s+").length == 5) {
+            expression = "0 " + expression;
+        }
+        CronExpression parsed = CronExpression.parse(expression);
+        return after -> {
+            ZonedDateTime next = parsed.next(after.atZone(zone));
+            return next == null ? null : next.toInstant();
+        };
+    }
+}
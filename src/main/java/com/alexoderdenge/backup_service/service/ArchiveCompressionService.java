@@ -0,0 +1,102 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.ArchiveFormat;
+import com.alexoderdenge.backup_service.model.CompressionPolicy;
+import com.alexoderdenge.backup_service.service.exception.CompressionException;
+import com.alexoderdenge.backup_service.util.SourceTree;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Routes compression to the engine of the entry's archive format: ZIP archives go to the configured
+ * ZIP engine (sequential or parallel), {@code .tar.gz} archives to {@link TarGzCompressionService}.
+ */
+@Service
+@Primary
+@Slf4j
+@RequiredArgsConstructor
+public class ArchiveCompressionService implements CompressionService {
+
+    private final ZipCompressionService zipEngine;
+    private final TarGzCompressionService tarGzEngine;
+
+    @Override
+    public Path compressToZip(Path sourcePath, Path outputDirectory, CompressionPolicy policy)
+            throws CompressionException {
+        return zipEngine.compressToZip(sourcePath, outputDirectory, policy);
+    }
+
+    @Override
+    public void compressToStream(Path sourcePath, OutputStream outputStream, CompressionPolicy policy)
+            throws CompressionException {
+        zipEngine.compressToStream(sourcePath, outputStream, policy);
+    }
+
+    @Override
+    public Path compress(Path sourcePath, Path outputDirectory, ArchiveFormat format, CompressionPolicy policy)
+            throws CompressionException {
+        return switch (format) {
+            case ZIP -> zipEngine.compressToZip(sourcePath, outputDirectory, policy);
+            case TAR_GZ -> tarGzEngine.compress(sourcePath, outputDirectory, policy);
+        };
+    }
+
+    @Override
+    public void compressToStream(Path sourcePath, OutputStream outputStream, ArchiveFormat format,
+                                 CompressionPolicy policy) throws CompressionException {
+        switch (format) {
+            case ZIP -> zipEngine.compressToStream(sourcePath, outputStream, policy);
+            case TAR_GZ -> tarGzEngine.compressToStream(sourcePath, outputStream, policy);
+        }
+    }
+
+    @Override
+    public Path compress(SourceTree source, Path outputDirectory, ArchiveFormat format, CompressionPolicy policy)
+            throws CompressionException {
+        return switch (format) {
+            case ZIP -> zipEngine.compressToZip(source, outputDirectory, policy);
+            case TAR_GZ -> tarGzEngine.compress(source, outputDirectory, policy);
+        };
+    }
+
+    @Override
+    public void compressToStream(SourceTree source, OutputStream outputStream, ArchiveFormat format,
+                                 CompressionPolicy policy) throws CompressionException {
+        switch (format) {
+            case ZIP -> zipEngine.compressToStream(source, outputStream, policy);
+            case TAR_GZ -> tarGzEngine.compressToStream(source, outputStream, policy);
+        }
+    }
+
+    @Override
+    public void validateCloudPathForCompression(String cloudPath, boolean isCompressionEnabled) {
+        zipEngine.validateCloudPathForCompression(cloudPath, isCompressionEnabled);
+    }
+
+    @Override
+    public void validateCloudPathForCompression(String cloudPath, boolean isCompressionEnabled, ArchiveFormat format) {
+        if (format == ArchiveFormat.ZIP) {
+            zipEngine.validateCloudPathForCompression(cloudPath, isCompressionEnabled);
+            return;
+        }
+        if (cloudPath == null || cloudPath.trim().isEmpty()) {
+            throw new IllegalArgumentException("Cloud path cannot be null or empty");
+        }
+
+        String lowerCasePath = cloudPath.toLowerCase(Locale.ROOT);
+        if (isCompressionEnabled && !lowerCasePath.endsWith(format.getExtension())) {
+            throw new IllegalArgumentException(
+                "Cloud path must end with '" + format.getExtension() + "' when compression is enabled. Got: " + cloudPath);
+        }
+
+        if (!isCompressionEnabled && lowerCasePath.endsWith(format.getExtension())) {
+            log.warn("⚠️ Cloud path ends with '{}' but compression is disabled for: {}", format.getExtension(), cloudPath);
+        }
+    }
+}
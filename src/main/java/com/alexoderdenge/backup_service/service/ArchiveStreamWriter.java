@@ -0,0 +1,21 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.service.exception.CompressionException;
+
+import java.io.OutputStream;
+
+/**
+ * Produces archive content directly into an output stream, e.g. the stdin of an uploader process.
+ */
+@FunctionalInterface
+public interface ArchiveStreamWriter {
+
+    /**
+     * Writes the complete archive into the given stream. The stream must not be closed by the writer;
+     * the caller decides whether the upload is committed or aborted.
+     *
+     * @param outputStream the stream to write the archive to
+     * @throws CompressionException if the archive cannot be produced
+     */
+    void writeTo(OutputStream outputStream) throws CompressionException;
+}
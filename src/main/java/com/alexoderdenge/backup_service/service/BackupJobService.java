@@ -0,0 +1,320 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.model.BackupEntryResult;
+import com.alexoderdenge.backup_service.model.BackupJob;
+import com.alexoderdenge.backup_service.model.DedupSnapshot;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs backups as asynchronous jobs on a dedicated executor, so callers (REST requests, the scheduler)
+ * get a job ID back immediately instead of blocking for the whole run.
+ * <p>
+ * Up to {@code max-concurrent} jobs run at the same time, as long as they back up different entries: an
+ * hourly entry does not wait for a long nightly job of other entries. A job that shares an entry with a
+ * running or earlier queued job waits for it, since overlapping runs would upload the same sources twice;
+ * a job of all entries therefore runs alone. Jobs that wait start in submission order.
+ */
+@Service
+@Slf4j
+public class BackupJobService {
+
+    private final BackupService backupService;
+    private final RunJournal runJournal;
+    private final int historySize;
+    private final int maxConcurrentJobs;
+    private final ExecutorService executor;
+    private final Map<String, BackupJob> jobs = new LinkedHashMap<>();
+    private final List<PendingJob> waiting = new ArrayList<>(); // Guarded by itself, like running
+    private final List<PendingJob> running = new ArrayList<>();
+
+    public BackupJobService(BackupService backupService, RunJournal runJournal, int historySize) {
+        this(backupService, runJournal, historySize, 2);
+    }
+
+    @Autowired
+    public BackupJobService(BackupService backupService, RunJournal runJournal,
+                            @Value("${backup.jobs.history-size:100}") int historySize,
+                            @Value("${backup.jobs.max-concurrent:2}") int maxConcurrentJobs) {
+        this.backupService = backupService;
+        this.runJournal = runJournal;
+        this.historySize = Math.max(1, historySize);
+        this.maxConcurrentJobs = Math.max(1, maxConcurrentJobs);
+        AtomicInteger counter = new AtomicInteger(1);
+        this.executor = Executors.newFixedThreadPool(this.maxConcurrentJobs, runnable -> {
+            Thread thread = new Thread(runnable, "backup-job-runner-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a backup run of all entries.
+     *
+     * @param force   when true, unchanged compressed entries are backed up again
+     * @param trigger what submitted the job, e.g. "api" or "schedule"
+     * @return the queued job; its state is updated in place while it runs
+     */
+    public BackupJob submit(boolean force, String trigger) {
+        return submit(force, trigger, null);
+    }
+
+    /**
+     * Queues a backup run of some entries.
+     *
+     * @param entries the entries to back up, null for all
+     * @return the queued job; its state is updated in place while it runs
+     */
+    public BackupJob submit(boolean force, String trigger, List<BackupConfig.BackupEntry> entries) {
+        BackupJob job = new BackupJob(UUID.randomUUID().toString(), trigger, force);
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+            evictFinishedJobs();
+        }
+        log.info("📥 Queued backup job {} (trigger: {}, force: {})", job.getId(), trigger, force);
+        Set<String> claims = null;
+        if (entries != null) {
+            claims = new HashSet<>();
+            for (BackupConfig.BackupEntry entry : entries) {
+                claims.add(claim(entry));
+            }
+        }
+        enqueue(new PendingJob(claims, () -> runJob(job, entries)));
+        return job;
+    }
+
+    /**
+     * Queues the upload of a watched entry, so it waits for scheduled runs of the same entry and they wait
+     * for it. Only the changed paths are uploaded, see {@link BackupService#syncChanges}; if there are none
+     * to go by, or they cannot be listed, the entry is backed up in full.
+     *
+     * @param changedPaths paths relative to the entry's directory, null to back up the whole entry
+     * @return completes with the job once it has finished
+     */
+    public CompletableFuture<BackupJob> submitWatchSync(BackupConfig.BackupEntry entry, Collection<String> changedPaths) {
+        BackupJob job = new BackupJob(UUID.randomUUID().toString(), "watch", false);
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+            evictFinishedJobs();
+        }
+        log.debug("📥 Queued watch job {} for {} ({} changed paths)", job.getId(), entry.getLocalPath(),
+                changedPaths == null ? "all" : changedPaths.size());
+        CompletableFuture<BackupJob> finished = new CompletableFuture<>();
+        enqueue(new PendingJob(Set.of(claim(entry)), () -> {
+            try {
+                run(job, () -> {
+                    Consumer<BackupEntryResult> onEntryCompleted = recorder(job);
+                    if (changedPaths == null || !backupService.syncChanges(entry, changedPaths, onEntryCompleted)) {
+                        backupService.runBackup(List.of(entry), false, onEntryCompleted);
+                    }
+                });
+            } finally {
+                finished.complete(job);
+            }
+        }));
+        return finished;
+    }
+
+    /**
+     * Queues the restore of a dedup snapshot. The job reports the restore as its single entry.
+     *
+     * @param target the local directory to restore into, see {@link BackupService#resolveRestoreTarget}
+     * @return the queued job; its state is updated in place while it runs
+     */
+    public BackupJob submitRestore(String cloudPath, String snapshotId, String target) {
+        BackupJob job = new BackupJob(UUID.randomUUID().toString(), "restore", false);
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+            evictFinishedJobs();
+        }
+        log.info("📥 Queued restore job {} (snapshot {} from {} to {})", job.getId(), snapshotId, cloudPath, target);
+        enqueue(new PendingJob(Set.of("restore -> " + target), () -> run(job, () -> {
+            BackupEntryResult result = new BackupEntryResult();
+            result.setLocalPath(target);
+            result.setCloudPath(cloudPath);
+            result.setStartedAt(Instant.now());
+            try {
+                DedupSnapshot restored = backupService.restoreSnapshot(cloudPath, snapshotId, target);
+                job.getEntries().add(result.succeeded(restored.getTotalBytes(),
+                        "Restored " + restored.getFileCount() + " files of snapshot " + snapshotId));
+            } catch (Exception e) {
+                job.getEntries().add(result.failed(e.getMessage()));
+                throw e;
+            }
+        })));
+        return job;
+    }
+
+    public Optional<BackupJob> getJob(String id) {
+        synchronized (jobs) {
+            return Optional.ofNullable(jobs.get(id));
+        }
+    }
+
+    /**
+     * @return the retained jobs, most recent first
+     */
+    public List<BackupJob> getJobs() {
+        List<BackupJob> result;
+        synchronized (jobs) {
+            result = new ArrayList<>(jobs.values());
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Backup job runner did not stop within 30 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(PendingJob pending) {
+        synchronized (waiting) {
+            waiting.add(pending);
+            dispatch();
+        }
+    }
+
+    /**
+     * Starts every waiting job that fits: below the concurrency limit, and sharing no entry with a running
+     * job or with a job queued before it. Called with the lock on {@link #waiting} held.
+     */
+    private void dispatch() {
+        if (executor.isShutdown()) {
+            return;
+        }
+        List<Set<String>> taken = new ArrayList<>();
+        running.forEach(pending -> taken.add(pending.claims()));
+        var iterator = waiting.iterator();
+        while (iterator.hasNext() && running.size() < maxConcurrentJobs) {
+            PendingJob pending = iterator.next();
+            if (taken.stream().anyMatch(claims -> overlaps(claims, pending.claims()))) {
+                taken.add(pending.claims()); // Later jobs with the same entries keep waiting behind it
+                continue;
+            }
+            iterator.remove();
+            running.add(pending);
+            taken.add(pending.claims());
+            executor.execute(() -> {
+                try {
+                    pending.task().run();
+                } finally {
+                    synchronized (waiting) {
+                        running.remove(pending);
+                        dispatch();
+                    }
+                }
+            });
+        }
+    }
+
+    private static String claim(BackupConfig.BackupEntry entry) {
+        return entry.getLocalPath() + " -> " + entry.getCloudPath();
+    }
+
+    /**
+     * @return whether two jobs back up a common entry; null claims stand for all entries
+     */
+    private static boolean overlaps(Set<String> first, Set<String> second) {
+        return first == null || second == null || !Collections.disjoint(first, second);
+    }
+
+    private void runJob(BackupJob job, List<BackupConfig.BackupEntry> entries) {
+        run(job, () -> {
+            Consumer<BackupEntryResult> onEntryCompleted = recorder(job);
+            if (entries == null) {
+                backupService.runBackup(job.isForce(), onEntryCompleted);
+            } else {
+                backupService.runBackup(entries, job.isForce(), onEntryCompleted);
+            }
+        });
+    }
+
+    /**
+     * @return adds each entry's result to the job and to the run journal
+     */
+    private Consumer<BackupEntryResult> recorder(BackupJob job) {
+        return result -> {
+            job.getEntries().add(result);
+            runJournal.record(job, result);
+        };
+    }
+
+    private void run(BackupJob job, JobTask task) {
+        job.setStartedAt(Instant.now());
+        job.setStatus(BackupJob.Status.RUNNING);
+        log.info("▶️ Starting job {} (trigger: {})", job.getId(), job.getTrigger());
+        BackupJob.Status finalStatus;
+        try {
+            task.run();
+            finalStatus = BackupJob.Status.COMPLETED;
+        } catch (Exception e) {
+            log.error("Job {} failed", job.getId(), e);
+            job.setError(e.getMessage());
+            finalStatus = BackupJob.Status.FAILED;
+        }
+        // Finish time first, so a poller that sees a final status also sees when it finished
+        job.setFinishedAt(Instant.now());
+        job.setStatus(finalStatus);
+        log.info("🏁 Job {} finished with status {}: {} succeeded, {} skipped, {} failed in {} ms",
+                job.getId(), job.getStatus(), job.getSucceededEntries(), job.getSkippedEntries(),
+                job.getFailedEntries(), job.getDurationMillis());
+    }
+
+    /**
+     * A job waiting for, or holding, a runner thread.
+     *
+     * @param claims the entries it backs up, or null for all of them
+     */
+    private record PendingJob(Set<String> claims, Runnable task) {
+    }
+
+    @FunctionalInterface
+    private interface JobTask {
+        void run() throws Exception;
+    }
+
+    /**
+     * Drops the oldest finished jobs beyond the history size. Queued and running jobs are always kept.
+     */
+    private void evictFinishedJobs() {
+        var iterator = jobs.values().iterator();
+        int excess = jobs.size() - historySize;
+        while (excess > 0 && iterator.hasNext()) {
+            BackupJob job = iterator.next();
+            if (job.getFinishedAt() != null) {
+                iterator.remove();
+                excess--;
+            }
+        }
+    }
+}
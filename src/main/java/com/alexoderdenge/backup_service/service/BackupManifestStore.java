@@ -0,0 +1,175 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.ArchiveFormat;
+import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.model.CompressionPolicy;
+import com.alexoderdenge.backup_service.model.SourceFingerprint;
+import com.alexoderdenge.backup_service.util.SourceTree;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Persists a small manifest per backup entry with the fingerprint of its source at the last
+ * successful backup, so unchanged sources can skip compression and upload entirely.
+ */
+@Component
+@Slf4j
+public class BackupManifestStore {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path manifestDirectory;
+
+    public BackupManifestStore(@Value("${backup.state-dir:${user.home}/.config/backup-service/state}") String stateDirectory) {
+        this.manifestDirectory = Paths.get(stateDirectory).resolve("manifests");
+    }
+
+    /**
+     * Scans the source and computes its fingerprint. The digest does not depend on the order in which
+     * files are visited, so it needs no sorting and constant memory.
+     *
+     * @param sourcePath the file or directory to fingerprint
+     * @return the fingerprint of the source
+     * @throws IOException if the source cannot be scanned
+     */
+    public SourceFingerprint computeFingerprint(Path sourcePath) throws IOException {
+        return computeFingerprint(SourceTree.live(sourcePath));
+    }
+
+    /**
+     * Computes the fingerprint from the entries of a source tree, e.g. a
+     * {@link com.alexoderdenge.backup_service.util.SourceManifest} scanned before.
+     */
+    public SourceFingerprint computeFingerprint(SourceTree source) throws IOException {
+        MessageDigest sha256 = newDigest();
+        long[] state = new long[5]; // fileCount, totalSize, maxModified, digestSum, digestXor
+
+        source.forEach(entry -> {
+            if (entry.isDirectory()) {
+                return;
+            }
+            BasicFileAttributes attrs = entry.attributes();
+            String relativePath = entry.relativePath();
+            long modified = attrs.lastModifiedTime().toMillis();
+
+            sha256.update(relativePath.getBytes(StandardCharsets.UTF_8));
+            sha256.update(ByteBuffer.allocate(16).putLong(attrs.size()).putLong(modified).array());
+            long recordHash = ByteBuffer.wrap(sha256.digest()).getLong();
+
+            state[0]++;
+            state[1] += attrs.size();
+            state[2] = Math.max(state[2], modified);
+            state[3] += recordHash;
+            state[4] ^= recordHash;
+        });
+
+        String digest = HexFormat.of().toHexDigits(state[3]) + HexFormat.of().toHexDigits(state[4]);
+        return new SourceFingerprint(state[0], state[1], state[2], digest);
+    }
+
+    /**
+     * Computes the fingerprint of the entry's source together with the settings that shape its archive,
+     * so changing the format, the compression policy or the volume size backs the entry up again even if
+     * the source is unchanged.
+     */
+    public SourceFingerprint computeFingerprint(SourceTree source, BackupConfig.BackupEntry entry) throws IOException {
+        SourceFingerprint fingerprint = computeFingerprint(source);
+        fingerprint.setSettings(settingsDigest(entry));
+        return fingerprint;
+    }
+
+    /**
+     * @return the fingerprint recorded at the last successful backup of this entry, if any
+     */
+    public Optional<SourceFingerprint> loadFingerprint(BackupConfig.BackupEntry entry) {
+        Path manifestFile = manifestFile(entry);
+        if (!Files.exists(manifestFile)) {
+            return Optional.empty();
+        }
+        try {
+            EntryManifest manifest = objectMapper.readValue(manifestFile.toFile(), EntryManifest.class);
+            return Optional.ofNullable(manifest.getFingerprint());
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable backup manifest {}: {}", manifestFile, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Records the fingerprint of a successful backup. The file is replaced atomically, so a crash
+     * never leaves a half-written manifest behind.
+     */
+    public void saveFingerprint(BackupConfig.BackupEntry entry, SourceFingerprint fingerprint) {
+        EntryManifest manifest = new EntryManifest();
+        manifest.setLocalPath(entry.getLocalPath());
+        manifest.setCloudPath(entry.getCloudPath());
+        manifest.setFingerprint(fingerprint);
+        manifest.setLastSuccessfulBackup(Instant.now().toString());
+
+        Path manifestFile = manifestFile(entry);
+        try {
+            Files.createDirectories(manifestDirectory);
+            Path tempFile = Files.createTempFile(manifestDirectory, "manifest-", ".tmp");
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(tempFile.toFile(), manifest);
+            Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Saved backup manifest {}", manifestFile);
+        } catch (IOException e) {
+            log.warn("Failed to save backup manifest {}: {}", manifestFile, e.getMessage());
+        }
+    }
+
+    static String settingsDigest(BackupConfig.BackupEntry entry) {
+        CompressionPolicy policy = entry.getCompression() != null ? entry.getCompression() : CompressionPolicy.defaults();
+        ArchiveFormat format = entry.getFormat() != null ? entry.getFormat() : ArchiveFormat.ZIP;
+        Set<String> storeExtensions = policy.getStoreExtensions() != null ? new TreeSet<>(policy.getStoreExtensions()) : Set.of();
+        String settings = "dedup=" + entry.isDedup()
+                + "\nformat=" + format.getId()
+                + "\nvolumeSize=" + entry.getVolumeSizeBytes()
+                + "\nlevel=" + policy.getLevel()
+                + "\nstoreExtensions=" + String.join(",", storeExtensions)
+                + "\nautoDetect=" + policy.isAutoDetect()
+                + "\nsampleSize=" + policy.getSampleSize()
+                + "\nminSavings=" + policy.getMinSavings();
+        byte[] hash = newDigest().digest(settings.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(hash, 0, 16);
+    }
+
+    private Path manifestFile(BackupConfig.BackupEntry entry) {
+        byte[] key = newDigest().digest((entry.getLocalPath() + "\n" + entry.getCloudPath()).getBytes(StandardCharsets.UTF_8));
+        return manifestDirectory.resolve(HexFormat.of().formatHex(key, 0, 16) + ".json");
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @Data
+    public static class EntryManifest {
+        private String localPath;
+        private String cloudPath;
+        private SourceFingerprint fingerprint;
+        private String lastSuccessfulBackup;
+    }
+}
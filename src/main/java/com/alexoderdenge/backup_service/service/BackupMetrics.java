@@ -0,0 +1,109 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.BackupEntryResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Micrometer instrumentation of the backup pipeline. Every meter is tagged with the entry
+ * (its local path) and the remote, so dashboards can break the run time down per stage and entry.
+ * Exposed on {@code /actuator/prometheus}.
+ */
+@Component
+public class BackupMetrics {
+
+    public enum Stage {
+        VALIDATION,
+        SCAN,
+        HASH,
+        COMPRESSION,
+        UPLOAD,
+        CLEANUP;
+
+        String tagValue() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final String TAG_ENTRY = "entry";
+    private static final String TAG_REMOTE = "remote";
+
+    private final MeterRegistry registry;
+    private final AtomicInteger entriesInFlight = new AtomicInteger();
+
+    public BackupMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("backup.entries.in.flight", entriesInFlight, AtomicInteger::get)
+                .description("Backup entries currently being processed")
+                .register(registry);
+    }
+
+    public void entryStarted() {
+        entriesInFlight.incrementAndGet();
+    }
+
+    public void entryFinished(String entry, String remote, BackupEntryResult.Status status) {
+        entriesInFlight.decrementAndGet();
+        Counter.builder("backup.entries")
+                .description("Processed backup entries by outcome")
+                .tags(TAG_ENTRY, entry, TAG_REMOTE, remote, "status", status.name().toLowerCase(Locale.ROOT))
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Records how long a pipeline stage took for an entry.
+     */
+    public void recordStage(Stage stage, String entry, String remote, boolean success, long durationNanos) {
+        Timer.builder("backup.stage.duration")
+                .description("Time spent per backup pipeline stage")
+                .tags(TAG_ENTRY, entry, TAG_REMOTE, remote,
+                        "stage", stage.tagValue(), "outcome", success ? "success" : "failure")
+                .register(registry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the source and archive sizes of a compressed entry, and their ratio (archive / source).
+     */
+    public void recordCompression(String entry, String remote, long inputBytes, long outputBytes) {
+        DistributionSummary.builder("backup.compression.input")
+                .description("Uncompressed source size")
+                .baseUnit("bytes")
+                .tags(TAG_ENTRY, entry, TAG_REMOTE, remote)
+                .register(registry)
+                .record(inputBytes);
+        DistributionSummary.builder("backup.compression.output")
+                .description("Compressed archive size")
+                .baseUnit("bytes")
+                .tags(TAG_ENTRY, entry, TAG_REMOTE, remote)
+                .register(registry)
+                .record(outputBytes);
+        if (inputBytes > 0) {
+            DistributionSummary.builder("backup.compression.ratio")
+                    .description("Compressed size divided by source size")
+                    .tags(TAG_ENTRY, entry, TAG_REMOTE, remote)
+                    .register(registry)
+                    .record((double) outputBytes / inputBytes);
+        }
+    }
+
+    /**
+     * Counts upload attempts by rclone exit code ("0" on success, "none" if the process never exited normally).
+     */
+    public void recordUploadExitCode(String entry, String remote, Integer exitCode) {
+        Counter.builder("backup.upload.exit")
+                .description("Upload attempts by rclone exit code")
+                .tags(TAG_ENTRY, entry, TAG_REMOTE, remote, "exit_code", exitCode == null ? "none" : exitCode.toString())
+                .register(registry)
+                .increment();
+    }
+}
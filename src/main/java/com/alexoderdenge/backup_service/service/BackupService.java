@@ -1,19 +1,59 @@
 package com.alexoderdenge.backup_service.service;
 
 import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.model.BackupEntryResult;
+import com.alexoderdenge.backup_service.model.ArchiveFormat;
+import com.alexoderdenge.backup_service.model.CompressionPolicy;
+import com.alexoderdenge.backup_service.model.DedupSnapshot;
+import com.alexoderdenge.backup_service.model.SourceFingerprint;
+import com.alexoderdenge.backup_service.model.VolumeManifest;
+import com.alexoderdenge.backup_service.service.exception.CircuitOpenException;
 import com.alexoderdenge.backup_service.service.exception.CompressionException;
+import com.alexoderdenge.backup_service.service.exception.InsufficientStagingSpaceException;
 import com.alexoderdenge.backup_service.service.exception.RemoteNotConfiguredException;
 import com.alexoderdenge.backup_service.service.exception.RcloneException;
 import com.alexoderdenge.backup_service.service.exception.RcloneNotInstalledException;
+import com.alexoderdenge.backup_service.util.BoundedExecutor;
+import com.alexoderdenge.backup_service.util.CountingOutputStream;
 import com.alexoderdenge.backup_service.util.FileUtils;
+import com.alexoderdenge.backup_service.util.KeyedTaskDispatcher;
+import com.alexoderdenge.backup_service.util.SourceManifest;
+import com.alexoderdenge.backup_service.util.VolumeOutputStream;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -21,11 +61,21 @@ import java.nio.file.Paths;
 public class BackupService {
 
     private static final String BACKUP_ROOT_FOLDER = "backup-service";
+    private static final DateTimeFormatter VOLUME_RUN_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmssSSS").withZone(ZoneOffset.UTC);
 
     private final CloudProvider cloudProvider;
     private final BackupConfig config;
     private final RcloneValidator rcloneValidator;
     private final CompressionService compressionService;
+    private final BackupManifestStore manifestStore;
+    private final BackupMetrics metrics;
+    private final DedupBackupService dedupBackupService;
+    private final StagingManager stagingManager;
+    private final RemoteCircuitBreaker circuitBreaker;
+    private final SyncIndexStore syncIndexStore;
+    private final FileHashCache fileHashCache;
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Value("${config:classpath:backup-config.json}")
     private String configPath;
@@ -33,43 +83,275 @@ public class BackupService {
     @Value("${rclone.config-path:}")
     private String rcloneConfigPath;
 
-    public void runBackup() {
-        logBackupStart();
+    @Value("${backup.volumes.parallel-uploads:2}")
+    private int volumeParallelUploads = 2;
 
-        if (!validateRcloneInstallation()) {
-            return; // Exit early if rclone is not properly installed
+    @Value("${backup.volumes.max-attempts:3}")
+    private int volumeMaxAttempts = 3;
+
+    @Value("${backup.volumes.retry-delay:PT5S}")
+    private Duration volumeRetryDelay = Duration.ofSeconds(5);
+
+    @Value("${backup.volumes.max-pending:2}")
+    private int volumeMaxPending = 2;
+
+    @Value("${backup.pipeline.validate-workers:2}")
+    private int pipelineValidateWorkers = 2;
+
+    @Value("${backup.pipeline.compress-workers:1}")
+    private int pipelineCompressWorkers = 1;
+
+    @Value("${backup.pipeline.cleanup-workers:1}")
+    private int pipelineCleanupWorkers = 1;
+
+    @Value("${backup.pipeline.queue-capacity:8}")
+    private int pipelineQueueCapacity = 8;
+
+    @Value("${backup.pipeline.max-staged-archives:2}")
+    private int pipelineMaxStagedArchives = 2;
+
+    @Value("${backup.manifest.max-entries-in-memory:100000}")
+    private int manifestMaxEntriesInMemory = 100_000;
+
+    @Value("${backup.sync.incremental:true}")
+    private boolean incrementalSync = true;
+
+    @Value("${backup.sync.full-sync-interval:P7D}")
+    private Duration fullSyncInterval = Duration.ofDays(7);
+
+    @Value("${backup.retry.max-attempts:3}")
+    private int retryMaxAttempts = 3;
+
+    @Value("${backup.retry.initial-delay:PT10S}")
+    private Duration retryInitialDelay = Duration.ofSeconds(10);
+
+    @Value("${backup.retry.max-delay:PT5M}")
+    private Duration retryMaxDelay = Duration.ofMinutes(5);
+
+    @Value("${backup.watch.batch-size:1000}")
+    private int watchBatchSize = 1000;
+
+    @Value("${backup.restore.root:${user.home}/backup-restore}")
+    private String restoreRoot = System.getProperty("user.home") + "/backup-restore";
+
+    public List<BackupEntryResult> runBackup() {
+        return runBackup(false);
+    }
+
+    public List<BackupEntryResult> runBackup(boolean force) {
+        return runBackup(force, result -> { });
+    }
+
+    /**
+     * Runs every backup entry.
+     *
+     * @param force when true, compressed entries are rebuilt and uploaded even if their source is unchanged
+     * @param onEntryCompleted notified with each entry's result as soon as that entry finishes
+     * @return the result of every entry, in configuration order
+     */
+    public List<BackupEntryResult> runBackup(boolean force, Consumer<BackupEntryResult> onEntryCompleted) {
+        return runBackup(config.getBackupEntries(), force, onEntryCompleted);
+    }
+
+    /**
+     * Runs the given backup entries, e.g. the ones that are due on their schedule.
+     *
+     * @return the result of every entry, in the given order
+     */
+    public List<BackupEntryResult> runBackup(List<BackupConfig.BackupEntry> entries, boolean force,
+                                             Consumer<BackupEntryResult> onEntryCompleted) {
+        logBackupStart(entries);
+        if (force) {
+            log.info("💪 Forced run: unchanged compressed entries will be backed up again");
         }
 
-        processBackupEntries();
+        List<BackupEntryResult> results;
+        String installationError = validateRcloneInstallation();
+        if (installationError != null) {
+            // Exit early if rclone is not properly installed
+            results = entries.stream()
+                    .map(entry -> BackupEntryResult.start(entry).failed(installationError))
+                    .toList();
+            results.forEach(onEntryCompleted);
+        } else {
+            results = processBackupEntries(entries, force, onEntryCompleted);
+            saveHashCache();
+        }
 
         log.info("=== Backup Task Completed ===");
+        return results;
+    }
+
+    /**
+     * Uploads just the given paths of a plain directory entry, e.g. the ones watch mode saw change: files
+     * are copied, vanished paths deleted on the remote, in batches of at most {@code backup.watch.batch-size}.
+     * Like any other upload it goes through the remote's circuit breaker and is recorded in the metrics,
+     * and the entry's sync index is brought up to date for the uploaded paths.
+     *
+     * @param paths paths relative to the entry's directory
+     * @return false, without uploading anything, if the paths cannot be written to a file list and the
+     *         entry has to be backed up in full; otherwise the entry's result was passed on
+     */
+    public boolean syncChanges(BackupConfig.BackupEntry entry, Collection<String> paths,
+                               Consumer<BackupEntryResult> onEntryCompleted) {
+        if (paths.stream().anyMatch(path -> path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0)) {
+            log.warn("⚠️ Changes of {} include file names with line breaks, backing it up in full", entry.getLocalPath());
+            return false; // File lists are line-based
+        }
+        EntryWork work = new EntryWork(entry, resolveRemoteKey(entry));
+        metrics.entryStarted();
+        StagingManager.StagingArea staging = null;
+        BackupEntryResult result;
+        try {
+            work.cloudPath = normalizeCloudPath(entry.getCloudPath());
+            Path root = FileUtils.resolveSourcePath(entry.getLocalPath());
+            List<String> copies = new ArrayList<>();
+            List<String> deletions = new ArrayList<>();
+            long copyBytes = 0;
+            for (String path : paths) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(root.resolve(path), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    deletions.add(path);
+                    continue;
+                }
+                if (attrs.isRegularFile()) {
+                    copies.add(path);
+                    copyBytes += attrs.size();
+                }
+                // Directories are covered by the files below them; links are not backed up
+            }
+
+            if (copies.isEmpty() && deletions.isEmpty()) {
+                result = work.result.skipped("No changed files to upload");
+            } else {
+                staging = stagingManager.allocate("backup-watch-", syncIndexStore.indexSize(entry));
+                Path fileList = staging.directory().resolve("files.txt");
+                String localPath = root.toString();
+                int batchSize = Math.max(1, watchBatchSize);
+                throughCircuitBreaker(work.tags.remote(), () -> timeUpload(work.tags, () -> {
+                    for (int i = 0; i < copies.size(); i += batchSize) {
+                        Files.write(fileList, copies.subList(i, Math.min(i + batchSize, copies.size())));
+                        cloudProvider.copyFiles(localPath, work.cloudPath, fileList);
+                    }
+                    for (int i = 0; i < deletions.size(); i += batchSize) {
+                        Files.write(fileList, deletions.subList(i, Math.min(i + batchSize, deletions.size())));
+                        cloudProvider.deleteFiles(localPath, work.cloudPath, fileList);
+                    }
+                }));
+                updateSyncIndex(entry, root, paths, staging.directory());
+                log.info("✅ Uploaded {} changed and deleted {} files of {}", copies.size(), deletions.size(), localPath);
+                result = work.result.succeeded(copyBytes,
+                        "Uploaded " + copies.size() + " changed and deleted " + deletions.size() + " files");
+            }
+        } catch (Exception e) {
+            result = failureResult(work, e);
+        }
+        if (staging != null) {
+            releaseStaging(staging, work.tags);
+        }
+        metrics.entryFinished(work.tags.entry(), work.tags.remote(), result.getStatus());
+        onEntryCompleted.accept(result);
+        return true;
     }
 
-    private void logBackupStart() {
+    /**
+     * Records the uploaded paths in the entry's sync index, so the next incremental sync does not upload
+     * them again. If that fails, the index is dropped and the next sync is a full one.
+     */
+    private void updateSyncIndex(BackupConfig.BackupEntry entry, Path root, Collection<String> paths, Path workDirectory) {
+        if (!incrementalSync) {
+            return;
+        }
+        SyncIndexStore.ContentHash contentHash = entry.isChecksum() ? file -> fileHashCache.hash(file).xxh64Hex() : null;
+        try {
+            Path index = syncIndexStore.applyChanges(entry, root, paths, workDirectory, contentHash);
+            if (index != null) {
+                syncIndexStore.commit(entry, index);
+            } else {
+                syncIndexStore.discard(entry);
+            }
+        } catch (IOException e) {
+            log.warn("⚠️ Could not update the sync index of {}, syncing in full next time: {}",
+                    entry.getLocalPath(), e.getMessage());
+            syncIndexStore.discard(entry);
+        }
+        if (contentHash != null) {
+            saveHashCache();
+        }
+    }
+
+    private void saveHashCache() {
+        try {
+            fileHashCache.save();
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to save the file hash cache, changed files will be hashed again: {}", e.getMessage());
+        }
+    }
+
+    private void logBackupStart(List<BackupConfig.BackupEntry> entries) {
         log.info("=== Starting Backup Task ===");
         log.info("📁 Backup config file: {}", configPath);
         log.info("🔧 Rclone config file: {}", rcloneConfigPath.isEmpty() ? "default (~/.config/rclone/rclone.conf)" : rcloneConfigPath);
-        log.info("📋 Backup entries to process: {}", config.getBackupEntries().size());
+        log.info("📋 Backup entries to process: {}", entries.size());
         log.info("📂 All backups will be stored under: {}/", BACKUP_ROOT_FOLDER);
     }
 
-    private boolean validateRcloneInstallation() {
+    /**
+     * @return null if rclone is usable, otherwise the reason why it is not
+     */
+    private String validateRcloneInstallation() {
         try {
             rcloneValidator.validateRcloneInstallation();
-            return true;
+            return null;
         } catch (RcloneNotInstalledException e) {
             log.error("Rclone is not installed: {}", e.getMessage());
             log.error("Stopping backup task - all backups will fail without rclone installed");
-            return false;
+            return "Rclone is not installed";
         } catch (RcloneException e) {
             log.error("Failed to validate rclone installation: {}", e.getMessage());
-            return false;
+            return "Failed to validate rclone installation: " + e.getMessage();
         }
     }
 
-    private void processBackupEntries() {
-        for (BackupConfig.BackupEntry entry : config.getBackupEntries()) {
-            processIndividualBackupEntry(entry);
+    /**
+     * Runs the entries through a staged pipeline (validate → compress → upload → cleanup), so entries are
+     * compressed while earlier ones upload. Uploads are bounded by a global limit and a per-remote limit
+     * so that a single slow remote cannot occupy every worker.
+     */
+    private List<BackupEntryResult> processBackupEntries(List<BackupConfig.BackupEntry> entries, boolean force,
+                                                         Consumer<BackupEntryResult> onEntryCompleted) {
+        int uploadWorkers = Math.max(1, Math.min(config.getMaxConcurrentEntries(), entries.size()));
+        int perRemote = Math.max(1, config.getMaxConcurrentPerRemote());
+        log.info("⚙️ Pipeline workers: {} validate, {} compress, {} upload ({} per remote), {} cleanup; up to {} staged archives",
+                pipelineValidateWorkers, pipelineCompressWorkers, uploadWorkers, perRemote,
+                pipelineCleanupWorkers, pipelineMaxStagedArchives);
+
+        BackupEntryResult[] results = new BackupEntryResult[entries.size()];
+        try (Pipeline pipeline = new Pipeline(force, uploadWorkers, perRemote)) {
+            List<CompletableFuture<Void>> completions = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                int index = i;
+                completions.add(pipeline.submit(entries.get(i)).thenAccept(result -> {
+                    results[index] = result;
+                    onEntryCompleted.accept(result);
+                }));
+            }
+            CompletableFuture.allOf(completions.toArray(new CompletableFuture[0])).exceptionally(e -> null).join();
+        } // Closing waits for the staging directories still being deleted
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Resolves the remote an entry uploads to, used as its concurrency group.
+     * Entries with an invalid cloud path share one group; they fail fast during validation anyway.
+     */
+    private String resolveRemoteKey(BackupConfig.BackupEntry entry) {
+        try {
+            return rcloneValidator.extractRemoteName(entry.getCloudPath());
+        } catch (IllegalArgumentException e) {
+            return "";
         }
     }
 
@@ -79,7 +361,7 @@ public class BackupService {
      * @param cloudPath the original cloud path from config
      * @return the normalized path with backup-service root folder
      */
-    private String normalizeCloudPath(String cloudPath) {
+    static String normalizeCloudPath(String cloudPath) {
         if (cloudPath == null || cloudPath.trim().isEmpty()) {
             throw new IllegalArgumentException("Cloud path cannot be null or empty");
         }
@@ -111,124 +393,955 @@ public class BackupService {
         return normalizedPath;
     }
 
-    private void processIndividualBackupEntry(BackupConfig.BackupEntry entry) {
-        try {
-            // Normalize cloud path to include backup-service root folder
-            String normalizedCloudPath = normalizeCloudPath(entry.getCloudPath());
-            
-            log.info("🔍 Processing backup entry: {} -> {} (compress: {})",
-                    entry.getLocalPath(), normalizedCloudPath, entry.isCompress());
+    /**
+     * Validates the entry and checks it for changes.
+     *
+     * @return the final result if the entry stops here (invalid or unchanged), otherwise null
+     */
+    private BackupEntryResult prepareEntry(EntryWork work, boolean force) throws IOException {
+        BackupConfig.BackupEntry entry = work.entry;
+        // Normalize cloud path to include backup-service root folder
+        work.cloudPath = normalizeCloudPath(entry.getCloudPath());
+
+        log.info("🔍 Processing backup entry: {} -> {} (compress: {}, dedup: {})",
+                entry.getLocalPath(), work.cloudPath, entry.isCompress(), entry.isDedup());
 
-            if (!validateBackupEntry(entry, normalizedCloudPath)) {
-                return; // Skip this entry if validation fails
+        String validationError = validateBackupEntry(entry, work.cloudPath, work.tags);
+        if (validationError == null) {
+            validationError = scanSource(work);
+        }
+        if (validationError != null) {
+            return work.result.failed(validationError); // Skip this entry if validation fails
+        }
+
+        if (entry.isChecksum() && incrementalSync && work.manifest.isDirectory()) {
+            hashSource(work);
+        }
+        if (entry.isCompress() || entry.isDedup()) {
+            work.fingerprint = fingerprintSource(work);
+            if (!force && isUnchangedSinceLastBackup(entry, work.fingerprint)) {
+                return work.result.skipped("Source unchanged since last successful backup");
             }
+        }
+        work.mode = resolveMode(entry);
+        return null;
+    }
 
-            String sourceToBackup = handleCompressionIfEnabled(entry);
-            if (sourceToBackup == null) {
-                return; // Skip this entry if compression fails
+    private EntryMode resolveMode(BackupConfig.BackupEntry entry) {
+        if (entry.isDedup()) {
+            return EntryMode.DEDUP;
+        }
+        if (entry.isCompress() && entry.getVolumeSizeBytes() > 0) {
+            return EntryMode.VOLUMES;
+        }
+        if (shouldStream(entry)) {
+            return EntryMode.STREAM;
+        }
+        return entry.isCompress() ? EntryMode.ARCHIVE : EntryMode.SYNC;
+    }
+
+    /**
+     * Reserves local space for the archive or volumes of the entry, so an entry that cannot fit fails
+     * before any compression starts instead of filling the disk halfway through.
+     */
+    private StagingManager.StagingArea allocateStaging(EntryWork work) throws IOException {
+        long estimate = stagingManager.estimateArchiveSize(work.manifest.totalSize());
+        if (work.mode == EntryMode.VOLUMES) {
+            // Uploaded volumes are deleted right away; only the pending ones and the one being written stay
+            long volumesOnDisk = (volumeMaxPending + 1L) * work.entry.getVolumeSizeBytes();
+            estimate = estimate > 0 ? Math.min(estimate, volumesOnDisk) : volumesOnDisk;
+        }
+        return stagingManager.allocate("backup-compression-", estimate);
+    }
+
+    /**
+     * Builds the temporary archive of an {@link EntryMode#ARCHIVE} entry.
+     *
+     * @return null on success, otherwise the final result of the failed entry
+     */
+    private BackupEntryResult compressEntry(EntryWork work) {
+        BackupConfig.BackupEntry entry = work.entry;
+        String archive = performCompression(work.manifest, work.staging.directory(),
+                entry.getFormat(), entry.getCompression(), work.tags);
+        if (archive == null) {
+            return work.result.failed("Compression failed"); // Skip this entry if compression fails
+        }
+        work.stagedArchive = Paths.get(archive);
+        return null;
+    }
+
+    /**
+     * Transfers the entry to the cloud provider. Dedup, volume and streaming entries compress while they
+     * upload, so all of their work happens here.
+     */
+    private BackupEntryResult uploadEntry(EntryWork work) throws RcloneException, CompressionException, IOException {
+        BackupConfig.BackupEntry entry = work.entry;
+        if (work.mode == EntryMode.DEDUP) {
+            DedupSnapshot snapshot = performDedupBackup(entry, work.manifest, work.cloudPath, work.tags);
+            return uploaded(work, snapshot.getUploadedBytes(), "Snapshot " + snapshot.getId());
+        }
+
+        long uploadedBytes;
+        switch (work.mode) {
+            case VOLUMES -> uploadedBytes = performVolumeBackup(entry, work.manifest, work.cloudPath,
+                    work.staging.directory(), work.tags);
+            case STREAM -> uploadedBytes = performStreamingBackup(entry, work.manifest, work.cloudPath, work.tags);
+            case ARCHIVE -> {
+                uploadedBytes = Files.size(work.stagedArchive);
+                performBackup(UploadRequest.file(work.stagedArchive.toString(), work.cloudPath), work.tags);
+            }
+            default -> {
+                uploadedBytes = -1;
+                performSync(work);
             }
-            boolean isFile = pathIsFile(sourceToBackup);
+        }
+        if (uploadedBytes >= 0) {
+            metrics.recordCompression(work.tags.entry(), work.tags.remote(), work.manifest.totalSize(), uploadedBytes);
+        }
+        return uploaded(work, uploadedBytes >= 0 ? uploadedBytes : null, null);
+    }
 
-            performBackup(sourceToBackup, normalizedCloudPath, isFile);
+    /**
+     * Finishes an entry whose upload went through. If the scan had to skip unreadable entries, the upload
+     * misses them, so the entry fails and its fingerprint is not saved; the next run backs it up again.
+     */
+    private BackupEntryResult uploaded(EntryWork work, Long bytes, String message) {
+        if (!work.manifest.isComplete()) {
+            log.warn("⚠️ Backup of {} is incomplete: {} unreadable entries were skipped",
+                    work.entry.getLocalPath(), work.manifest.unreadableCount());
+            work.result.setBytes(bytes);
+            return work.result.failed("Incomplete backup: " + work.manifest.unreadableCount()
+                    + " unreadable entries of the source were skipped");
+        }
+        if (work.fingerprint != null) {
+            manifestStore.saveFingerprint(work.entry, work.fingerprint);
+        }
+        return work.result.succeeded(bytes, message);
+    }
+
+    /**
+     * Makes one attempt to upload the entry through the circuit breaker of its remote, so once the remote
+     * is considered down the entry fails fast instead.
+     */
+    private BackupEntryResult uploadAttempt(EntryWork work) throws RcloneException, CompressionException, IOException {
+        BackupEntryResult[] result = new BackupEntryResult[1];
+        throughCircuitBreaker(work.tags.remote(), () -> result[0] = uploadEntry(work));
+        return result[0];
+    }
+
+    /**
+     * @return the delay before the next attempt in milliseconds, or -1 if the failure is final. Volume
+     *         entries are not retried as a whole; their volumes are retried one by one already.
+     */
+    private long retryDelayMillis(EntryWork work, RcloneException failure) {
+        if (failure instanceof CircuitOpenException || failure instanceof RemoteNotConfiguredException
+                || failure instanceof RcloneNotInstalledException) {
+            return -1; // Retrying won't help
+        }
+        RetryPolicy policy = new RetryPolicy(work.mode == EntryMode.VOLUMES ? 1 : Math.max(1, retryMaxAttempts),
+                retryInitialDelay, retryMaxDelay);
+        if (work.uploadAttempts >= policy.maxAttempts()) {
+            return -1;
+        }
+        long delay = policy.delayMillis(work.uploadAttempts, ThreadLocalRandom.current());
+        log.warn("⚠️ Upload of {} failed (attempt {}/{}), retrying in {} ms: {}",
+                work.entry.getLocalPath(), work.uploadAttempts, policy.maxAttempts(), delay, failure.getMessage());
+        return delay;
+    }
+
+    /**
+     * Runs an upload through the circuit breaker of its remote, which fails fast while the remote is
+     * considered down and counts the upload's outcome otherwise.
+     */
+    private void throughCircuitBreaker(String remote, Upload upload) throws RcloneException, CompressionException, IOException {
+        circuitBreaker.acquire(remote);
+        try {
+            upload.run();
+            circuitBreaker.recordSuccess(remote);
+        } catch (RemoteNotConfiguredException | RcloneNotInstalledException e) {
+            circuitBreaker.recordIgnored(remote); // A local setup problem, says nothing about the remote
+            throw e;
+        } catch (RcloneException e) {
+            circuitBreaker.recordFailure(remote);
+            throw e;
+        } catch (Throwable e) {
+            circuitBreaker.recordIgnored(remote); // Failed locally, says nothing about the remote
+            throw e;
+        }
+    }
 
-        } catch (RemoteNotConfiguredException e) {
+    /**
+     * Maps the error that stopped an entry in any stage to its result.
+     */
+    private BackupEntryResult failureResult(EntryWork work, Exception failure) {
+        BackupConfig.BackupEntry entry = work.entry;
+        if (failure instanceof InsufficientStagingSpaceException e) {
+            log.error("💾 Not enough staging space for {}: {}", entry.getLocalPath(), e.getMessage());
+            // Continue with other backups - smaller entries may still fit
+            return work.result.failed("Not enough staging space: " + e.getMessage());
+        } else if (failure instanceof CompressionException e) {
+            log.error("❌ Streaming compression failed for {}: {}", entry.getLocalPath(), e.getMessage());
+            // Continue with other backups - nothing was committed on the remote
+            return work.result.failed("Compression failed: " + e.getMessage());
+        } else if (failure instanceof CircuitOpenException e) {
+            log.warn("⏭️ Skipping upload of {}: {}", entry.getLocalPath(), e.getMessage());
+            // Continue with other backups - entries on other remotes are not affected
+            return work.result.failed("Remote '" + e.getRemoteName() + "' is unavailable, next attempt after " + e.getRetryAt());
+        } else if (failure instanceof RemoteNotConfiguredException e) {
             log.error("Remote '{}' is not configured: {}", e.getRemoteName(), e.getMessage());
             // Continue with other backups - this is a per-remote issue
-        } catch (RcloneException e) {
+            return work.result.failed("Remote '" + e.getRemoteName() + "' is not configured");
+        } else if (failure instanceof RcloneException e) {
             log.error("Rclone backup failed for {} → {}: {}",
                     entry.getLocalPath(), entry.getCloudPath(), e.getMessage());
             // Continue with other backups - this might be a temporary issue
-        } catch (Exception e) {
-            log.error("Unexpected error during backup of {} → {}: {}",
-                    entry.getLocalPath(), entry.getCloudPath(), e.getMessage());
-            // Continue with other backups - log and move on
+            return work.result.failed("Rclone backup failed: " + e.getMessage());
+        }
+        log.error("Unexpected error during backup of {} → {}: {}",
+                entry.getLocalPath(), entry.getCloudPath(), failure.getMessage());
+        // Continue with other backups - log and move on
+        return work.result.failed("Unexpected error: " + failure.getMessage());
+    }
+
+    /**
+     * Scans the source once into the manifest every later stage works from. A source that does not exist
+     * or cannot be read fails validation here, rather than being checked separately beforehand.
+     *
+     * @return null if the source was scanned, otherwise the validation error
+     */
+    private String scanSource(EntryWork work) throws IOException {
+        String localPath = work.entry.getLocalPath();
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            // Only trees too large to keep in memory need a staging directory
+            work.manifest = SourceManifest.scan(Paths.get(localPath), () -> manifestDirectory(work), manifestMaxEntriesInMemory);
+            success = true;
+            work.result.setSourceBytes(work.manifest.totalSize());
+            log.info("🧾 Scanned {} files ({} bytes) of {} in {} ms", work.manifest.fileCount(),
+                    work.manifest.totalSize(), localPath, (System.nanoTime() - start) / 1_000_000);
+            return null;
+        } catch (NoSuchFileException e) {
+            if (!localPath.equals(e.getFile())) {
+                throw e; // Something below the source vanished while it was scanned
+            }
+            log.error("Invalid backup entry configuration for {}: source path does not exist", localPath);
+            return "Invalid backup entry configuration: Source path does not exist: " + localPath;
+        } catch (AccessDeniedException e) {
+            log.error("Invalid backup entry configuration for {}: no read permission for {}", localPath, e.getFile());
+            return "Invalid backup entry configuration: No read permission for source path: " + e.getFile();
+        } finally {
+            recordStage(work.tags, BackupMetrics.Stage.SCAN, success, System.nanoTime() - start);
         }
     }
 
-    private boolean validateBackupEntry(BackupConfig.BackupEntry entry, String normalizedCloudPath) {
+    /**
+     * Hashes the files of the source that changed since they were last hashed, so the sync can tell
+     * touched files from changed ones without reading anything in the upload stage.
+     */
+    private void hashSource(EntryWork work) throws IOException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            fileHashCache.hashAll(work.manifest);
+            success = true;
+        } finally {
+            recordStage(work.tags, BackupMetrics.Stage.HASH, success, System.nanoTime() - start);
+        }
+    }
+
+    private Path manifestDirectory(EntryWork work) throws IOException {
+        if (work.manifestStaging == null) {
+            work.manifestStaging = stagingManager.allocate("backup-manifest-", 0);
+        }
+        return work.manifestStaging.directory();
+    }
+
+    /**
+     * Computes the source fingerprint from the manifest, or returns null if the spilled manifest cannot
+     * be read, in which case the entry is simply backed up without change detection.
+     */
+    private SourceFingerprint fingerprintSource(EntryWork work) {
+        try {
+            return manifestStore.computeFingerprint(work.manifest, work.entry);
+        } catch (IOException e) {
+            log.warn("⚠️ Could not fingerprint {}, change detection disabled for this run: {}",
+                    work.entry.getLocalPath(), e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isUnchangedSinceLastBackup(BackupConfig.BackupEntry entry, SourceFingerprint fingerprint) {
+        if (fingerprint == null) {
+            return false;
+        }
+        boolean unchanged = manifestStore.loadFingerprint(entry).map(fingerprint::equals).orElse(false);
+        if (unchanged) {
+            log.info("⏭️ Skipping {}: source unchanged since last successful backup", entry.getLocalPath());
+        } else {
+            log.info("🆕 Changes detected in {}, backing up", entry.getLocalPath());
+        }
+        return unchanged;
+    }
+
+    /**
+     * @return null if the entry is valid, otherwise the validation error
+     */
+    private String validateBackupEntry(BackupConfig.BackupEntry entry, String normalizedCloudPath, MetricTags tags) {
+        long start = System.nanoTime();
+        boolean valid = false;
         try {
+            if (entry.isDedup() && entry.isCompress()) {
+                throw new IllegalArgumentException("Dedup and compress cannot both be enabled; dedup compresses chunks itself");
+            }
+
+            if (entry.getVolumeSizeBytes() > 0 && (!entry.isCompress() || entry.isStream())) {
+                throw new IllegalArgumentException("volumeSize requires compress and cannot be combined with stream");
+            }
+
+            if (entry.isChecksum() && (entry.isCompress() || entry.isDedup())) {
+                throw new IllegalArgumentException("checksum only applies to entries synced without compress or dedup");
+            }
+
             // Validate cloud path for compression requirements
-            compressionService.validateCloudPathForCompression(normalizedCloudPath, entry.isCompress());
+            compressionService.validateCloudPathForCompression(normalizedCloudPath, entry.isCompress(), entry.getFormat());
 
             // Validate local path
             if (entry.getLocalPath() == null || entry.getLocalPath().isEmpty()) {
                 throw new IllegalArgumentException("Local path cannot be null or empty");
             }
 
-            // Validate source path exists, permissions, and is accessible
-            String validatedSourcePath = FileUtils.validateSourcePath(entry.getLocalPath());
-            entry.setLocalPath(validatedSourcePath);
+            // Existence and permissions are checked by the source scan that follows
+            entry.setLocalPath(FileUtils.resolveSourcePath(entry.getLocalPath()).toString());
 
-            return true;
+            valid = true;
+            return null;
 
         } catch (IllegalArgumentException e) {
             log.error("Invalid backup entry configuration for {}: {}", entry.getLocalPath(), e.getMessage());
             log.debug("Stack trace: ", e);
-            return false;
-        }
-    }
-
-    private String handleCompressionIfEnabled(BackupConfig.BackupEntry entry) {
-        if (!entry.isCompress()) {
-            return entry.getLocalPath(); // No compression needed
+            return "Invalid backup entry configuration: " + e.getMessage();
+        } finally {
+            recordStage(tags, BackupMetrics.Stage.VALIDATION, valid, System.nanoTime() - start);
         }
-
-        return performCompression(entry.getLocalPath());
     }
 
-    private String performCompression(String localPath) {
-        Path tempDirectory = null;
+    private String performCompression(SourceManifest manifest, Path stagingDirectory, ArchiveFormat format,
+                                      CompressionPolicy policy, MetricTags tags) {
+        Path localPath = manifest.root();
+        long start = System.nanoTime();
         try {
             log.info("🗜️ Compression enabled for: {}", localPath);
 
-            // Create temporary directory for compressed files
-            tempDirectory = FileUtils.createTempDirectory("backup-compression-");
-
             // Compress the source
-            Path compressedFile = compressionService.compressToZip(
-                    Paths.get(localPath), tempDirectory);
+            Path compressedFile = compressionService.compress(manifest, stagingDirectory, format, policy);
 
+            recordStage(tags, BackupMetrics.Stage.COMPRESSION, true, System.nanoTime() - start);
             log.info("✅ Compressed {} to {}", localPath, compressedFile);
             return compressedFile.toString();
 
-        } catch (CompressionException | IOException e) {
+        } catch (CompressionException e) {
+            recordStage(tags, BackupMetrics.Stage.COMPRESSION, false, System.nanoTime() - start);
             log.error("❌ Compression failed for {}: {}", localPath, e.getMessage());
-            cleanupTempDirectory(tempDirectory);
-            return null; // Indicate compression failure
+            return null; // Indicate compression failure; the staging directory is released with the entry
         }
     }
 
-    private void performBackup(String sourceToBackup, String cloudPath, boolean isFile) throws RcloneException {
-        Path tempDirectory = null;
+    private boolean shouldStream(BackupConfig.BackupEntry entry) {
+        return entry.isCompress() && entry.isStream();
+    }
+
+    /**
+     * Compresses the source straight into the upload, without staging the archive on local disk.
+     * Compression and upload overlap, so the whole transfer is recorded as the upload stage.
+     *
+     * @return the number of bytes streamed to the cloud provider
+     */
+    private long performStreamingBackup(BackupConfig.BackupEntry entry, SourceManifest manifest, String cloudPath,
+                                        MetricTags tags) throws RcloneException, CompressionException, IOException {
+        String localPath = entry.getLocalPath();
+        log.info("🔄 Streaming compressed backup: {} -> {}", localPath, cloudPath);
+        long[] streamedBytes = new long[1];
+        timeUpload(tags, () -> cloudProvider.backupStream(out -> {
+            CountingOutputStream countingOut = new CountingOutputStream(out);
+            compressionService.compressToStream(manifest, countingOut, entry.getFormat(), entry.getCompression());
+            streamedBytes[0] = countingOut.getCount();
+        }, cloudPath));
+        log.info("✅ Successfully streamed backup: {} -> {} ({} bytes)", localPath, cloudPath, streamedBytes[0]);
+        return streamedBytes[0];
+    }
+
+    /**
+     * Compresses the source into fixed-size volumes ({@code archive.zip.<run>.001}, {@code .002}, ...) that are
+     * uploaded in parallel while later volumes are still being compressed, then uploads a manifest listing
+     * them. Compression and upload overlap, so the whole transfer is recorded as the upload stage.
+     * <p>
+     * Every run writes volumes under its own names, so the volumes the previous manifest points to stay
+     * intact until the new manifest has replaced it. Only then are the previous run's volumes deleted.
+     *
+     * @return the total size of all volumes
+     */
+    private long performVolumeBackup(BackupConfig.BackupEntry entry, SourceManifest manifest, String cloudPath,
+                                     Path stagingDirectory, MetricTags tags)
+            throws RcloneException, CompressionException, IOException {
+        long volumeSize = entry.getVolumeSizeBytes();
+        log.info("🔄 Split backup in volumes of {} bytes: {} -> {}", volumeSize, entry.getLocalPath(), cloudPath);
+        long[] totalBytes = new long[1];
+        timeUpload(tags, () -> totalBytes[0] = writeAndUploadVolumes(entry, manifest, cloudPath, volumeSize, stagingDirectory));
+        return totalBytes[0];
+    }
+
+    private long writeAndUploadVolumes(BackupConfig.BackupEntry entry, SourceManifest source, String cloudPath,
+                                       long volumeSize, Path tempDirectory)
+            throws RcloneException, CompressionException, IOException {
+        int nameStart = Math.max(cloudPath.lastIndexOf('/'), cloudPath.indexOf(':')) + 1;
+        String remoteDirectory = cloudPath.substring(0, nameStart);
+        String baseName = cloudPath.substring(nameStart);
+        Instant createdAt = Instant.now();
+        String runName = baseName + "." + VOLUME_RUN_FORMAT.format(createdAt);
+        String manifestPath = cloudPath + ".volumes.json";
+
+        List<VolumeOutputStream.Volume> volumes;
+        RetryPolicy retryPolicy = new RetryPolicy(volumeMaxAttempts, volumeRetryDelay, retryMaxDelay);
+        try (VolumeUploader uploader = new VolumeUploader(cloudProvider, remoteDirectory + runName, volumeParallelUploads,
+                retryPolicy, volumeMaxPending)) {
+            try {
+                try (VolumeOutputStream out = new VolumeOutputStream(tempDirectory, baseName, volumeSize, uploader::submit)) {
+                    compressionService.compressToStream(source, out, entry.getFormat(), entry.getCompression());
+                } catch (CompressionException | IOException e) {
+                    // A volume that failed for good stops compression; report the upload error, not the symptom
+                    if (uploader.getFailure() != null) {
+                        throw uploader.getFailure();
+                    }
+                    throw e;
+                }
+                volumes = uploader.awaitCompletion();
+            } catch (CompressionException | IOException | RuntimeException e) {
+                uploader.close(); // Nothing may still be uploading while the volumes are deleted
+                deleteVolumes(remoteDirectory, uploader.getUploaded().stream()
+                        .map(volume -> runName + VolumeOutputStream.volumeSuffix(volume.number())).toList(), tempDirectory);
+                throw e;
+            }
+        }
 
-        // Extract temp directory from source path if it's a compressed file
-        if (sourceToBackup.contains("backup-compression-")) {
-            tempDirectory = Paths.get(sourceToBackup).getParent();
+        VolumeManifest manifest = new VolumeManifest();
+        manifest.setArchive(cloudPath);
+        manifest.setVolumeSize(volumeSize);
+        manifest.setCreatedAt(createdAt.toString());
+        for (VolumeOutputStream.Volume volume : volumes) {
+            VolumeManifest.Volume described = new VolumeManifest.Volume();
+            described.setName(runName + VolumeOutputStream.volumeSuffix(volume.number()));
+            described.setSize(volume.size());
+            described.setSha256(volume.sha256());
+            manifest.getVolumes().add(described);
+            manifest.setTotalSize(manifest.getTotalSize() + volume.size());
         }
+        List<String> previousVolumes = previousVolumeNames(manifestPath, tempDirectory);
+        Path manifestFile = tempDirectory.resolve(baseName + ".volumes.json");
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(manifestFile.toFile(), manifest);
+        cloudProvider.backup(UploadRequest.file(manifestFile.toString(), manifestPath));
+
+        Set<String> current = manifest.getVolumes().stream().map(VolumeManifest.Volume::getName).collect(Collectors.toSet());
+        deleteVolumes(remoteDirectory, previousVolumes.stream().filter(name -> !current.contains(name)).toList(), tempDirectory);
+
+        log.info("✅ Uploaded {} volumes ({} bytes) to {}", volumes.size(), manifest.getTotalSize(), cloudPath);
+        return manifest.getTotalSize();
+    }
 
+    /**
+     * Reads the volume names from the manifest of the previous run, if there is one.
+     *
+     * @return the names, empty if there is no previous manifest or it cannot be read
+     */
+    private List<String> previousVolumeNames(String manifestPath, Path tempDirectory) {
+        Path previous = tempDirectory.resolve("previous.volumes.json");
         try {
-            log.info("🔄 Backing up: {} -> {}", sourceToBackup, cloudPath);
-            cloudProvider.backup(sourceToBackup, cloudPath, isFile);
-            log.info("✅ Successfully backed up: {} -> {}", sourceToBackup, cloudPath);
+            cloudProvider.download(manifestPath, previous.toString(), true);
+            if (!Files.exists(previous)) {
+                return List.of();
+            }
+            return objectMapper.readValue(previous.toFile(), VolumeManifest.class).getVolumes().stream()
+                    .map(VolumeManifest.Volume::getName)
+                    .toList();
+        } catch (RcloneException | IOException e) {
+            log.info("ℹ️ No previous volume manifest at {}, nothing to clean up: {}", manifestPath, e.getMessage());
+            return List.of();
+        }
+    }
 
+    /**
+     * Deletes volumes no manifest points to (anymore). A volume that cannot be deleted only wastes space,
+     * so failures are logged and do not fail the entry.
+     */
+    private void deleteVolumes(String remoteDirectory, List<String> names, Path tempDirectory) {
+        if (names.isEmpty()) {
+            return;
+        }
+        try {
+            Path list = Files.createTempFile(tempDirectory, "delete-volumes-", ".txt");
+            Files.write(list, names, StandardCharsets.UTF_8);
+            cloudProvider.deleteFiles(tempDirectory.toString(), remoteDirectory, list);
+            log.info("🗑️ Deleted {} volumes of other runs from {}", names.size(), remoteDirectory);
+        } catch (RcloneException | IOException e) {
+            log.warn("⚠️ Failed to delete {} volumes of other runs from {}: {}", names.size(), remoteDirectory, e.getMessage());
+        }
+    }
+
+    /**
+     * Uploads the new chunks of the source into the repository at the cloud path. Chunking and upload
+     * overlap, so the whole run is recorded as the upload stage.
+     */
+    private DedupSnapshot performDedupBackup(BackupConfig.BackupEntry entry, SourceManifest manifest, String cloudPath,
+                                             MetricTags tags) throws RcloneException, CompressionException, IOException {
+        log.info("🔄 Dedup backup: {} -> {}", entry.getLocalPath(), cloudPath);
+        DedupSnapshot[] snapshot = new DedupSnapshot[1];
+        timeUpload(tags, () -> snapshot[0] = dedupBackupService.backup(
+                manifest, cloudPath, entry.getCompression().getLevel()));
+        return snapshot[0];
+    }
+
+    /**
+     * Restores a dedup snapshot of the repository at the configured cloud path into a local directory.
+     *
+     * @param cloudPath the cloud path of the entry, as in the backup config
+     * @param snapshotId the snapshot to restore, as reported in the entry's backup result
+     * @param targetPath the local directory to restore into, see {@link #resolveRestoreTarget}
+     */
+    public DedupSnapshot restoreSnapshot(String cloudPath, String snapshotId, String targetPath) throws IOException {
+        return dedupBackupService.restore(normalizeCloudPath(cloudPath), snapshotId, resolveRestoreTarget(targetPath));
+    }
+
+    /**
+     * Resolves a restore target against {@code backup.restore.root}, so a restore can never overwrite files
+     * outside of it. Relative targets are taken relative to the root; absolute ones must lie inside it.
+     *
+     * @throws IllegalArgumentException if the target is empty or outside the restore root
+     */
+    public Path resolveRestoreTarget(String targetPath) {
+        if (targetPath == null || targetPath.isBlank()) {
+            throw new IllegalArgumentException("Target path cannot be null or empty");
+        }
+        Path root = Paths.get(restoreRoot).toAbsolutePath().normalize();
+        Path target = root.resolve(targetPath).normalize();
+        if (!target.startsWith(root)) {
+            throw new IllegalArgumentException("Target path must be inside the restore root " + root + ": " + targetPath);
+        }
+        return target;
+    }
+
+    private void performBackup(UploadRequest request, MetricTags tags)
+            throws RcloneException, CompressionException, IOException {
+        log.info("🔄 Backing up: {} -> {}", request.source(), request.destination());
+        timeUpload(tags, () -> cloudProvider.backup(request));
+        log.info("✅ Successfully backed up: {} -> {}", request.source(), request.destination());
+    }
+
+    /**
+     * Uploads a {@link EntryMode#SYNC} entry. A directory synced before only gets the files that changed
+     * since, computed from the index of its last sync, so rclone does not list the remote. Every
+     * {@code full-sync-interval} it is synced in full instead, which also repairs drift such as files
+     * changed on the remote behind the service's back.
+     * <p>
+     * A source whose scan skipped unreadable entries deletes nothing on the remote, and its index is not
+     * updated, since the files it misses may well still exist.
+     */
+    private void performSync(EntryWork work) throws RcloneException, CompressionException, IOException {
+        BackupConfig.BackupEntry entry = work.entry;
+        if (!incrementalSync || !work.manifest.isDirectory()) {
+            performBackup(syncRequest(work), work.tags);
+            return;
+        }
+        Path workDirectory;
+        try {
+            workDirectory = manifestDirectory(work);
+        } catch (InsufficientStagingSpaceException e) {
+            log.warn("⚠️ No staging space for the sync index of {}, syncing in full", entry.getLocalPath());
+            performBackup(syncRequest(work), work.tags);
+            return;
+        }
+
+        Instant now = Instant.now();
+        SyncIndexStore.ContentHash contentHash = entry.isChecksum() ? file -> fileHashCache.hash(file).xxh64Hex() : null;
+        Optional<Instant> lastFullSync = syncIndexStore.lastFullSync(entry);
+        if (lastFullSync.isPresent() && now.isBefore(lastFullSync.get().plus(fullSyncInterval))) {
+            SyncIndexStore.Delta delta = diffAgainstLastSync(entry, work.manifest, workDirectory, contentHash);
+            if (delta != null) {
+                performIncrementalSync(work, delta);
+                if (work.manifest.isComplete()) {
+                    syncIndexStore.commit(entry, delta.index());
+                }
+                return;
+            }
+        } else {
+            log.info("🔄 Full sync of {}: {}", entry.getLocalPath(), lastFullSync
+                    .map(last -> "last full sync at " + last).orElse("no index of an earlier sync"));
+        }
+
+        performBackup(syncRequest(work), work.tags);
+        if (!work.manifest.isComplete()) {
+            return;
+        }
+        Path index = syncIndexStore.writeIndex(work.manifest, workDirectory, now, contentHash);
+        if (index != null) {
+            syncIndexStore.commit(entry, index);
+        } else {
+            syncIndexStore.discard(entry);
+        }
+    }
+
+    /**
+     * @return the delta, or null if the entry has to be synced in full
+     */
+    private SyncIndexStore.Delta diffAgainstLastSync(BackupConfig.BackupEntry entry, SourceManifest manifest,
+                                                     Path workDirectory, SyncIndexStore.ContentHash contentHash) {
+        try {
+            SyncIndexStore.Delta delta = syncIndexStore.diff(entry, manifest, workDirectory, contentHash);
+            if (delta == null) {
+                log.warn("⚠️ {} has file names that cannot be listed, syncing in full", entry.getLocalPath());
+            }
+            return delta;
+        } catch (IOException e) {
+            log.warn("⚠️ Could not compare {} with its last sync, syncing in full: {}", entry.getLocalPath(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Copies the added and changed files and deletes the vanished ones, all in one batch each. With MD5
+     * hashing enabled, the copies of checksum entries are then verified against the remote's checksums.
+     */
+    private void performIncrementalSync(EntryWork work, SyncIndexStore.Delta delta)
+            throws RcloneException, CompressionException, IOException {
+        String localPath = work.entry.getLocalPath();
+        long deletions = work.manifest.isComplete() ? delta.deletions() : 0;
+        if (delta.copies() == 0 && deletions == 0) {
+            log.info("⏭️ Nothing changed in {} since its last sync", localPath);
+            return;
+        }
+        log.info("🔄 Syncing changes of {} -> {}: {} files ({} bytes) to copy, {} to delete",
+                localPath, work.cloudPath, delta.copies(), delta.copyBytes(), deletions);
+        timeUpload(work.tags, () -> {
+            if (delta.copies() > 0) {
+                cloudProvider.copyFiles(localPath, work.cloudPath, delta.copyList());
+            }
+            if (deletions > 0) {
+                cloudProvider.deleteFiles(localPath, work.cloudPath, delta.deleteList());
+            }
+            if (delta.copies() > 0 && work.entry.isChecksum() && fileHashCache.isMd5Enabled()) {
+                verifyCopies(work, delta.copyList());
+            }
+        });
+        log.info("✅ Successfully synced changes: {} -> {}", localPath, work.cloudPath);
+    }
+
+    /**
+     * Compares the MD5 of the copied files with the checksums the remote reports for them. Files the
+     * remote keeps no checksum for are not verified.
+     *
+     * @throws RcloneException if a file differs on the remote, so the upload is retried
+     */
+    private void verifyCopies(EntryWork work, Path copyList) throws RcloneException, IOException {
+        String localPath = work.entry.getLocalPath();
+        Map<String, String> remoteChecksums = cloudProvider.remoteMd5(work.cloudPath, copyList);
+        if (remoteChecksums == null || remoteChecksums.isEmpty()) {
+            log.info("ℹ️ {} reports no MD5 checksums, copies of {} not verified", work.cloudPath, localPath);
+            return;
+        }
+        Path root = Paths.get(localPath);
+        long verified = 0;
+        long mismatched = 0;
+        try (BufferedReader reader = Files.newBufferedReader(copyList, StandardCharsets.UTF_8)) {
+            String path;
+            while ((path = reader.readLine()) != null) {
+                String remote = remoteChecksums.get(path);
+                if (remote == null) {
+                    continue;
+                }
+                if (remote.equals(fileHashCache.hash(root.resolve(path)).md5())) {
+                    verified++;
+                } else {
+                    mismatched++;
+                    log.warn("⚠️ {} does not match its checksum on {}", path, work.cloudPath);
+                }
+            }
+        }
+        if (mismatched > 0) {
+            throw new RcloneException(mismatched + " uploaded files of " + localPath + " do not match their remote checksum");
+        }
+        log.info("🔐 Verified {} uploaded files of {} against the remote checksums", verified, localPath);
+    }
+
+    /**
+     * Uploads a {@link EntryMode#SYNC} entry as is. A directory is synced to exactly the files in the
+     * manifest, so rclone does not walk the source again. If the scan skipped unreadable entries, remote
+     * files missing from the manifest are kept.
+     */
+    private UploadRequest syncRequest(EntryWork work) throws IOException {
+        SourceManifest manifest = work.manifest;
+        String localPath = work.entry.getLocalPath();
+        if (!manifest.isDirectory()) {
+            return UploadRequest.file(localPath, work.cloudPath);
+        }
+        UploadRequest request = UploadRequest.directory(localPath, work.cloudPath);
+        Path fileList;
+        try {
+            fileList = manifestDirectory(work).resolve("files-from.txt");
+        } catch (InsufficientStagingSpaceException e) {
+            log.warn("⚠️ No staging space for the file list of {}, letting rclone list it itself", localPath);
+            return request;
+        }
+        if (!manifest.writeFileList(fileList)) {
+            log.warn("⚠️ {} has file names with line breaks, letting rclone list it itself", localPath);
+            return request;
+        }
+        request = request.withFilesFrom(fileList);
+        return manifest.isComplete() ? request : request.keepingUnlisted();
+    }
+
+    /**
+     * Runs an upload, recording its duration and the rclone exit code it ended with.
+     */
+    private void timeUpload(MetricTags tags, Upload upload) throws RcloneException, CompressionException, IOException {
+        long start = System.nanoTime();
+        boolean success = false;
+        Integer exitCode = null;
+        try {
+            upload.run();
+            success = true;
+            exitCode = 0;
+        } catch (RcloneException e) {
+            exitCode = e.getExitCode();
+            throw e;
         } finally {
-            cleanupTempDirectory(tempDirectory);
+            recordStage(tags, BackupMetrics.Stage.UPLOAD, success, System.nanoTime() - start);
+            metrics.recordUploadExitCode(tags.entry(), tags.remote(), exitCode);
+        }
+    }
+
+    /**
+     * Records a stage in the metrics and in the entry's result, which keeps the timings for the run journal.
+     * Cleanup runs after the result is handed out, so it is only recorded in the metrics.
+     */
+    private void recordStage(MetricTags tags, BackupMetrics.Stage stage, boolean success, long nanos) {
+        metrics.recordStage(stage, tags.entry(), tags.remote(), success, nanos);
+        tags.result().addStageTime(stage.tagValue(), nanos / 1_000_000);
+    }
+
+    private void releaseStaging(StagingManager.StagingArea staging, MetricTags tags) {
+        long start = System.nanoTime();
+        boolean success = stagingManager.release(staging);
+        metrics.recordStage(BackupMetrics.Stage.CLEANUP, tags.entry(), tags.remote(), success, System.nanoTime() - start);
+    }
+
+    /**
+     * Entry and remote tags shared by all metrics of one entry, and the result that collects its stage
+     * timings. The entry tag is captured before validation rewrites the local path, so every stage is
+     * recorded under the configured path.
+     */
+    private record MetricTags(String entry, String remote, BackupEntryResult result) {
+    }
+
+    /**
+     * How an entry gets to the cloud provider.
+     */
+    private enum EntryMode {
+        DEDUP,   // Chunked into the dedup repository
+        VOLUMES, // Compressed into volumes uploaded while compressing
+        STREAM,  // Compressed straight into the upload
+        ARCHIVE, // Compressed into a temporary archive, then uploaded
+        SYNC     // Uploaded as is
+    }
+
+    /**
+     * State of one entry on its way through the pipeline. It is handed from stage to stage and only
+     * touched by one stage at a time; the executors publish the writes of one stage to the next.
+     */
+    private static final class EntryWork {
+        private final BackupConfig.BackupEntry entry;
+        private final MetricTags tags;
+        private final BackupEntryResult result;
+        private final CompletableFuture<BackupEntryResult> completion = new CompletableFuture<>();
+        private String cloudPath;
+        private SourceFingerprint fingerprint;
+        private EntryMode mode;
+        private StagingManager.StagingArea staging; // Archive or volumes of the entry, released by the cleanup stage
+        private SourceManifest manifest; // The single scan of the source all stages work from
+        private StagingManager.StagingArea manifestStaging; // Spilled manifest and file list, released by the cleanup stage
+        private Path stagedArchive; // Temporary archive of an ARCHIVE entry
+        private boolean holdsStagingPermit;
+        private int uploadAttempts;
+
+        private EntryWork(BackupConfig.BackupEntry entry, String remote) {
+            this.entry = entry;
+            this.result = BackupEntryResult.start(entry);
+            this.tags = new MetricTags(String.valueOf(entry.getLocalPath()), remote, result);
         }
     }
 
-    private void cleanupTempDirectory(Path tempDirectory) {
-        if (tempDirectory != null) {
+    /**
+     * One run of the entry pipeline. Each stage has its own workers and a bounded queue, so a full stage
+     * blocks the one feeding it:
+     * <ul>
+     *   <li>validate: validation and the source scan</li>
+     *   <li>compress: temporary archives of {@link EntryMode#ARCHIVE} entries</li>
+     *   <li>upload: all transfers, bounded globally and per remote</li>
+     *   <li>cleanup: deletion of the staging directories of archive and volume entries and spilled manifests</li>
+     * </ul>
+     * An archive entry takes a staging permit before it is handed to compression and returns it once its
+     * archive is deleted, which caps how many compressed archives wait on local disk at once.
+     */
+    private final class Pipeline implements AutoCloseable {
+        private final boolean force;
+        private final BoundedExecutor validateStage;
+        private final BoundedExecutor compressStage;
+        private final KeyedTaskDispatcher uploadStage;
+        private final BoundedExecutor cleanupStage;
+        private final Semaphore stagingPermits;
+
+        private Pipeline(boolean force, int uploadWorkers, int perRemote) {
+            int queueCapacity = Math.max(0, pipelineQueueCapacity);
+            this.force = force;
+            this.validateStage = new BoundedExecutor(Math.max(1, pipelineValidateWorkers), queueCapacity, "backup-validate-");
+            this.compressStage = new BoundedExecutor(Math.max(1, pipelineCompressWorkers), queueCapacity, "backup-compress-");
+            this.uploadStage = new KeyedTaskDispatcher(uploadWorkers, perRemote, "backup-upload-");
+            this.cleanupStage = new BoundedExecutor(Math.max(1, pipelineCleanupWorkers), queueCapacity, "backup-cleanup-");
+            this.stagingPermits = new Semaphore(Math.max(1, pipelineMaxStagedArchives));
+        }
+
+        /**
+         * Feeds an entry into the pipeline, blocking while the validate stage is full.
+         *
+         * @return completes with the entry's result once it is uploaded or has failed
+         */
+        private CompletableFuture<BackupEntryResult> submit(BackupConfig.BackupEntry entry) {
+            EntryWork work = new EntryWork(entry, resolveRemoteKey(entry));
+            metrics.entryStarted();
+            handOff(validateStage, work, () -> validate(work));
+            return work.completion;
+        }
+
+        private void validate(EntryWork work) throws InterruptedException, IOException {
+            BackupEntryResult stopped = prepareEntry(work, force);
+            if (stopped != null) {
+                finish(work, stopped);
+            } else if (work.mode == EntryMode.ARCHIVE) {
+                // Waiting here rather than on a compress worker keeps the compress queue free of blocked entries
+                stagingPermits.acquire();
+                work.holdsStagingPermit = true;
+                work.staging = allocateStaging(work);
+                handOff(compressStage, work, () -> compress(work));
+            } else if (work.mode == EntryMode.VOLUMES) {
+                work.staging = allocateStaging(work);
+                upload(work);
+            } else {
+                upload(work);
+            }
+        }
+
+        private void compress(EntryWork work) {
+            BackupEntryResult failed = compressEntry(work);
+            if (failed != null) {
+                finish(work, failed);
+            } else {
+                upload(work);
+            }
+        }
+
+        private void upload(EntryWork work) {
+            uploadStage.submit(work.tags.remote(), () -> runStep(work, () -> attemptUpload(work)));
+        }
+
+        /**
+         * Makes one upload attempt. A failed transfer is retried with backoff; while it waits, the entry
+         * leaves its upload worker and its remote's slot to the next entries and queues up again afterwards.
+         */
+        private void attemptUpload(EntryWork work) throws RcloneException, CompressionException, IOException {
+            work.uploadAttempts++;
+            try {
+                finish(work, uploadAttempt(work));
+            } catch (RcloneException e) {
+                long delay = retryDelayMillis(work, e);
+                if (delay < 0) {
+                    throw e;
+                }
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> upload(work));
+            }
+        }
+
+        private void handOff(Executor stage, EntryWork work, Step step) {
             try {
-                FileUtils.deleteDirectoryRecursively(tempDirectory);
-                log.debug("🧹 Cleaned up temporary directory: {}", tempDirectory);
-            } catch (IOException e) {
-                log.warn("Failed to cleanup temporary directory {}: {}",
-                        tempDirectory, e.getMessage());
+                stage.execute(() -> runStep(work, step));
+            } catch (RejectedExecutionException e) {
+                finish(work, failureResult(work, e));
             }
         }
+
+        private void runStep(EntryWork work, Step step) {
+            try {
+                step.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                finish(work, failureResult(work, e));
+            } catch (Exception e) {
+                finish(work, failureResult(work, e));
+            }
+        }
+
+        /**
+         * Completes the entry and hands its staging directories, if any, to the cleanup stage. The result
+         * does not wait for the deletion; the run does, when the pipeline is closed.
+         */
+        private void finish(EntryWork work, BackupEntryResult result) {
+            if (work.completion.isDone()) {
+                return;
+            }
+            StagingManager.StagingArea staging = work.staging;
+            StagingManager.StagingArea manifestStaging = work.manifestStaging;
+            boolean holdsStagingPermit = work.holdsStagingPermit;
+            work.manifest = null; // Results are kept until the run ends, the manifest is not needed anymore
+            if (staging != null || manifestStaging != null) {
+                Runnable cleanup = () -> {
+                    try {
+                        if (manifestStaging != null) {
+                            releaseStaging(manifestStaging, work.tags);
+                        }
+                        if (staging != null) {
+                            releaseStaging(staging, work.tags);
+                        }
+                    } finally {
+                        if (holdsStagingPermit) {
+                            stagingPermits.release();
+                        }
+                    }
+                };
+                try {
+                    cleanupStage.execute(cleanup);
+                } catch (RejectedExecutionException e) {
+                    cleanup.run();
+                }
+            } else if (holdsStagingPermit) {
+                stagingPermits.release();
+            }
+            metrics.entryFinished(work.tags.entry(), work.tags.remote(), result.getStatus());
+            work.completion.complete(result);
+        }
+
+        @Override
+        public void close() {
+            validateStage.close();
+            compressStage.close();
+            uploadStage.close();
+            cleanupStage.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        void run() throws Exception;
     }
 
-    private boolean pathIsFile(String path) {
-        return path != null && !path.isEmpty() && !path.endsWith("/");
+    @FunctionalInterface
+    private interface Upload {
+        void run() throws RcloneException, CompressionException, IOException;
     }
 }
@@ -0,0 +1,257 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.model.BandwidthSchedule;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits the upload bandwidth of the configured {@link BandwidthSchedule} across all running transfers.
+ * <p>
+ * Every transfer holds an {@link Allocation} while it runs. The current limit is divided equally among
+ * them and handed to each through its {@link RateListener}, which passes it on to the rclone process.
+ * Shares are rebalanced whenever a transfer starts or ends and whenever the schedule moves to another
+ * limit. A share never drops below {@link #MIN_SHARE}, so a transfer that would get less waits in
+ * {@link #acquire} until another one ends; that way the transfers together stay within the global limit.
+ * The one exception is the schedule lowering the limit below {@code MIN_SHARE} per running transfer:
+ * running transfers cannot be paused, so until enough of them end they keep {@code MIN_SHARE} each.
+ */
+@Service
+@Slf4j
+public class BandwidthScheduler {
+
+    /** rclone reads a limit of 0 as unlimited, so a share never drops below 1 KiB/s. */
+    static final long MIN_SHARE = 1024;
+
+    private final BandwidthSchedule schedule;
+    private final Clock clock;
+    private final Set<Allocation> active = new LinkedHashSet<>();
+    private final ScheduledExecutorService ticker;
+    private long currentLimit;
+
+    /**
+     * Receives the bandwidth share of one transfer. A listener that throws is retried at the next check.
+     */
+    @FunctionalInterface
+    public interface RateListener {
+        /**
+         * @param bytesPerSecond the new share, 0 for unlimited
+         */
+        void apply(long bytesPerSecond) throws Exception;
+    }
+
+    /**
+     * @param checkInterval how often the schedule is checked for a new limit
+     */
+    @Autowired
+    public BandwidthScheduler(BackupConfig config,
+                              @Value("${backup.bandwidth.check-interval:PT30S}") Duration checkInterval) {
+        this(config.getBandwidth() != null ? config.getBandwidth() : new BandwidthSchedule(),
+                Clock.systemDefaultZone(), checkInterval);
+    }
+
+    BandwidthScheduler(BandwidthSchedule schedule, Clock clock, Duration checkInterval) {
+        schedule.validate();
+        this.schedule = schedule;
+        this.clock = clock;
+        this.currentLimit = schedule.limitAt(LocalDateTime.now(clock));
+        if (schedule.isEnabled() && checkInterval != null && !checkInterval.isZero()) {
+            this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bandwidth-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long millis = checkInterval.toMillis();
+            ticker.scheduleWithFixedDelay(this::refresh, millis, millis, TimeUnit.MILLISECONDS);
+            log.info("🚦 Upload bandwidth schedule enabled, currently {}", describe(currentLimit));
+        } else {
+            this.ticker = null;
+        }
+    }
+
+    /**
+     * @return whether a limit is configured; without one transfers need no allocation
+     */
+    public boolean isEnabled() {
+        return schedule.isEnabled();
+    }
+
+    /**
+     * @return the global limit in bytes per second, 0 if unlimited
+     */
+    public synchronized long currentLimit() {
+        return currentLimit;
+    }
+
+    /**
+     * Registers a transfer and rebalances all shares, waiting first while the limit has no room for another
+     * share of at least {@link #MIN_SHARE}. The transfer should start at {@link Allocation#rate()} and close
+     * the allocation when it ends.
+     *
+     * @param name     what is transferred, for logging
+     * @param listener receives the share whenever it changes
+     */
+    public Allocation acquire(String name, RateListener listener) throws InterruptedException {
+        Allocation allocation = new Allocation(name, listener);
+        List<Allocation> changed;
+        synchronized (this) {
+            if (!hasRoom()) {
+                log.info("🚦 {} waits for bandwidth: {} transfers already share {}", name, active.size(), describe(currentLimit));
+                while (!hasRoom()) {
+                    wait();
+                }
+            }
+            active.add(allocation);
+            changed = rebalance();
+        }
+        applyAll(changed);
+        return allocation;
+    }
+
+    /**
+     * Moves to the limit the schedule has now and pushes shares that could not be applied before.
+     */
+    void refresh() {
+        List<Allocation> allocations;
+        synchronized (this) {
+            long limit = schedule.limitAt(LocalDateTime.now(clock));
+            if (limit != currentLimit) {
+                log.info("🚦 Upload bandwidth limit changed from {} to {}, shared by {} transfers",
+                        describe(currentLimit), describe(limit), active.size());
+                currentLimit = limit;
+                rebalance();
+                notifyAll();
+            }
+            allocations = new ArrayList<>(active);
+        }
+        applyAll(allocations);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the limit in rclone's {@code --bwlimit} syntax, applied to uploads only
+     */
+    public static String toRcloneRate(long bytesPerSecond) {
+        return bytesPerSecond <= 0 ? "off" : Math.max(1, bytesPerSecond / 1024) + "K:off";
+    }
+
+    private void release(Allocation allocation) {
+        List<Allocation> changed;
+        synchronized (this) {
+            if (!active.remove(allocation)) {
+                return;
+            }
+            changed = rebalance();
+            notifyAll();
+        }
+        applyAll(changed);
+    }
+
+    /**
+     * @return whether another transfer gets a share of at least {@link #MIN_SHARE}; called with the lock held
+     */
+    private boolean hasRoom() {
+        return currentLimit <= 0 || active.isEmpty() || active.size() < currentLimit / MIN_SHARE;
+    }
+
+    /**
+     * Sets the target share of every transfer; they are applied outside the lock.
+     *
+     * @return the transfers whose share changed
+     */
+    private List<Allocation> rebalance() {
+        long share = currentLimit <= 0 || active.isEmpty() ? 0 : Math.max(MIN_SHARE, currentLimit / active.size());
+        List<Allocation> changed = new ArrayList<>();
+        for (Allocation allocation : active) {
+            if (allocation.target != share) {
+                allocation.target = share;
+                changed.add(allocation);
+            }
+        }
+        return changed;
+    }
+
+    private static void applyAll(List<Allocation> allocations) {
+        for (Allocation allocation : allocations) {
+            allocation.apply();
+        }
+    }
+
+    private static String describe(long limit) {
+        return limit <= 0 ? "unlimited" : limit / 1024 + " KiB/s";
+    }
+
+    /**
+     * The bandwidth share of one running transfer.
+     */
+    public final class Allocation implements AutoCloseable {
+        private final String name;
+        private final RateListener listener;
+        private volatile long target;  // Written under the scheduler's lock
+        private long applied = -1;     // Guarded by this allocation
+        private boolean closed;        // Guarded by this allocation
+
+        private Allocation(String name, RateListener listener) {
+            this.name = name;
+            this.listener = listener;
+        }
+
+        /**
+         * @return the current share in bytes per second, 0 if unlimited
+         */
+        public long rate() {
+            return target;
+        }
+
+        /**
+         * Pushes the share again, e.g. after the process behind the listener was restarted.
+         */
+        public synchronized void reapply() {
+            applied = -1;
+            apply();
+        }
+
+        private synchronized void apply() {
+            long rate = target;
+            if (closed || rate == applied) {
+                return;
+            }
+            try {
+                listener.apply(rate);
+                applied = rate;
+                log.debug("🚦 Bandwidth of {} set to {}", name, describe(rate));
+            } catch (Exception e) {
+                // Typically the process has not opened its remote control yet; retried at the next check
+                log.debug("Could not set bandwidth of {} yet: {}", name, e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                closed = true;
+            }
+            release(this);
+        }
+    }
+}
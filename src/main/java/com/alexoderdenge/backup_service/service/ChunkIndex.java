@@ -0,0 +1,306 @@
+package com.alexoderdenge.backup_service.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Local index of every chunk a dedup repository already holds, keyed by the chunk's SHA-256.
+ * <p>
+ * Chunk locations live in an append-only file of fixed-size records and stay on disk. The heap only
+ * holds an open-addressing table of the first 8 hash bytes and the record number, about 16 to 24 bytes
+ * per chunk, so millions of chunks fit in a few dozen MB. The full hash is read back from the record
+ * file to confirm a match.
+ * <p>
+ * Pack names are kept in a separate text file; a record refers to its pack by line number. A pack name
+ * is forced to disk before any record can refer to it, so a crash never leaves records pointing past
+ * the end of the pack list. Not thread-safe; one backup of the repository uses it at a time.
+ */
+public class ChunkIndex implements Closeable {
+
+    public static final int HASH_LENGTH = 32;
+    static final int RECORD_SIZE = HASH_LENGTH + 16; // hash, pack, offset, stored length, raw length
+
+    private static final String RECORDS_FILE = "chunks.idx";
+    private static final String PACKS_FILE = "packs.txt";
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    private final FileChannel records;
+    private final FileChannel packsFile;
+    private final List<String> packs = new ArrayList<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(RECORD_SIZE);
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] recordNumbers = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Where a chunk is stored.
+     *
+     * @param pack         name of the pack file
+     * @param offset       position of the chunk inside the pack
+     * @param storedLength bytes the chunk takes in the pack
+     * @param rawLength    bytes of the chunk itself; larger than the stored length if it was deflated
+     */
+    public record Location(String pack, long offset, int storedLength, int rawLength) {
+
+        public boolean deflated() {
+            return storedLength < rawLength;
+        }
+    }
+
+    private ChunkIndex(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.packsFile = FileChannel.open(directory.resolve(PACKS_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.records = FileChannel.open(directory.resolve(RECORDS_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            packsFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the index in the directory, creating it if needed, and loads the hash table from the records.
+     * A torn record or pack name at the end, left by a crash while appending, is dropped, and so are
+     * records of an index written before pack names were forced that refer to a pack lost in the crash.
+     */
+    public static ChunkIndex open(Path directory) throws IOException {
+        ChunkIndex index = new ChunkIndex(directory);
+        try {
+            index.load();
+        } catch (IOException | RuntimeException e) {
+            index.close();
+            throw e;
+        }
+        return index;
+    }
+
+    private void load() throws IOException {
+        loadPacks();
+        long complete = records.size() / RECORD_SIZE;
+        records.truncate(complete * RECORD_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+        long position = 0;
+        int recordNumber = 0;
+        while (position < complete * RECORD_SIZE) {
+            buffer.clear();
+            int read = records.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                long key = buffer.getLong(buffer.position());
+                int pack = buffer.getInt(buffer.position() + HASH_LENGTH);
+                if (pack < 0 || pack >= packs.size()) {
+                    // Records are appended after their pack, so everything from here on is from lost packs
+                    records.truncate((long) recordNumber * RECORD_SIZE);
+                    return;
+                }
+                insert(key, recordNumber++);
+                buffer.position(buffer.position() + RECORD_SIZE);
+            }
+            position += read - buffer.remaining();
+        }
+    }
+
+    private void loadPacks() throws IOException {
+        ByteBuffer content = ByteBuffer.allocate(Math.toIntExact(packsFile.size()));
+        while (content.hasRemaining()) {
+            if (packsFile.read(content, content.position()) < 0) {
+                break;
+            }
+        }
+        int end = content.position();
+        while (end > 0 && content.get(end - 1) != '\n') {
+            end--; // Torn name without its line break
+        }
+        packsFile.truncate(end);
+        String names = new String(content.array(), 0, end, StandardCharsets.UTF_8);
+        if (!names.isEmpty()) {
+            packs.addAll(Arrays.asList(names.split("\n")));
+        }
+    }
+
+    /**
+     * Registers a new pack file.
+     *
+     * @return the pack number to pass to {@link #add}
+     */
+    public int addPack(String packName) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((packName + "\n").getBytes(StandardCharsets.UTF_8));
+        long position = packsFile.size();
+        while (line.hasRemaining()) {
+            position += packsFile.write(line, position);
+        }
+        packsFile.force(true);
+        packs.add(packName);
+        return packs.size() - 1;
+    }
+
+    /**
+     * Records where a chunk is stored. Adding a hash that is already present has no effect.
+     */
+    public void add(byte[] hash, int pack, long offset, int storedLength, int rawLength) throws IOException {
+        if (hash.length != HASH_LENGTH) {
+            throw new IllegalArgumentException("Chunk hash must be " + HASH_LENGTH + " bytes");
+        }
+        if (pack < 0 || pack >= packs.size()) {
+            throw new IllegalArgumentException("Unknown pack " + pack);
+        }
+        if (contains(hash)) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(hash).putInt(pack).putInt((int) offset).putInt(storedLength).putInt(rawLength).flip();
+        long position = (long) size * RECORD_SIZE;
+        while (record.hasRemaining()) {
+            position += records.write(record, position);
+        }
+        insert(ByteBuffer.wrap(hash).getLong(), size);
+    }
+
+    /**
+     * Loads a pack's index file, as written by {@link #writePackIndex}, and adds its chunks.
+     */
+    public void importPackIndex(String packName, Path packIndexFile) throws IOException {
+        int pack = addPack(packName);
+        try (InputStream in = Files.newInputStream(packIndexFile)) {
+            byte[] record = new byte[RECORD_SIZE];
+            while (in.readNBytes(record, 0, RECORD_SIZE) == RECORD_SIZE) {
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                buffer.position(HASH_LENGTH);
+                buffer.getInt(); // Pack number of the writer, meaningless here
+                add(Arrays.copyOf(record, HASH_LENGTH), pack, Integer.toUnsignedLong(buffer.getInt()),
+                        buffer.getInt(), buffer.getInt());
+            }
+        }
+    }
+
+    /**
+     * Writes the records of one pack in the index file format, for storing next to the pack on the remote.
+     */
+    static void writePackIndex(Path file, List<PackWriter.PackedChunk> chunks) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * chunks.size());
+        for (PackWriter.PackedChunk chunk : chunks) {
+            buffer.put(chunk.hash()).putInt(0).putInt((int) chunk.offset())
+                    .putInt(chunk.storedLength()).putInt(chunk.rawLength());
+        }
+        Files.write(file, buffer.array());
+    }
+
+    public boolean contains(byte[] hash) throws IOException {
+        return findRecord(hash) >= 0;
+    }
+
+    /**
+     * @return where the chunk is stored, or null if the repository does not hold it
+     */
+    public Location find(byte[] hash) throws IOException {
+        int recordNumber = findRecord(hash);
+        if (recordNumber < 0) {
+            return null;
+        }
+        ByteBuffer record = readRecord(recordNumber);
+        record.position(HASH_LENGTH);
+        return new Location(packs.get(record.getInt()), Integer.toUnsignedLong(record.getInt()),
+                record.getInt(), record.getInt());
+    }
+
+    /**
+     * Makes the appended records durable. Called once the pack they point to is safely uploaded.
+     */
+    public void sync() throws IOException {
+        records.force(false);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            records.close();
+        } finally {
+            packsFile.close();
+        }
+    }
+
+    private int findRecord(byte[] hash) throws IOException {
+        long key = nonZero(ByteBuffer.wrap(hash).getLong());
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key && hashMatches(recordNumbers[slot], hash)) {
+                return recordNumbers[slot];
+            }
+        }
+        return -1;
+    }
+
+    private boolean hashMatches(int recordNumber, byte[] hash) throws IOException {
+        ByteBuffer record = readRecord(recordNumber);
+        return Arrays.equals(record.array(), 0, HASH_LENGTH, hash, 0, HASH_LENGTH);
+    }
+
+    private ByteBuffer readRecord(int recordNumber) throws IOException {
+        readBuffer.clear();
+        long position = (long) recordNumber * RECORD_SIZE;
+        while (readBuffer.hasRemaining()) {
+            if (records.read(readBuffer, position + readBuffer.position()) < 0) {
+                throw new IOException("Chunk index record " + recordNumber + " is truncated");
+            }
+        }
+        return readBuffer.flip();
+    }
+
+    private void insert(long key, int recordNumber) {
+        if ((size + 1) * 4L > keys.length * 3L) {
+            grow();
+        }
+        place(keys, recordNumbers, nonZero(key), recordNumber);
+        size++;
+    }
+
+    private void grow() {
+        long[] newKeys = new long[keys.length * 2];
+        int[] newRecordNumbers = new int[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                place(newKeys, newRecordNumbers, keys[i], recordNumbers[i]);
+            }
+        }
+        keys = newKeys;
+        recordNumbers = newRecordNumbers;
+    }
+
+    private static void place(long[] keys, int[] recordNumbers, long key, int recordNumber) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        recordNumbers[slot] = recordNumber;
+    }
+
+    private static long nonZero(long key) {
+        return key == 0 ? 1 : key; // 0 marks an empty slot
+    }
+
+    private static int mix(long key) {
+        return (int) (key ^ (key >>> 32));
+    }
+}
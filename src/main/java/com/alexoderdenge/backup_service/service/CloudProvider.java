@@ -1,8 +1,65 @@
 package com.alexoderdenge.backup_service.service;
 
+import com.alexoderdenge.backup_service.service.exception.CompressionException;
 import com.alexoderdenge.backup_service.service.exception.RcloneException;
 
+import java.nio.file.Path;
+import java.util.Map;
+
 public interface CloudProvider {
-    //TODO refactor replacing isFile with an appropriate Class with all the necessary properties
-    void backup(String source, String destination, boolean isFile) throws RcloneException;
-}
\ No newline at end of file
+    /**
+     * Uploads a file, or mirrors a directory, to the remote.
+     */
+    void backup(UploadRequest request) throws RcloneException;
+
+    /**
+     * Copies only the listed files of a directory to the remote, leaving all other remote files alone.
+     *
+     * @param source      the local directory
+     * @param destination the remote directory the source is mirrored to
+     * @param fileList    relative paths of the files to copy, one per line
+     */
+    void copyFiles(String source, String destination, Path fileList) throws RcloneException;
+
+    /**
+     * Deletes the listed files from the remote directory, e.g. after they were deleted locally, leaving all
+     * other remote files alone.
+     *
+     * @param source      the local directory the remote mirrors
+     * @param destination the remote directory
+     * @param fileList    relative paths of the files to delete, one per line
+     */
+    void deleteFiles(String source, String destination, Path fileList) throws RcloneException;
+
+    /**
+     * Reads the MD5 checksums the remote stores for the listed files, to verify an upload against the
+     * local content. Remotes keep no checksum for some files or none at all; those are left out.
+     *
+     * @param destination the remote directory
+     * @param fileList    relative paths of the files, one per line
+     * @return the hex MD5 per relative path, or null if this provider cannot read checksums
+     */
+    default Map<String, String> remoteMd5(String destination, Path fileList) throws RcloneException {
+        return null;
+    }
+
+    /**
+     * Uploads the content written by {@code writer} to a single destination file without
+     * staging it on local disk. The upload is only committed if the writer completes successfully.
+     *
+     * @param writer      produces the content to upload
+     * @param destination the destination file (e.g., "remoteName:path/to/archive.zip")
+     * @throws CompressionException if the writer fails to produce the content
+     */
+    void backupStream(ArchiveStreamWriter writer, String destination) throws RcloneException, CompressionException;
+
+    /**
+     * Copies a file or directory from the remote to local disk. Directories are copied, never mirrored,
+     * so existing local files are left alone.
+     *
+     * @param source      the remote file or directory (e.g., "remoteName:path/to/file")
+     * @param destination the local file or directory
+     * @param isFile      whether the source is a single file
+     */
+    void download(String source, String destination, boolean isFile) throws RcloneException;
+}
@@ -0,0 +1,81 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.CompressionPolicy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+
+/**
+ * Decides per file whether it is deflated or stored, following a {@link CompressionPolicy}.
+ * Safe to use from several threads; sampling buffers are kept per thread.
+ */
+class CompressionPlanner {
+
+    enum Method {
+        DEFLATE,
+        STORE_BY_EXTENSION,
+        STORE_BY_SAMPLE;
+
+        boolean stored() {
+            return this != DEFLATE;
+        }
+    }
+
+    /** Below this size the sample is the whole file and the decision hardly matters. */
+    private static final int MIN_SAMPLED_SIZE = 512;
+
+    private static final ThreadLocal<Deflater> SAMPLE_DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<byte[]> SAMPLE_OUTPUT = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    private final CompressionPolicy policy;
+
+    CompressionPlanner(CompressionPolicy policy) {
+        this.policy = policy != null ? policy : CompressionPolicy.defaults();
+    }
+
+    int level() {
+        int level = policy.getLevel();
+        return level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION ? level : Deflater.DEFAULT_COMPRESSION;
+    }
+
+    Method decide(Path file, long size) throws IOException {
+        if (policy.isStoredByExtension(file.getFileName().toString())) {
+            return Method.STORE_BY_EXTENSION;
+        }
+        if (!policy.isAutoDetect() || size < MIN_SAMPLED_SIZE || level() == Deflater.NO_COMPRESSION) {
+            return Method.DEFLATE;
+        }
+        return sampleCompresses(file) ? Method.DEFLATE : Method.STORE_BY_SAMPLE;
+    }
+
+    /**
+     * Trial-deflates the first block of the file at the fastest level. If even that barely shrinks it,
+     * the content is most likely compressed or encrypted already.
+     */
+    private boolean sampleCompresses(Path file) throws IOException {
+        byte[] sample = new byte[Math.max(MIN_SAMPLED_SIZE, policy.getSampleSize())];
+        int read;
+        try (InputStream in = Files.newInputStream(file)) {
+            read = in.readNBytes(sample, 0, sample.length);
+        }
+        if (read < MIN_SAMPLED_SIZE) {
+            return true;
+        }
+
+        Deflater deflater = SAMPLE_DEFLATERS.get();
+        byte[] output = SAMPLE_OUTPUT.get();
+        deflater.reset();
+        deflater.setInput(sample, 0, read);
+        deflater.finish();
+        long compressed = 0;
+        long limit = (long) (read * (1 - policy.getMinSavings()));
+        while (!deflater.finished() && compressed < limit) {
+            compressed += deflater.deflate(output);
+        }
+        return compressed < limit;
+    }
+}
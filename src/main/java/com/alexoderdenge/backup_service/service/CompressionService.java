@@ -1,13 +1,18 @@
 package com.alexoderdenge.backup_service.service;
 
+import com.alexoderdenge.backup_service.model.ArchiveFormat;
+import com.alexoderdenge.backup_service.model.CompressionPolicy;
 import com.alexoderdenge.backup_service.service.exception.CompressionException;
+import com.alexoderdenge.backup_service.util.SourceTree;
 
+import java.io.OutputStream;
 import java.nio.file.Path;
 
 /**
- * Service responsible for compressing files and directories into ZIP archives.
+ * Service responsible for compressing files and directories into archives.
  * Following clean architecture principles, this interface defines the contract
  * for compression operations without being tied to any specific implementation.
+ * Implementations that only write ZIP archives get the format-aware methods for free.
  */
 public interface CompressionService {
     
@@ -19,7 +24,43 @@ public interface CompressionService {
      * @return the path to the created ZIP file
      * @throws CompressionException if compression fails
      */
-    Path compressToZip(Path sourcePath, Path outputDirectory) throws CompressionException;
+    default Path compressToZip(Path sourcePath, Path outputDirectory) throws CompressionException {
+        return compressToZip(sourcePath, outputDirectory, CompressionPolicy.defaults());
+    }
+
+    /**
+     * Compresses a file or directory into a ZIP archive, deciding per file how to compress it.
+     *
+     * @param sourcePath the path to the file or directory to compress
+     * @param outputDirectory the directory where the ZIP file should be created
+     * @param policy the deflate level and rules for storing incompressible files
+     * @return the path to the created ZIP file
+     * @throws CompressionException if compression fails
+     */
+    Path compressToZip(Path sourcePath, Path outputDirectory, CompressionPolicy policy) throws CompressionException;
+
+    /**
+     * Compresses a file or directory into a ZIP archive written directly to a stream.
+     * The stream is flushed but not closed.
+     *
+     * @param sourcePath the path to the file or directory to compress
+     * @param outputStream the stream receiving the ZIP archive
+     * @throws CompressionException if compression fails or the stream cannot be written
+     */
+    default void compressToStream(Path sourcePath, OutputStream outputStream) throws CompressionException {
+        compressToStream(sourcePath, outputStream, CompressionPolicy.defaults());
+    }
+
+    /**
+     * Compresses a file or directory into a ZIP archive written directly to a stream, deciding per file
+     * how to compress it. The stream is flushed but not closed.
+     *
+     * @param sourcePath the path to the file or directory to compress
+     * @param outputStream the stream receiving the ZIP archive
+     * @param policy the deflate level and rules for storing incompressible files
+     * @throws CompressionException if compression fails or the stream cannot be written
+     */
+    void compressToStream(Path sourcePath, OutputStream outputStream, CompressionPolicy policy) throws CompressionException;
     
     /**
      * Validates that the target cloud path ends with .zip if compression is enabled.
@@ -29,4 +70,89 @@ public interface CompressionService {
      * @throws IllegalArgumentException if validation fails
      */
     void validateCloudPathForCompression(String cloudPath, boolean isCompressionEnabled);
+
+    /**
+     * Compresses a file or directory into an archive of the given format.
+     *
+     * @param sourcePath the path to the file or directory to compress
+     * @param outputDirectory the directory where the archive should be created
+     * @param format the archive format
+     * @param policy the deflate level and rules for storing incompressible files
+     * @return the path to the created archive
+     * @throws CompressionException if compression fails or the format is not supported
+     */
+    default Path compress(Path sourcePath, Path outputDirectory, ArchiveFormat format, CompressionPolicy policy)
+            throws CompressionException {
+        requireZip(format);
+        return compressToZip(sourcePath, outputDirectory, policy);
+    }
+
+    /**
+     * Compresses a file or directory into an archive of the given format written directly to a stream.
+     * The stream is flushed but not closed.
+     *
+     * @param sourcePath the path to the file or directory to compress
+     * @param outputStream the stream receiving the archive
+     * @param format the archive format
+     * @param policy the deflate level and rules for storing incompressible files
+     * @throws CompressionException if compression fails, the format is not supported or the stream cannot be written
+     */
+    default void compressToStream(Path sourcePath, OutputStream outputStream, ArchiveFormat format,
+                                  CompressionPolicy policy) throws CompressionException {
+        requireZip(format);
+        compressToStream(sourcePath, outputStream, policy);
+    }
+
+    /**
+     * Compresses the entries of a source tree, e.g. a {@link com.alexoderdenge.backup_service.util.SourceManifest}
+     * scanned before, into an archive of the given format. Implementations that cannot take the entries
+     * from the tree walk its root again.
+     *
+     * @param source the entries of the file or directory to compress
+     * @param outputDirectory the directory where the archive should be created
+     * @param format the archive format
+     * @param policy the deflate level and rules for storing incompressible files
+     * @return the path to the created archive
+     * @throws CompressionException if compression fails or the format is not supported
+     */
+    default Path compress(SourceTree source, Path outputDirectory, ArchiveFormat format, CompressionPolicy policy)
+            throws CompressionException {
+        return compress(source.root(), outputDirectory, format, policy);
+    }
+
+    /**
+     * Compresses the entries of a source tree into an archive of the given format written directly to a stream.
+     * The stream is flushed but not closed.
+     *
+     * @param source the entries of the file or directory to compress
+     * @param outputStream the stream receiving the archive
+     * @param format the archive format
+     * @param policy the deflate level and rules for storing incompressible files
+     * @throws CompressionException if compression fails, the format is not supported or the stream cannot be written
+     */
+    default void compressToStream(SourceTree source, OutputStream outputStream, ArchiveFormat format,
+                                  CompressionPolicy policy) throws CompressionException {
+        compressToStream(source.root(), outputStream, format, policy);
+    }
+
+    /**
+     * Validates that the target cloud path ends with the extension of the archive format if compression is enabled.
+     *
+     * @param cloudPath the cloud destination path
+     * @param isCompressionEnabled whether compression is enabled for this backup entry
+     * @param format the archive format of the entry
+     * @throws IllegalArgumentException if validation fails
+     */
+    default void validateCloudPathForCompression(String cloudPath, boolean isCompressionEnabled, ArchiveFormat format) {
+        if (isCompressionEnabled && format != ArchiveFormat.ZIP) {
+            throw new IllegalArgumentException("Archive format " + format + " is not supported by " + getClass().getSimpleName());
+        }
+        validateCloudPathForCompression(cloudPath, isCompressionEnabled);
+    }
+
+    private void requireZip(ArchiveFormat format) throws CompressionException {
+        if (format != ArchiveFormat.ZIP) {
+            throw new CompressionException("Archive format " + format + " is not supported by " + getClass().getSimpleName());
+        }
+    }
 }
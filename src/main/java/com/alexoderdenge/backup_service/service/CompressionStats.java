@@ -0,0 +1,55 @@
+package com.alexoderdenge.backup_service.service;
+
+import lombok.Getter;
+
+/**
+ * How many files and bytes of one archive went down each compression path. Filled in by the single
+ * thread writing the archive.
+ */
+@Getter
+public class CompressionStats {
+
+    private long deflatedFiles;
+    private long deflatedBytes;
+    private long deflatedCompressedBytes;
+    private long storedByExtensionFiles;
+    private long storedByExtensionBytes;
+    private long storedBySampleFiles;
+    private long storedBySampleBytes;
+
+    void record(CompressionPlanner.Method method, long size, long compressedSize) {
+        switch (method) {
+            case DEFLATE -> {
+                deflatedFiles++;
+                deflatedBytes += size;
+                deflatedCompressedBytes += compressedSize;
+            }
+            case STORE_BY_EXTENSION -> {
+                storedByExtensionFiles++;
+                storedByExtensionBytes += size;
+            }
+            case STORE_BY_SAMPLE -> {
+                storedBySampleFiles++;
+                storedBySampleBytes += size;
+            }
+        }
+    }
+
+    public long getStoredFiles() {
+        return storedByExtensionFiles + storedBySampleFiles;
+    }
+
+    public long getStoredBytes() {
+        return storedByExtensionBytes + storedBySampleBytes;
+    }
+
+    /**
+     * @return a one-line summary, used as the archive comment and in the logs
+     */
+    public String summary() {
+        return String.format("deflated %d files (%d -> %d bytes); stored %d files (%d bytes): "
+                        + "%d by extension (%d bytes), %d by sampling (%d bytes)",
+                deflatedFiles, deflatedBytes, deflatedCompressedBytes, getStoredFiles(), getStoredBytes(),
+                storedByExtensionFiles, storedByExtensionBytes, storedBySampleFiles, storedBySampleBytes);
+    }
+}
@@ -0,0 +1,536 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.DedupSnapshot;
+import com.alexoderdenge.backup_service.service.exception.RcloneException;
+import com.alexoderdenge.backup_service.util.FastCdcChunker;
+import com.alexoderdenge.backup_service.util.SourceTree;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Deduplicating backups: sources are split into content-defined chunks, and only chunks the repository
+ * does not hold yet are uploaded, bundled into pack files. Each run writes a snapshot listing the chunks
+ * of every file, from which {@link #restore} rebuilds the files exactly.
+ * <p>
+ * Repository layout below the entry's cloud path:
+ * <pre>
+ * packs/&lt;sha256&gt;.pack            chunks, each deflated if that makes it smaller
+ * index/&lt;sha256&gt;.idx             the chunks of the pack with the same name
+ * snapshots/&lt;id&gt;.json.gz         one manifest per run
+ * </pre>
+ * A pack is only recorded in the local {@link ChunkIndex} once it and its index file are uploaded, so an
+ * interrupted run at worst leaves unreferenced packs behind. The local index assumes nothing deletes packs
+ * on the remote.
+ */
+@Service
+@Slf4j
+public class DedupBackupService {
+
+    static final String PACKS_FOLDER = "packs";
+    static final String INDEX_FOLDER = "index";
+    static final String SNAPSHOTS_FOLDER = "snapshots";
+    static final String SNAPSHOT_EXTENSION = ".json.gz";
+
+    private static final DateTimeFormatter SNAPSHOT_ID_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final int MAX_PACK_SIZE = 1 << 30; // Chunk offsets are stored as 32-bit values
+
+    private final CloudProvider cloudProvider;
+    private final StagingManager stagingManager;
+    private final Path indexRoot;
+    private final FastCdcChunker chunker;
+    private final long packSize;
+    private final long maxChunkSize;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Object> repositoryLocks = new ConcurrentHashMap<>();
+
+    public DedupBackupService(CloudProvider cloudProvider, StagingManager stagingManager,
+                              @Value("${backup.state-dir:${user.home}/.config/backup-service/state}") String stateDirectory,
+                              @Value("${backup.dedup.min-chunk-size:262144}") int minChunkSize,
+                              @Value("${backup.dedup.avg-chunk-size:1048576}") int averageChunkSize,
+                              @Value("${backup.dedup.max-chunk-size:4194304}") int maxChunkSize,
+                              @Value("${backup.dedup.pack-size:16777216}") long packSize) {
+        if (packSize <= 0 || packSize > MAX_PACK_SIZE) {
+            throw new IllegalArgumentException("backup.dedup.pack-size must be between 1 and " + MAX_PACK_SIZE);
+        }
+        this.cloudProvider = cloudProvider;
+        this.stagingManager = stagingManager;
+        this.indexRoot = Paths.get(stateDirectory).resolve("dedup");
+        this.chunker = new FastCdcChunker(minChunkSize, averageChunkSize, maxChunkSize);
+        this.packSize = packSize;
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * Backs up the source into the repository, uploading only chunks it does not hold yet.
+     *
+     * @param sourcePath the file or directory to back up
+     * @param repository the remote directory of the repository (e.g., "remote:backup-service/vm")
+     * @param level      deflate level for new chunks, 0 stores them uncompressed
+     * @return the snapshot written for this run
+     */
+    public DedupSnapshot backup(Path sourcePath, String repository, int level) throws IOException, RcloneException {
+        return backup(SourceTree.live(sourcePath), repository, level);
+    }
+
+    /**
+     * Backs up the entries of a source tree, e.g. a {@link com.alexoderdenge.backup_service.util.SourceManifest}
+     * scanned before, into the repository.
+     */
+    public DedupSnapshot backup(SourceTree source, String repository, int level) throws IOException, RcloneException {
+        Path sourcePath = source.root();
+        String root = trimSlash(repository);
+        synchronized (repositoryLocks.computeIfAbsent(root, key -> new Object())) {
+            DedupSnapshot snapshot = new DedupSnapshot();
+            snapshot.setId(newSnapshotId());
+            snapshot.setLocalPath(sourcePath.toString());
+            snapshot.setRepository(root);
+            snapshot.setCreatedAt(Instant.now().toString());
+
+            // Only the open pack is staged; it can overshoot the pack size by up to one chunk
+            StagingManager.StagingArea stagingArea = stagingManager.allocate("backup-dedup-", 2 * packSize);
+            Path staging = stagingArea.directory();
+            try (ChunkIndex index = ChunkIndex.open(indexDirectory(root))) {
+                log.info("🧩 Dedup backup of {} to {} ({} chunks known)", sourcePath, root, index.size());
+                BackupRun run = new BackupRun(index, staging, root, level, snapshot);
+                run.addTree(source);
+                run.flushPack();
+                uploadSnapshot(snapshot, staging, root);
+            } finally {
+                stagingManager.releaseLater(stagingArea);
+            }
+
+            log.info("✅ Dedup snapshot {} of {}: {} files ({} bytes), {} new chunks ({} bytes uploaded), {} reused",
+                    snapshot.getId(), sourcePath, snapshot.getFileCount(), snapshot.getTotalBytes(),
+                    snapshot.getNewChunks(), snapshot.getUploadedBytes(), snapshot.getReusedChunks());
+            return snapshot;
+        }
+    }
+
+    /**
+     * Rebuilds the files of a snapshot below the target directory. Every chunk is checked against its hash.
+     * Packs are downloaded whole, once each, into staging directories that reserve the size of a full pack.
+     * <p>
+     * Symbolic links are created only after every file and directory, and nothing is written through a
+     * symbolic link, so a snapshot cannot make the restore write outside the target directory.
+     *
+     * @param repository the remote directory of the repository
+     * @param snapshotId the id of the snapshot to restore
+     * @param target     the local directory to restore into; existing files are replaced
+     * @return the restored snapshot
+     */
+    public DedupSnapshot restore(String repository, String snapshotId, Path target) throws IOException, RcloneException {
+        String root = trimSlash(repository);
+        if (!snapshotId.matches("[0-9A-Za-z-]+")) {
+            throw new IllegalArgumentException("Invalid snapshot id: " + snapshotId);
+        }
+        synchronized (repositoryLocks.computeIfAbsent(root, key -> new Object())) {
+            StagingManager.StagingArea workArea = stagingManager.allocate("backup-restore-", 0);
+            Path work = workArea.directory();
+            try {
+                Path snapshotFile = work.resolve(snapshotId + SNAPSHOT_EXTENSION);
+                cloudProvider.download(remotePath(root, SNAPSHOTS_FOLDER, snapshotId + SNAPSHOT_EXTENSION),
+                        snapshotFile.toString(), true);
+                DedupSnapshot snapshot;
+                try (InputStream in = new GZIPInputStream(Files.newInputStream(snapshotFile))) {
+                    snapshot = objectMapper.readValue(in, DedupSnapshot.class);
+                }
+
+                log.info("♻️ Restoring snapshot {} of {} ({} files, {} bytes) to {}", snapshotId,
+                        snapshot.getLocalPath(), snapshot.getFileCount(), snapshot.getTotalBytes(), target);
+                try (ChunkIndex index = openIndexFor(snapshot, root, work);
+                     PackCache packs = new PackCache(root)) {
+                    restoreNodes(snapshot, index, packs, target);
+                }
+                log.info("✅ Restored snapshot {} to {}", snapshotId, target);
+                return snapshot;
+            } finally {
+                stagingManager.release(workArea);
+            }
+        }
+    }
+
+    private void uploadSnapshot(DedupSnapshot snapshot, Path staging, String root) throws IOException {
+        Path snapshotFile = staging.resolve(snapshot.getId() + SNAPSHOT_EXTENSION);
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(snapshotFile))) {
+            objectMapper.writeValue(out, snapshot);
+        }
+        cloudProvider.backup(UploadRequest.file(snapshotFile.toString(),
+                remotePath(root, SNAPSHOTS_FOLDER, snapshot.getId() + SNAPSHOT_EXTENSION)));
+    }
+
+    /**
+     * Uses the local index when it knows every chunk of the snapshot, e.g. when restoring on the machine
+     * that made the backup. Otherwise the pack index files are downloaded and loaded into a temporary index.
+     */
+    private ChunkIndex openIndexFor(DedupSnapshot snapshot, String root, Path work) throws IOException {
+        ChunkIndex local = ChunkIndex.open(indexDirectory(root));
+        try {
+            if (containsAllChunks(local, snapshot)) {
+                return local;
+            }
+        } catch (IOException | RuntimeException e) {
+            local.close();
+            throw e;
+        }
+        local.close();
+
+        log.info("📥 Local chunk index is incomplete, downloading the index of {}", root);
+        Path indexFiles = work.resolve(INDEX_FOLDER);
+        Files.createDirectories(indexFiles);
+        cloudProvider.download(remotePath(root, INDEX_FOLDER), indexFiles.toString(), false);
+        ChunkIndex downloaded = ChunkIndex.open(work.resolve("index-db"));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(indexFiles, "*" + PackWriter.INDEX_EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                downloaded.importPackIndex(name.substring(0, name.length() - PackWriter.INDEX_EXTENSION.length()), file);
+            }
+        } catch (IOException | RuntimeException e) {
+            downloaded.close();
+            throw e;
+        }
+        return downloaded;
+    }
+
+    private boolean containsAllChunks(ChunkIndex index, DedupSnapshot snapshot) throws IOException {
+        for (DedupSnapshot.Node node : snapshot.getNodes()) {
+            for (String chunk : node.getChunks()) {
+                if (!index.contains(HexFormat.of().parseHex(chunk))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void restoreNodes(DedupSnapshot snapshot, ChunkIndex index, PackCache packs, Path target) throws IOException {
+        Path root = target.toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        Set<Path> checkedDirectories = new HashSet<>();
+        Map<Path, Long> directoryTimes = new HashMap<>();
+        List<DedupSnapshot.Node> links = new ArrayList<>();
+        for (DedupSnapshot.Node node : snapshot.getNodes()) {
+            Path path = resolveInside(root, node.getPath());
+            switch (node.getType()) {
+                case DedupSnapshot.Node.DIRECTORY -> {
+                    createDirectories(root, path, checkedDirectories);
+                    directoryTimes.put(path, node.getModifiedMillis());
+                }
+                // Created last, so no file or directory of the snapshot is written through one
+                case DedupSnapshot.Node.SYMLINK -> links.add(node);
+                case DedupSnapshot.Node.FILE -> {
+                    createDirectories(root, path.getParent(), checkedDirectories);
+                    restoreFile(node, path, index, packs);
+                    Files.setLastModifiedTime(path, FileTime.fromMillis(node.getModifiedMillis()));
+                }
+                default -> log.warn("⚠️ Skipping {} with unknown type {}", node.getPath(), node.getType());
+            }
+        }
+        for (DedupSnapshot.Node node : links) {
+            Path path = resolveInside(root, node.getPath());
+            // A link created before may have replaced a checked directory, so nothing is taken from the cache
+            createDirectories(root, path.getParent(), new HashSet<>());
+            Files.deleteIfExists(path);
+            Files.createSymbolicLink(path, Paths.get(node.getLinkTarget()));
+        }
+        // Set last, since creating the children touched the directories
+        for (Map.Entry<Path, Long> directory : directoryTimes.entrySet()) {
+            Files.setLastModifiedTime(directory.getKey(), FileTime.fromMillis(directory.getValue()));
+        }
+    }
+
+    private void restoreFile(DedupSnapshot.Node node, Path path, ChunkIndex index, PackCache packs) throws IOException {
+        MessageDigest digest = PackWriter.sha256();
+        long written = 0;
+        // Deleting a symbolic link removes the link itself, and the new file is never opened through one
+        Files.deleteIfExists(path);
+        try (OutputStream out = Files.newOutputStream(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+                LinkOption.NOFOLLOW_LINKS)) {
+            for (String chunk : node.getChunks()) {
+                byte[] hash = HexFormat.of().parseHex(chunk);
+                ChunkIndex.Location location = index.find(hash);
+                if (location == null) {
+                    throw new IOException("Chunk " + chunk + " of " + node.getPath() + " is missing from the repository");
+                }
+                byte[] data = packs.read(location);
+                if (!MessageDigest.isEqual(hash, digest.digest(data))) {
+                    throw new IOException("Chunk " + chunk + " of " + node.getPath() + " is corrupt in pack " + location.pack());
+                }
+                out.write(data);
+                written += data.length;
+            }
+        }
+        if (written != node.getSize()) {
+            throw new IOException("Restored " + written + " bytes of " + node.getPath() + ", expected " + node.getSize());
+        }
+    }
+
+    /**
+     * Creates a directory below the restore root, refusing to go through a symbolic link on the way.
+     * Directories checked once are remembered, so a deep tree is not checked again for every file.
+     */
+    private static void createDirectories(Path root, Path directory, Set<Path> checked) throws IOException {
+        if (directory.equals(root) || checked.contains(directory)) {
+            return;
+        }
+        createDirectories(root, directory.getParent(), checked);
+        if (Files.isSymbolicLink(directory)) {
+            throw new IOException("Snapshot path goes through a symbolic link: " + root.relativize(directory));
+        }
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+            Files.createDirectory(directory);
+        }
+        checked.add(directory);
+    }
+
+    private static Path resolveInside(Path root, String relativePath) throws IOException {
+        Path path = root.resolve(relativePath).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new IOException("Snapshot path escapes the restore directory: " + relativePath);
+        }
+        return path;
+    }
+
+    private Path indexDirectory(String root) {
+        byte[] key = PackWriter.sha256().digest(root.getBytes(StandardCharsets.UTF_8));
+        return indexRoot.resolve(HexFormat.of().formatHex(key, 0, 16));
+    }
+
+    private static String remotePath(String root, String... parts) {
+        return root + "/" + String.join("/", parts);
+    }
+
+    private static String trimSlash(String repository) {
+        String root = repository.trim();
+        while (root.endsWith("/")) {
+            root = root.substring(0, root.length() - 1);
+        }
+        return root;
+    }
+
+    private static String newSnapshotId() {
+        return SNAPSHOT_ID_FORMAT.format(Instant.now()) + "-"
+                + HexFormat.of().toHexDigits(ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * State of one backup run: the open pack, the snapshot being filled and where new packs go.
+     */
+    private class BackupRun {
+
+        private final ChunkIndex index;
+        private final Path staging;
+        private final String root;
+        private final int level;
+        private final DedupSnapshot snapshot;
+        private PackWriter pack;
+
+        BackupRun(ChunkIndex index, Path staging, String root, int level, DedupSnapshot snapshot) {
+            this.index = index;
+            this.staging = staging;
+            this.root = root;
+            this.level = level;
+            this.snapshot = snapshot;
+        }
+
+        void addTree(SourceTree source) throws IOException {
+            try {
+                // Directories come before their contents, which restore relies on
+                source.forEach(entry -> {
+                    BasicFileAttributes attrs = entry.attributes();
+                    if (attrs.isDirectory()) {
+                        snapshot.getNodes().add(node(entry.relativePath(), DedupSnapshot.Node.DIRECTORY, attrs));
+                    } else if (attrs.isSymbolicLink()) {
+                        DedupSnapshot.Node link = node(entry.relativePath(), DedupSnapshot.Node.SYMLINK, attrs);
+                        link.setLinkTarget(Files.readSymbolicLink(entry.path()).toString());
+                        snapshot.getNodes().add(link);
+                    } else if (attrs.isRegularFile()) {
+                        addFile(entry.path(), node(entry.relativePath(), DedupSnapshot.Node.FILE, attrs));
+                    } else {
+                        log.warn("⚠️ Skipping special file {}", entry.path());
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                if (pack != null) {
+                    pack.abort();
+                }
+                throw e;
+            }
+        }
+
+        private void addFile(Path file, DedupSnapshot.Node node) throws IOException {
+            MessageDigest digest = PackWriter.sha256();
+            try (InputStream in = Files.newInputStream(file, LinkOption.NOFOLLOW_LINKS)) {
+                long size = chunker.split(in, (buffer, offset, length) -> {
+                    digest.update(buffer, offset, length);
+                    byte[] hash = digest.digest();
+                    node.getChunks().add(HexFormat.of().formatHex(hash));
+                    addChunk(hash, buffer, offset, length);
+                });
+                node.setSize(size);
+            }
+            snapshot.getNodes().add(node);
+            snapshot.setFileCount(snapshot.getFileCount() + 1);
+            snapshot.setTotalBytes(snapshot.getTotalBytes() + node.getSize());
+        }
+
+        private void addChunk(byte[] hash, byte[] data, int offset, int length) throws IOException {
+            if (index.contains(hash) || (pack != null && pack.contains(hash))) {
+                snapshot.setReusedChunks(snapshot.getReusedChunks() + 1);
+                return;
+            }
+            if (pack == null) {
+                pack = new PackWriter(staging, level);
+            }
+            pack.add(hash, data, offset, length);
+            snapshot.setNewChunks(snapshot.getNewChunks() + 1);
+            if (pack.size() >= packSize) {
+                flushPack();
+            }
+        }
+
+        /**
+         * Uploads the open pack and its index file, then records its chunks in the local index.
+         */
+        void flushPack() throws IOException {
+            if (pack == null) {
+                return;
+            }
+            PackWriter.Pack finished = pack.finish();
+            pack = null;
+            long packBytes = Files.size(finished.file());
+            cloudProvider.backup(UploadRequest.file(finished.file().toString(),
+                    remotePath(root, PACKS_FOLDER, finished.name() + PackWriter.PACK_EXTENSION)));
+            cloudProvider.backup(UploadRequest.file(finished.indexFile().toString(),
+                    remotePath(root, INDEX_FOLDER, finished.name() + PackWriter.INDEX_EXTENSION)));
+
+            int packNumber = index.addPack(finished.name());
+            for (PackWriter.PackedChunk chunk : finished.chunks()) {
+                index.add(chunk.hash(), packNumber, chunk.offset(), chunk.storedLength(), chunk.rawLength());
+            }
+            index.sync();
+            Files.delete(finished.file());
+            Files.delete(finished.indexFile());
+            snapshot.setUploadedBytes(snapshot.getUploadedBytes() + packBytes);
+            log.debug("📦 Uploaded pack {} with {} chunks ({} bytes)", finished.name(), finished.chunks().size(), packBytes);
+        }
+
+        private DedupSnapshot.Node node(String path, String type, BasicFileAttributes attrs) {
+            DedupSnapshot.Node node = new DedupSnapshot.Node();
+            node.setPath(path);
+            node.setType(type);
+            node.setModifiedMillis(attrs.lastModifiedTime().toMillis());
+            return node;
+        }
+    }
+
+    /**
+     * Downloads each pack once on first use and reads chunks from it. Every pack is staged in its own
+     * directory reserving the largest size a pack can have, so the staging space check sees the packs
+     * of a restore grow one by one.
+     */
+    private class PackCache implements Closeable {
+
+        private final String root;
+        private final Map<String, FileChannel> open = new HashMap<>();
+        private final List<StagingManager.StagingArea> areas = new ArrayList<>();
+        private final Inflater inflater = new Inflater(true);
+
+        PackCache(String root) {
+            this.root = root;
+        }
+
+        byte[] read(ChunkIndex.Location location) throws IOException {
+            FileChannel channel = open.get(location.pack());
+            if (channel == null) {
+                // A pack is flushed once it reaches the pack size, so it ends with at most one chunk beyond it
+                long reserved = Math.max(packSize + maxChunkSize, location.offset() + location.storedLength());
+                StagingManager.StagingArea area = stagingManager.allocate("backup-restore-", reserved);
+                areas.add(area);
+                Path file = area.directory().resolve(location.pack() + PackWriter.PACK_EXTENSION);
+                cloudProvider.download(remotePath(root, PACKS_FOLDER, location.pack() + PackWriter.PACK_EXTENSION),
+                        file.toString(), true);
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+                open.put(location.pack(), channel);
+            }
+
+            ByteBuffer stored = ByteBuffer.allocate(location.storedLength());
+            while (stored.hasRemaining()) {
+                if (channel.read(stored, location.offset() + stored.position()) < 0) {
+                    throw new IOException("Pack " + location.pack() + " is truncated");
+                }
+            }
+            if (!location.deflated()) {
+                return stored.array();
+            }
+
+            byte[] data = new byte[location.rawLength()];
+            inflater.reset();
+            inflater.setInput(stored.array());
+            try {
+                int produced = 0;
+                while (produced < data.length && !inflater.finished()) {
+                    int n = inflater.inflate(data, produced, data.length - produced);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    produced += n;
+                }
+                if (produced != data.length) {
+                    throw new IOException("Chunk in pack " + location.pack() + " inflated to " + produced
+                            + " bytes, expected " + data.length);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Chunk in pack " + location.pack() + " is corrupt", e);
+            }
+            return data;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            try {
+                for (FileChannel channel : open.values()) {
+                    channel.close();
+                }
+            } finally {
+                areas.forEach(stagingManager::release);
+            }
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.util.BoundedExecutor;
+import com.alexoderdenge.backup_service.util.SourceTree;
+import com.alexoderdenge.backup_service.util.XxHash64;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the content hashes of local files, so a file is only read again after it changed.
+ * <p>
+ * A file is identified by its path, inode, size and modification time; as long as none of them changed,
+ * its hash comes from the cache without reading a byte. Otherwise it is read once to compute its xxHash64
+ * and, if enabled, its MD5 for remotes that store MD5 checksums. Many files are hashed in parallel, with
+ * reads throttled to a shared budget so hashing does not starve the uploads of disk bandwidth.
+ * <p>
+ * The cache is one file of fixed-size records sorted by a hash of the path, memory-mapped at startup and
+ * searched in place, so its size only costs page cache. New hashes are kept in memory until {@link #save()}
+ * merges them into a new file. Records of files not looked up for {@code max-age} are dropped then.
+ * <p>
+ * A file modified within {@link #RACY_WINDOW} of being hashed is not cached: a second change in the same
+ * tick of the file system clock would not change its modification time.
+ */
+@Component
+@Slf4j
+public class FileHashCache {
+
+    static final int RECORD_SIZE = 64;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAGIC = 0x42484331; // "BHC1"
+    private static final int HAS_MD5 = 1;
+    private static final long RACY_WINDOW = TimeUnit.SECONDS.toNanos(2);
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_PENDING_UPDATES = 100_000; // Saved early beyond this, so memory stays bounded
+
+    private final Path cacheFile;
+    private final boolean md5Enabled;
+    private final int parallelism;
+    private final Duration maxAge;
+    private final Clock clock;
+    private final ReadBudget readBudget;
+    private final Map<Long, Entry> updates = new ConcurrentHashMap<>();
+    private volatile Snapshot snapshot;
+
+    /**
+     * Hashes of one file's content.
+     *
+     * @param xxh64 the xxHash64 of the content
+     * @param md5   the hex MD5 of the content, or null if MD5 hashing is disabled
+     */
+    public record FileHashes(long xxh64, String md5) {
+
+        public String xxh64Hex() {
+            return HexFormat.of().toHexDigits(xxh64);
+        }
+    }
+
+    /**
+     * What identifies a version of a file without reading it.
+     */
+    record FileKey(long pathHash, long inode, long size, long modifiedNanos) {
+    }
+
+    private record Entry(FileKey key, FileHashes hashes, long lastSeenDay) {
+    }
+
+    /**
+     * The records of the cache file. Records looked up are marked, so their last use is refreshed on save.
+     */
+    private static final class Snapshot {
+        private final ByteBuffer records;
+        private final int count;
+        private final BitSet seen = new BitSet();
+        private volatile boolean stale; // Some record was seen on another day than it was last saved
+
+        private Snapshot(ByteBuffer records, int count) {
+            this.records = records;
+            this.count = count;
+        }
+
+        private long pathHashAt(int index) {
+            return records.getLong(HEADER_SIZE + index * RECORD_SIZE);
+        }
+
+        private int find(long pathHash) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long current = pathHashAt(middle);
+                if (current < pathHash) {
+                    low = middle + 1;
+                } else if (current > pathHash) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        private Entry entryAt(int index) {
+            int offset = HEADER_SIZE + index * RECORD_SIZE;
+            FileKey key = new FileKey(records.getLong(offset), records.getLong(offset + 8),
+                    records.getLong(offset + 16), records.getLong(offset + 24));
+            String md5 = null;
+            if ((records.getInt(offset + 60) & HAS_MD5) != 0) {
+                byte[] digest = new byte[16];
+                records.get(offset + 40, digest);
+                md5 = HexFormat.of().formatHex(digest);
+            }
+            return new Entry(key, new FileHashes(records.getLong(offset + 32), md5), records.getInt(offset + 56));
+        }
+
+        private synchronized void markSeen(int index) {
+            seen.set(index);
+        }
+
+        private synchronized boolean wasSeen(int index) {
+            return seen.get(index);
+        }
+    }
+
+    @Autowired
+    public FileHashCache(@Value("${backup.state-dir:${user.home}/.config/backup-service/state}") String stateDirectory,
+                         @Value("${backup.hash-cache.md5:false}") boolean md5Enabled,
+                         @Value("${backup.hash-cache.parallelism:2}") int parallelism,
+                         @Value("${backup.hash-cache.read-rate:0B}") String readRate,
+                         @Value("${backup.hash-cache.max-age:P30D}") Duration maxAge) {
+        this(Paths.get(stateDirectory).resolve("hash-cache.bin"), md5Enabled, parallelism,
+                DataSize.parse(readRate.trim()).toBytes(), maxAge, Clock.systemDefaultZone());
+    }
+
+    /**
+     * @param readBytesPerSecond read budget shared by all hashing threads, 0 for unlimited
+     */
+    FileHashCache(Path cacheFile, boolean md5Enabled, int parallelism, long readBytesPerSecond, Duration maxAge,
+                  Clock clock) {
+        this.cacheFile = cacheFile;
+        this.md5Enabled = md5Enabled;
+        this.parallelism = Math.max(1, parallelism);
+        this.maxAge = maxAge;
+        this.clock = clock;
+        this.readBudget = readBytesPerSecond > 0 ? new ReadBudget(readBytesPerSecond) : null;
+        this.snapshot = load(cacheFile);
+    }
+
+    public boolean isMd5Enabled() {
+        return md5Enabled;
+    }
+
+    /**
+     * Returns the hashes of the file, reading it only if it changed since it was last hashed.
+     */
+    public FileHashes hash(Path file) throws IOException {
+        FileKey key = stat(file);
+        FileHashes cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        return compute(file, key);
+    }
+
+    /**
+     * Hashes every regular file of the tree that is not cached yet, using {@code parallelism} threads.
+     * Files that vanish or cannot be read are skipped; {@link #hash} reports them when they are needed.
+     *
+     * @return the number of bytes read
+     */
+    public long hashAll(SourceTree tree) throws IOException {
+        AtomicLong bytesRead = new AtomicLong();
+        AtomicLong files = new AtomicLong();
+        long start = System.nanoTime();
+        Phaser running = new Phaser(1); // A throttled hash can take longer than the executor waits on close
+        try (BoundedExecutor executor = new BoundedExecutor(parallelism, parallelism * 2, "file-hash-")) {
+            tree.forEach(entry -> {
+                if (!entry.attributes().isRegularFile()) {
+                    return;
+                }
+                Path file = entry.path();
+                running.register();
+                try {
+                    executor.execute(() -> hashIfChanged(file, bytesRead, files, running));
+                } catch (RejectedExecutionException e) {
+                    running.arriveAndDeregister();
+                    throw e;
+                }
+            });
+            running.arriveAndAwaitAdvance();
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Interrupted while hashing " + tree.root(), e);
+        }
+        if (files.get() > 0) {
+            log.info("#️⃣ Hashed {} changed files ({} bytes) of {} in {} ms", files.get(), bytesRead.get(),
+                    tree.root(), (System.nanoTime() - start) / 1_000_000);
+        }
+        return bytesRead.get();
+    }
+
+    private void hashIfChanged(Path file, AtomicLong bytesRead, AtomicLong files, Phaser running) {
+        try {
+            FileKey key = stat(file);
+            if (lookup(key) == null) {
+                compute(file, key);
+                bytesRead.addAndGet(key.size());
+                files.incrementAndGet();
+            }
+        } catch (IOException e) {
+            log.debug("Could not hash {}: {}", file, e.getMessage());
+        } finally {
+            running.arriveAndDeregister();
+        }
+        if (updates.size() >= MAX_PENDING_UPDATES) {
+            saveIfFull();
+        }
+    }
+
+    private synchronized void saveIfFull() {
+        if (updates.size() < MAX_PENDING_UPDATES) {
+            return; // Another thread saved already
+        }
+        try {
+            save();
+        } catch (IOException e) {
+            log.warn("Failed to save file hash cache {}: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the cached hashes if the file still has the given identity, otherwise null
+     */
+    FileHashes lookup(FileKey key) {
+        Entry updated = updates.get(key.pathHash());
+        if (updated != null) {
+            return updated.key().equals(key) ? updated.hashes() : null;
+        }
+        Snapshot current = snapshot;
+        int index = current.find(key.pathHash());
+        if (index < 0) {
+            return null;
+        }
+        Entry entry = current.entryAt(index);
+        if (!entry.key().equals(key) || (md5Enabled && entry.hashes().md5() == null)) {
+            return null;
+        }
+        current.markSeen(index);
+        if (entry.lastSeenDay() != today()) {
+            current.stale = true;
+        }
+        return entry.hashes();
+    }
+
+    /**
+     * Writes new hashes and refreshed records to a new cache file and maps it. Does nothing if nothing
+     * changed since the last save.
+     */
+    public synchronized void save() throws IOException {
+        Snapshot current = snapshot;
+        if (updates.isEmpty() && !current.stale) {
+            return;
+        }
+        long start = System.nanoTime();
+        long today = today();
+        long oldest = today - Math.max(0, maxAge.toDays());
+        List<Entry> added = new ArrayList<>(updates.values());
+        added.sort(Comparator.comparingLong(entry -> entry.key().pathHash()));
+
+        Files.createDirectories(cacheFile.getParent());
+        Path tempFile = Files.createTempFile(cacheFile.getParent(), "hash-cache-", ".tmp");
+        long written = 0;
+        try {
+            try (OutputStream file = Files.newOutputStream(tempFile);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 256 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(RECORD_SIZE);
+                out.writeLong(0); // Record count, written once known
+                int next = 0;
+                for (int index = 0; index < current.count; index++) {
+                    long pathHash = current.pathHashAt(index);
+                    for (; next < added.size() && added.get(next).key().pathHash() < pathHash; next++) {
+                        writeRecord(out, added.get(next), today);
+                        written++;
+                    }
+                    if (updates.containsKey(pathHash)) {
+                        continue; // Replaced by a newer hash of the same path
+                    }
+                    Entry entry = current.entryAt(index);
+                    long lastSeen = current.wasSeen(index) ? today : entry.lastSeenDay();
+                    if (lastSeen >= oldest) {
+                        writeRecord(out, entry, lastSeen);
+                        written++;
+                    }
+                }
+                for (; next < added.size(); next++) {
+                    writeRecord(out, added.get(next), today);
+                    written++;
+                }
+            }
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(8).putLong(0, written), 8);
+                channel.force(true);
+            }
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+
+        snapshot = load(cacheFile);
+        added.forEach(entry -> updates.remove(entry.key().pathHash(), entry));
+        log.debug("Saved {} file hashes to {} in {} ms", written, cacheFile, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        try {
+            save();
+        } catch (IOException e) {
+            log.warn("Failed to save file hash cache {}: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    private FileHashes compute(Path file, FileKey key) throws IOException {
+        long startedAt = clock.millis() * 1_000_000;
+        XxHash64 xxh64 = new XxHash64();
+        MessageDigest md5 = md5Enabled ? newMd5() : null;
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (readBudget != null) {
+                    readBudget.acquire(read);
+                }
+                xxh64.update(buffer, 0, read);
+                if (md5 != null) {
+                    md5.update(buffer, 0, read);
+                }
+            }
+        }
+        FileHashes hashes = new FileHashes(xxh64.getValue(), md5 == null ? null : HexFormat.of().formatHex(md5.digest()));
+
+        // Only remember hashes that are known to belong to the content the key describes
+        if (stat(file).equals(key) && key.modifiedNanos() < startedAt - RACY_WINDOW) {
+            updates.put(key.pathHash(), new Entry(key, hashes, today()));
+        }
+        return hashes;
+    }
+
+    static FileKey stat(Path file) throws IOException {
+        long pathHash = XxHash64.hash(file.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            Map<String, Object> attributes = Files.readAttributes(file, "unix:ino,size,lastModifiedTime",
+                    LinkOption.NOFOLLOW_LINKS);
+            return new FileKey(pathHash, (Long) attributes.get("ino"), (Long) attributes.get("size"),
+                    ((FileTime) attributes.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS));
+        } catch (UnsupportedOperationException e) {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return new FileKey(pathHash, 0, attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private long today() {
+        return LocalDate.now(clock).toEpochDay();
+    }
+
+    private static void writeRecord(DataOutputStream out, Entry entry, long lastSeenDay) throws IOException {
+        out.writeLong(entry.key().pathHash());
+        out.writeLong(entry.key().inode());
+        out.writeLong(entry.key().size());
+        out.writeLong(entry.key().modifiedNanos());
+        out.writeLong(entry.hashes().xxh64());
+        String md5 = entry.hashes().md5();
+        out.write(md5 == null ? new byte[16] : HexFormat.of().parseHex(md5));
+        out.writeInt((int) lastSeenDay);
+        out.writeInt(md5 == null ? 0 : HAS_MD5);
+    }
+
+    /**
+     * Maps the cache file, or starts empty if it is missing or not a cache file.
+     */
+    private static Snapshot load(Path cacheFile) {
+        if (!Files.exists(cacheFile)) {
+            return new Snapshot(ByteBuffer.allocate(HEADER_SIZE), 0);
+        }
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("unexpected size " + size);
+            }
+            MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long count = records.getLong(8);
+            if (records.getInt(0) != MAGIC || records.getInt(4) != RECORD_SIZE
+                    || count < 0 || HEADER_SIZE + count * RECORD_SIZE != size) {
+                throw new IOException("not a file hash cache or truncated");
+            }
+            log.info("#️⃣ Loaded {} cached file hashes from {}", count, cacheFile);
+            return new Snapshot(records, (int) count);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable file hash cache {}: {}", cacheFile, e.getMessage());
+            return new Snapshot(ByteBuffer.allocate(HEADER_SIZE), 0);
+        }
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+    /**
+     * Spaces out reads of all hashing threads to a number of bytes per second.
+     */
+    private static final class ReadBudget {
+        private final long bytesPerSecond;
+        private long nextFree = System.nanoTime();
+
+        private ReadBudget(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(long bytes) throws IOException {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                nextFree = Math.max(nextFree, now);
+                wait = nextFree - now;
+                nextFree += bytes * 1_000_000_000L / bytesPerSecond;
+            }
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the hashing read budget", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.alexoderdenge.backup_service.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A private copy of a file, taken with exactly the size the file had when its tree was scanned.
+ * <p>
+ * Stored ZIP entries announce their size and CRC-32 in the local header, before their data. Reading the
+ * file once for the CRC and again for the data fails the archive whenever the file changes in between,
+ * so the file is read only once into this copy, which cannot change. Like GNU tar, a file that changed
+ * since the scan is cut off or padded with zeros to the announced size. Copies up to
+ * {@link #IN_MEMORY_LIMIT} are kept in memory, larger ones in a temporary file deleted on {@link #close()}.
+ */
+@Slf4j
+final class FileSnapshot implements Closeable {
+
+    static final int IN_MEMORY_LIMIT = 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final long size;
+    private final long crc;
+    private final byte[] data;
+    private final Path copy;
+
+    private FileSnapshot(long size, long crc, byte[] data, Path copy) {
+        this.size = size;
+        this.crc = crc;
+        this.data = data;
+        this.copy = copy;
+    }
+
+    /**
+     * Reads {@code size} bytes of the file once, computing their CRC-32 on the way.
+     */
+    static FileSnapshot take(Path file, long size) throws IOException {
+        if (size <= IN_MEMORY_LIMIT) {
+            byte[] data = new byte[(int) size];
+            int read;
+            boolean grew;
+            try (InputStream in = Files.newInputStream(file)) {
+                read = in.readNBytes(data, 0, data.length);
+                grew = read == size && in.read() >= 0;
+            }
+            warnIfChanged(file, size, read, grew);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            return new FileSnapshot(size, crc.getValue(), data, null);
+        }
+
+        Path copy = Files.createTempFile("zip-stored-", ".tmp");
+        try (InputStream in = Files.newInputStream(file);
+             OutputStream out = Files.newOutputStream(copy)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            CRC32 crc = new CRC32();
+            long copied = 0;
+            while (copied < size) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, size - copied));
+                if (read < 0) {
+                    break;
+                }
+                out.write(buffer, 0, read);
+                crc.update(buffer, 0, read);
+                copied += read;
+            }
+            warnIfChanged(file, size, copied, copied == size && in.read() >= 0);
+            Arrays.fill(buffer, (byte) 0);
+            while (copied < size) {
+                int length = (int) Math.min(buffer.length, size - copied);
+                out.write(buffer, 0, length);
+                crc.update(buffer, 0, length);
+                copied += length;
+            }
+            return new FileSnapshot(size, crc.getValue(), null, copy);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    long crc() {
+        return crc;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        if (data != null) {
+            out.write(data);
+        } else {
+            Files.copy(copy, out);
+        }
+    }
+
+    /**
+     * Reads up to {@code length} bytes starting at {@code offset} into the start of the buffer.
+     *
+     * @return the number of bytes read, less than {@code length} only at the end of the copy
+     */
+    int read(long offset, byte[] buffer, int length) throws IOException {
+        int available = (int) Math.max(0, Math.min(length, size - offset));
+        if (data != null) {
+            System.arraycopy(data, (int) offset, buffer, 0, available);
+            return available;
+        }
+        try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.READ)) {
+            ByteBuffer target = ByteBuffer.wrap(buffer, 0, available);
+            while (target.hasRemaining()) {
+                if (channel.read(target, offset + target.position()) < 0) {
+                    break;
+                }
+            }
+            return target.position();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (copy != null) {
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    static void warnIfChanged(Path file, long size, long read, boolean grew) {
+        if (read < size) {
+            log.warn("⚠️ {} shrank by {} bytes while it was being archived, padding it with zeros", file, size - read);
+        } else if (grew) {
+            log.warn("⚠️ {} grew while it was being archived, keeping its first {} bytes", file, size);
+        }
+    }
+}
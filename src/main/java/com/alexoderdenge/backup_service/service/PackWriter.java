@@ -0,0 +1,150 @@
+package com.alexoderdenge.backup_service.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Collects new chunks into one pack file in a local staging directory until it is large enough to upload.
+ * A pack is the plain concatenation of its chunks, each raw deflate compressed if that makes it smaller.
+ * It is named after the SHA-256 of its content and comes with an index file listing its chunks, so a
+ * lost local {@link ChunkIndex} can be rebuilt from the remote.
+ */
+class PackWriter {
+
+    static final String PACK_EXTENSION = ".pack";
+    static final String INDEX_EXTENSION = ".idx";
+
+    private final Path stagingDirectory;
+    private final Deflater deflater;
+    private final MessageDigest packDigest;
+    private final Path file;
+    private final OutputStream out;
+    private final List<PackedChunk> chunks = new ArrayList<>();
+    private final Set<ByteBuffer> hashes = new HashSet<>();
+
+    private byte[] deflateBuffer = new byte[0];
+    private long size;
+
+    /**
+     * One chunk inside a pack.
+     */
+    record PackedChunk(byte[] hash, long offset, int storedLength, int rawLength) {
+    }
+
+    /**
+     * A finished pack and its index file, ready to upload.
+     */
+    record Pack(String name, Path file, Path indexFile, List<PackedChunk> chunks) {
+    }
+
+    /**
+     * @param level deflate level for the chunks, 0 stores them as they are
+     */
+    PackWriter(Path stagingDirectory, int level) throws IOException {
+        this.stagingDirectory = stagingDirectory;
+        this.deflater = level == Deflater.NO_COMPRESSION ? null : new Deflater(level, true);
+        this.packDigest = sha256();
+        this.file = Files.createTempFile(stagingDirectory, "pack-", ".tmp");
+        this.out = new BufferedOutputStream(Files.newOutputStream(file), 256 * 1024);
+    }
+
+    /**
+     * @return whether the chunk was already added to this pack
+     */
+    boolean contains(byte[] hash) {
+        return hashes.contains(ByteBuffer.wrap(hash));
+    }
+
+    void add(byte[] hash, byte[] data, int offset, int length) throws IOException {
+        byte[] stored = data;
+        int storedOffset = offset;
+        int storedLength = length;
+        int deflatedLength = deflate(data, offset, length);
+        if (deflatedLength < length) {
+            stored = deflateBuffer;
+            storedOffset = 0;
+            storedLength = deflatedLength;
+        }
+
+        out.write(stored, storedOffset, storedLength);
+        packDigest.update(stored, storedOffset, storedLength);
+        chunks.add(new PackedChunk(hash, size, storedLength, length));
+        hashes.add(ByteBuffer.wrap(hash));
+        size += storedLength;
+    }
+
+    long size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return chunks.isEmpty();
+    }
+
+    /**
+     * Closes the pack, renames it after its content hash and writes its index file next to it.
+     */
+    Pack finish() throws IOException {
+        out.close();
+        if (deflater != null) {
+            deflater.end();
+        }
+        String name = HexFormat.of().formatHex(packDigest.digest());
+        Path packFile = Files.move(file, stagingDirectory.resolve(name + PACK_EXTENSION), StandardCopyOption.REPLACE_EXISTING);
+        Path indexFile = stagingDirectory.resolve(name + INDEX_EXTENSION);
+        ChunkIndex.writePackIndex(indexFile, chunks);
+        return new Pack(name, packFile, indexFile, List.copyOf(chunks));
+    }
+
+    /**
+     * Discards the pack, used when the backup fails before it is finished.
+     */
+    void abort() throws IOException {
+        out.close();
+        if (deflater != null) {
+            deflater.end();
+        }
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * @return the deflated length in {@link #deflateBuffer}, or {@code length} if deflating does not help
+     */
+    private int deflate(byte[] data, int offset, int length) {
+        if (deflater == null) {
+            return length;
+        }
+        if (deflateBuffer.length < length) {
+            deflateBuffer = new byte[length];
+        }
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        int produced = 0;
+        while (!deflater.finished() && produced < length) {
+            produced += deflater.deflate(deflateBuffer, produced, length - produced);
+        }
+        return deflater.finished() ? produced : length;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
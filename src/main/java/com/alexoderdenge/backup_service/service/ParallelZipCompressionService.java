@@ -0,0 +1,479 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.CompressionPolicy;
+import com.alexoderdenge.backup_service.util.SourceTree;
+import com.alexoderdenge.backup_service.util.ZipArchiveWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * ZIP compression engine that deflates on a thread pool.
+ * <p>
+ * Every file is cut into fixed-size blocks that are read and deflated concurrently into per-task
+ * buffers. A single writer thread then assembles the blocks in their original order into one ZIP.
+ * Non-final blocks end with a sync flush, so the concatenated blocks form one valid deflate stream
+ * (the technique used by pigz), and block CRCs are combined into the CRC of the whole entry.
+ * This way a directory of small files and a handful of huge files both keep all cores busy.
+ * Memory use is bounded by the number of blocks allowed in flight.
+ * <p>
+ * Files the {@link CompressionPolicy} stores are read in the same blocks but copied as-is. A stored file
+ * spanning several blocks needs its CRC in the local header before its first block, so it is first read
+ * once into a {@link FileSnapshot} and its blocks are cut from that copy.
+ * <p>
+ * Like the other engines, every entry keeps the size the file had when the tree was scanned: a file that
+ * grew since is cut off and one that shrank is padded with zeros, both with a warning.
+ * <p>
+ * Opt-in with {@code backup.compression.engine=parallel}; the sequential {@link ZipCompressionService} stays
+ * the default until a speedup has been measured. On a single core it only adds hand-off overhead, so
+ * measure with {@code CompressionBenchmark} on the target machine before enabling it.
+ */
+@Service
+@ConditionalOnProperty(name = "backup.compression.engine", havingValue = "parallel")
+@Slf4j
+public class ParallelZipCompressionService extends ZipCompressionService implements AutoCloseable {
+
+    static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int BLOCKS_IN_FLIGHT_PER_THREAD = 4;
+
+    private final int threads;
+    private final ExecutorService deflatePool;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<byte[]> readBuffers;
+
+    public ParallelZipCompressionService(@Value("${backup.compression.threads:0}") int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger(1);
+        this.deflatePool = Executors.newFixedThreadPool(this.threads, runnable -> {
+            Thread thread = new Thread(runnable, "zip-deflate-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        this.readBuffers = ThreadLocal.withInitial(() -> new byte[BLOCK_SIZE]);
+        log.info("🗜️ Parallel ZIP compression enabled with {} threads", this.threads);
+        if (Runtime.getRuntime().availableProcessors() < 2) {
+            log.warn("⚠️ Parallel ZIP compression gains nothing on a single processor; "
+                    + "consider backup.compression.engine=zip");
+        }
+    }
+
+    @Override
+    protected CompressionStats writeArchive(SourceTree source, OutputStream outputStream, CompressionPolicy policy)
+            throws IOException {
+        int maxBlocksInFlight = threads * BLOCKS_IN_FLIGHT_PER_THREAD;
+        Semaphore blockPermits = new Semaphore(maxBlocksInFlight);
+        BlockingQueue<PendingEntry> entries = new ArrayBlockingQueue<>(maxBlocksInFlight);
+        CompressionPlanner planner = new CompressionPlanner(policy);
+        CompressionStats stats = new CompressionStats();
+        List<FileSnapshot> snapshots = new CopyOnWriteArrayList<>();
+
+        // The source tree is walked on its own thread, so scheduling never waits on the writer
+        Scatter scatter = new Scatter(source, entries, blockPermits, planner, snapshots);
+        Thread scatterThread = new Thread(scatter, "zip-scatter");
+        scatterThread.setDaemon(true);
+        scatterThread.start();
+
+        try (ZipArchiveWriter writer = new ZipArchiveWriter(outputStream)) {
+            gather(entries, blockPermits, writer, stats);
+            writer.finish(stats.summary());
+        } catch (IOException | RuntimeException e) {
+            scatterThread.interrupt();
+            throw e;
+        } finally {
+            outputStream.close();
+            joinQuietly(scatterThread);
+            // Snapshots of entries the writer did not get to after a failure
+            for (FileSnapshot snapshot : snapshots) {
+                snapshot.close();
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Writes entries in submission order, waiting for each of their blocks to be deflated.
+     */
+    private void gather(BlockingQueue<PendingEntry> entries, Semaphore blockPermits, ZipArchiveWriter writer,
+                        CompressionStats stats) throws IOException {
+        while (true) {
+            PendingEntry entry = take(entries);
+            if (entry == PendingEntry.END) {
+                return;
+            }
+            if (entry.failure != null) {
+                throw entry.failure;
+            }
+            if (entry.directory) {
+                writer.writeDirectory(entry.name, entry.lastModified);
+                continue;
+            }
+
+            boolean stored = entry.method.stored();
+            if (entry.blocks.length == 1) {
+                DeflatedBlock block = await(entry.blocks[0]);
+                blockPermits.release();
+                writer.writeEntry(entry.name, entry.lastModified, stored ? ZipEntry.STORED : ZipEntry.DEFLATED,
+                        block.crc, block.length, block.data);
+                stats.record(entry.method, block.length, block.data.length);
+                continue;
+            }
+
+            if (stored) {
+                writer.startStoredEntry(entry.name, entry.lastModified, entry.snapshot.crc(), entry.size);
+            } else {
+                writer.startEntry(entry.name, entry.lastModified);
+            }
+            long crc = 0;
+            long size = 0;
+            long compressedSize = 0;
+            for (CompletableFuture<DeflatedBlock> future : entry.blocks) {
+                DeflatedBlock block = await(future);
+                blockPermits.release();
+                writer.writeEntryData(block.data, 0, block.data.length);
+                crc = combineCrc(crc, block.crc, block.length);
+                size += block.length;
+                compressedSize += block.data.length;
+            }
+            if (stored) {
+                writer.closeStoredEntry();
+                entry.snapshot.close();
+            } else {
+                writer.closeEntry(crc, size);
+            }
+            stats.record(entry.method, size, compressedSize);
+        }
+    }
+
+    private DeflatedBlock deflateBlock(PendingEntry entry, Path file, long offset, int length, boolean last,
+                                      int level, boolean store) throws IOException {
+        byte[] input = readBuffers.get();
+        int read = entry.snapshot != null
+                ? entry.snapshot.read(offset, input, length)
+                : readBlock(file, entry.size, offset, input, length, last);
+        // Pads the block of a file that shrank since it was scanned
+        Arrays.fill(input, read, length, (byte) 0);
+        read = length;
+
+        CRC32 crc = new CRC32();
+        crc.update(input, 0, read);
+        if (store) {
+            return new DeflatedBlock(Arrays.copyOf(input, read), crc.getValue(), read);
+        }
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(input, 0, read);
+        byte[] output = new byte[Math.max(64, read + read / 1000 + 64)];
+        int produced = 0;
+        if (last) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (produced == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                produced += deflater.deflate(output, produced, output.length - produced);
+            }
+        } else {
+            // A sync flush ends the block on a byte boundary without marking the stream as final
+            while (true) {
+                if (produced == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                int n = deflater.deflate(output, produced, output.length - produced, Deflater.SYNC_FLUSH);
+                produced += n;
+                if (produced < output.length && deflater.needsInput()) {
+                    break;
+                }
+            }
+        }
+        return new DeflatedBlock(Arrays.copyOf(output, produced), crc.getValue(), read);
+    }
+
+    /**
+     * Reads a block of the file, at most up to the size it was scanned with. The last block also checks
+     * whether the file changed size since.
+     */
+    private static int readBlock(Path file, long size, long offset, byte[] input, int length, boolean last)
+            throws IOException {
+        int read = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(input, 0, length);
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, offset + read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            if (last) {
+                long current = channel.size();
+                FileSnapshot.warnIfChanged(file, size, Math.min(current, size), current > size);
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public void close() {
+        deflatePool.shutdownNow();
+    }
+
+    private static PendingEntry take(BlockingQueue<PendingEntry> entries) throws IOException {
+        try {
+            return entries.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compressed entries");
+        }
+    }
+
+    private static DeflatedBlock await(CompletableFuture<DeflatedBlock> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a compressed block");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Failed to compress block", e.getCause());
+        }
+    }
+
+    private static void joinQuietly(Thread thread) {
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Combines two CRC-32 values as if the second block directly followed the first (zlib's crc32_combine).
+     */
+    static long combineCrc(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        odd[0] = 0xEDB88320L; // CRC-32 polynomial
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+    /**
+     * Walks the source and submits the deflate tasks of every file, in archive order.
+     */
+    private class Scatter implements Runnable {
+        private final SourceTree source;
+        private final BlockingQueue<PendingEntry> entries;
+        private final Semaphore blockPermits;
+        private final CompressionPlanner planner;
+        private final List<FileSnapshot> snapshots;
+
+        Scatter(SourceTree source, BlockingQueue<PendingEntry> entries, Semaphore blockPermits,
+                CompressionPlanner planner, List<FileSnapshot> snapshots) {
+            this.source = source;
+            this.entries = entries;
+            this.blockPermits = blockPermits;
+            this.planner = planner;
+            this.snapshots = snapshots;
+        }
+
+        @Override
+        public void run() {
+            try {
+                scatterEntries();
+                entries.put(PendingEntry.END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // Hand the failure to the writer, which reports it to the caller
+                try {
+                    entries.put(PendingEntry.failed(e));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void scatterEntries() throws IOException, InterruptedException {
+            try {
+                // A file source comes as its only entry, named after the file
+                source.forEach(entry -> {
+                    BasicFileAttributes attrs = entry.attributes();
+                    if (entry.isDirectory()) {
+                        putUninterruptibly(PendingEntry.directory(entry.relativePath(), attrs.lastModifiedTime().toMillis()));
+                        return;
+                    }
+                    try {
+                        scatterFile(entry.path(), entry.relativePath(), attrs);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Interrupted while scheduling " + entry.path());
+                    }
+                });
+            } catch (InterruptedIOException e) {
+                throw new InterruptedException(e.getMessage());
+            }
+        }
+
+        private void scatterFile(Path file, String name, BasicFileAttributes attrs)
+                throws IOException, InterruptedException {
+            long size = attrs.size();
+            int blockCount = (int) Math.max(1, (size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            CompressionPlanner.Method method = planner.decide(file, size);
+            boolean store = method.stored();
+            // A stored entry spanning several blocks needs its CRC in the local header before any block
+            FileSnapshot snapshot = null;
+            if (store && blockCount > 1) {
+                snapshot = FileSnapshot.take(file, size);
+                snapshots.add(snapshot);
+            }
+            PendingEntry entry = PendingEntry.file(name, attrs.lastModifiedTime().toMillis(), blockCount,
+                    method, size, snapshot);
+            int level = planner.level();
+
+            // Queue the entry first so the writer can drain its blocks while later ones are scheduled
+            entries.put(entry);
+            for (int i = 0; i < blockCount; i++) {
+                blockPermits.acquire();
+                long offset = (long) i * BLOCK_SIZE;
+                int length = (int) Math.min(BLOCK_SIZE, Math.max(0, size - offset));
+                boolean last = i == blockCount - 1;
+                CompletableFuture<DeflatedBlock> block = entry.blocks[i];
+                deflatePool.execute(() -> {
+                    try {
+                        block.complete(deflateBlock(entry, file, offset, length, last, level, store));
+                    } catch (Throwable t) {
+                        block.completeExceptionally(t);
+                    }
+                });
+            }
+        }
+
+        private void putUninterruptibly(PendingEntry entry) throws InterruptedIOException {
+            try {
+                entries.put(entry);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while scheduling " + entry.name);
+            }
+        }
+    }
+
+    private record DeflatedBlock(byte[] data, long crc, int length) {
+    }
+
+    /**
+     * An archive entry whose blocks may still be deflating while the writer is already consuming it.
+     */
+    private static class PendingEntry {
+        static final PendingEntry END = new PendingEntry(null, 0, false, 0, null, null, 0, null);
+
+        final String name;
+        final long lastModified;
+        final boolean directory;
+        final CompletableFuture<DeflatedBlock>[] blocks;
+        final IOException failure;
+        final CompressionPlanner.Method method;
+        final long size;
+        final FileSnapshot snapshot;
+
+        @SuppressWarnings("unchecked")
+        private PendingEntry(String name, long lastModified, boolean directory, int blockCount, IOException failure,
+                             CompressionPlanner.Method method, long size, FileSnapshot snapshot) {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.directory = directory;
+            this.failure = failure;
+            this.method = method;
+            this.size = size;
+            this.snapshot = snapshot;
+            this.blocks = new CompletableFuture[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blocks[i] = new CompletableFuture<>();
+            }
+        }
+
+        static PendingEntry directory(String name, long lastModified) {
+            return new PendingEntry(name, lastModified, true, 0, null, null, 0, null);
+        }
+
+        static PendingEntry file(String name, long lastModified, int blockCount, CompressionPlanner.Method method,
+                                 long size, FileSnapshot snapshot) {
+            return new PendingEntry(name, lastModified, false, blockCount, null, method, size, snapshot);
+        }
+
+        static PendingEntry failed(IOException failure) {
+            return new PendingEntry(null, 0, false, 0, failure, null, 0, null);
+        }
+    }
+}
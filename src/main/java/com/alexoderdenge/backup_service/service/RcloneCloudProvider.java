@@ -1,40 +1,156 @@
 package com.alexoderdenge.backup_service.service;
 
+import com.alexoderdenge.backup_service.service.exception.CompressionException;
 import com.alexoderdenge.backup_service.service.exception.RcloneException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class RcloneCloudProvider implements CloudProvider {
 
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+    private static final Duration RC_TIMEOUT = Duration.ofSeconds(5);
+    private static final Pattern HEX_MD5 = Pattern.compile("[0-9a-fA-F]{32}");
+
     private final RcloneValidator rcloneValidator;
+    private final TransferProgressTracker progressTracker;
+    private final BandwidthScheduler bandwidthScheduler;
 
     @Value("${rclone.config-path:}") // Empty by default
     private String rcloneConfigPath;
 
+    @Value("${rclone.stats-interval:1s}")
+    private String statsInterval = "1s";
+
     @Override
-    public void backup(String source, String destination, boolean isFile) throws RcloneException {
+    public void backup(UploadRequest request) throws RcloneException {
         // Extract and validate remote configuration
-        String remoteName = rcloneValidator.extractRemoteName(destination);
+        String remoteName = rcloneValidator.extractRemoteName(request.destination());
+        rcloneValidator.validateRemoteConfiguration(remoteName);
+
+        List<String> options = new ArrayList<>();
+        if (request.filesFrom() != null) {
+            // Files missing from the list are "excluded"; deleting them keeps the mirror semantics of sync
+            options.add("--files-from-raw");
+            options.add(request.filesFrom().toString());
+            if (!request.keepUnlisted()) {
+                options.add("--delete-excluded");
+            }
+        }
+        runTransfer(request.isFile() ? "copyto" : "sync", request.source(), request.destination(), "backup", options, true);
+        log.info("✅ Successfully backed up from {} to {}", request.source(), request.destination());
+    }
+
+    /**
+     * {@code --no-traverse} keeps rclone from listing the whole destination for a handful of files.
+     */
+    @Override
+    public void copyFiles(String source, String destination, Path fileList) throws RcloneException {
+        rcloneValidator.validateRemoteConfiguration(rcloneValidator.extractRemoteName(destination));
+
+        runTransfer("copy", source, destination, "backup",
+                List.of("--files-from-raw", fileList.toString(), "--no-traverse"), true);
+        log.info("✅ Successfully copied changed files from {} to {}", source, destination);
+    }
+
+    @Override
+    public void deleteFiles(String source, String destination, Path fileList) throws RcloneException {
+        rcloneValidator.validateRemoteConfiguration(rcloneValidator.extractRemoteName(destination));
+
+        runTransfer("delete", null, destination, "delete",
+                List.of("--files-from-raw", fileList.toString()), false);
+        log.info("🗑️ Successfully deleted removed files from {}", destination);
+    }
+
+    @Override
+    public Map<String, String> remoteMd5(String destination, Path fileList) throws RcloneException {
+        rcloneValidator.validateRemoteConfiguration(rcloneValidator.extractRemoteName(destination));
+
+        List<String> command = new ArrayList<>(List.of("rclone", "md5sum", destination,
+                "--files-from-raw", fileList.toString()));
+        if (!rcloneConfigPath.isBlank()) {
+            command.add("--config");
+            command.add(rcloneConfigPath);
+        }
+        log.info("Running Rclone command: {}", String.join(" ", command));
+
+        Map<String, String> checksums = new HashMap<>();
+        try {
+            Process process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            try (BufferedReader reader = process.inputReader(StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    parseChecksumLine(line, checksums);
+                }
+            } catch (IOException e) {
+                process.destroyForcibly();
+                throw e;
+            }
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new RcloneException("Rclone md5sum failed with exit code " + exitCode, exitCode);
+            }
+        } catch (IOException e) {
+            throw new RcloneException("Failed to execute rclone md5sum command", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RcloneException("Rclone md5sum was interrupted", e);
+        }
+        return checksums;
+    }
+
+    /**
+     * Parses a {@code <md5>  <path>} line of {@code rclone md5sum}; a remote without a checksum for the
+     * file leaves the first column blank.
+     */
+    static void parseChecksumLine(String line, Map<String, String> checksums) {
+        if (line.length() > 34 && line.startsWith("  ", 32) && HEX_MD5.matcher(line.substring(0, 32)).matches()) {
+            checksums.put(line.substring(34), line.substring(0, 32).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    @Override
+    public void download(String source, String destination, boolean isFile) throws RcloneException {
+        String remoteName = rcloneValidator.extractRemoteName(source);
         rcloneValidator.validateRemoteConfiguration(remoteName);
 
+        runTransfer(isFile ? "copyto" : "copy", source, destination, "download", List.of(), false);
+        log.info("✅ Successfully downloaded from {} to {}", source, destination);
+    }
+
+    /**
+     * @param source null for operations on the destination alone, e.g. delete
+     */
+    private void runTransfer(String operation, String source, String destination, String description,
+                             List<String> options, boolean upload) throws RcloneException {
         List<String> command = new ArrayList<>();
         command.add("rclone");
-        if(isFile) {
-            command.add("copyto");
-        } else {
-            command.add("sync");
+        command.add(operation);
+        if (source != null) {
+            command.add(source);
         }
-        command.add(source);
         command.add(destination);
+        command.addAll(options);
 
         if (!rcloneConfigPath.isBlank()) {
             command.add("--config");
@@ -44,27 +160,203 @@ public class RcloneCloudProvider implements CloudProvider {
             log.debug("Using default rclone config location");
         }
 
-        command.add("--verbose");
+        addProgressFlags(command);
+        Map<String, String> environment = new HashMap<>();
+        BandwidthScheduler.Allocation bandwidth = upload ? shareBandwidth(command, environment, destination) : null;
 
         log.info("Running Rclone command: {}", String.join(" ", command));
 
+        boolean success = false;
+        progressTracker.started(destination);
         try {
-            ProcessBuilder pb = new ProcessBuilder(command);
-            Process process = pb.inheritIO().start();
+            ProcessBuilder processBuilder = new ProcessBuilder(command)
+                    .redirectInput(ProcessBuilder.Redirect.INHERIT)
+                    .redirectErrorStream(true);
+            processBuilder.environment().putAll(environment);
+            Process process = processBuilder.start();
+            Thread outputReader = RcloneOutputReader.start(process.getInputStream(), destination, progressTracker);
+            int exitCode;
+            try {
+                exitCode = process.waitFor();
+                outputReader.join(); // Picks up the final stats line
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                throw e;
+            }
+
+            if (exitCode != 0) {
+                log.error("Rclone {} failed from {} to {} with exit code {}", description, source, destination, exitCode);
+                throw new RcloneException("Rclone " + description + " failed with exit code " + exitCode, exitCode);
+            }
+
+            success = true;
+        } catch (IOException e) {
+            log.error("Failed to execute rclone {} command", description, e);
+            throw new RcloneException("Failed to execute rclone " + description + " command", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RcloneException("Rclone " + description + " was interrupted", e);
+        } finally {
+            closeQuietly(bandwidth);
+            progressTracker.finished(destination, success);
+        }
+    }
+
+    /**
+     * Pipes the archive into {@code rclone rcat}, so compression and upload overlap and nothing is
+     * staged on local disk. rclone only commits the upload once stdin reaches EOF, so on a writer
+     * failure the process is killed before stdin is closed and no partial file is left behind.
+     */
+    @Override
+    public void backupStream(ArchiveStreamWriter writer, String destination) throws RcloneException, CompressionException {
+        String remoteName = rcloneValidator.extractRemoteName(destination);
+        rcloneValidator.validateRemoteConfiguration(remoteName);
+
+        List<String> command = new ArrayList<>();
+        command.add("rclone");
+        command.add("rcat");
+        command.add(destination);
+
+        if (!rcloneConfigPath.isBlank()) {
+            command.add("--config");
+            command.add(rcloneConfigPath);
+        }
+
+        addProgressFlags(command);
+        Map<String, String> environment = new HashMap<>();
+        BandwidthScheduler.Allocation bandwidth = shareBandwidth(command, environment, destination);
+
+        log.info("Running Rclone command: {}", String.join(" ", command));
+
+        progressTracker.started(destination);
+        boolean success = false;
+        try {
+            streamToProcess(writer, command, environment, destination);
+            success = true;
+        } finally {
+            closeQuietly(bandwidth);
+            progressTracker.finished(destination, success);
+        }
+    }
+
+    private void streamToProcess(ArchiveStreamWriter writer, List<String> command, Map<String, String> environment,
+                                 String destination) throws RcloneException, CompressionException {
+        Process process;
+        try {
+            ProcessBuilder processBuilder = new ProcessBuilder(command)
+                    .redirectErrorStream(true);
+            processBuilder.environment().putAll(environment);
+            process = processBuilder.start();
+        } catch (IOException e) {
+            log.error("Failed to execute rclone rcat command", e);
+            throw new RcloneException("Failed to execute rclone rcat command", e);
+        }
+        Thread outputReader = RcloneOutputReader.start(process.getInputStream(), destination, progressTracker);
+
+        OutputStream stdin = new BufferedOutputStream(process.getOutputStream(), STREAM_BUFFER_SIZE);
+        try {
+            writer.writeTo(stdin);
+        } catch (CompressionException | RuntimeException e) {
+            abortStream(process, stdin);
+            // A broken pipe usually means rclone itself died; surface its exit code instead
+            int exitCode = process.exitValue();
+            if (e instanceof CompressionException && exitCode != 0 && isBrokenPipe(e)) {
+                throw new RcloneException("Rclone streaming upload to " + destination + " failed with exit code " + exitCode, exitCode, e);
+            }
+            throw e;
+        }
+
+        try {
+            stdin.close(); // EOF commits the upload
             int exitCode = process.waitFor();
+            outputReader.join(); // Picks up the final stats line
 
             if (exitCode != 0) {
-                log.error("Rclone backup failed from {} to {} with exit code {}", source, destination, exitCode);
-                throw new RcloneException("Rclone backup failed with exit code " + exitCode);
+                log.error("Rclone streaming upload to {} failed with exit code {}", destination, exitCode);
+                throw new RcloneException("Rclone streaming upload failed with exit code " + exitCode, exitCode);
             }
 
-            log.info("✅ Successfully backed up from {} to {}", source, destination);
+            log.info("✅ Successfully streamed backup to {}", destination);
         } catch (IOException e) {
-            log.error("Failed to execute rclone backup command", e);
-            throw new RcloneException("Failed to execute rclone backup command", e);
+            abortStream(process, stdin);
+            throw new RcloneException("Failed to finish rclone streaming upload to " + destination, e);
         } catch (InterruptedException e) {
+            process.destroyForcibly();
             Thread.currentThread().interrupt();
-            throw new RcloneException("Rclone backup was interrupted", e);
+            throw new RcloneException("Rclone streaming upload was interrupted", e);
+        }
+    }
+
+    /**
+     * Makes rclone log as JSON with periodic stats, which {@link RcloneOutputReader} turns into live progress.
+     */
+    private void addProgressFlags(List<String> command) {
+        command.add("--verbose");
+        command.add("--use-json-log");
+        command.add("--stats");
+        command.add(statsInterval);
+    }
+
+    /**
+     * Starts the upload at its share of the scheduled bandwidth and opens its remote control on a private
+     * port, so the share can follow the schedule and the number of running uploads. Credentials go through
+     * the environment so they don't show up in the process list.
+     *
+     * @return the allocation to close once the process has ended, null if no bandwidth limit is configured
+     */
+    BandwidthScheduler.Allocation shareBandwidth(List<String> command, Map<String, String> environment,
+                                                 String destination) throws RcloneException {
+        if (!bandwidthScheduler.isEnabled()) {
+            return null;
+        }
+        int port = RcloneRcClient.findFreePort();
+        String password = RcloneRcClient.generatePassword();
+        RcloneRcClient rc = new RcloneRcClient("http://127.0.0.1:" + port + "/", "backup-service", password, RC_TIMEOUT);
+        BandwidthScheduler.Allocation allocation;
+        try {
+            allocation = bandwidthScheduler.acquire(destination, rc::setBandwidthLimit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RcloneException("Upload to " + destination + " was interrupted while waiting for bandwidth", e);
+        }
+
+        command.add("--bwlimit");
+        command.add(BandwidthScheduler.toRcloneRate(allocation.rate()));
+        command.add("--rc");
+        command.add("--rc-addr");
+        command.add("127.0.0.1:" + port);
+        environment.put("RCLONE_RC_USER", "backup-service");
+        environment.put("RCLONE_RC_PASS", password);
+        return allocation;
+    }
+
+    private static void closeQuietly(BandwidthScheduler.Allocation bandwidth) {
+        if (bandwidth != null) {
+            bandwidth.close();
+        }
+    }
+
+    private void abortStream(Process process, OutputStream stdin) {
+        process.destroyForcibly();
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            stdin.close();
+        } catch (IOException e) {
+            log.debug("Ignoring error while closing aborted rclone stdin: {}", e.getMessage());
+        }
+    }
+
+    private boolean isBrokenPipe(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof IOException && t.getMessage() != null
+                    && (t.getMessage().contains("Broken pipe") || t.getMessage().contains("Stream closed"))) {
+                return true;
+            }
         }
+        return false;
     }
-}
\ No newline at end of file
+}
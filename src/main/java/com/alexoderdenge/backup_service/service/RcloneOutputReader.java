@@ -0,0 +1,106 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.TransferProgress;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Drains the output of an rclone process started with {@code --use-json-log --stats}, forwarding stats
+ * snapshots to the {@link TransferProgressTracker} and every other line to the application log.
+ * <p>
+ * Runs on its own thread and reads line by line, so rclone never blocks on a full pipe and no more than
+ * one line is held in memory at a time.
+ */
+@Slf4j
+class RcloneOutputReader implements Runnable {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final InputStream output;
+    private final String destination;
+    private final TransferProgressTracker progressTracker;
+
+    RcloneOutputReader(InputStream output, String destination, TransferProgressTracker progressTracker) {
+        this.output = output;
+        this.destination = destination;
+        this.progressTracker = progressTracker;
+    }
+
+    /**
+     * Starts a daemon thread reading the given process output.
+     */
+    static Thread start(InputStream output, String destination, TransferProgressTracker progressTracker) {
+        Thread thread = new Thread(new RcloneOutputReader(output, destination, progressTracker), "rclone-output-reader");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Override
+    public void run() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(output, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                handleLine(line);
+            }
+        } catch (IOException e) {
+            log.debug("Stopped reading rclone output for {}: {}", destination, e.getMessage());
+        }
+    }
+
+    void handleLine(String line) {
+        if (line.isBlank()) {
+            return;
+        }
+        JsonNode node;
+        try {
+            node = line.startsWith("{") ? OBJECT_MAPPER.readTree(line) : null;
+        } catch (IOException e) {
+            node = null;
+        }
+        if (node == null) {
+            log.info("[rclone] {}", line);
+            return;
+        }
+
+        JsonNode stats = node.get("stats");
+        if (stats != null && stats.isObject()) {
+            progressTracker.update(parseStats(destination, stats));
+            return;
+        }
+
+        String level = node.path("level").asText("info");
+        String message = node.path("msg").asText(line);
+        String object = node.path("object").asText("");
+        String text = object.isEmpty() ? message : object + ": " + message;
+        switch (level) {
+            case "error", "critical", "fatal" -> log.error("[rclone] {}", text);
+            case "warning", "notice" -> log.warn("[rclone] {}", text);
+            case "debug" -> log.debug("[rclone] {}", text);
+            default -> log.info("[rclone] {}", text);
+        }
+    }
+
+    static TransferProgress parseStats(String destination, JsonNode stats) {
+        TransferProgress progress = new TransferProgress();
+        progress.setDestination(destination);
+        progress.setBytes(stats.path("bytes").asLong());
+        progress.setTotalBytes(stats.path("totalBytes").asLong());
+        progress.setBytesPerSecond(stats.path("speed").asDouble());
+        JsonNode eta = stats.get("eta");
+        progress.setEtaSeconds(eta != null && eta.isNumber() ? eta.asLong() : null);
+        progress.setTransfers(stats.path("transfers").asLong());
+        progress.setTotalTransfers(stats.path("totalTransfers").asLong());
+        progress.setErrors(stats.path("errors").asLong());
+        JsonNode lastError = stats.get("lastError");
+        progress.setLastError(lastError != null && !lastError.isNull() ? lastError.asText() : null);
+        return progress;
+    }
+}
@@ -0,0 +1,165 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.service.exception.CompressionException;
+import com.alexoderdenge.backup_service.service.exception.RcloneException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Calls the remote control API of one rclone process, either the {@code rclone rcd} daemon or a single
+ * transfer started with {@code --rc}.
+ */
+class RcloneRcClient {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).build();
+    private static final int UPLOAD_CHUNK_SIZE = 1024 * 1024;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String baseUrl;
+    private final String user;
+    private final String password;
+    private final Duration timeout;
+
+    RcloneRcClient(String baseUrl, String user, String password, Duration timeout) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.user = user;
+        this.password = password;
+        this.timeout = timeout;
+    }
+
+    String baseUrl() {
+        return baseUrl;
+    }
+
+    Map<String, Object> call(String operation, Map<String, Object> params) {
+        try {
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + operation))
+                    .timeout(timeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(params)));
+            if (user != null && !user.isEmpty()) {
+                request.header("Authorization", basicAuthorization());
+            }
+
+            HttpResponse<String> response = HTTP_CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            Map<String, Object> body = response.body() == null || response.body().isBlank()
+                    ? Map.of()
+                    : objectMapper.readValue(response.body(), new TypeReference<Map<String, Object>>() { });
+            if (response.statusCode() != 200) {
+                throw new RcloneException("Rclone rc call " + operation + " failed with HTTP "
+                        + response.statusCode() + ": " + body.getOrDefault("error", response.body()));
+            }
+            return body;
+        } catch (IOException e) {
+            throw new RcloneException("Failed to call rclone rc " + operation, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RcloneException("Rclone rc call " + operation + " was interrupted", e);
+        }
+    }
+
+    /**
+     * Uploads the content produced by the writer as one file with {@code operations/uploadfile}. The multipart
+     * body is sent while the writer runs, so nothing is staged on local disk. If the writer fails, the
+     * connection is dropped before the closing boundary and rclone fails the upload instead of committing
+     * a truncated file.
+     *
+     * @param fs        the remote, e.g. {@code "gdrive:"}
+     * @param directory the directory within the remote
+     * @param fileName  the name of the uploaded file
+     * @throws CompressionException if the writer fails
+     */
+    void uploadFile(String fs, String directory, String fileName, ArchiveStreamWriter writer) throws CompressionException {
+        String boundary = "backup-service-" + generatePassword();
+        HttpURLConnection connection = null;
+        try {
+            URI uri = URI.create(baseUrl + "operations/uploadfile?fs=" + URLEncoder.encode(fs, StandardCharsets.UTF_8)
+                    + "&remote=" + URLEncoder.encode(directory, StandardCharsets.UTF_8));
+            connection = (HttpURLConnection) uri.toURL().openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(UPLOAD_CHUNK_SIZE);
+            connection.setConnectTimeout((int) CONNECT_TIMEOUT.toMillis());
+            connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+            if (user != null && !user.isEmpty()) {
+                connection.setRequestProperty("Authorization", basicAuthorization());
+            }
+
+            OutputStream body = new BufferedOutputStream(connection.getOutputStream(), UPLOAD_CHUNK_SIZE);
+            body.write(("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file0\"; filename=\"" + fileName.replace("\"", "\\\"") + "\"\r\n"
+                    + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            try {
+                writer.writeTo(body);
+            } catch (CompressionException | RuntimeException e) {
+                connection.disconnect();
+                throw e;
+            }
+            body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+            body.close();
+
+            int status = connection.getResponseCode();
+            try (InputStream response = status == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+                String text = response == null ? "" : new String(response.readAllBytes(), StandardCharsets.UTF_8);
+                if (status != 200) {
+                    Map<String, Object> error = text.isBlank()
+                            ? Map.of()
+                            : objectMapper.readValue(text, new TypeReference<Map<String, Object>>() { });
+                    throw new RcloneException("Rclone rc call operations/uploadfile failed with HTTP "
+                            + status + ": " + error.getOrDefault("error", text));
+                }
+            }
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            throw new RcloneException("Failed to call rclone rc operations/uploadfile", e);
+        }
+    }
+
+    private String basicAuthorization() {
+        String credentials = user + ":" + password;
+        return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Changes the bandwidth limit of the whole process.
+     *
+     * @param bytesPerSecond the new limit, 0 for unlimited
+     */
+    void setBandwidthLimit(long bytesPerSecond) {
+        call("core/bwlimit", Map.of("rate", BandwidthScheduler.toRcloneRate(bytesPerSecond)));
+    }
+
+    static int findFreePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new RcloneException("Failed to find a free port for rclone remote control", e);
+        }
+    }
+
+    static String generatePassword() {
+        byte[] bytes = new byte[24];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,490 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.service.exception.CompressionException;
+import com.alexoderdenge.backup_service.service.exception.RcloneException;
+import com.alexoderdenge.backup_service.service.exception.RcloneNotInstalledException;
+import com.alexoderdenge.backup_service.service.exception.RemoteNotConfiguredException;
+import com.alexoderdenge.backup_service.model.TransferProgress;
+import com.alexoderdenge.backup_service.util.CountingOutputStream;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cloud provider that talks to one long-lived {@code rclone rcd} daemon through its remote control API
+ * instead of forking a new rclone process (and re-reading the config) for every operation.
+ * <p>
+ * The daemon is started on a random local port with a generated password, unless {@code rclone.rc.url}
+ * points at an already running daemon. Transfers are submitted as async jobs and their job IDs are
+ * polled until completion, together with their stats, which are passed on to the
+ * {@link TransferProgressTracker}. Selected with {@code "cloudProvider": "rclone-rcd"} in the backup config.
+ */
+@Slf4j
+public class RcloneRcCloudProvider implements CloudProvider, AutoCloseable {
+
+    public static final String PROVIDER_NAME = "rclone-rcd";
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(1);
+    private static final Duration REMOTE_CACHE_TTL = Duration.ofMinutes(5);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String externalUrl;
+    private final String rcloneConfigPath;
+    private final Duration pollInterval;
+    private final Duration startupTimeout;
+    private final BandwidthScheduler bandwidthScheduler;
+    private final TransferProgressTracker progressTracker;
+
+    private volatile RcloneRcClient client;
+    private volatile RemoteList remoteList;
+    private String user;
+    private String password;
+    private Process daemon;
+    private BandwidthScheduler.Allocation bandwidth;
+
+    public RcloneRcCloudProvider(String externalUrl, String user, String password, String rcloneConfigPath,
+                                 Duration pollInterval, Duration startupTimeout) {
+        this(externalUrl, user, password, rcloneConfigPath, pollInterval, startupTimeout, null, null);
+    }
+
+    /**
+     * @param bandwidthScheduler limits the daemon to the scheduled bandwidth, null for no limit
+     * @param progressTracker    receives the progress of every transfer, null to not report progress
+     */
+    public RcloneRcCloudProvider(String externalUrl, String user, String password, String rcloneConfigPath,
+                                 Duration pollInterval, Duration startupTimeout, BandwidthScheduler bandwidthScheduler,
+                                 TransferProgressTracker progressTracker) {
+        this.externalUrl = externalUrl == null ? "" : externalUrl.trim();
+        this.user = user;
+        this.password = password;
+        this.rcloneConfigPath = rcloneConfigPath == null ? "" : rcloneConfigPath;
+        this.pollInterval = pollInterval;
+        this.startupTimeout = startupTimeout;
+        this.bandwidthScheduler = bandwidthScheduler;
+        this.progressTracker = progressTracker;
+    }
+
+    /**
+     * Starts the daemon (or connects to the external one) and waits until it answers.
+     */
+    public synchronized void start() {
+        if (!externalUrl.isEmpty()) {
+            client = new RcloneRcClient(externalUrl, user, password, REQUEST_TIMEOUT);
+            log.info("🔌 Using external rclone remote control at {}", client.baseUrl());
+        } else {
+            startDaemon();
+        }
+        awaitReady();
+        limitBandwidth();
+    }
+
+    /**
+     * All transfers of the daemon share its bandwidth limit, so the daemon takes one share of the schedule
+     * for as long as it runs.
+     */
+    private void limitBandwidth() {
+        if (bandwidthScheduler == null || !bandwidthScheduler.isEnabled()) {
+            return;
+        }
+        if (bandwidth == null) {
+            try {
+                bandwidth = bandwidthScheduler.acquire(PROVIDER_NAME, rate -> client.setBandwidthLimit(rate));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RcloneException("Interrupted while waiting for bandwidth for the rclone daemon", e);
+            }
+        } else {
+            bandwidth.reapply(); // A restarted daemon starts unlimited
+        }
+    }
+
+    @Override
+    public void backup(UploadRequest request) throws RcloneException {
+        String source = request.source();
+        String destination = request.destination();
+        ensureRunning();
+        String[] remoteAndPath = splitDestination(destination);
+        validateRemote(remoteAndPath[0]);
+
+        Map<String, Object> params = new HashMap<>();
+        String operation;
+        if (request.isFile()) {
+            Path sourcePath = Paths.get(source).toAbsolutePath();
+            operation = "operations/copyfile";
+            params.put("srcFs", sourcePath.getParent().toString());
+            params.put("srcRemote", sourcePath.getFileName().toString());
+            params.put("dstFs", remoteAndPath[0] + ":");
+            params.put("dstRemote", remoteAndPath[1]);
+        } else {
+            // Same mirror semantics as the CLI provider's "rclone sync"
+            operation = "sync/sync";
+            params.put("srcFs", source);
+            params.put("dstFs", destination);
+            if (request.filesFrom() != null) {
+                params.put("_filter", Map.of(
+                        "FilesFromRaw", List.of(request.filesFrom().toString()),
+                        "DeleteExcluded", !request.keepUnlisted()));
+            }
+        }
+        runJob(operation, params, source, destination);
+        log.info("✅ Successfully backed up from {} to {}", source, destination);
+    }
+
+    @Override
+    public void copyFiles(String source, String destination, Path fileList) throws RcloneException {
+        ensureRunning();
+        validateRemote(splitDestination(destination)[0]);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("srcFs", source);
+        params.put("dstFs", destination);
+        params.put("_filter", Map.of("FilesFromRaw", List.of(fileList.toString())));
+        params.put("_config", Map.of("NoTraverse", true));
+        runJob("sync/copy", params, source, destination);
+        log.info("✅ Successfully copied changed files from {} to {}", source, destination);
+    }
+
+    @Override
+    public void deleteFiles(String source, String destination, Path fileList) throws RcloneException {
+        ensureRunning();
+        validateRemote(splitDestination(destination)[0]);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("fs", destination);
+        params.put("_filter", Map.of("FilesFromRaw", List.of(fileList.toString())));
+        runJob("operations/delete", params, source, destination);
+        log.info("🗑️ Successfully deleted removed files from {}", destination);
+    }
+
+    @Override
+    public Map<String, String> remoteMd5(String destination, Path fileList) throws RcloneException {
+        ensureRunning();
+        validateRemote(splitDestination(destination)[0]);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("fs", destination);
+        params.put("hashType", "md5");
+        params.put("_filter", Map.of("FilesFromRaw", List.of(fileList.toString())));
+        Map<String, String> checksums = new HashMap<>();
+        Object lines = call("operations/hashsum", params).get("hashsum");
+        if (lines instanceof List<?> list) {
+            for (Object line : list) {
+                RcloneCloudProvider.parseChecksumLine(String.valueOf(line), checksums);
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * Streams the archive into the daemon's {@code operations/uploadfile}, so compression and upload overlap
+     * and nothing is staged on local disk. On a writer failure the request is cut off and no partial file
+     * is committed.
+     */
+    @Override
+    public void backupStream(ArchiveStreamWriter writer, String destination) throws RcloneException, CompressionException {
+        ensureRunning();
+        String[] remoteAndPath = splitDestination(destination);
+        validateRemote(remoteAndPath[0]);
+
+        String path = remoteAndPath[1];
+        int separator = path.lastIndexOf('/');
+        String directory = separator < 0 ? "" : path.substring(0, separator);
+        String fileName = path.substring(separator + 1);
+        if (fileName.isEmpty()) {
+            throw new IllegalArgumentException("Streaming destination must name a file: " + destination);
+        }
+
+        log.info("Streaming to rclone rc operations/uploadfile: {}", destination);
+        if (progressTracker == null) {
+            client.uploadFile(remoteAndPath[0] + ":", directory, fileName, writer);
+        } else {
+            progressTracker.started(destination);
+            boolean success = false;
+            try {
+                client.uploadFile(remoteAndPath[0] + ":", directory, fileName,
+                        out -> writer.writeTo(new ProgressOutputStream(out, destination)));
+                success = true;
+            } finally {
+                progressTracker.finished(destination, success);
+            }
+        }
+        log.info("✅ Successfully streamed backup to {}", destination);
+    }
+
+    @Override
+    public void download(String source, String destination, boolean isFile) throws RcloneException {
+        ensureRunning();
+        String[] remoteAndPath = splitDestination(source);
+        validateRemote(remoteAndPath[0]);
+
+        Map<String, Object> params = new HashMap<>();
+        String operation;
+        if (isFile) {
+            Path destinationPath = Paths.get(destination).toAbsolutePath();
+            operation = "operations/copyfile";
+            params.put("srcFs", remoteAndPath[0] + ":");
+            params.put("srcRemote", remoteAndPath[1]);
+            params.put("dstFs", destinationPath.getParent().toString());
+            params.put("dstRemote", destinationPath.getFileName().toString());
+        } else {
+            operation = "sync/copy";
+            params.put("srcFs", source);
+            params.put("dstFs", destination);
+        }
+        runJob(operation, params, source, destination);
+        log.info("✅ Successfully downloaded from {} to {}", source, destination);
+    }
+
+    /**
+     * Asks the daemon for its remotes and refreshes the cached list that operations are validated against.
+     * @return the remotes configured in the daemon (without trailing ':')
+     */
+    public List<String> listRemotes() {
+        ensureRunning();
+        Object remotes = call("config/listremotes", Map.of()).get("remotes");
+        List<String> result = new ArrayList<>();
+        if (remotes instanceof Collection<?> names) {
+            names.forEach(name -> result.add(String.valueOf(name)));
+        }
+        remoteList = new RemoteList(new HashSet<>(result), System.nanoTime());
+        return result;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (bandwidth != null) {
+            bandwidth.close();
+            bandwidth = null;
+        }
+        if (daemon != null && daemon.isAlive()) {
+            log.info("🛑 Stopping rclone remote control daemon");
+            daemon.destroy();
+            try {
+                daemon.waitFor();
+            } catch (InterruptedException e) {
+                daemon.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Checks the remote against the cached list, asking the daemon again only when the list has expired
+     * or does not contain the remote, which may have been added since.
+     */
+    private void validateRemote(String remoteName) {
+        RemoteList cached = remoteList;
+        if (cached != null && cached.isFresh() && cached.remotes().contains(remoteName)) {
+            return;
+        }
+        if (!listRemotes().contains(remoteName)) {
+            throw new RemoteNotConfiguredException(remoteName);
+        }
+    }
+
+    /**
+     * Submits the operation as an async job and waits until it finishes.
+     */
+    private void runJob(String operation, Map<String, Object> params, String source, String destination) {
+        params.put("_async", true);
+
+        log.info("Submitting rclone rc job {}: {} -> {}", operation, source, destination);
+        if (progressTracker != null) {
+            progressTracker.started(destination);
+        }
+        boolean success = false;
+        try {
+            Map<String, Object> response = call(operation, params);
+            Object jobId = response.get("jobid");
+            if (jobId == null) {
+                throw new RcloneException("Rclone rc did not return a job id for " + operation);
+            }
+
+            awaitJob(((Number) jobId).longValue(), source, destination);
+            success = true;
+        } finally {
+            if (progressTracker != null) {
+                progressTracker.finished(destination, success);
+            }
+        }
+    }
+
+    private void awaitJob(long jobId, String source, String destination) {
+        while (true) {
+            Map<String, Object> status = call("job/status", Map.of("jobid", jobId));
+            reportProgress(jobId, destination);
+            if (Boolean.TRUE.equals(status.get("finished"))) {
+                if (!Boolean.TRUE.equals(status.get("success"))) {
+                    log.error("Rclone rc job {} from {} to {} failed: {}", jobId, source, destination, status.get("error"));
+                    throw new RcloneException("Rclone rc job " + jobId + " failed: " + status.get("error"));
+                }
+                log.debug("Rclone rc job {} finished in {}s", jobId, status.get("duration"));
+                return;
+            }
+            try {
+                Thread.sleep(pollInterval.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopJobQuietly(jobId);
+                throw new RcloneException("Rclone rc job " + jobId + " was interrupted", e);
+            }
+        }
+    }
+
+    /**
+     * Passes the stats of the job on to the progress tracker. rclone keeps the stats of every async job in
+     * the group {@code job/<id>}, so they are not mixed up with other transfers of the daemon.
+     */
+    private void reportProgress(long jobId, String destination) {
+        if (progressTracker == null) {
+            return;
+        }
+        try {
+            Map<String, Object> stats = call("core/stats", Map.of("group", "job/" + jobId));
+            progressTracker.update(RcloneOutputReader.parseStats(destination, OBJECT_MAPPER.valueToTree(stats)));
+        } catch (RcloneException e) {
+            log.debug("Could not read the stats of rclone rc job {}: {}", jobId, e.getMessage());
+        }
+    }
+
+    private void stopJobQuietly(long jobId) {
+        try {
+            call("job/stop", Map.of("jobid", jobId));
+        } catch (RcloneException e) {
+            log.warn("Failed to stop rclone rc job {}: {}", jobId, e.getMessage());
+        }
+    }
+
+    private Map<String, Object> call(String operation, Map<String, Object> params) {
+        return client.call(operation, params);
+    }
+
+    private synchronized void ensureRunning() {
+        if (client == null || (externalUrl.isEmpty() && (daemon == null || !daemon.isAlive()))) {
+            log.warn("Rclone remote control daemon is not running, starting it");
+            start();
+        }
+    }
+
+    private void startDaemon() {
+        int port = RcloneRcClient.findFreePort();
+        user = "backup-service";
+        password = RcloneRcClient.generatePassword();
+        client = new RcloneRcClient("http://127.0.0.1:" + port + "/", user, password, REQUEST_TIMEOUT);
+
+        List<String> command = new ArrayList<>();
+        command.add("rclone");
+        command.add("rcd");
+        command.add("--rc-addr");
+        command.add("127.0.0.1:" + port);
+        if (!rcloneConfigPath.isBlank()) {
+            command.add("--config");
+            command.add(rcloneConfigPath);
+        }
+
+        log.info("🚀 Starting rclone remote control daemon on 127.0.0.1:{}", port);
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT);
+            // Credentials go through the environment so they don't show up in the process list
+            pb.environment().put("RCLONE_RC_USER", user);
+            pb.environment().put("RCLONE_RC_PASS", password);
+            daemon = pb.start();
+        } catch (IOException e) {
+            log.error("Failed to start rclone rcd", e);
+            throw new RcloneNotInstalledException();
+        }
+    }
+
+    private void awaitReady() {
+        long deadline = System.nanoTime() + startupTimeout.toNanos();
+        RcloneException lastError = null;
+        while (System.nanoTime() < deadline) {
+            if (daemon != null && !daemon.isAlive()) {
+                throw new RcloneException("Rclone rcd exited during startup with code " + daemon.exitValue());
+            }
+            try {
+                call("rc/noop", Map.of());
+                log.info("✅ Rclone remote control is ready at {}", client.baseUrl());
+                return;
+            } catch (RcloneException e) {
+                lastError = e;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RcloneException("Interrupted while waiting for rclone rcd", e);
+            }
+        }
+        throw new RcloneException("Rclone remote control did not become ready within " + startupTimeout, lastError);
+    }
+
+    private static String[] splitDestination(String destination) {
+        int separator = destination == null ? -1 : destination.indexOf(':');
+        if (separator <= 0 || separator == destination.length() - 1) {
+            throw new IllegalArgumentException("Invalid destination format. Expected format: 'remoteName:path'");
+        }
+        return new String[]{destination.substring(0, separator), destination.substring(separator + 1)};
+    }
+
+    /**
+     * Reports the bytes streamed into an upload, at most once per poll interval. The daemon's stats of
+     * {@code operations/uploadfile} are not grouped per upload, so the stream is counted here instead.
+     */
+    private final class ProgressOutputStream extends CountingOutputStream {
+        private final String destination;
+        private final long startNanos = System.nanoTime();
+        private long reportedNanos = startNanos;
+
+        private ProgressOutputStream(OutputStream out, String destination) {
+            super(out);
+            this.destination = destination;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            super.write(b);
+            report();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            report();
+        }
+
+        private void report() {
+            long now = System.nanoTime();
+            if (now - reportedNanos < pollInterval.toNanos()) {
+                return;
+            }
+            reportedNanos = now;
+            TransferProgress progress = new TransferProgress();
+            progress.setDestination(destination);
+            progress.setBytes(getCount());
+            progress.setBytesPerSecond(getCount() * 1e9 / Math.max(1, now - startNanos));
+            progressTracker.update(progress);
+        }
+    }
+
+    private record RemoteList(Set<String> remotes, long loadedAtNanos) {
+
+        boolean isFresh() {
+            return System.nanoTime() - loadedAtNanos < REMOTE_CACHE_TTL.toNanos();
+        }
+    }
+}
@@ -10,8 +10,14 @@ import org.springframework.stereotype.Component;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,9 +25,16 @@ import java.util.regex.Pattern;
 @Slf4j
 public class RcloneValidator {
 
+    private static final long CONFIG_FILE_MISSING = -1L;
+
     @Value("${rclone.config-path:}")
     private String rcloneConfigPath;
 
+    @Value("${rclone.remote-cache-ttl:PT5M}")
+    private Duration remoteCacheTtl = Duration.ofMinutes(5);
+
+    private volatile RemoteRegistry remoteRegistry;
+
     /**
      * Validates that rclone is installed and accessible
      */
@@ -55,10 +68,53 @@ public class RcloneValidator {
     }
 
     /**
-     * Validates that a remote is configured in rclone
+     * Validates that a remote is configured in rclone.
+     * Lookups are answered from a cached registry of remotes, see {@link #getConfiguredRemotes()}.
      * @param remoteName the name of the remote to validate
      */
     public void validateRemoteConfiguration(String remoteName) {
+        if (!getConfiguredRemotes().contains(remoteName)) {
+            throw new RemoteNotConfiguredException(remoteName);
+        }
+
+        log.debug("Remote '{}' configuration validated successfully", remoteName);
+    }
+
+    /**
+     * Returns the remotes configured in rclone. The list is loaded once with {@code rclone listremotes}
+     * and reused until the rclone config file's modification time changes or the cache TTL expires.
+     * @return the names of the configured remotes (without trailing ':')
+     */
+    public Set<String> getConfiguredRemotes() {
+        RemoteRegistry registry = remoteRegistry;
+        if (registry != null && registry.isFresh(configFileModifiedTime(), remoteCacheTtl)) {
+            return registry.remotes();
+        }
+
+        synchronized (this) {
+            // Another thread may have refreshed the registry while we were waiting
+            long configModified = configFileModifiedTime();
+            registry = remoteRegistry;
+            if (registry == null || !registry.isFresh(configModified, remoteCacheTtl)) {
+                registry = new RemoteRegistry(Set.copyOf(listRemotes()), System.nanoTime(), configModified);
+                remoteRegistry = registry;
+                log.debug("Loaded {} rclone remotes into registry: {}", registry.remotes().size(), registry.remotes());
+            }
+            return registry.remotes();
+        }
+    }
+
+    /**
+     * Drops the cached remote registry, so the next lookup lists the remotes again.
+     */
+    public void invalidateRemoteCache() {
+        remoteRegistry = null;
+    }
+
+    /**
+     * Runs {@code rclone listremotes} and parses its output.
+     */
+    Set<String> listRemotes() {
         try {
             List<String> command = new ArrayList<>();
             command.add("rclone");
@@ -71,32 +127,26 @@ public class RcloneValidator {
 
             ProcessBuilder pb = new ProcessBuilder(command);
             Process process = pb.start();
-            
+            Set<String> remotes = new HashSet<>();
+
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
                 String line;
-                boolean remoteFound = false;
-                
                 while ((line = reader.readLine()) != null) {
                     // rclone listremotes outputs remotes in format "remoteName:"
-                    if (line.trim().equals(remoteName + ":")) {
-                        remoteFound = true;
-                        break;
+                    String trimmed = line.trim();
+                    if (trimmed.endsWith(":")) {
+                        remotes.add(trimmed.substring(0, trimmed.length() - 1));
                     }
                 }
-                
+
                 int exitCode = process.waitFor();
-                
+
                 if (exitCode != 0) {
                     log.error("Failed to list rclone remotes, exit code: {}", exitCode);
                     throw new RcloneException("Failed to validate remote configuration");
                 }
-                
-                if (!remoteFound) {
-                    throw new RemoteNotConfiguredException(remoteName);
-                }
             }
-
-            log.debug("Remote '{}' configuration validated successfully", remoteName);
+            return remotes;
         } catch (IOException e) {
             log.error("Failed to execute rclone listremotes command", e);
             throw new RcloneException("Failed to validate remote configuration", e);
@@ -106,6 +156,30 @@ public class RcloneValidator {
         }
     }
 
+    /**
+     * Resolves the rclone config file: the configured path, or rclone's default locations.
+     */
+    Path resolveConfigFile() {
+        if (rcloneConfigPath != null && !rcloneConfigPath.isBlank()) {
+            return Paths.get(rcloneConfigPath);
+        }
+        String xdgConfigHome = System.getenv("XDG_CONFIG_HOME");
+        Path configDir = xdgConfigHome != null && !xdgConfigHome.isBlank()
+                ? Paths.get(xdgConfigHome)
+                : Paths.get(System.getProperty("user.home"), ".config");
+        Path defaultConfig = configDir.resolve("rclone").resolve("rclone.conf");
+        Path legacyConfig = Paths.get(System.getProperty("user.home"), ".rclone.conf");
+        return Files.exists(defaultConfig) || !Files.exists(legacyConfig) ? defaultConfig : legacyConfig;
+    }
+
+    private long configFileModifiedTime() {
+        try {
+            return Files.getLastModifiedTime(resolveConfigFile()).toMillis();
+        } catch (IOException e) {
+            return CONFIG_FILE_MISSING;
+        }
+    }
+
     /**
      * Extracts remote name from a destination path
      * @param destination the destination path (e.g., "remoteName:path/to/destination")
@@ -126,4 +200,12 @@ public class RcloneValidator {
         
         return matcher.group(1);
     }
+
+    private record RemoteRegistry(Set<String> remotes, long loadedAtNanos, long configModifiedMillis) {
+
+        boolean isFresh(long currentConfigModifiedMillis, Duration ttl) {
+            return currentConfigModifiedMillis == configModifiedMillis
+                    && System.nanoTime() - loadedAtNanos < ttl.toNanos();
+        }
+    }
 }
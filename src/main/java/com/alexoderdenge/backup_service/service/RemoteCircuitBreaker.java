@@ -0,0 +1,131 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.service.exception.CircuitOpenException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fails transfers to a remote fast once it has failed a number of times in a row, so the remaining
+ * entries on a remote that is down don't each pay for starting rclone and waiting for its timeout.
+ * <p>
+ * After {@code failure-threshold} consecutive failures the circuit of the remote opens and every transfer
+ * to it is refused with a {@link CircuitOpenException}. Once {@code open-duration} has passed, a single
+ * transfer is let through as a probe: if it succeeds the circuit closes, if it fails it opens again.
+ * The state outlives a backup run, so a remote that is still down is not hammered by the next run either.
+ */
+@Service
+@Slf4j
+public class RemoteCircuitBreaker {
+
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Clock clock;
+    private final Map<String, Circuit> circuits = new HashMap<>();
+
+    private enum State {
+        CLOSED,    // Transfers run
+        OPEN,      // Transfers are refused until the open duration has passed
+        HALF_OPEN  // One probe is running, all other transfers are refused
+    }
+
+    private static final class Circuit {
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        private Instant openedAt;
+    }
+
+    /**
+     * @param failureThreshold consecutive failures after which a remote is skipped; 0 disables the breaker
+     * @param openDuration     how long a remote is skipped before it is probed again
+     */
+    @Autowired
+    public RemoteCircuitBreaker(@Value("${backup.circuit-breaker.failure-threshold:3}") int failureThreshold,
+                                @Value("${backup.circuit-breaker.open-duration:PT10M}") Duration openDuration) {
+        this(failureThreshold, openDuration, Clock.systemUTC());
+    }
+
+    RemoteCircuitBreaker(int failureThreshold, Duration openDuration, Clock clock) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.clock = clock;
+    }
+
+    /**
+     * Asks to start a transfer to the remote. Every call that returns must be followed by exactly one of
+     * {@link #recordSuccess}, {@link #recordFailure} or {@link #recordIgnored}.
+     *
+     * @throws CircuitOpenException if the remote is skipped or already being probed
+     */
+    public synchronized void acquire(String remote) {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        Circuit circuit = circuits.computeIfAbsent(remote, key -> new Circuit());
+        switch (circuit.state) {
+            case CLOSED -> { }
+            case OPEN -> {
+                Instant retryAt = circuit.openedAt.plus(openDuration);
+                if (clock.instant().isBefore(retryAt)) {
+                    throw new CircuitOpenException(remote, circuit.consecutiveFailures, retryAt);
+                }
+                circuit.state = State.HALF_OPEN;
+                log.info("🔌 Probing remote '{}' after {} consecutive failures", remote, circuit.consecutiveFailures);
+            }
+            case HALF_OPEN -> throw new CircuitOpenException(remote, circuit.consecutiveFailures,
+                    clock.instant().plus(openDuration));
+        }
+    }
+
+    /**
+     * Records that the transfer reached the remote; closes its circuit.
+     */
+    public synchronized void recordSuccess(String remote) {
+        Circuit circuit = circuits.get(remote);
+        if (circuit == null) {
+            return;
+        }
+        if (circuit.state != State.CLOSED) {
+            log.info("✅ Remote '{}' is reachable again", remote);
+        }
+        circuits.remove(remote);
+    }
+
+    /**
+     * Records that the transfer failed on the remote's side; opens the circuit once the threshold is reached.
+     */
+    public synchronized void recordFailure(String remote) {
+        Circuit circuit = circuits.get(remote);
+        if (circuit == null) {
+            return;
+        }
+        circuit.consecutiveFailures++;
+        if (circuit.state == State.HALF_OPEN || circuit.consecutiveFailures >= failureThreshold) {
+            if (circuit.state != State.OPEN) {
+                log.warn("🔌 Remote '{}' failed {} times in a row, skipping it for {}",
+                        remote, circuit.consecutiveFailures, openDuration);
+            }
+            circuit.state = State.OPEN;
+            circuit.openedAt = clock.instant();
+        }
+    }
+
+    /**
+     * Records that the transfer ended for a reason unrelated to the remote, e.g. a local compression error.
+     * A running probe is given up, so the next transfer probes the remote instead.
+     */
+    public synchronized void recordIgnored(String remote) {
+        Circuit circuit = circuits.get(remote);
+        if (circuit != null && circuit.state == State.HALF_OPEN) {
+            circuit.state = State.OPEN;
+            circuit.openedAt = clock.instant().minus(openDuration);
+        }
+    }
+}
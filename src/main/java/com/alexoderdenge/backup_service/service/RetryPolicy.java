@@ -0,0 +1,30 @@
+package com.alexoderdenge.backup_service.service;
+
+import java.time.Duration;
+import java.util.random.RandomGenerator;
+
+/**
+ * Exponential backoff with full jitter: the n-th retry waits a random time between zero and
+ * {@code initialDelay * 2^(n-1)}, capped at {@code maxDelay}. The randomness keeps entries that failed
+ * together on the same remote from all retrying at the same moment.
+ *
+ * @param maxAttempts  attempts including the first one
+ * @param initialDelay upper bound of the delay before the first retry
+ * @param maxDelay     upper bound of any delay
+ */
+public record RetryPolicy(int maxAttempts, Duration initialDelay, Duration maxDelay) {
+
+    /**
+     * @param retry the number of the retry, starting at 1
+     * @return the delay before that retry in milliseconds
+     */
+    public long delayMillis(int retry, RandomGenerator random) {
+        long cap = maxDelay.toMillis();
+        long bound = initialDelay.toMillis();
+        for (int i = 1; i < retry && bound < cap; i++) {
+            bound *= 2;
+        }
+        bound = Math.min(bound, cap);
+        return bound <= 0 ? 0 : random.nextLong(bound + 1);
+    }
+}
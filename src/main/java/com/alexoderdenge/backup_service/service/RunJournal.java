@@ -0,0 +1,406 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.BackupEntryResult;
+import com.alexoderdenge.backup_service.model.BackupJob;
+import com.alexoderdenge.backup_service.model.RunHistory;
+import com.alexoderdenge.backup_service.model.RunRecord;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of the result of every entry in every backup run, kept as JSON lines in
+ * {@code <state-dir>/history/runs.jsonl}.
+ * <p>
+ * Results are handed to a single writer thread through a bounded queue, so a run never waits for the
+ * disk: the writer takes whatever has queued up, appends it with one write and syncs it. A crash can only
+ * tear the last line, which is cut off when the journal is opened again. If the queue is full, the result
+ * is left out of the journal rather than holding up the run.
+ * <p>
+ * A sparse index keeps the offset of every n-th record together with the latest finish time up to it,
+ * so a query for a time range starts reading close to its first match instead of at the beginning.
+ */
+@Service
+@Slf4j
+public class RunJournal {
+
+    static final String FILE_NAME = "runs.jsonl";
+    private static final int DEFAULT_INDEX_INTERVAL = 64;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private final Path file;
+    private final int batchSize;
+    private final BlockingQueue<RunRecord> queue;
+    private final SparseIndex index;
+    private final Thread writer;
+    private FileChannel channel; // Only used by the writer thread, opened on the first write
+    private long submitted;      // Guarded by this
+    private long processed;      // Guarded by this
+
+    /**
+     * @param batchSize     most records appended and synced at once
+     * @param queueCapacity results waiting for the writer before further ones are dropped
+     */
+    @Autowired
+    public RunJournal(@Value("${backup.state-dir:${user.home}/.config/backup-service/state}") String stateDirectory,
+                      @Value("${backup.history.batch-size:256}") int batchSize,
+                      @Value("${backup.history.queue-capacity:10000}") int queueCapacity) {
+        this(Paths.get(stateDirectory).resolve("history"), batchSize, queueCapacity, DEFAULT_INDEX_INTERVAL);
+    }
+
+    RunJournal(Path directory, int batchSize, int queueCapacity, int indexInterval) {
+        this.file = directory.resolve(FILE_NAME);
+        this.batchSize = Math.max(1, batchSize);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.index = new SparseIndex(Math.max(1, indexInterval));
+        recover();
+        this.writer = new Thread(this::writeLoop, "run-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues the result of an entry for the journal. Never blocks.
+     */
+    public void record(BackupJob job, BackupEntryResult result) {
+        RunRecord record = new RunRecord(job.getId(), job.getTrigger(), result);
+        synchronized (this) {
+            if (!queue.offer(record)) {
+                log.warn("⚠️ Run journal is falling behind, leaving out the result of {}", result.getLocalPath());
+                return;
+            }
+            submitted++;
+        }
+    }
+
+    /**
+     * Waits until every result recorded so far is on disk.
+     *
+     * @return false if that did not happen within the timeout
+     */
+    public boolean flush(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (this) {
+            long target = submitted;
+            while (processed < target) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the results matching all given filters.
+     *
+     * @param entry local or cloud path of the entry as configured, null for all entries
+     * @param from  earliest finish time, null for no lower bound
+     * @param to    latest finish time, null for no upper bound
+     * @param limit most records returned; the summary covers all matching ones
+     */
+    public RunHistory query(String entry, Instant from, Instant to, int limit) throws IOException {
+        RunHistory history = new RunHistory();
+        long start = from == null ? 0 : index.seek(from.toEpochMilli());
+        if (start < 0 || !Files.exists(file)) {
+            return history;
+        }
+
+        Deque<RunRecord> latest = new ArrayDeque<>();
+        List<Long> durations = new ArrayList<>();
+        try (FileChannel readChannel = FileChannel.open(file, StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     Channels.newInputStream(readChannel.position(start)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                RunRecord record;
+                try {
+                    record = objectMapper.readValue(line, RunRecord.class);
+                } catch (JsonProcessingException e) {
+                    continue; // The tail of a batch that is being written right now
+                }
+                if (record.getResult() == null || !matches(record.getResult(), entry, from, to)) {
+                    continue;
+                }
+                summarize(history.getSummary(), record.getResult(), durations);
+                latest.addFirst(record);
+                if (latest.size() > limit) {
+                    latest.removeLast();
+                }
+            }
+        }
+
+        if (!durations.isEmpty()) {
+            Collections.sort(durations);
+            history.getSummary().setP50DurationMillis(percentile(durations, 0.50));
+            history.getSummary().setP95DurationMillis(percentile(durations, 0.95));
+            history.getSummary().setMaxDurationMillis(durations.get(durations.size() - 1));
+        }
+        history.setRecords(new ArrayList<>(latest));
+        return history;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        try {
+            if (!flush(Duration.ofSeconds(5))) {
+                log.warn("Run journal did not write all results before shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeChannel();
+    }
+
+    private void writeLoop() {
+        List<RunRecord> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                append(batch);
+                synchronized (this) {
+                    processed += batch.size();
+                    notifyAll();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Shutting down; whatever is still queued is lost
+        }
+    }
+
+    /**
+     * Appends the batch with a single write and syncs it. A failed write is cut off again, so the journal
+     * never keeps a torn line in the middle.
+     */
+    private void append(List<RunRecord> batch) {
+        long offset = -1;
+        try {
+            if (channel == null) {
+                Files.createDirectories(file.getParent());
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            offset = channel.size();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long[] offsets = new long[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                offsets[i] = offset + out.size();
+                out.write(objectMapper.writeValueAsBytes(batch.get(i)));
+                out.write('\n');
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            for (int i = 0; i < batch.size(); i++) {
+                index.add(offsets[i], finishTime(batch.get(i).getResult()));
+            }
+        } catch (IOException e) {
+            log.error("❌ Failed to write {} results to the run journal {}: {}", batch.size(), file, e.getMessage());
+            if (offset >= 0) {
+                try {
+                    channel.truncate(offset);
+                } catch (IOException truncateError) {
+                    log.warn("Failed to cut off the partial write: {}", truncateError.getMessage());
+                }
+            }
+            closeChannel(); // Reopened by the next batch
+        }
+    }
+
+    /**
+     * Rebuilds the sparse index from the journal and cuts off a line a crash left unfinished.
+     */
+    private void recover() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        long lineStart = 0;
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            long offset = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                offset++;
+                if (b == '\n') {
+                    index.add(lineStart, readFinishTime(line.toByteArray()));
+                    line.reset();
+                    lineStart = offset;
+                } else {
+                    line.write(b);
+                }
+            }
+            if (line.size() > 0) {
+                log.warn("⚠️ Cutting off an unfinished record ({} bytes) at the end of the run journal {}", line.size(), file);
+                try (FileChannel truncateChannel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    truncateChannel.truncate(lineStart);
+                }
+            }
+            log.info("📜 Run journal {} holds {} results", file, index.count());
+        } catch (IOException e) {
+            log.error("❌ Failed to read the run journal {}: {}", file, e.getMessage());
+        }
+    }
+
+    private long readFinishTime(byte[] line) {
+        try {
+            return finishTime(objectMapper.readValue(line, RunRecord.class).getResult());
+        } catch (IOException e) {
+            log.warn("Skipping unreadable record in the run journal: {}", e.getMessage());
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Ignoring error while closing the run journal: {}", e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+    private static long finishTime(BackupEntryResult result) {
+        return result == null || result.getFinishedAt() == null ? Long.MIN_VALUE : result.getFinishedAt().toEpochMilli();
+    }
+
+    private static boolean matches(BackupEntryResult result, String entry, Instant from, Instant to) {
+        if (entry != null && !entry.isBlank()
+                && !entry.equals(result.getLocalPath()) && !entry.equals(result.getCloudPath())) {
+            return false;
+        }
+        Instant finishedAt = result.getFinishedAt();
+        if (finishedAt == null) {
+            return from == null && to == null;
+        }
+        return (from == null || !finishedAt.isBefore(from)) && (to == null || !finishedAt.isAfter(to));
+    }
+
+    private static void summarize(RunHistory.Summary summary, BackupEntryResult result, List<Long> durations) {
+        summary.setRuns(summary.getRuns() + 1);
+        if (result.getStatus() == BackupEntryResult.Status.SUCCEEDED) {
+            summary.setSucceeded(summary.getSucceeded() + 1);
+        } else if (result.getStatus() == BackupEntryResult.Status.SKIPPED) {
+            summary.setSkipped(summary.getSkipped() + 1);
+        } else {
+            summary.setFailed(summary.getFailed() + 1);
+        }
+        if (result.getSourceBytes() != null) {
+            summary.setSourceBytes(summary.getSourceBytes() + result.getSourceBytes());
+        }
+        if (result.getBytes() != null) {
+            summary.setUploadedBytes(summary.getUploadedBytes() + result.getBytes());
+        }
+        if (result.getStatus() != BackupEntryResult.Status.SKIPPED) {
+            durations.add(result.getDurationMillis());
+        }
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values.
+     */
+    private static long percentile(List<Long> sorted, double fraction) {
+        int rank = (int) Math.ceil(fraction * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    /**
+     * Offsets of every n-th record, each with the latest finish time of all records up to the next indexed one.
+     * The times only grow, so the first block that can hold a match for a lower bound is found by binary search.
+     */
+    private static final class SparseIndex {
+        private final int interval;
+        private long[] offsets = new long[16];
+        private long[] maxTimes = new long[16];
+        private int size;
+        private long count;
+
+        private SparseIndex(int interval) {
+            this.interval = interval;
+        }
+
+        synchronized void add(long offset, long finishedAt) {
+            if (count % interval == 0) {
+                if (size == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, size * 2);
+                    maxTimes = Arrays.copyOf(maxTimes, size * 2);
+                }
+                offsets[size] = offset;
+                maxTimes[size] = size > 0 ? Math.max(maxTimes[size - 1], finishedAt) : finishedAt;
+                size++;
+            } else {
+                maxTimes[size - 1] = Math.max(maxTimes[size - 1], finishedAt);
+            }
+            count++;
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        /**
+         * @return the offset to start reading at for records finished at or after the given time, -1 if there are none
+         */
+        synchronized long seek(long from) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (maxTimes[mid] < from) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low < size ? offsets[low] : -1;
+        }
+    }
+}
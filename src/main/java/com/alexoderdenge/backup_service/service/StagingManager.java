@@ -0,0 +1,330 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.service.exception.InsufficientStagingSpaceException;
+import com.alexoderdenge.backup_service.util.FileUtils;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Hands out the local directories archives and packs are staged in before they are uploaded.
+ * <p>
+ * Staging roots are tried in the configured order; a root can be limited to entries up to a given size,
+ * so small entries go to a fast disk or tmpfs and large ones to a big disk. A directory is only handed out
+ * if the root keeps {@code min-free-space} free after the estimated size of the archive, counting what
+ * other staging directories on the same root have reserved but not written yet. What they have written
+ * already is gone from the root's usable space and is not counted a second time.
+ * <p>
+ * Every staging directory has an owner marker next to it naming the process that created it. At startup
+ * a reaper deletes staging directories whose owner is gone, e.g. after the JVM was killed mid-run.
+ */
+@Service
+@Slf4j
+public class StagingManager {
+
+    static final String OWNER_SUFFIX = ".owner";
+    private static final List<String> STAGING_PREFIXES = List.of(
+            "backup-compression-", "backup-dedup-", "backup-restore-", "backup-manifest-",
+            "backup-watch-");
+
+    private final List<StagingRoot> roots;
+    private final long minFreeSpace;
+    private final double sizeRatio;
+    private final Duration orphanAge;
+    private final List<StagingArea> activeAreas = new ArrayList<>();
+    private final ExecutorService cleaner = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "staging-cleanup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A staging root and the largest estimated archive it accepts.
+     */
+    record StagingRoot(Path path, long maxEntrySize) {
+    }
+
+    /**
+     * A staging directory and the space reserved for it on its root.
+     */
+    public record StagingArea(Path directory, Path root, long reservedBytes) {
+    }
+
+    /**
+     * @param roots        comma-separated staging roots, each optionally limited as {@code path=maxEntrySize}
+     *                     (e.g. {@code /mnt/nvme/staging=2GB,/data/staging}); empty uses the system temp directory
+     * @param minFreeSpace space every root must keep free after the estimated archive size
+     * @param sizeRatio    estimated archive size as a fraction of the source size
+     * @param orphanAge    age after which a staging directory without owner marker counts as orphaned
+     */
+    public StagingManager(@Value("${backup.staging.roots:}") String roots,
+                          @Value("${backup.staging.min-free-space:1GB}") String minFreeSpace,
+                          @Value("${backup.staging.size-ratio:1.0}") double sizeRatio,
+                          @Value("${backup.staging.orphan-age:PT1H}") Duration orphanAge) {
+        if (sizeRatio <= 0) {
+            throw new IllegalArgumentException("backup.staging.size-ratio must be positive, got: " + sizeRatio);
+        }
+        this.roots = parseRoots(roots);
+        this.minFreeSpace = DataSize.parse(minFreeSpace.trim()).toBytes();
+        this.sizeRatio = sizeRatio;
+        this.orphanAge = orphanAge;
+    }
+
+    /**
+     * @return the archive size expected for a source of the given size, 0 if the source size is unknown
+     */
+    public long estimateArchiveSize(long sourceBytes) {
+        return sourceBytes <= 0 ? 0 : (long) Math.ceil(sourceBytes * sizeRatio);
+    }
+
+    /**
+     * Creates a staging directory on the first root that accepts the estimated size and has room for it.
+     *
+     * @param prefix         prefix of the directory name, one of the staging prefixes
+     * @param estimatedBytes space to reserve for the directory's content, 0 if unknown
+     * @throws InsufficientStagingSpaceException if no root has room
+     */
+    public synchronized StagingArea allocate(String prefix, long estimatedBytes) throws IOException {
+        StagingRoot root = chooseRoot(estimatedBytes);
+        Path directory = FileUtils.createTempDirectory(root.path(), prefix);
+        try {
+            writeOwnerMarker(directory);
+        } catch (IOException e) {
+            FileUtils.deleteDirectoryRecursively(directory);
+            throw e;
+        }
+        StagingArea area = new StagingArea(directory, root.path(), estimatedBytes);
+        activeAreas.add(area);
+        log.debug("📂 Staging in {} ({} bytes reserved)", directory, estimatedBytes);
+        return area;
+    }
+
+    /**
+     * Deletes the staging directory and frees its reservation.
+     *
+     * @return false if the directory could not be deleted; the reaper retries at the next start
+     */
+    public boolean release(StagingArea area) {
+        try {
+            FileUtils.deleteDirectoryRecursively(area.directory());
+            Files.deleteIfExists(ownerMarker(area.directory()));
+            log.debug("🧹 Cleaned up staging directory: {}", area.directory());
+            return true;
+        } catch (IOException e) {
+            log.warn("Failed to cleanup staging directory {}: {}", area.directory(), e.getMessage());
+            return false;
+        } finally {
+            unreserve(area);
+        }
+    }
+
+    /**
+     * Deletes the staging directory in the background, so the caller can move on to the next entry.
+     */
+    public void releaseLater(StagingArea area) {
+        try {
+            cleaner.execute(() -> release(area));
+        } catch (RuntimeException e) {
+            release(area); // Shutting down, clean up right away
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reapOrphansInBackground() {
+        cleaner.execute(this::reapOrphans);
+    }
+
+    /**
+     * Deletes the staging directories left behind by processes that are gone.
+     *
+     * @return the number of directories deleted
+     */
+    public int reapOrphans() {
+        int reaped = 0;
+        for (StagingRoot root : roots) {
+            if (!Files.isDirectory(root.path())) {
+                continue;
+            }
+            List<Path> orphans = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(root.path())) {
+                for (Path child : children) {
+                    if (isOrphan(child)) {
+                        orphans.add(child);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Failed to scan staging root {} for orphans: {}", root.path(), e.getMessage());
+                continue;
+            }
+            for (Path orphan : orphans) {
+                try {
+                    if (Files.isDirectory(orphan)) {
+                        FileUtils.deleteDirectoryRecursively(orphan);
+                        reaped++;
+                        log.info("🧹 Removed orphaned staging directory {}", orphan);
+                    }
+                    Files.deleteIfExists(orphan.getFileName().toString().endsWith(OWNER_SUFFIX) ? orphan : ownerMarker(orphan));
+                } catch (IOException e) {
+                    log.warn("Failed to remove orphaned staging directory {}: {}", orphan, e.getMessage());
+                }
+            }
+        }
+        return reaped;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cleaner.shutdown();
+        try {
+            if (!cleaner.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Staging cleanup did not finish within 1 minute");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private StagingRoot chooseRoot(long estimatedBytes) throws IOException {
+        StringBuilder reasons = new StringBuilder();
+        for (StagingRoot root : roots) {
+            if (estimatedBytes > root.maxEntrySize()) {
+                continue;
+            }
+            Files.createDirectories(root.path());
+            long usable = Files.getFileStore(root.path()).getUsableSpace();
+            long reserved = unwrittenReservations(root.path());
+            long available = usable - reserved - minFreeSpace;
+            if (available >= estimatedBytes) {
+                return root;
+            }
+            reasons.append(String.format("%n  %s: %d bytes usable, %d reserved, %d kept free",
+                    root.path(), usable, reserved, minFreeSpace));
+        }
+        throw new InsufficientStagingSpaceException(reasons.isEmpty()
+                ? "No staging root accepts an archive of " + estimatedBytes + " bytes"
+                : "No staging root has room for an archive of " + estimatedBytes + " bytes:" + reasons, estimatedBytes);
+    }
+
+    private synchronized void unreserve(StagingArea area) {
+        activeAreas.remove(area);
+    }
+
+    /**
+     * @return the part of the reservations on the root that has not been written yet
+     */
+    private long unwrittenReservations(Path root) {
+        long unwritten = 0;
+        for (StagingArea area : activeAreas) {
+            if (area.root().equals(root) && area.reservedBytes() > 0) {
+                unwritten += Math.max(0, area.reservedBytes() - writtenBytes(area.directory()));
+            }
+        }
+        return unwritten;
+    }
+
+    private static long writtenBytes(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.mapToLong(file -> {
+                try {
+                    return Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS) ? Files.size(file) : 0;
+                } catch (IOException e) {
+                    return 0; // Deleted while walking
+                }
+            }).sum();
+        } catch (IOException | UncheckedIOException e) {
+            return 0; // Count the whole reservation as unwritten
+        }
+    }
+
+    private boolean isOrphan(Path child) {
+        String name = child.getFileName().toString();
+        if (name.endsWith(OWNER_SUFFIX)) {
+            // A marker whose directory is already gone
+            return STAGING_PREFIXES.stream().anyMatch(name::startsWith)
+                    && !Files.exists(child.resolveSibling(name.substring(0, name.length() - OWNER_SUFFIX.length())));
+        }
+        if (STAGING_PREFIXES.stream().noneMatch(name::startsWith) || !Files.isDirectory(child)) {
+            return false;
+        }
+        Path marker = ownerMarker(child);
+        if (Files.exists(marker)) {
+            return !isOwnerAlive(marker);
+        }
+        // Created before owner markers existed, or the process died right after creating it
+        try {
+            Instant modified = Files.getLastModifiedTime(child).toInstant();
+            return modified.isBefore(Instant.now().minus(orphanAge));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isOwnerAlive(Path marker) {
+        try {
+            String[] owner = Files.readString(marker, StandardCharsets.UTF_8).trim().split("\\s+");
+            long pid = Long.parseLong(owner[0]);
+            long startedAt = owner.length > 1 ? Long.parseLong(owner[1]) : 0;
+            Optional<ProcessHandle> process = ProcessHandle.of(pid).filter(ProcessHandle::isAlive);
+            if (process.isEmpty()) {
+                return false;
+            }
+            // The pid may have been reused by another process since
+            return startedAt == 0 || process.get().info().startInstant()
+                    .map(start -> start.toEpochMilli() == startedAt)
+                    .orElse(true);
+        } catch (IOException | RuntimeException e) {
+            return false; // Unreadable marker, nobody can be relying on it
+        }
+    }
+
+    private static void writeOwnerMarker(Path directory) throws IOException {
+        ProcessHandle self = ProcessHandle.current();
+        long startedAt = self.info().startInstant().map(Instant::toEpochMilli).orElse(0L);
+        Files.writeString(ownerMarker(directory), self.pid() + " " + startedAt, StandardCharsets.UTF_8);
+    }
+
+    private static Path ownerMarker(Path directory) {
+        return directory.resolveSibling(directory.getFileName() + OWNER_SUFFIX);
+    }
+
+    private static List<StagingRoot> parseRoots(String roots) {
+        List<StagingRoot> parsed = new ArrayList<>();
+        if (roots != null) {
+            for (String spec : roots.split(",")) {
+                if (spec.isBlank()) {
+                    continue;
+                }
+                int separator = spec.lastIndexOf('=');
+                Path path = Paths.get((separator < 0 ? spec : spec.substring(0, separator)).trim());
+                long maxEntrySize = separator < 0 ? Long.MAX_VALUE : DataSize.parse(spec.substring(separator + 1).trim()).toBytes();
+                parsed.add(new StagingRoot(path.toAbsolutePath().normalize(), maxEntrySize));
+            }
+        }
+        if (parsed.isEmpty()) {
+            parsed.add(new StagingRoot(Paths.get(System.getProperty("java.io.tmpdir")).toAbsolutePath().normalize(), Long.MAX_VALUE));
+        }
+        return List.copyOf(parsed);
+    }
+}
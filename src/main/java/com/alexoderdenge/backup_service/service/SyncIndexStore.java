@@ -0,0 +1,359 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.util.SourceManifest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Remembers, per directory entry, which files were uploaded by the last successful sync, so the next
+ * sync can compute what changed locally instead of letting rclone list the whole remote.
+ * <p>
+ * The index is a gzipped text file in the state directory: a header with the time of the last full sync,
+ * then one {@code path<TAB>size<TAB>modifiedMillis} line per regular file, sorted by path like the
+ * {@link SourceManifest}. Entries that compare content also record the file's hash in a fourth column,
+ * so a file whose modification time changed but whose content did not is not uploaded again.
+ * <p>
+ * A delta is a merge of both sorted sequences, so it takes constant memory however large the tree is.
+ * A new index only replaces the old one after its upload succeeded.
+ */
+@Component
+@Slf4j
+public class SyncIndexStore {
+
+    private static final String HEADER = "#sync-index v1\t";
+
+    private final Path indexDirectory;
+
+    /**
+     * What changed since the last sync, as file lists for rclone's {@code --files-from-raw}.
+     *
+     * @param copyList      files added or changed locally, one relative path per line
+     * @param copies        number of files in {@code copyList}
+     * @param copyBytes     size of the files in {@code copyList}
+     * @param deleteList    files deleted locally, one relative path per line
+     * @param deletions     number of files in {@code deleteList}
+     * @param index         the index describing the remote once both lists were applied, to {@link #commit}
+     */
+    public record Delta(Path copyList, long copies, long copyBytes, Path deleteList, long deletions, Path index) {
+
+        public boolean isEmpty() {
+            return copies == 0 && deletions == 0;
+        }
+    }
+
+    /**
+     * Hashes the content of a local file.
+     */
+    @FunctionalInterface
+    public interface ContentHash {
+        String of(Path file) throws IOException;
+    }
+
+    public SyncIndexStore(@Value("${backup.state-dir:${user.home}/.config/backup-service/state}") String stateDirectory) {
+        this.indexDirectory = Paths.get(stateDirectory).resolve("sync-index");
+    }
+
+    /**
+     * @return when the entry was last synced in full, or empty if it has no usable index
+     */
+    public Optional<Instant> lastFullSync(BackupConfig.BackupEntry entry) {
+        Path indexFile = indexFile(entry);
+        if (!Files.exists(indexFile)) {
+            return Optional.empty();
+        }
+        try (BufferedReader reader = openIndex(indexFile)) {
+            return Optional.of(readHeader(reader, indexFile));
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable sync index {}: {}", indexFile, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Compares the scanned source with the index of the last sync. Only call it if
+     * {@link #lastFullSync} found an index.
+     *
+     * @param workDirectory where the file lists and the new index are written
+     * @param contentHash   hashes files to tell touched files from changed ones, null to compare metadata only
+     * @return the delta, or null if a path cannot be written to a file list and the entry must be synced in full
+     */
+    public Delta diff(BackupConfig.BackupEntry entry, SourceManifest manifest, Path workDirectory,
+                      ContentHash contentHash) throws IOException {
+        Path indexFile = indexFile(entry);
+        Path copyList = workDirectory.resolve("sync-copy.txt");
+        Path deleteList = workDirectory.resolve("sync-delete.txt");
+        Path newIndex = workDirectory.resolve("sync-index.tsv.gz");
+        long[] counts = new long[3]; // copies, copyBytes, deletions
+        boolean[] representable = {true};
+
+        try (BufferedReader previous = openIndex(indexFile);
+             BufferedWriter copies = Files.newBufferedWriter(copyList, StandardCharsets.UTF_8);
+             BufferedWriter deletions = Files.newBufferedWriter(deleteList, StandardCharsets.UTF_8);
+             BufferedWriter index = createIndex(newIndex, readHeader(previous, indexFile))) {
+            IndexLine[] old = {IndexLine.read(previous)};
+
+            manifest.forEach(entryInTree -> {
+                BasicFileAttributes attrs = entryInTree.attributes();
+                if (!attrs.isRegularFile() || !representable[0]) {
+                    return;
+                }
+                String path = entryInTree.relativePath();
+                if (!isRepresentable(path)) {
+                    representable[0] = false;
+                    return;
+                }
+                while (old[0] != null && old[0].path().compareTo(path) < 0) {
+                    writeLine(deletions, old[0].path());
+                    counts[2]++;
+                    old[0] = IndexLine.read(previous);
+                }
+                long modified = attrs.lastModifiedTime().toMillis();
+                IndexLine last = old[0] != null && old[0].path().equals(path) ? old[0] : null;
+                boolean unchanged = last != null && last.size() == attrs.size() && last.modifiedMillis() == modified;
+                String hash = contentHash != null ? contentHash.of(entryInTree.path()) : null;
+                if (!unchanged && last != null && last.size() == attrs.size() && hash != null) {
+                    unchanged = hash.equals(last.hash()); // Touched, but the content is the same
+                }
+                if (last != null) {
+                    old[0] = IndexLine.read(previous);
+                }
+                if (!unchanged) {
+                    writeLine(copies, path);
+                    counts[0]++;
+                    counts[1] += attrs.size();
+                }
+                writeLine(index, indexLine(path, attrs.size(), modified, hash));
+            });
+            while (representable[0] && old[0] != null) {
+                writeLine(deletions, old[0].path());
+                counts[2]++;
+                old[0] = IndexLine.read(previous);
+            }
+        }
+        return representable[0] ? new Delta(copyList, counts[0], counts[1], deleteList, counts[2], newIndex) : null;
+    }
+
+    /**
+     * Writes the index of a full sync of the source.
+     *
+     * @param contentHash hashes files to record their content, null to record metadata only
+     * @return the new index to {@link #commit}, or null if a path cannot be indexed
+     */
+    public Path writeIndex(SourceManifest manifest, Path workDirectory, Instant fullSyncAt,
+                           ContentHash contentHash) throws IOException {
+        Path newIndex = workDirectory.resolve("sync-index.tsv.gz");
+        boolean[] representable = {true};
+        try (BufferedWriter index = createIndex(newIndex, fullSyncAt)) {
+            manifest.forEach(entryInTree -> {
+                BasicFileAttributes attrs = entryInTree.attributes();
+                if (!attrs.isRegularFile() || !representable[0]) {
+                    return;
+                }
+                String path = entryInTree.relativePath();
+                representable[0] = isRepresentable(path);
+                if (representable[0]) {
+                    String hash = contentHash != null ? contentHash.of(entryInTree.path()) : null;
+                    writeLine(index, indexLine(path, attrs.size(), attrs.lastModifiedTime().toMillis(), hash));
+                }
+            });
+        }
+        return representable[0] ? newIndex : null;
+    }
+
+    /**
+     * Writes the entry's index with some paths brought up to date, after just those paths were uploaded,
+     * e.g. by watch mode. Paths that are regular files now are recorded as they are, all others are
+     * dropped. The time of the last full sync is kept.
+     *
+     * @param root        the directory the paths are relative to
+     * @param paths       the uploaded or deleted paths
+     * @param contentHash hashes files to record their content, null to record metadata only
+     * @return the new index to {@link #commit}, or null if the entry has no index or a path cannot be indexed
+     */
+    public Path applyChanges(BackupConfig.BackupEntry entry, Path root, Collection<String> paths, Path workDirectory,
+                             ContentHash contentHash) throws IOException {
+        Path indexFile = indexFile(entry);
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        TreeSet<String> changed = new TreeSet<>(paths);
+        if (!changed.stream().allMatch(SyncIndexStore::isRepresentable)) {
+            return null;
+        }
+        Path newIndex = workDirectory.resolve("sync-index.tsv.gz");
+        try (BufferedReader previous = openIndex(indexFile);
+             BufferedWriter index = createIndex(newIndex, readHeader(previous, indexFile))) {
+            IndexLine old = IndexLine.read(previous);
+            for (String path : changed) {
+                while (old != null && old.path().compareTo(path) < 0) {
+                    writeLine(index, indexLine(old.path(), old.size(), old.modifiedMillis(), old.hash()));
+                    old = IndexLine.read(previous);
+                }
+                if (old != null && old.path().equals(path)) {
+                    old = IndexLine.read(previous);
+                }
+                Path file = root.resolve(path);
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    continue; // Deleted
+                }
+                if (attrs.isRegularFile()) {
+                    String hash = contentHash != null ? contentHash.of(file) : null;
+                    writeLine(index, indexLine(path, attrs.size(), attrs.lastModifiedTime().toMillis(), hash));
+                }
+            }
+            while (old != null) {
+                writeLine(index, indexLine(old.path(), old.size(), old.modifiedMillis(), old.hash()));
+                old = IndexLine.read(previous);
+            }
+        }
+        return newIndex;
+    }
+
+    /**
+     * @return the size of the entry's index file, 0 if it has none
+     */
+    public long indexSize(BackupConfig.BackupEntry entry) {
+        try {
+            return Files.size(indexFile(entry));
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Makes the index the entry's index, after the sync it describes succeeded. The file is replaced
+     * atomically; if that fails, the old index is dropped, so the next sync is a full one.
+     */
+    public void commit(BackupConfig.BackupEntry entry, Path newIndex) {
+        Path indexFile = indexFile(entry);
+        try {
+            Files.createDirectories(indexDirectory);
+            Path tempFile = Files.createTempFile(indexDirectory, "index-", ".tmp");
+            try {
+                Files.copy(newIndex, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            log.debug("Saved sync index {}", indexFile);
+        } catch (IOException e) {
+            log.warn("Failed to save sync index {}: {}", indexFile, e.getMessage());
+            discard(entry);
+        }
+    }
+
+    /**
+     * Forgets the entry's index, so its next sync is a full one.
+     */
+    public void discard(BackupConfig.BackupEntry entry) {
+        try {
+            Files.deleteIfExists(indexFile(entry));
+        } catch (IOException e) {
+            log.warn("Failed to delete sync index {}: {}", indexFile(entry), e.getMessage());
+        }
+    }
+
+    private Path indexFile(BackupConfig.BackupEntry entry) {
+        byte[] key = newDigest().digest((entry.getLocalPath() + "\n" + entry.getCloudPath()).getBytes(StandardCharsets.UTF_8));
+        return indexDirectory.resolve(HexFormat.of().formatHex(key, 0, 16) + ".tsv.gz");
+    }
+
+    private static String indexLine(String path, long size, long modifiedMillis, String hash) {
+        String line = path + "\t" + size + "\t" + modifiedMillis;
+        return hash != null ? line + "\t" + hash : line;
+    }
+
+    private static boolean isRepresentable(String path) {
+        return path.indexOf('\n') < 0 && path.indexOf('\r') < 0 && path.indexOf('\t') < 0;
+    }
+
+    private static BufferedReader openIndex(Path indexFile) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(indexFile), 64 * 1024), StandardCharsets.UTF_8));
+    }
+
+    private static BufferedWriter createIndex(Path indexFile, Instant fullSyncAt) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(indexFile), 64 * 1024), StandardCharsets.UTF_8));
+        writeLine(writer, HEADER + fullSyncAt.toEpochMilli());
+        return writer;
+    }
+
+    private static Instant readHeader(BufferedReader reader, Path indexFile) throws IOException {
+        String header = reader.readLine();
+        if (header == null || !header.startsWith(HEADER)) {
+            throw new IOException("Not a sync index: " + indexFile);
+        }
+        try {
+            return Instant.ofEpochMilli(Long.parseLong(header.substring(HEADER.length())));
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt sync index header in " + indexFile, e);
+        }
+    }
+
+    private static void writeLine(BufferedWriter writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private record IndexLine(String path, long size, long modifiedMillis, String hash) {
+
+        static IndexLine read(BufferedReader reader) throws IOException {
+            String line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            int sizeStart = line.indexOf('\t');
+            int modifiedStart = line.indexOf('\t', sizeStart + 1);
+            if (sizeStart < 0 || modifiedStart < 0) {
+                throw new IOException("Corrupt sync index line: " + line);
+            }
+            int hashStart = line.indexOf('\t', modifiedStart + 1);
+            int modifiedEnd = hashStart < 0 ? line.length() : hashStart;
+            try {
+                return new IndexLine(line.substring(0, sizeStart),
+                        Long.parseLong(line.substring(sizeStart + 1, modifiedStart)),
+                        Long.parseLong(line.substring(modifiedStart + 1, modifiedEnd)),
+                        hashStart < 0 ? null : line.substring(hashStart + 1));
+            } catch (NumberFormatException e) {
+                throw new IOException("Corrupt sync index line: " + line, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.ArchiveFormat;
+import com.alexoderdenge.backup_service.model.CompressionPolicy;
+import com.alexoderdenge.backup_service.service.exception.CompressionException;
+import com.alexoderdenge.backup_service.util.ParallelGzipOutputStream;
+import com.alexoderdenge.backup_service.util.SourceTree;
+import com.alexoderdenge.backup_service.util.TarArchiveWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes {@code .tar.gz} archives: a POSIX tar stream (keeping permissions, owners and symlinks) gzipped
+ * in independent blocks on a thread pool, see {@link ParallelGzipOutputStream}.
+ * <p>
+ * Unlike ZIP, all files share one compression stream, so trees of many small similar files compress
+ * much better. Of the {@link CompressionPolicy} only the level applies, since there are no per-file
+ * entries to store; blocks that don't shrink are stored automatically.
+ */
+@Service
+@Slf4j
+public class TarGzCompressionService implements AutoCloseable {
+
+    private static final int BLOCKS_IN_FLIGHT_PER_THREAD = 2;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final int threads;
+    private final ExecutorService gzipPool;
+    private final boolean unixAttributes;
+
+    public TarGzCompressionService(@Value("${backup.compression.threads:0}") int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger(1);
+        this.gzipPool = Executors.newFixedThreadPool(this.threads, runnable -> {
+            Thread thread = new Thread(runnable, "gzip-block-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.unixAttributes = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    }
+
+    /**
+     * Compresses the source into {@code <name>.tar.gz} inside the output directory.
+     */
+    public Path compress(Path sourcePath, Path outputDirectory, CompressionPolicy policy) throws CompressionException {
+        return compress(SourceTree.live(sourcePath), outputDirectory, policy);
+    }
+
+    /**
+     * Compresses the entries of a source tree into {@code <name>.tar.gz} inside the output directory.
+     */
+    public Path compress(SourceTree source, Path outputDirectory, CompressionPolicy policy) throws CompressionException {
+        Path sourcePath = source.root();
+        if (!Files.exists(sourcePath, LinkOption.NOFOLLOW_LINKS)) {
+            throw new CompressionException("Source path does not exist: " + sourcePath);
+        }
+        Path archive = outputDirectory.resolve(sourcePath.getFileName() + ArchiveFormat.TAR_GZ.getExtension());
+        log.info("🗜️ Compressing {} to {}", sourcePath, archive);
+        try {
+            Files.createDirectories(outputDirectory);
+            try (OutputStream out = Files.newOutputStream(archive)) {
+                writeArchive(source, out, policy);
+            }
+            log.info("✅ Successfully compressed {} to {} (size: {} bytes)", sourcePath, archive, Files.size(archive));
+            return archive;
+        } catch (IOException e) {
+            log.error("❌ Failed to compress {} to {}: {}", sourcePath, archive, e.getMessage());
+            throw new CompressionException("Failed to compress " + sourcePath + " to " + archive, e);
+        }
+    }
+
+    /**
+     * Writes the {@code .tar.gz} archive of the source into the stream, which is flushed but not closed.
+     */
+    public void compressToStream(Path sourcePath, OutputStream outputStream, CompressionPolicy policy)
+            throws CompressionException {
+        compressToStream(SourceTree.live(sourcePath), outputStream, policy);
+    }
+
+    /**
+     * Writes the {@code .tar.gz} archive of a source tree into the stream, which is flushed but not closed.
+     */
+    public void compressToStream(SourceTree source, OutputStream outputStream, CompressionPolicy policy)
+            throws CompressionException {
+        Path sourcePath = source.root();
+        if (!Files.exists(sourcePath, LinkOption.NOFOLLOW_LINKS)) {
+            throw new CompressionException("Source path does not exist: " + sourcePath);
+        }
+        log.info("🗜️ Streaming tar.gz compression of {}", sourcePath);
+        try {
+            writeArchive(source, outputStream, policy);
+            log.info("✅ Successfully streamed tar.gz archive of {}", sourcePath);
+        } catch (IOException e) {
+            log.error("❌ Failed to stream tar.gz archive of {}: {}", sourcePath, e.getMessage());
+            throw new CompressionException("Failed to stream tar.gz archive of " + sourcePath, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        gzipPool.shutdownNow();
+    }
+
+    private void writeArchive(SourceTree source, OutputStream outputStream, CompressionPolicy policy) throws IOException {
+        int level = policy != null ? policy.getLevel() : -1;
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(outputStream, gzipPool, level,
+                ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, threads * BLOCKS_IN_FLIGHT_PER_THREAD);
+        BufferedOutputStream buffered = new BufferedOutputStream(gzip, WRITE_BUFFER_SIZE);
+        TarArchiveWriter tar = new TarArchiveWriter(buffered);
+
+        source.forEach(entry -> writeEntry(tar, entry.path(),
+                entry.isDirectory() ? entry.relativePath() + "/" : entry.relativePath(), entry.attributes()));
+
+        tar.finish();
+        buffered.flush();
+        gzip.finish();
+    }
+
+    void writeEntry(TarArchiveWriter tar, Path path, String name, BasicFileAttributes attrs) throws IOException {
+        char type;
+        String linkName = null;
+        long size = 0;
+        if (attrs.isSymbolicLink()) {
+            type = TarArchiveWriter.TYPE_SYMLINK;
+            linkName = Files.readSymbolicLink(path).toString();
+        } else if (attrs.isDirectory()) {
+            type = TarArchiveWriter.TYPE_DIRECTORY;
+        } else if (attrs.isRegularFile()) {
+            type = TarArchiveWriter.TYPE_FILE;
+            size = attrs.size();
+        } else {
+            log.warn("⚠️ Skipping special file {}", path);
+            return;
+        }
+
+        Ownership owner = readOwnership(path, attrs.isDirectory());
+        tar.putEntry(new TarArchiveWriter.Entry(name, type, size, attrs.lastModifiedTime().toMillis() / 1000,
+                owner.mode, owner.uid, owner.gid, owner.userName, owner.groupName, linkName));
+        if (type == TarArchiveWriter.TYPE_FILE) {
+            writeFileData(tar, path, size);
+        }
+    }
+
+    /**
+     * Copies exactly the size announced in the entry header, which was taken when the tree was scanned.
+     * Like GNU tar, a file that changed since is archived as far as it fits: a grown file is cut off and a
+     * shrunk one padded with zeros, so the archive stays readable and only this entry is off.
+     */
+    private void writeFileData(TarArchiveWriter tar, Path path, long size) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(COPY_BUFFER_SIZE, Math.max(1, size))];
+        long copied = 0;
+        boolean grew;
+        try (InputStream in = Files.newInputStream(path)) {
+            while (copied < size) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, size - copied));
+                if (read < 0) {
+                    break;
+                }
+                tar.write(buffer, 0, read);
+                copied += read;
+            }
+            grew = copied == size && in.read() >= 0;
+        }
+
+        if (copied < size) {
+            log.warn("⚠️ {} shrank by {} bytes while it was being archived, padding it with zeros", path, size - copied);
+            Arrays.fill(buffer, (byte) 0);
+            while (copied < size) {
+                int length = (int) Math.min(buffer.length, size - copied);
+                tar.write(buffer, 0, length);
+                copied += length;
+            }
+        } else if (grew) {
+            log.warn("⚠️ {} grew while it was being archived, keeping its first {} bytes", path, size);
+        }
+    }
+
+    private Ownership readOwnership(Path path, boolean directory) {
+        if (unixAttributes) {
+            try {
+                Map<String, Object> unix = Files.readAttributes(path, "unix:mode,uid,gid,owner,group",
+                        LinkOption.NOFOLLOW_LINKS);
+                return new Ownership((Integer) unix.get("mode") & 07777,
+                        ((Integer) unix.get("uid")).longValue() & 0xFFFFFFFFL,
+                        ((Integer) unix.get("gid")).longValue() & 0xFFFFFFFFL,
+                        ((UserPrincipal) unix.get("owner")).getName(),
+                        ((GroupPrincipal) unix.get("group")).getName());
+            } catch (IOException | UnsupportedOperationException | ClassCastException e) {
+                log.debug("Could not read unix attributes of {}: {}", path, e.getMessage());
+            }
+        }
+        return new Ownership(directory ? 0755 : 0644, 0, 0, null, null);
+    }
+
+    private record Ownership(int mode, long uid, long gid, String userName, String groupName) {
+    }
+}
@@ -0,0 +1,169 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.TransferProgress;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the latest rclone transfer statistics per upload destination and publishes them to
+ * Server-Sent Events subscribers.
+ * <p>
+ * Updates coming from rclone output readers only replace the snapshot in a map, so they never block
+ * on slow subscribers. A single publisher thread sends the snapshots that changed since the last
+ * tick, which also coalesces bursts of updates into at most one event per destination and interval.
+ */
+@Component
+@Slf4j
+public class TransferProgressTracker {
+
+    static final String PROGRESS_EVENT = "progress";
+
+    private final Map<String, TransferProgress> transfers = new ConcurrentHashMap<>();
+    private final Map<String, TransferProgress> pendingEvents = new ConcurrentHashMap<>();
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+    private final Duration emitterTimeout;
+    private final ScheduledExecutorService publisher;
+
+    public TransferProgressTracker(@Value("${backup.progress.publish-interval:PT1S}") Duration publishInterval,
+                                   @Value("${backup.progress.emitter-timeout:PT30M}") Duration emitterTimeout) {
+        this.emitterTimeout = emitterTimeout;
+        this.publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transfer-progress-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = Math.max(100, publishInterval.toMillis());
+        publisher.scheduleWithFixedDelay(this::publishPendingEvents, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers a new transfer, replacing whatever was last reported for the destination.
+     */
+    public void started(String destination) {
+        TransferProgress progress = new TransferProgress();
+        progress.setDestination(destination);
+        progress.setStartedAt(Instant.now());
+        progress.setUpdatedAt(progress.getStartedAt());
+        record(progress);
+    }
+
+    /**
+     * Records a stats snapshot parsed from rclone output. Never blocks.
+     */
+    public void update(TransferProgress progress) {
+        TransferProgress previous = transfers.get(progress.getDestination());
+        progress.setStartedAt(previous != null ? previous.getStartedAt() : Instant.now());
+        progress.setUpdatedAt(Instant.now());
+        record(progress);
+    }
+
+    /**
+     * Marks the transfer as finished. Finished transfers are published once more and then dropped.
+     */
+    public void finished(String destination, boolean success) {
+        TransferProgress last = transfers.get(destination);
+        TransferProgress progress = new TransferProgress();
+        if (last != null) {
+            copy(last, progress);
+        }
+        progress.setDestination(destination);
+        progress.setState(success ? TransferProgress.State.SUCCEEDED : TransferProgress.State.FAILED);
+        progress.setBytesPerSecond(0);
+        progress.setEtaSeconds(success ? 0L : null);
+        progress.setUpdatedAt(Instant.now());
+        pendingEvents.put(destination, progress);
+        transfers.remove(destination);
+    }
+
+    /**
+     * @return the latest snapshot of every transfer currently running
+     */
+    public List<TransferProgress> getActiveTransfers() {
+        return new ArrayList<>(transfers.values());
+    }
+
+    /**
+     * Creates an SSE subscription that immediately receives the current snapshots and then every update.
+     */
+    public SseEmitter subscribe() {
+        SseEmitter emitter = newEmitter(emitterTimeout);
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(() -> emitters.remove(emitter));
+        emitter.onError(e -> emitters.remove(emitter));
+
+        for (TransferProgress progress : transfers.values()) {
+            if (!send(emitter, progress)) {
+                return emitter;
+            }
+        }
+        emitters.add(emitter);
+        return emitter;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        publisher.shutdownNow();
+        emitters.forEach(SseEmitter::complete);
+        emitters.clear();
+    }
+
+    SseEmitter newEmitter(Duration timeout) {
+        return new SseEmitter(timeout.toMillis());
+    }
+
+    void publishPendingEvents() {
+        try {
+            for (String destination : List.copyOf(pendingEvents.keySet())) {
+                TransferProgress progress = pendingEvents.remove(destination);
+                if (progress != null) {
+                    emitters.forEach(emitter -> send(emitter, progress));
+                }
+            }
+        } catch (RuntimeException e) {
+            // Must not escape, or the scheduled executor silently stops publishing
+            log.warn("Failed to publish transfer progress: {}", e.getMessage());
+        }
+    }
+
+    private void record(TransferProgress progress) {
+        transfers.put(progress.getDestination(), progress);
+        pendingEvents.put(progress.getDestination(), progress);
+    }
+
+    private boolean send(SseEmitter emitter, TransferProgress progress) {
+        try {
+            emitter.send(SseEmitter.event().name(PROGRESS_EVENT).data(progress));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Dropping progress subscriber: {}", e.getMessage());
+            emitters.remove(emitter);
+            emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    private static void copy(TransferProgress from, TransferProgress to) {
+        to.setBytes(from.getBytes());
+        to.setTotalBytes(from.getTotalBytes());
+        to.setTransfers(from.getTransfers());
+        to.setTotalTransfers(from.getTotalTransfers());
+        to.setErrors(from.getErrors());
+        to.setLastError(from.getLastError());
+        to.setStartedAt(from.getStartedAt());
+    }
+}
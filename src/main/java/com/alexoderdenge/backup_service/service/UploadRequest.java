@@ -0,0 +1,41 @@
+package com.alexoderdenge.backup_service.service;
+
+import java.nio.file.Path;
+
+/**
+ * What to upload and how.
+ *
+ * @param source      the local file or directory
+ * @param destination the remote file or directory (e.g., "remoteName:path/to/file")
+ * @param isFile      whether the source is a single file, copied as is; a directory is mirrored
+ * @param filesFrom   optional list of the files of a directory source, one relative path per line. The
+ *                    destination is mirrored to exactly these files, without walking the source again.
+ * @param keepUnlisted whether remote files missing from {@code filesFrom} are left alone instead of deleted
+ */
+public record UploadRequest(String source, String destination, boolean isFile, Path filesFrom, boolean keepUnlisted) {
+
+    public static UploadRequest file(String source, String destination) {
+        return new UploadRequest(source, destination, true, null, false);
+    }
+
+    public static UploadRequest directory(String source, String destination) {
+        return new UploadRequest(source, destination, false, null, false);
+    }
+
+    /**
+     * @return this request, limited to the files listed in the given file
+     */
+    public UploadRequest withFilesFrom(Path fileList) {
+        if (isFile) {
+            throw new IllegalArgumentException("A file list only applies to directory uploads");
+        }
+        return new UploadRequest(source, destination, false, fileList, keepUnlisted);
+    }
+
+    /**
+     * @return this request, only updating the listed files, e.g. because the list is known to be incomplete
+     */
+    public UploadRequest keepingUnlisted() {
+        return new UploadRequest(source, destination, isFile, filesFrom, true);
+    }
+}
@@ -0,0 +1,194 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.service.exception.RcloneException;
+import com.alexoderdenge.backup_service.util.VolumeOutputStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Uploads the volumes of a split archive in parallel while the archive is still being written.
+ * <p>
+ * Every volume is uploaded on its own and retried on its own, with the backoff of a {@link RetryPolicy},
+ * so a failure at the last volume does not resend the others. At most {@code maxPendingVolumes} finished volumes wait on local
+ * disk; when that many are pending, {@link #submit} blocks and so pauses compression. Uploaded volumes
+ * are deleted right away. Once a volume has failed for good, further submits fail fast so compression stops.
+ */
+@Slf4j
+class VolumeUploader implements AutoCloseable {
+
+    private final CloudProvider cloudProvider;
+    private final String destination;
+    private final RetryPolicy retryPolicy;
+    private final ExecutorService executor;
+    private final Semaphore pendingVolumes;
+    private final int maxPendingVolumes;
+    private final List<VolumeOutputStream.Volume> uploaded = new ArrayList<>();
+    private final AtomicReference<RcloneException> failure = new AtomicReference<>();
+
+    /**
+     * @param destination       cloud path of the whole archive; volume {@code n} goes to {@code destination + ".00n"}
+     * @param parallelUploads   volumes uploaded at the same time
+     * @param retryPolicy       upload attempts per volume and the backoff between them
+     * @param maxPendingVolumes finished volumes allowed on local disk before the writer is paused
+     */
+    VolumeUploader(CloudProvider cloudProvider, String destination, int parallelUploads, RetryPolicy retryPolicy,
+                   int maxPendingVolumes) {
+        this.cloudProvider = cloudProvider;
+        this.destination = destination;
+        this.retryPolicy = retryPolicy;
+        this.maxPendingVolumes = Math.max(1, maxPendingVolumes);
+        this.pendingVolumes = new Semaphore(this.maxPendingVolumes);
+        AtomicInteger counter = new AtomicInteger(1);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelUploads), runnable -> {
+            Thread thread = new Thread(runnable, "volume-upload-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a finished volume for upload, blocking while too many volumes are pending.
+     *
+     * @throws IOException if an earlier volume failed for good, to stop writing further volumes
+     */
+    void submit(VolumeOutputStream.Volume volume) throws IOException {
+        throwIfFailed();
+        try {
+            pendingVolumes.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to queue volume " + volume.number());
+        }
+        if (failure.get() != null) {
+            pendingVolumes.release(); // A volume failed while this one was waiting for a slot
+            throwIfFailed();
+        }
+        log.info("📦 Volume {} complete ({} bytes), queued for upload", volume.number(), volume.size());
+        executor.execute(() -> {
+            try {
+                upload(volume);
+            } finally {
+                pendingVolumes.release();
+            }
+        });
+    }
+
+    /**
+     * Waits until every submitted volume is uploaded.
+     *
+     * @return the uploaded volumes in order
+     * @throws RcloneException if a volume could not be uploaded within its attempts
+     */
+    List<VolumeOutputStream.Volume> awaitCompletion() throws RcloneException {
+        try {
+            pendingVolumes.acquire(maxPendingVolumes);
+            pendingVolumes.release(maxPendingVolumes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RcloneException("Interrupted while waiting for volume uploads", e);
+        }
+        RcloneException error = failure.get();
+        if (error != null) {
+            throw error;
+        }
+        return getUploaded();
+    }
+
+    /**
+     * @return the volumes uploaded so far in order, e.g. to clean them up after a failure
+     */
+    List<VolumeOutputStream.Volume> getUploaded() {
+        synchronized (uploaded) {
+            List<VolumeOutputStream.Volume> volumes = new ArrayList<>(uploaded);
+            volumes.sort(Comparator.comparingInt(VolumeOutputStream.Volume::number));
+            return volumes;
+        }
+    }
+
+    /**
+     * @return the error that stopped the uploads, or null
+     */
+    RcloneException getFailure() {
+        return failure.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void upload(VolumeOutputStream.Volume volume) {
+        String target = destination + VolumeOutputStream.volumeSuffix(volume.number());
+        int maxAttempts = Math.max(1, retryPolicy.maxAttempts());
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (failure.get() != null) {
+                return; // Another volume failed for good, the archive is lost anyway
+            }
+            try {
+                cloudProvider.backup(UploadRequest.file(volume.file().toString(), target));
+                Files.deleteIfExists(volume.file());
+                synchronized (uploaded) {
+                    uploaded.add(volume);
+                }
+                log.info("✅ Uploaded volume {} to {}", volume.number(), target);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt == maxAttempts) {
+                    log.error("❌ Volume {} failed after {} attempts: {}", volume.number(), attempt, e.getMessage());
+                    failure.compareAndSet(null, new RcloneException("Upload of volume " + volume.number()
+                            + " to " + target + " failed after " + attempt + " attempts: " + e.getMessage(), e));
+                    return;
+                }
+                long delay = retryPolicy.delayMillis(attempt, ThreadLocalRandom.current());
+                log.warn("⚠️ Upload of volume {} failed (attempt {}/{}), retrying in {} ms: {}",
+                        volume.number(), attempt, maxAttempts, delay, e.getMessage());
+                if (!sleep(delay)) {
+                    failure.compareAndSet(null, new RcloneException("Upload of volume " + volume.number() + " was interrupted"));
+                    return;
+                }
+            } catch (IOException e) {
+                // The upload itself succeeded; the volume file just stays until the temp directory is removed
+                log.warn("Failed to delete uploaded volume {}: {}", volume.file(), e.getMessage());
+                synchronized (uploaded) {
+                    uploaded.add(volume);
+                }
+                return;
+            }
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        RcloneException error = failure.get();
+        if (error != null) {
+            throw new IOException("Stopping archive: " + error.getMessage(), error);
+        }
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.model.BackupJob;
+import com.alexoderdenge.backup_service.util.FileUtils;
+import com.alexoderdenge.backup_service.util.TreeWatcher;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Keeps the remotes of entries with {@code watch} enabled up to date between scheduled backups.
+ * <p>
+ * Each watched entry gets a thread that backs the directory up once and then waits for changes. Changed
+ * paths are collected until none have arrived for the debounce window, then only those files are uploaded,
+ * see {@link BackupService#syncChanges}. Every upload is queued as a job of the {@link BackupJobService},
+ * so it never runs alongside a scheduled backup of the same entry, and goes through the circuit breaker,
+ * metrics and sync index like any other upload. When the watcher cannot tell what changed (too many
+ * changes, a lost event, a deleted directory) or an upload fails, the whole entry is backed up again instead.
+ */
+@Service
+@Slf4j
+public class WatchModeService {
+
+    private final BackupJobService jobService;
+    private final BackupConfig config;
+    private final Duration debounce;
+    private final Duration maxWait;
+    private final int maxPendingPaths;
+    private final Duration retryDelay;
+    private final List<TreeWatcher> watchers = new CopyOnWriteArrayList<>();
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    private volatile boolean running;
+
+    public WatchModeService(BackupJobService jobService, BackupConfig config,
+                            @Value("${backup.watch.debounce:PT10S}") Duration debounce,
+                            @Value("${backup.watch.max-wait:PT2M}") Duration maxWait,
+                            @Value("${backup.watch.max-pending-paths:10000}") int maxPendingPaths,
+                            @Value("${backup.watch.retry-delay:PT1M}") Duration retryDelay) {
+        this.jobService = jobService;
+        this.config = config;
+        this.debounce = debounce;
+        this.maxWait = maxWait;
+        this.maxPendingPaths = maxPendingPaths;
+        this.retryDelay = retryDelay;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        int count = 0;
+        for (BackupConfig.BackupEntry entry : config.getBackupEntries()) {
+            if (!entry.isWatch()) {
+                continue;
+            }
+            if (entry.isCompress() || entry.isDedup()) {
+                log.warn("⚠️ Ignoring watch for {}: only plain directory backups can upload single files",
+                        entry.getLocalPath());
+                continue;
+            }
+            Thread thread = new Thread(() -> watch(entry), "backup-watch-" + ++count);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (TreeWatcher watcher : watchers) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                log.debug("Could not close watcher", e);
+            }
+        }
+        threads.forEach(Thread::interrupt); // Stops waiting for a queued job that will never run
+    }
+
+    private void watch(BackupConfig.BackupEntry entry) {
+        Path root;
+        try {
+            root = FileUtils.resolveSourcePath(entry.getLocalPath());
+            BackupService.normalizeCloudPath(entry.getCloudPath());
+        } catch (IllegalArgumentException e) {
+            log.error("Cannot watch {}: {}", entry.getLocalPath(), e.getMessage());
+            return;
+        }
+
+        // Registered before the first backup, so nothing changed during it is missed
+        try (TreeWatcher watcher = new TreeWatcher(root, maxPendingPaths)) {
+            watchers.add(watcher);
+            log.info("👀 Watching {} for changes", root);
+            boolean resync = true;
+            while (running) {
+                Collection<String> paths = null;
+                if (!resync) {
+                    TreeWatcher.Changes changes = watcher.awaitChanges(debounce, maxWait);
+                    paths = changes.rescan() ? null : changes.paths();
+                }
+                if (paths == null) {
+                    log.info("🔄 Backing up {} in full", root);
+                }
+                resync = !upload(entry, paths);
+                if (resync) {
+                    log.warn("⚠️ Watch upload of {} failed, backing it up in full in {}", root, retryDelay);
+                    Thread.sleep(retryDelay.toMillis());
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Stopped
+        } catch (IOException e) {
+            log.error("Cannot watch {}: {}", root, e.getMessage());
+        } finally {
+            log.info("👀 Stopped watching {}", root);
+        }
+    }
+
+    /**
+     * Queues the upload as a job and waits for it.
+     *
+     * @param paths the changed paths, null to back up the whole entry
+     * @return whether the upload succeeded
+     */
+    boolean upload(BackupConfig.BackupEntry entry, Collection<String> paths) throws InterruptedException {
+        BackupJob job;
+        try {
+            job = jobService.submitWatchSync(entry, paths).get();
+        } catch (ExecutionException e) {
+            return false;
+        }
+        return job.getStatus() == BackupJob.Status.COMPLETED && job.getFailedEntries() == 0;
+    }
+}
@@ -1,11 +1,16 @@
 package com.alexoderdenge.backup_service.service;
 
+import com.alexoderdenge.backup_service.model.CompressionPolicy;
 import com.alexoderdenge.backup_service.service.exception.CompressionException;
+import com.alexoderdenge.backup_service.util.SourceTree;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.zip.ZipEntry;
@@ -16,11 +21,21 @@ import java.util.zip.ZipOutputStream;
  * This service handles both files and directories, creating properly structured ZIP files.
  */
 @Service
+@ConditionalOnProperty(name = "backup.compression.engine", havingValue = "zip", matchIfMissing = true)
 @Slf4j
 public class ZipCompressionService implements CompressionService {
 
     @Override
-    public Path compressToZip(Path sourcePath, Path outputDirectory) throws CompressionException {
+    public Path compressToZip(Path sourcePath, Path outputDirectory, CompressionPolicy policy) throws CompressionException {
+        return compressToZip(SourceTree.live(sourcePath), outputDirectory, policy);
+    }
+
+    /**
+     * Compresses the entries of a source tree, e.g. a {@link com.alexoderdenge.backup_service.util.SourceManifest}
+     * scanned before, into a ZIP archive.
+     */
+    public Path compressToZip(SourceTree source, Path outputDirectory, CompressionPolicy policy) throws CompressionException {
+        Path sourcePath = source.root();
         validateInputs(sourcePath, outputDirectory);
         
         String zipFileName = generateZipFileName(sourcePath);
@@ -29,9 +44,10 @@ public class ZipCompressionService implements CompressionService {
         log.info("🗜️ Compressing {} to {}", sourcePath, zipFilePath);
         
         try {
-            createZipFile(sourcePath, zipFilePath);
+            CompressionStats stats = createZipFile(source, zipFilePath, policy);
             log.info("✅ Successfully compressed {} to {} (size: {} bytes)", 
                     sourcePath, zipFilePath, Files.size(zipFilePath));
+            log.info("📊 Compression of {}: {}", sourcePath, stats.summary());
             return zipFilePath;
         } catch (IOException e) {
             log.error("❌ Failed to compress {} to {}: {}", sourcePath, zipFilePath, e.getMessage());
@@ -39,6 +55,34 @@ public class ZipCompressionService implements CompressionService {
         }
     }
 
+    @Override
+    public void compressToStream(Path sourcePath, OutputStream outputStream, CompressionPolicy policy) throws CompressionException {
+        compressToStream(SourceTree.live(sourcePath), outputStream, policy);
+    }
+
+    /**
+     * Compresses the entries of a source tree into a ZIP archive written directly to a stream.
+     * The stream is flushed but not closed.
+     */
+    public void compressToStream(SourceTree source, OutputStream outputStream, CompressionPolicy policy) throws CompressionException {
+        Path sourcePath = source.root();
+        if (!Files.exists(sourcePath, LinkOption.NOFOLLOW_LINKS)) {
+            throw new CompressionException("Source path does not exist: " + sourcePath);
+        }
+
+        log.info("🗜️ Streaming compression of {}", sourcePath);
+
+        try {
+            // Shield the caller's stream from being closed together with the archive
+            CompressionStats stats = writeArchive(source, new NonClosingOutputStream(outputStream), policy);
+            log.info("✅ Successfully streamed compressed archive of {}", sourcePath);
+            log.info("📊 Compression of {}: {}", sourcePath, stats.summary());
+        } catch (IOException e) {
+            log.error("❌ Failed to stream compressed archive of {}: {}", sourcePath, e.getMessage());
+            throw new CompressionException("Failed to stream compressed archive of " + sourcePath, e);
+        }
+    }
+
     @Override
     public void validateCloudPathForCompression(String cloudPath, boolean isCompressionEnabled) {
         if (cloudPath == null || cloudPath.trim().isEmpty()) {
@@ -56,7 +100,7 @@ public class ZipCompressionService implements CompressionService {
     }
 
     private void validateInputs(Path sourcePath, Path outputDirectory) throws CompressionException {
-        if (!Files.exists(sourcePath)) {
+        if (!Files.exists(sourcePath, LinkOption.NOFOLLOW_LINKS)) {
             throw new CompressionException("Source path does not exist: " + sourcePath);
         }
         
@@ -79,47 +123,84 @@ public class ZipCompressionService implements CompressionService {
         return baseName + ".zip";
     }
 
-    private void createZipFile(Path sourcePath, Path zipFilePath) throws IOException {
-        try (FileOutputStream fos = new FileOutputStream(zipFilePath.toFile());
-             ZipOutputStream zos = new ZipOutputStream(fos)) {
-            
-            if (Files.isDirectory(sourcePath)) {
-                compressDirectory(sourcePath, zos);
-            } else {
-                compressSingleFile(sourcePath, zos);
-            }
+    private CompressionStats createZipFile(SourceTree source, Path zipFilePath, CompressionPolicy policy) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(zipFilePath.toFile())) {
+            return writeArchive(source, fos, policy);
         }
     }
 
-    private void compressDirectory(Path directory, ZipOutputStream zos) throws IOException {
-        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                Path relativePath = directory.relativize(file);
-                ZipEntry zipEntry = new ZipEntry(relativePath.toString().replace('\\', '/'));
-                zos.putNextEntry(zipEntry);
-                Files.copy(file, zos);
-                zos.closeEntry();
-                return FileVisitResult.CONTINUE;
-            }
+    /**
+     * Writes the complete ZIP archive of the source into the given stream and closes it.
+     * Subclasses can override this to change how entries are compressed.
+     *
+     * @param source the entries of the file or directory to compress
+     * @param outputStream the stream receiving the archive
+     * @param policy decides per file whether it is deflated (and at which level) or stored
+     * @return how many files and bytes were deflated and stored; also written as the archive comment
+     * @throws IOException if reading the source or writing the archive fails
+     */
+    protected CompressionStats writeArchive(SourceTree source, OutputStream outputStream, CompressionPolicy policy)
+            throws IOException {
+        CompressionPlanner planner = new CompressionPlanner(policy);
+        CompressionStats stats = new CompressionStats();
+        try (ZipOutputStream zos = new ZipOutputStream(outputStream)) {
+            zos.setLevel(planner.level());
+            writeZipEntries(source, zos, planner, stats);
+            zos.setComment(stats.summary());
+        }
+        return stats;
+    }
 
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                if (!dir.equals(directory)) {
-                    Path relativePath = directory.relativize(dir);
-                    ZipEntry zipEntry = new ZipEntry(relativePath.toString().replace('\\', '/') + "/");
-                    zos.putNextEntry(zipEntry);
-                    zos.closeEntry();
-                }
-                return FileVisitResult.CONTINUE;
+    private void writeZipEntries(SourceTree source, ZipOutputStream zos, CompressionPlanner planner, CompressionStats stats)
+            throws IOException {
+        // A file source comes as its only entry, named after the file
+        source.forEach(entry -> {
+            if (entry.isDirectory()) {
+                zos.putNextEntry(new ZipEntry(entry.relativePath() + "/"));
+                zos.closeEntry();
+            } else {
+                writeFileEntry(entry.path(), entry.relativePath(), entry.attributes(), zos, planner, stats);
             }
         });
     }
 
-    private void compressSingleFile(Path file, ZipOutputStream zos) throws IOException {
-        ZipEntry zipEntry = new ZipEntry(file.getFileName().toString());
-        zos.putNextEntry(zipEntry);
-        Files.copy(file, zos);
+    private void writeFileEntry(Path file, String name, BasicFileAttributes attrs, ZipOutputStream zos,
+                                CompressionPlanner planner, CompressionStats stats) throws IOException {
+        long size = attrs.isRegularFile() ? attrs.size() : Files.size(file);
+        CompressionPlanner.Method method = planner.decide(file, size);
+        ZipEntry zipEntry = new ZipEntry(name);
+        if (method.stored()) {
+            // ZipOutputStream needs the CRC of stored entries up front, so the file is read once into a snapshot
+            try (FileSnapshot snapshot = FileSnapshot.take(file, size)) {
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(size);
+                zipEntry.setCompressedSize(size);
+                zipEntry.setCrc(snapshot.crc());
+                zos.putNextEntry(zipEntry);
+                snapshot.writeTo(zos);
+            }
+        } else {
+            zos.putNextEntry(zipEntry);
+            Files.copy(file, zos);
+        }
         zos.closeEntry();
+        stats.record(method, zipEntry.getSize(), zipEntry.getCompressedSize());
+    }
+
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
     }
 }
@@ -0,0 +1,30 @@
+package com.alexoderdenge.backup_service.service.exception;
+
+import java.time.Instant;
+
+/**
+ * Exception thrown instead of starting a transfer to a remote that failed too often in a row.
+ */
+public class CircuitOpenException extends RcloneException {
+
+    private final String remoteName;
+    private final Instant retryAt;
+
+    public CircuitOpenException(String remoteName, int failures, Instant retryAt) {
+        super(String.format("Remote '%s' failed %d times in a row, not trying it again before %s",
+                remoteName, failures, retryAt));
+        this.remoteName = remoteName;
+        this.retryAt = retryAt;
+    }
+
+    public String getRemoteName() {
+        return remoteName;
+    }
+
+    /**
+     * @return when the next probe of the remote is allowed
+     */
+    public Instant getRetryAt() {
+        return retryAt;
+    }
+}
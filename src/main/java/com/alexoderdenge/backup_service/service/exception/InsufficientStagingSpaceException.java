@@ -0,0 +1,20 @@
+package com.alexoderdenge.backup_service.service.exception;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when no staging root has room for the estimated size of an archive.
+ */
+public class InsufficientStagingSpaceException extends IOException {
+
+    private final long requiredBytes;
+
+    public InsufficientStagingSpaceException(String message, long requiredBytes) {
+        super(message);
+        this.requiredBytes = requiredBytes;
+    }
+
+    public long getRequiredBytes() {
+        return requiredBytes;
+    }
+}
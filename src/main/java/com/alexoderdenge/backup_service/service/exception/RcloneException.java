@@ -1,12 +1,33 @@
 package com.alexoderdenge.backup_service.service.exception;
 
 public class RcloneException extends RuntimeException {
+
+    private final Integer exitCode;
     
     public RcloneException(String message) {
         super(message);
+        this.exitCode = null;
     }
     
     public RcloneException(String message, Throwable cause) {
         super(message, cause);
+        this.exitCode = null;
+    }
+
+    public RcloneException(String message, int exitCode) {
+        super(message);
+        this.exitCode = exitCode;
+    }
+
+    public RcloneException(String message, int exitCode, Throwable cause) {
+        super(message, cause);
+        this.exitCode = exitCode;
+    }
+
+    /**
+     * @return the rclone process exit code, or null if the failure did not come from an exited process
+     */
+    public Integer getExitCode() {
+        return exitCode;
     }
 }
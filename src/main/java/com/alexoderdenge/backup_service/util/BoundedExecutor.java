@@ -0,0 +1,89 @@
+package com.alexoderdenge.backup_service.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed worker pool with a bounded queue, used as one stage of a pipeline.
+ * <p>
+ * {@link #execute} blocks the caller while all workers are busy and the queue is full, so a slow stage
+ * pushes back on the stage feeding it instead of letting work pile up in memory.
+ */
+@Slf4j
+public class BoundedExecutor implements Executor, AutoCloseable {
+
+    private final ExecutorService executor;
+    private final Semaphore slots;
+
+    /**
+     * @param workers          tasks running at the same time
+     * @param queueCapacity    tasks allowed to wait for a worker before {@link #execute} blocks
+     * @param threadNamePrefix prefix of the worker thread names
+     */
+    public BoundedExecutor(int workers, int queueCapacity, String threadNamePrefix) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1, got: " + workers);
+        }
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("queueCapacity cannot be negative, got: " + queueCapacity);
+        }
+        this.slots = new Semaphore(workers + queueCapacity);
+        AtomicInteger counter = new AtomicInteger(1);
+        this.executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the task, waiting for room in the queue if needed.
+     *
+     * @throws RejectedExecutionException if interrupted while waiting or if the executor is closed
+     */
+    @Override
+    public void execute(Runnable task) {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for room in the queue", e);
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops accepting tasks and waits for the queued ones to finish.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Stage workers did not terminate in time, forcing shutdown");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.alexoderdenge.backup_service.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Content-defined chunking with the FastCDC algorithm (gear rolling hash with normalized chunking).
+ * <p>
+ * Chunk boundaries depend only on the bytes around them, so inserting or changing a few bytes in a
+ * large file only changes the chunks around the edit; every other chunk keeps its exact content and
+ * deduplicates against earlier backups. Below the average size a stricter mask is used and above it
+ * a looser one, which keeps most chunks close to the average.
+ * <p>
+ * The gear table is generated from a fixed seed with SplitMix64, so boundaries stay stable across
+ * runs and JVM versions. Changing the seed or the sizes of an existing repository makes every chunk new.
+ */
+public class FastCdcChunker {
+
+    private static final long GEAR_SEED = 0x5DEECE66DL;
+    private static final long[] GEAR = gearTable();
+
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+    private final long maskSmall;
+    private final long maskLarge;
+
+    /**
+     * Receives each chunk. The array is reused for the next chunk, so implementations must copy what they keep.
+     */
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        void accept(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    /**
+     * @param minSize     no boundary is placed before this many bytes
+     * @param averageSize the expected chunk size, rounded to a power of two
+     * @param maxSize     chunks are cut here even without a content boundary
+     */
+    public FastCdcChunker(int minSize, int averageSize, int maxSize) {
+        if (minSize <= 0 || minSize > averageSize || averageSize > maxSize) {
+            throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min <= average <= max, got "
+                    + minSize + "/" + averageSize + "/" + maxSize);
+        }
+        this.minSize = minSize;
+        this.averageSize = averageSize;
+        this.maxSize = maxSize;
+        int bits = 31 - Integer.numberOfLeadingZeros(averageSize);
+        // The high bits of the gear hash depend on the most bytes, so the masks test those
+        this.maskSmall = -1L << (64 - Math.min(63, bits + 2));
+        this.maskLarge = -1L << (64 - Math.max(1, bits - 2));
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getAverageSize() {
+        return averageSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Finds the end of the chunk starting at {@code offset}.
+     *
+     * @return the length of the chunk, at most {@code length}; equal to {@code length} if no boundary
+     *         was found and the data ends before {@link #getMaxSize()}
+     */
+    public int cut(byte[] data, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int end = Math.min(length, maxSize);
+        int normal = Math.min(end, averageSize);
+        long hash = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((hash & maskSmall) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((hash & maskLarge) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Splits the whole stream into chunks, holding at most two maximum-size chunks in memory.
+     *
+     * @return the number of bytes read
+     */
+    public long split(InputStream in, ChunkConsumer consumer) throws IOException {
+        byte[] buffer = new byte[maxSize * 2];
+        int start = 0;
+        int limit = 0;
+        long total = 0;
+        boolean eof = false;
+        while (true) {
+            if (!eof && limit - start < maxSize) {
+                // Compact and refill so a whole maximum-size chunk is available
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+                limit -= start;
+                start = 0;
+                while (limit < buffer.length) {
+                    int n = in.read(buffer, limit, buffer.length - limit);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    limit += n;
+                    total += n;
+                }
+            }
+            if (start == limit) {
+                return total;
+            }
+            int length = cut(buffer, start, limit - start);
+            consumer.accept(buffer, start, length);
+            start += length;
+        }
+    }
+
+    private static long[] gearTable() {
+        long[] table = new long[256];
+        long state = GEAR_SEED;
+        for (int i = 0; i < table.length; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            table[i] = z ^ (z >>> 31);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,352 @@
+package com.alexoderdenge.backup_service.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Walks directory trees with several threads, for trees with millions of files.
+ * <p>
+ * {@link #scan} lists directories in parallel on a fork/join pool and hands every entry to a consumer on
+ * the calling thread through a bounded queue, so the consumer needs no synchronization and memory stays
+ * bounded however large the tree is: nothing but the directories still to be listed is kept. Entries come
+ * in no particular order, except that a directory always comes before its contents.
+ * <p>
+ * {@link #deleteTree} deletes a tree bottom-up in parallel, each directory once its contents are gone, so
+ * no path list has to be collected and sorted first.
+ * <p>
+ * Like {@link Files#walkFileTree}, symbolic links are reported as links and never followed. Entries that
+ * vanish while the tree is scanned are skipped; entries that cannot be read (e.g. access denied) are logged
+ * and skipped too, so one unreadable directory does not fail the scan of a whole tree.
+ */
+@Slf4j
+public class FileTreeScanner implements AutoCloseable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+    private static final Entry END = new Entry(null, null, null);
+
+    private static volatile FileTreeScanner shared;
+
+    private final ForkJoinPool pool;
+    private final int queueCapacity;
+
+    /**
+     * A file, directory, symbolic link or special file found below the scanned root.
+     *
+     * @param path         the entry's path
+     * @param relativePath path relative to the scanned root, '/' separated; the file name when the root is not a directory
+     * @param attributes   attributes of the entry itself, not of a link target
+     */
+    public record Entry(Path path, String relativePath, BasicFileAttributes attributes) {
+
+        public boolean isDirectory() {
+            return attributes.isDirectory();
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(Entry entry) throws IOException;
+    }
+
+    /**
+     * @param parallelism   directories listed at the same time
+     * @param queueCapacity entries listed ahead of the consumer before listing pauses
+     */
+    public FileTreeScanner(int parallelism, int queueCapacity) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1, got: " + parallelism);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1, got: " + queueCapacity);
+        }
+        AtomicInteger counter = new AtomicInteger(1);
+        this.pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("file-scan-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return the scanner shared by the whole application. Listing is mostly waiting on the file system,
+     * so it uses more threads than there are processors.
+     */
+    public static FileTreeScanner shared() {
+        FileTreeScanner scanner = shared;
+        if (scanner == null) {
+            synchronized (FileTreeScanner.class) {
+                scanner = shared;
+                if (scanner == null) {
+                    scanner = new FileTreeScanner(Math.max(4, Runtime.getRuntime().availableProcessors()), DEFAULT_QUEUE_CAPACITY);
+                    shared = scanner;
+                }
+            }
+        }
+        return scanner;
+    }
+
+    /**
+     * Hands every entry below the root to the consumer, on the calling thread. A root that is not a
+     * directory is handed over itself. The root directory itself is not.
+     *
+     * @return the number of entries skipped because they could not be read; anything below a skipped
+     * directory is missing from the scan as well
+     * @throws IOException if the root cannot be listed, or the first error thrown by the consumer; the scan stops at it
+     */
+    public int scan(Path root, EntryConsumer consumer) throws IOException {
+        BasicFileAttributes rootAttributes = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!rootAttributes.isDirectory()) {
+            consumer.accept(new Entry(root, root.getFileName().toString(), rootAttributes));
+            return 0;
+        }
+
+        Scan scan = new Scan(queueCapacity);
+        pool.execute(() -> {
+            try {
+                new ListTask(scan, root, "").invoke();
+            } catch (RuntimeException e) {
+                scan.fail(new IOException("Failed to scan " + root, e));
+            } finally {
+                scan.finish();
+            }
+        });
+
+        try {
+            Entry entry;
+            while ((entry = scan.entries.take()) != END) {
+                consumer.accept(entry);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scan.abandon();
+            throw new InterruptedIOException("Interrupted while scanning " + root);
+        } catch (IOException | RuntimeException e) {
+            scan.abandon();
+            throw e;
+        }
+        IOException failure = scan.failure.get();
+        if (failure != null) {
+            throw failure;
+        }
+        int unreadable = scan.unreadable.get();
+        if (unreadable > 0) {
+            log.warn("⚠️ Skipped {} unreadable entries below {}", unreadable, root);
+        }
+        return unreadable;
+    }
+
+    /**
+     * Deletes the root and everything below it. A missing root is not an error. Entries that cannot be
+     * deleted are logged and skipped, so as much as possible is removed.
+     *
+     * @throws IOException if the root could not be deleted completely
+     */
+    public void deleteTree(Path root) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        AtomicInteger failures = new AtomicInteger();
+        if (attributes.isDirectory()) {
+            pool.invoke(new DeleteTask(root, failures));
+        } else {
+            delete(root, failures);
+        }
+        if (failures.get() > 0) {
+            throw new IOException("Failed to delete " + failures.get() + " entries of " + root);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private static void delete(Path path, AtomicInteger failures) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            log.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * State of one {@link #scan} shared by its list tasks and the consuming thread.
+     */
+    private static class Scan {
+        final BlockingQueue<Entry> entries;
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        final AtomicInteger unreadable = new AtomicInteger();
+        volatile boolean stopped;   // List tasks should stop emitting
+        volatile boolean abandoned; // The consumer is gone and takes nothing more
+
+        Scan(int queueCapacity) {
+            this.entries = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        /**
+         * Queues an entry, waiting while the consumer is behind. Blocking a pool thread is fine here:
+         * the consumer draining the queue does not run on the pool.
+         *
+         * @return false if the scan was stopped
+         */
+        boolean emit(Entry entry) {
+            return offer(entry, () -> stopped);
+        }
+
+        void fail(IOException e) {
+            failure.compareAndSet(null, e);
+            stopped = true;
+        }
+
+        /**
+         * Skips an entry that could not be read. One that no longer exists was deleted during the scan and
+         * would not have been backed up a moment later either, so it is not worth a warning.
+         */
+        void skip(Path path, IOException e) {
+            if (e instanceof NoSuchFileException || e instanceof NotDirectoryException) {
+                log.debug("Skipping {}, it vanished during the scan", path);
+                return;
+            }
+            unreadable.incrementAndGet();
+            log.warn("⚠️ Skipping unreadable {}: {}", path, e.toString());
+        }
+
+        void abandon() {
+            abandoned = true;
+            stopped = true;
+        }
+
+        /**
+         * Tells the consumer there is nothing more, including after a failure, which it reports then.
+         */
+        void finish() {
+            offer(END, () -> abandoned);
+        }
+
+        private boolean offer(Entry entry, BooleanSupplier giveUp) {
+            try {
+                while (!giveUp.getAsBoolean()) {
+                    if (entries.offer(entry, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(new InterruptedIOException("Interrupted while scanning"));
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Lists one directory, emits its entries, then lists its subdirectories in parallel.
+     */
+    private static class ListTask extends RecursiveAction {
+        private final Scan scan;
+        private final Path directory;
+        private final String relativePath;
+
+        ListTask(Scan scan, Path directory, String relativePath) {
+            this.scan = scan;
+            this.directory = directory;
+            this.relativePath = relativePath;
+        }
+
+        @Override
+        protected void compute() {
+            if (scan.stopped) {
+                return;
+            }
+            List<ListTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                for (Path child : children) {
+                    String childPath = relativePath.isEmpty() ? child.getFileName().toString()
+                            : relativePath + "/" + child.getFileName();
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        scan.skip(child, e);
+                        continue;
+                    }
+                    if (!scan.emit(new Entry(child, childPath, attributes))) {
+                        return;
+                    }
+                    if (attributes.isDirectory()) {
+                        subdirectories.add(new ListTask(scan, child, childPath));
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                IOException cause = e instanceof DirectoryIteratorException iteration ? iteration.getCause() : (IOException) e;
+                if (relativePath.isEmpty()) {
+                    scan.fail(cause); // The root itself cannot be listed
+                    return;
+                }
+                scan.skip(directory, cause); // Keep the entries listed so far and the subdirectories found
+            }
+            invokeAll(subdirectories);
+        }
+    }
+
+    /**
+     * Deletes the contents of one directory, subdirectories in parallel, then the directory itself.
+     */
+    private static class DeleteTask extends RecursiveAction {
+        private final Path directory;
+        private final AtomicInteger failures;
+
+        DeleteTask(Path directory, AtomicInteger failures) {
+            this.directory = directory;
+            this.failures = failures;
+        }
+
+        @Override
+        protected void compute() {
+            List<DeleteTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                for (Path child : children) {
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        subdirectories.add(new DeleteTask(child, failures));
+                    } else {
+                        delete(child, failures);
+                    }
+                }
+            } catch (IOException e) {
+                failures.incrementAndGet();
+                log.warn("Failed to list {} for deletion: {}", directory, e.getMessage());
+                return;
+            }
+            invokeAll(subdirectories);
+            delete(directory, failures);
+        }
+    }
+}
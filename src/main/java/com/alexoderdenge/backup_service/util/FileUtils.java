@@ -31,26 +31,7 @@ public class FileUtils {
      * Validates that the source path exists and is accessible
      */
     public static String validateSourcePath(String sourcePath) throws IllegalArgumentException {
-        if (sourcePath == null || sourcePath.trim().isEmpty()) {
-            throw new IllegalArgumentException("Source path is null or empty");
-        }
-
-        // Warn if the path contains env-like placeholders
-        if (containsAny(sourcePath, "$HOME", "${HOME}", "$USER", "${USER}", "${user.home}", "${user.name}", "~")) {
-            log.warn("Source path contains placeholders (e.g., $HOME, ${HOME}, ${user.home}, ~). " +
-                    "They will be expanded before validation.");
-        }
-
-        // Expand placeholders BEFORE building the Path
-        String expanded = expandPlaceholders(sourcePath);
-
-        Path path = Paths.get(expanded);
-
-        // Normalize to absolute
-        if (!path.isAbsolute()) {
-            path = path.toAbsolutePath();
-            log.debug("Converted relative path to absolute: {}", path);
-        }
+        Path path = resolveSourcePath(sourcePath);
 
         if (!Files.exists(path)) {
             throw new IllegalArgumentException("Source path does not exist: " + path);
@@ -74,6 +55,34 @@ public class FileUtils {
         return path.toString();
     }
 
+    /**
+     * Expands placeholders and makes the source path absolute, without touching the file system.
+     * Whether it exists and can be read is left to whoever reads it next.
+     */
+    public static Path resolveSourcePath(String sourcePath) throws IllegalArgumentException {
+        if (sourcePath == null || sourcePath.trim().isEmpty()) {
+            throw new IllegalArgumentException("Source path is null or empty");
+        }
+
+        // Warn if the path contains env-like placeholders
+        if (containsAny(sourcePath, "$HOME", "${HOME}", "$USER", "${USER}", "${user.home}", "${user.name}", "~")) {
+            log.warn("Source path contains placeholders (e.g., $HOME, ${HOME}, ${user.home}, ~). " +
+                    "They will be expanded before validation.");
+        }
+
+        // Expand placeholders BEFORE building the Path
+        String expanded = expandPlaceholders(sourcePath);
+
+        Path path = Paths.get(expanded);
+
+        // Normalize to absolute
+        if (!path.isAbsolute()) {
+            path = path.toAbsolutePath();
+            log.debug("Converted relative path to absolute: {}", path);
+        }
+        return path;
+    }
+
     /**
      * Expand common placeholders:
      * - $HOME, ${HOME}, ~ -> System.getProperty("user.home")
@@ -131,28 +140,29 @@ public class FileUtils {
     }
 
     /**
-     * Recursively deletes a directory and all its contents.
+     * Creates a temporary directory below the given parent directory.
+     *
+     * @param parent the directory to create it in, created if missing
+     * @param prefix the prefix for the temporary directory name
+     * @return the path to the created temporary directory
+     * @throws IOException if the directory cannot be created
+     */
+    public static Path createTempDirectory(Path parent, String prefix) throws IOException {
+        Files.createDirectories(parent);
+        Path tempDir = Files.createTempDirectory(parent, prefix);
+        log.debug("Created temporary directory: {}", tempDir);
+        return tempDir;
+    }
+
+    /**
+     * Recursively deletes a directory and all its contents, bottom-up and in parallel.
      * Use with caution - this operation is irreversible.
      * 
      * @param directory the directory to delete
-     * @throws IOException if deletion fails
+     * @throws IOException if some of it could not be deleted
      */
     public static void deleteDirectoryRecursively(Path directory) throws IOException {
-        if (!Files.exists(directory)) {
-            return;
-        }
-
-        try (Stream<Path> paths = Files.walk(directory)) {
-            paths.sorted((path1, path2) -> -path1.compareTo(path2)) // Reverse order for deletion
-                 .forEach(path -> {
-                     try {
-                         Files.deleteIfExists(path);
-                     } catch (IOException e) {
-                         log.warn("Failed to delete {}: {}", path, e.getMessage());
-                     }
-                 });
-        }
-        
+        FileTreeScanner.shared().deleteTree(directory);
         log.debug("Deleted temporary directory: {}", directory);
     }
 
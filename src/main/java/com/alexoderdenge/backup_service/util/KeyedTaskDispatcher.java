@@ -0,0 +1,122 @@
+package com.alexoderdenge.backup_service.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a bounded worker pool while enforcing two limits at once:
+ * a global cap on running tasks and a cap per key (e.g. per rclone remote).
+ * <p>
+ * Tasks that cannot start yet stay queued in submission order and are dispatched
+ * as soon as both limits allow it, so a busy key never blocks worker threads that
+ * could be serving other keys.
+ */
+@Slf4j
+public class KeyedTaskDispatcher implements AutoCloseable {
+
+    private final int maxConcurrent;
+    private final int maxConcurrentPerKey;
+    private final ExecutorService executor;
+
+    private final Deque<PendingTask> pending = new ArrayDeque<>();
+    private final Map<String, Integer> runningPerKey = new HashMap<>();
+    private int running;
+
+    public KeyedTaskDispatcher(int maxConcurrent, int maxConcurrentPerKey, String threadNamePrefix) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1, got: " + maxConcurrent);
+        }
+        if (maxConcurrentPerKey < 1) {
+            throw new IllegalArgumentException("maxConcurrentPerKey must be at least 1, got: " + maxConcurrentPerKey);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxConcurrentPerKey = maxConcurrentPerKey;
+        this.executor = Executors.newFixedThreadPool(maxConcurrent, namedThreadFactory(threadNamePrefix));
+    }
+
+    /**
+     * Queues a task under the given key.
+     *
+     * @param key  the concurrency group of the task
+     * @param task the work to run
+     * @return a future completed when the task finishes (exceptionally if it throws)
+     */
+    public CompletableFuture<Void> submit(String key, Runnable task) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (this) {
+            pending.addLast(new PendingTask(key, task, future));
+            dispatch();
+        }
+        return future;
+    }
+
+    /**
+     * Starts every queued task that fits within the limits. Must hold the monitor.
+     */
+    private void dispatch() {
+        Iterator<PendingTask> iterator = pending.iterator();
+        while (running < maxConcurrent && iterator.hasNext()) {
+            PendingTask candidate = iterator.next();
+            int keyCount = runningPerKey.getOrDefault(candidate.key(), 0);
+            if (keyCount >= maxConcurrentPerKey) {
+                continue;
+            }
+            iterator.remove();
+            running++;
+            runningPerKey.put(candidate.key(), keyCount + 1);
+            executor.execute(() -> run(candidate));
+        }
+    }
+
+    private void run(PendingTask task) {
+        try {
+            task.task().run();
+            task.future().complete(null);
+        } catch (Throwable t) {
+            task.future().completeExceptionally(t);
+        } finally {
+            synchronized (this) {
+                running--;
+                runningPerKey.computeIfPresent(task.key(), (k, count) -> count > 1 ? count - 1 : null);
+                dispatch();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Dispatcher workers did not terminate in time, forcing shutdown");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private record PendingTask(String key, Runnable task, CompletableFuture<Void> future) {
+    }
+}
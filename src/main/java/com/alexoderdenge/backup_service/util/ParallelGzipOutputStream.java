@@ -0,0 +1,205 @@
+package com.alexoderdenge.backup_service.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream that compresses fixed-size blocks concurrently on an executor.
+ * <p>
+ * Every block becomes a complete, independent gzip member, and the members are written in order.
+ * RFC 1952 allows a gzip file to consist of several members, and gunzip, zcat, tar and
+ * {@link java.util.zip.GZIPInputStream} all decompress them as one continuous stream. Blocks that do
+ * not shrink are written with stored deflate blocks instead. Memory use is bounded by the number of
+ * blocks allowed in flight; writers block once that many are pending.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int OS_UNIX = 3;
+    private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[10]);
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int level;
+    private final int blockSize;
+    private final int maxBlocksInFlight;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private byte[] block;
+    private int blockLength;
+    private boolean membersWritten;
+    private boolean finished;
+
+    /**
+     * @param out               the stream receiving the gzip data
+     * @param executor          runs the block compression tasks
+     * @param level             deflate level 0-9, or -1 for the default
+     * @param blockSize         uncompressed bytes per gzip member
+     * @param maxBlocksInFlight blocks submitted but not yet written before writes start to block
+     */
+    public ParallelGzipOutputStream(OutputStream out, ExecutorService executor, int level, int blockSize,
+                                    int maxBlocksInFlight) {
+        this.out = out;
+        this.executor = executor;
+        this.level = level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION ? level : 6;
+        this.blockSize = blockSize;
+        this.maxBlocksInFlight = Math.max(1, maxBlocksInFlight);
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            int n = Math.min(length, blockSize - blockLength);
+            System.arraycopy(data, offset, block, blockLength, n);
+            blockLength += n;
+            offset += n;
+            length -= n;
+            if (blockLength == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Writes every member that has already been compressed and flushes the underlying stream.
+     * Does not cut the current block short, so it has no effect on the compression ratio.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+            writeMember(pending.pollFirst());
+        }
+        out.flush();
+    }
+
+    /**
+     * Compresses and writes all remaining data without closing the underlying stream.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (blockLength > 0 || !membersWritten && pending.isEmpty()) {
+            submitBlock(); // An empty input still needs one member to be a valid gzip file
+        }
+        while (!pending.isEmpty()) {
+            writeMember(pending.pollFirst());
+        }
+        out.flush();
+        finished = true;
+        block = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!finished) {
+                finish();
+            }
+        } finally {
+            pending.forEach(future -> future.cancel(true));
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        while (pending.size() >= maxBlocksInFlight) {
+            writeMember(pending.pollFirst());
+        }
+        byte[] data = block;
+        int length = blockLength;
+        pending.addLast(executor.submit(() -> compressMember(data, length, level)));
+        membersWritten = true;
+        block = new byte[blockSize];
+        blockLength = 0;
+    }
+
+    private void writeMember(Future<byte[]> future) throws IOException {
+        try {
+            out.write(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a compressed gzip block");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress gzip block", e.getCause());
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Stream already finished");
+        }
+    }
+
+    /**
+     * Compresses one block into a complete gzip member: header, raw deflate data, CRC-32 and size trailer.
+     */
+    static byte[] compressMember(byte[] data, int length, int level) {
+        byte[] deflated = deflate(data, length, level);
+        if (level != Deflater.NO_COMPRESSION && deflated.length >= length) {
+            deflated = deflate(data, length, Deflater.NO_COMPRESSION); // Incompressible block
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+
+        byte[] member = new byte[10 + deflated.length + 8];
+        member[0] = (byte) GZIP_MAGIC;
+        member[1] = (byte) (GZIP_MAGIC >> 8);
+        member[2] = Deflater.DEFLATED;
+        // flags and modification time stay zero
+        member[8] = (byte) (level == Deflater.BEST_COMPRESSION ? 2 : level == Deflater.BEST_SPEED ? 4 : 0);
+        member[9] = OS_UNIX;
+        System.arraycopy(deflated, 0, member, 10, deflated.length);
+        writeIntLE(member, 10 + deflated.length, crc.getValue());
+        writeIntLE(member, 14 + deflated.length, length & 0xFFFFFFFFL);
+        return member;
+    }
+
+    private static byte[] deflate(byte[] data, int length, int level) {
+        Deflater[] deflaters = DEFLATERS.get();
+        Deflater deflater = deflaters[level];
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+            deflaters[level] = deflater;
+        }
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        byte[] output = new byte[Math.max(64, length + length / 1000 + 64)];
+        int produced = 0;
+        while (!deflater.finished()) {
+            if (produced == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            produced += deflater.deflate(output, produced, output.length - produced);
+        }
+        return Arrays.copyOf(output, produced);
+    }
+
+    private static void writeIntLE(byte[] buffer, int offset, long value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+    }
+}
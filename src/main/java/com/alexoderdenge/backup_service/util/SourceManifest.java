@@ -0,0 +1,424 @@
+package com.alexoderdenge.backup_service.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The paths, types, sizes and modification times of a backup source, read from the file system once.
+ * <p>
+ * Validation, fingerprinting, size estimation, compression and the file list handed to rclone all work
+ * from the manifest instead of walking the source again. Entries are kept sorted by relative path, so
+ * archives list them in a stable order and a directory always comes before its contents. Up to
+ * {@code maxEntriesInMemory} entries are kept in memory; larger trees are sorted in runs spilled to the
+ * work directory and merged into one file there.
+ */
+@Slf4j
+public class SourceManifest implements SourceTree, Closeable {
+
+    private static final byte DIRECTORY = 'd';
+    private static final byte FILE = 'f';
+    private static final byte SYMBOLIC_LINK = 'l';
+    private static final byte OTHER = 'o';
+
+    private static final Comparator<Record> BY_PATH = Comparator.comparing(Record::relativePath);
+
+    private final Path root;
+    private final boolean rootIsDirectory;
+    private final List<Record> records;  // Sorted entries, null once spilled
+    private final Path spillFile;        // Sorted entries, null while in memory
+    private final long fileCount;
+    private final long directoryCount;
+    private final long totalSize;
+    private final long maxModified;
+    private final int unreadableCount;
+
+    /**
+     * One entry; the size only counts for regular files.
+     */
+    private record Record(String relativePath, byte type, long size, long modifiedMillis) {
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeUTF(relativePath);
+            out.writeByte(type);
+            out.writeLong(size);
+            out.writeLong(modifiedMillis);
+        }
+
+        static Record readFrom(DataInputStream in) throws IOException {
+            String relativePath;
+            try {
+                relativePath = in.readUTF();
+            } catch (EOFException e) {
+                return null;
+            }
+            return new Record(relativePath, in.readByte(), in.readLong(), in.readLong());
+        }
+    }
+
+    private SourceManifest(Path root, boolean rootIsDirectory, List<Record> records, Path spillFile,
+                           long fileCount, long directoryCount, long totalSize, long maxModified, int unreadableCount) {
+        this.root = root;
+        this.rootIsDirectory = rootIsDirectory;
+        this.records = records;
+        this.spillFile = spillFile;
+        this.fileCount = fileCount;
+        this.directoryCount = directoryCount;
+        this.totalSize = totalSize;
+        this.maxModified = maxModified;
+        this.unreadableCount = unreadableCount;
+    }
+
+    /**
+     * Provides the directory spilled entries are written to, only asked for once the in-memory limit is reached.
+     */
+    @FunctionalInterface
+    public interface WorkDirectory {
+        Path get() throws IOException;
+    }
+
+    /**
+     * Scans the source once. Entries below the root that cannot be read are skipped and counted, see
+     * {@link #isComplete()}.
+     *
+     * @param root               the file or directory to scan
+     * @param workDirectory      where entries beyond {@code maxEntriesInMemory} are spilled to
+     * @param maxEntriesInMemory entries kept in memory before sorted runs are written to the work directory
+     * @throws java.nio.file.NoSuchFileException   if the root does not exist
+     * @throws java.nio.file.AccessDeniedException if the root or a directory below it cannot be read
+     */
+    public static SourceManifest scan(Path root, WorkDirectory workDirectory, int maxEntriesInMemory) throws IOException {
+        if (maxEntriesInMemory < 1) {
+            throw new IllegalArgumentException("maxEntriesInMemory must be at least 1, got: " + maxEntriesInMemory);
+        }
+        boolean rootIsDirectory = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory();
+        if (!rootIsDirectory && !Files.isReadable(root)) {
+            throw new AccessDeniedException(root.toString());
+        }
+        Collector collector = new Collector(workDirectory, maxEntriesInMemory);
+        try {
+            int unreadable = FileTreeScanner.shared().scan(root, entry -> collector.add(toRecord(entry)));
+            return collector.finish(root, rootIsDirectory, unreadable);
+        } catch (IOException | RuntimeException e) {
+            collector.discard();
+            throw e;
+        }
+    }
+
+    @Override
+    public Path root() {
+        return root;
+    }
+
+    /**
+     * @return whether the source is a directory rather than a single file
+     */
+    public boolean isDirectory() {
+        return rootIsDirectory;
+    }
+
+    /**
+     * @return regular files, symbolic links and special files in the source
+     */
+    public long fileCount() {
+        return fileCount;
+    }
+
+    public long directoryCount() {
+        return directoryCount;
+    }
+
+    /**
+     * @return total size of the regular files in the source
+     */
+    public long totalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return latest modification time of any file in the source, in epoch milliseconds
+     */
+    public long maxModified() {
+        return maxModified;
+    }
+
+    /**
+     * @return entries skipped by the scan because they could not be read, e.g. a directory without read
+     * permission; its contents are not counted as they were never seen
+     */
+    public int unreadableCount() {
+        return unreadableCount;
+    }
+
+    /**
+     * Whether the scan saw the whole source. An incomplete manifest must not be used to decide what to delete
+     * on the remote: the files it misses may well still exist.
+     */
+    public boolean isComplete() {
+        return unreadableCount == 0;
+    }
+
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Replays the scanned entries in path order. Attributes are those seen by the scan.
+     */
+    @Override
+    public void forEach(FileTreeScanner.EntryConsumer consumer) throws IOException {
+        if (spillFile == null) {
+            for (Record record : records) {
+                consumer.accept(toEntry(record));
+            }
+            return;
+        }
+        try (DataInputStream in = openRun(spillFile)) {
+            Record record;
+            while ((record = Record.readFrom(in)) != null) {
+                consumer.accept(toEntry(record));
+            }
+        }
+    }
+
+    /**
+     * Writes the regular files of a directory source to a file list for rclone's {@code --files-from-raw},
+     * one path relative to the root per line.
+     *
+     * @return false if a path cannot be written as one line; the file list must not be used then
+     */
+    public boolean writeFileList(Path target) throws IOException {
+        if (!rootIsDirectory) {
+            throw new IllegalStateException("A file list only applies to directory sources: " + root);
+        }
+        boolean[] representable = {true};
+        try (BufferedWriter writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            forEach(entry -> {
+                if (!entry.attributes().isRegularFile() || !representable[0]) {
+                    return;
+                }
+                String path = entry.relativePath();
+                if (path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0) {
+                    representable[0] = false;
+                    return;
+                }
+                writer.write(path);
+                writer.write('\n');
+            });
+        }
+        return representable[0];
+    }
+
+    /**
+     * Deletes the spilled entries. The work directory itself belongs to the caller.
+     */
+    @Override
+    public void close() throws IOException {
+        if (spillFile != null) {
+            Files.deleteIfExists(spillFile);
+        }
+    }
+
+    private FileTreeScanner.Entry toEntry(Record record) {
+        Path path = rootIsDirectory ? root.resolve(record.relativePath()) : root;
+        return new FileTreeScanner.Entry(path, record.relativePath(), new ManifestAttributes(record));
+    }
+
+    private static Record toRecord(FileTreeScanner.Entry entry) {
+        BasicFileAttributes attrs = entry.attributes();
+        byte type = attrs.isDirectory() ? DIRECTORY
+                : attrs.isRegularFile() ? FILE
+                : attrs.isSymbolicLink() ? SYMBOLIC_LINK
+                : OTHER;
+        return new Record(entry.relativePath(), type, attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    private static DataInputStream openRun(Path run) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 64 * 1024));
+    }
+
+    private static DataOutputStream createRun(Path run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 64 * 1024));
+    }
+
+    /**
+     * Collects scanned entries, spilling sorted runs once the in-memory limit is reached.
+     */
+    private static class Collector {
+        private final WorkDirectory workDirectory;
+        private final int maxEntriesInMemory;
+        private final List<Path> runs = new ArrayList<>();
+        private List<Record> buffer = new ArrayList<>();
+        private long fileCount;
+        private long directoryCount;
+        private long totalSize;
+        private long maxModified;
+
+        Collector(WorkDirectory workDirectory, int maxEntriesInMemory) {
+            this.workDirectory = workDirectory;
+            this.maxEntriesInMemory = maxEntriesInMemory;
+        }
+
+        void add(Record record) throws IOException {
+            if (record.type() == DIRECTORY) {
+                directoryCount++;
+            } else {
+                fileCount++;
+                maxModified = Math.max(maxModified, record.modifiedMillis());
+                if (record.type() == FILE) {
+                    totalSize += record.size();
+                }
+            }
+            buffer.add(record);
+            if (buffer.size() >= maxEntriesInMemory) {
+                spill();
+            }
+        }
+
+        SourceManifest finish(Path root, boolean rootIsDirectory, int unreadable) throws IOException {
+            if (runs.isEmpty()) {
+                buffer.sort(BY_PATH);
+                return new SourceManifest(root, rootIsDirectory, List.copyOf(buffer), null,
+                        fileCount, directoryCount, totalSize, maxModified, unreadable);
+            }
+            spill();
+            Path merged = runs.size() == 1 ? runs.remove(0) : merge();
+            log.debug("Spilled manifest of {} to {}", root, merged);
+            return new SourceManifest(root, rootIsDirectory, null, merged,
+                    fileCount, directoryCount, totalSize, maxModified, unreadable);
+        }
+
+        void discard() {
+            for (Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException e) {
+                    log.warn("Failed to delete manifest run {}: {}", run, e.getMessage());
+                }
+            }
+            runs.clear();
+        }
+
+        private void spill() throws IOException {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            buffer.sort(BY_PATH);
+            Path run = Files.createTempFile(workDirectory.get(), "manifest-", ".run");
+            runs.add(run);
+            try (DataOutputStream out = createRun(run)) {
+                for (Record record : buffer) {
+                    record.writeTo(out);
+                }
+            }
+            buffer = new ArrayList<>();
+        }
+
+        /**
+         * Merges all sorted runs into one sorted file and deletes them.
+         */
+        private Path merge() throws IOException {
+            Path merged = Files.createTempFile(workDirectory.get(), "manifest-", ".sorted");
+            List<DataInputStream> inputs = new ArrayList<>();
+            record Head(Record record, DataInputStream in) {
+            }
+            PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.comparing(head -> head.record().relativePath()));
+            try (DataOutputStream out = createRun(merged)) {
+                for (Path run : runs) {
+                    DataInputStream in = openRun(run);
+                    inputs.add(in);
+                    Record first = Record.readFrom(in);
+                    if (first != null) {
+                        heads.add(new Head(first, in));
+                    }
+                }
+                Head head;
+                while ((head = heads.poll()) != null) {
+                    head.record().writeTo(out);
+                    Record next = Record.readFrom(head.in());
+                    if (next != null) {
+                        heads.add(new Head(next, head.in()));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(merged);
+                throw e;
+            } finally {
+                for (DataInputStream in : inputs) {
+                    in.close();
+                }
+            }
+            discard();
+            return merged;
+        }
+    }
+
+    /**
+     * Attributes as recorded by the scan.
+     */
+    private record ManifestAttributes(Record record) implements BasicFileAttributes {
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(record.modifiedMillis());
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return record.type() == FILE;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return record.type() == DIRECTORY;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return record.type() == SYMBOLIC_LINK;
+        }
+
+        @Override
+        public boolean isOther() {
+            return record.type() == OTHER;
+        }
+
+        @Override
+        public long size() {
+            return record.size();
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+}
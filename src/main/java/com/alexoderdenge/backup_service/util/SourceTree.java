@@ -0,0 +1,38 @@
+package com.alexoderdenge.backup_service.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The entries of a backup source, either read from the file system or replayed from a {@link SourceManifest}.
+ */
+public interface SourceTree {
+
+    /**
+     * @return the file or directory the entries belong to
+     */
+    Path root();
+
+    /**
+     * Hands every entry below the root to the consumer, a directory before its contents. A root that is
+     * not a directory is handed over itself.
+     */
+    void forEach(FileTreeScanner.EntryConsumer consumer) throws IOException;
+
+    /**
+     * @return a tree read from the file system each time it is walked
+     */
+    static SourceTree live(Path root) {
+        return new SourceTree() {
+            @Override
+            public Path root() {
+                return root;
+            }
+
+            @Override
+            public void forEach(FileTreeScanner.EntryConsumer consumer) throws IOException {
+                FileTreeScanner.shared().scan(root, consumer);
+            }
+        };
+    }
+}
@@ -0,0 +1,245 @@
+package com.alexoderdenge.backup_service.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming writer for POSIX (pax/ustar) tar archives.
+ * <p>
+ * Names, link targets and numbers that don't fit the fixed ustar header fields (long or non-ASCII paths,
+ * files of 8 GiB and more, large uid/gid values) are written as a preceding pax extended header,
+ * which GNU tar, bsdtar and busybox all understand.
+ * <p>
+ * Entry data is written through the {@link OutputStream} methods and must match the announced size.
+ * Closing the writer ends the archive but leaves the underlying stream open.
+ */
+public class TarArchiveWriter extends OutputStream {
+
+    public static final char TYPE_FILE = '0';
+    public static final char TYPE_SYMLINK = '2';
+    public static final char TYPE_DIRECTORY = '5';
+    private static final char TYPE_PAX_HEADER = 'x';
+
+    private static final int BLOCK = 512;
+    private static final int NAME_LENGTH = 100;
+    private static final long MAX_OCTAL_SIZE = 077777777777L; // 11 octal digits
+    private static final long MAX_OCTAL_ID = 07777777L; // 7 octal digits
+    private static final byte[] ZERO_BLOCK = new byte[BLOCK];
+
+    private final OutputStream out;
+    private long remaining = -1; // Data bytes still expected for the open entry, -1 if none is open
+    private long entrySize;
+    private boolean finished;
+
+    /**
+     * Header data of one archive entry.
+     *
+     * @param name             path inside the archive, directories end with '/'
+     * @param type             {@link #TYPE_FILE}, {@link #TYPE_DIRECTORY} or {@link #TYPE_SYMLINK}
+     * @param size             data size, 0 for directories and links
+     * @param modifiedSeconds  modification time in seconds since the epoch
+     * @param mode             permission bits, e.g. 0644
+     * @param uid              owner user id
+     * @param gid              owner group id
+     * @param userName         owner user name, may be null
+     * @param groupName        owner group name, may be null
+     * @param linkName         symlink target, null for other types
+     */
+    public record Entry(String name, char type, long size, long modifiedSeconds, int mode, long uid, long gid,
+                        String userName, String groupName, String linkName) {
+    }
+
+    public TarArchiveWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes the header of an entry. File data must follow through {@link #write} before the next entry.
+     */
+    public void putEntry(Entry entry) throws IOException {
+        if (remaining > 0) {
+            throw new IllegalStateException("Previous entry is missing " + remaining + " bytes");
+        }
+        closeEntry();
+
+        byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+        byte[] linkName = entry.linkName() == null ? new byte[0] : entry.linkName().getBytes(StandardCharsets.UTF_8);
+
+        Map<String, String> pax = new LinkedHashMap<>();
+        if (name.length > NAME_LENGTH || !isAscii(entry.name())) {
+            pax.put("path", entry.name());
+        }
+        if (linkName.length > NAME_LENGTH || (entry.linkName() != null && !isAscii(entry.linkName()))) {
+            pax.put("linkpath", entry.linkName());
+        }
+        if (entry.size() > MAX_OCTAL_SIZE) {
+            pax.put("size", Long.toString(entry.size()));
+        }
+        if (entry.uid() > MAX_OCTAL_ID) {
+            pax.put("uid", Long.toString(entry.uid()));
+        }
+        if (entry.gid() > MAX_OCTAL_ID) {
+            pax.put("gid", Long.toString(entry.gid()));
+        }
+        if (!pax.isEmpty()) {
+            writePaxHeader(entry, pax);
+        }
+
+        writeHeader(name, entry.type(), entry.type() == TYPE_FILE ? entry.size() : 0, entry.modifiedSeconds(),
+                entry.mode(), entry.uid(), entry.gid(), entry.userName(), entry.groupName(), linkName);
+        entrySize = entry.type() == TYPE_FILE ? entry.size() : 0;
+        remaining = entrySize;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (length > remaining) {
+            throw new IOException("Entry data exceeds the size announced in its header by " + (length - remaining) + " bytes");
+        }
+        out.write(data, offset, length);
+        remaining -= length;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    /**
+     * Writes the two zero blocks that end the archive. The underlying stream is flushed but not closed.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (remaining > 0) {
+            throw new IOException("Last entry is missing " + remaining + " bytes");
+        }
+        closeEntry();
+        out.write(ZERO_BLOCK);
+        out.write(ZERO_BLOCK);
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    /**
+     * @return how many data bytes the open entry still expects
+     */
+    public long remaining() {
+        return Math.max(0, remaining);
+    }
+
+    private void closeEntry() throws IOException {
+        if (remaining == 0) {
+            pad(entrySize);
+        }
+        remaining = -1;
+    }
+
+    private void writePaxHeader(Entry entry, Map<String, String> records) throws IOException {
+        StringBuilder data = new StringBuilder();
+        for (Map.Entry<String, String> record : records.entrySet()) {
+            data.append(paxRecord(record.getKey(), record.getValue()));
+        }
+        byte[] content = data.toString().getBytes(StandardCharsets.UTF_8);
+
+        String baseName = entry.name().endsWith("/") ? entry.name().substring(0, entry.name().length() - 1) : entry.name();
+        baseName = baseName.substring(baseName.lastIndexOf('/') + 1);
+        byte[] paxName = truncate(("PaxHeaders/" + baseName).getBytes(StandardCharsets.UTF_8), NAME_LENGTH);
+        writeHeader(paxName, TYPE_PAX_HEADER, content.length, entry.modifiedSeconds(), 0644, 0, 0, null, null, new byte[0]);
+        out.write(content);
+        pad(content.length);
+    }
+
+    /**
+     * Formats "length key=value\n", where length counts the whole record including its own digits.
+     */
+    static String paxRecord(String key, String value) {
+        int payload = key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int length = payload + Integer.toString(payload).length();
+        if (Integer.toString(length).length() != Integer.toString(payload).length()) {
+            length++;
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    private void writeHeader(byte[] name, char type, long size, long modifiedSeconds, int mode, long uid, long gid,
+                             String userName, String groupName, byte[] linkName) throws IOException {
+        byte[] header = new byte[BLOCK];
+        System.arraycopy(truncate(name, NAME_LENGTH), 0, header, 0, Math.min(name.length, NAME_LENGTH));
+        writeOctal(header, 100, 8, mode & 07777);
+        writeOctal(header, 108, 8, Math.min(uid, MAX_OCTAL_ID));
+        writeOctal(header, 116, 8, Math.min(gid, MAX_OCTAL_ID));
+        writeOctal(header, 124, 12, Math.min(size, MAX_OCTAL_SIZE));
+        writeOctal(header, 136, 12, Math.max(0, Math.min(modifiedSeconds, MAX_OCTAL_SIZE)));
+        header[156] = (byte) type;
+        System.arraycopy(linkName, 0, header, 157, Math.min(linkName.length, NAME_LENGTH));
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        writeString(header, 265, 32, userName);
+        writeString(header, 297, 32, groupName);
+
+        // The checksum is computed with its own field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        writeOctal(header, 148, 7, checksum);
+        header[155] = ' ';
+        out.write(header);
+    }
+
+    private void pad(long size) throws IOException {
+        int padding = (int) ((BLOCK - size % BLOCK) % BLOCK);
+        if (padding > 0) {
+            out.write(ZERO_BLOCK, 0, padding);
+        }
+    }
+
+    private static void writeOctal(byte[] header, int offset, int length, long value) {
+        String octal = Long.toOctalString(value);
+        int digits = length - 1; // Last byte is the NUL terminator
+        for (int i = 0; i < digits; i++) {
+            int index = octal.length() - digits + i;
+            header[offset + i] = (byte) (index >= 0 ? octal.charAt(index) : '0');
+        }
+        header[offset + digits] = 0;
+    }
+
+    private static void writeString(byte[] header, int offset, int length, String value) {
+        if (value != null && isAscii(value)) {
+            byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length - 1));
+        }
+    }
+
+    private static byte[] truncate(byte[] value, int length) {
+        if (value.length <= length) {
+            return value;
+        }
+        byte[] truncated = new byte[length];
+        System.arraycopy(value, 0, truncated, 0, length);
+        return truncated;
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
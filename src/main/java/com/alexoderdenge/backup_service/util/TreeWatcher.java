@@ -0,0 +1,182 @@
+package com.alexoderdenge.backup_service.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory tree and collects the paths that changed in it.
+ * <p>
+ * Every directory of the tree is registered with a {@link WatchService}; directories created later are
+ * registered as they appear, and the files already inside them are reported as changed. At most
+ * {@code maxPendingPaths} paths are collected; beyond that, or when the watch service overflows or a
+ * watched directory disappears, the individual paths are dropped and a rescan of the whole tree is
+ * requested instead, so memory stays bounded however many files change.
+ * <p>
+ * Not thread-safe; meant to be driven by one thread, which {@link #close()} unblocks.
+ */
+public class TreeWatcher implements Closeable {
+
+    private final Path root;
+    private final int maxPendingPaths;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Map<Path, WatchKey> watchedDirectories = new HashMap<>(); // The reverse of directories
+
+    /**
+     * Changed paths relative to the root, or a request to rescan everything.
+     *
+     * @param paths  changed, created or deleted paths; empty if {@code rescan} is set
+     * @param rescan whether changes were lost and the whole tree has to be compared again
+     */
+    public record Changes(Set<String> paths, boolean rescan) {
+    }
+
+    public TreeWatcher(Path root, int maxPendingPaths) throws IOException {
+        this.root = root;
+        this.maxPendingPaths = Math.max(1, maxPendingPaths);
+        this.watchService = FileSystems.getDefault().newWatchService();
+        try {
+            registerTree(root, null);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for changes and returns them once none have arrived for {@code debounce}, or once
+     * {@code maxDelay} has passed since the first one, so a tree that never settles is still uploaded.
+     *
+     * @throws ClosedWatchServiceException if the watcher was closed while waiting
+     */
+    public Changes awaitChanges(Duration debounce, Duration maxDelay) throws InterruptedException {
+        Set<String> pending = new LinkedHashSet<>();
+        boolean rescan = false;
+        long firstChange = 0;
+        long lastChange = 0;
+        while (true) {
+            WatchKey key;
+            if (pending.isEmpty() && !rescan) {
+                key = watchService.take();
+            } else {
+                long now = System.nanoTime();
+                long deadline = Math.min(lastChange + debounce.toNanos(), firstChange + maxDelay.toNanos());
+                key = deadline > now ? watchService.poll(deadline - now, TimeUnit.NANOSECONDS) : null;
+                if (key == null) {
+                    return new Changes(rescan ? Collections.emptySet() : pending, rescan);
+                }
+            }
+
+            if (pending.isEmpty() && !rescan) {
+                firstChange = System.nanoTime();
+            }
+            lastChange = System.nanoTime();
+            rescan = collect(key, pending, rescan);
+            if (rescan) {
+                pending.clear();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * @return whether a rescan is needed from now on
+     */
+    private boolean collect(WatchKey key, Set<String> pending, boolean rescan) {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                rescan = true;
+                continue;
+            }
+            Path child = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    // Files may have been created before the directory was registered
+                    rescan |= registerTree(child, rescan ? null : pending);
+                } catch (IOException e) {
+                    rescan = true;
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && watchedDirectories.containsKey(child)) {
+                rescan = true; // The remote still has the files below it; only a full comparison finds them
+            }
+            if (!rescan) {
+                pending.add(relativize(child));
+                rescan = pending.size() > maxPendingPaths;
+            }
+        }
+        if (!key.reset()) {
+            Path gone = directories.remove(key);
+            if (gone != null) {
+                watchedDirectories.remove(gone, key); // Unless it was created again and has a new key
+            }
+            rescan = true; // The directory is gone, possibly before its deletion was seen in the parent
+        }
+        return rescan;
+    }
+
+    /**
+     * Registers the directory and all directories below it, adding the files found to {@code found}.
+     *
+     * @return whether {@code found} outgrew the limit
+     */
+    private boolean registerTree(Path start, Set<String> found) throws IOException {
+        boolean[] overflow = new boolean[1];
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                    directories.put(key, dir);
+                    watchedDirectories.put(dir, key);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (found != null && !overflow[0]) {
+                        found.add(relativize(file));
+                        overflow[0] = found.size() > maxPendingPaths;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (NoSuchFileException e) {
+            if (start.equals(root)) {
+                throw e;
+            }
+            // Created and deleted again before it could be registered
+        }
+        return overflow[0];
+    }
+
+    private String relativize(Path path) {
+        return root.relativize(path).toString();
+    }
+}
@@ -0,0 +1,150 @@
+package com.alexoderdenge.backup_service.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Output stream that splits what is written into numbered volume files ({@code name.001}, {@code name.002}, ...)
+ * of a fixed size. Concatenating the volumes in order gives back the original stream, the same layout
+ * 7-Zip and {@code split} use.
+ * <p>
+ * Every volume is handed to the listener as soon as it is complete, so it can be uploaded while later
+ * volumes are still being written. The last, possibly shorter volume is handed over on {@link #close()}.
+ */
+public class VolumeOutputStream extends OutputStream {
+
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+
+    private final Path directory;
+    private final String baseName;
+    private final long volumeSize;
+    private final VolumeListener listener;
+
+    private OutputStream current;
+    private Path currentPath;
+    private MessageDigest digest;
+    private long written; // Bytes in the current volume
+    private int volumeCount;
+    private boolean closed;
+
+    /**
+     * A complete volume file.
+     *
+     * @param number 1-based position of the volume
+     * @param file   the local volume file
+     * @param size   bytes in the volume
+     * @param sha256 hex SHA-256 of the volume
+     */
+    public record Volume(int number, Path file, long size, String sha256) {
+    }
+
+    @FunctionalInterface
+    public interface VolumeListener {
+        /**
+         * Called on the writing thread; blocking here pauses the writer, which bounds local disk use.
+         */
+        void volumeFinished(Volume volume) throws IOException;
+    }
+
+    public VolumeOutputStream(Path directory, String baseName, long volumeSize, VolumeListener listener) {
+        if (volumeSize <= 0) {
+            throw new IllegalArgumentException("Volume size must be positive, got " + volumeSize);
+        }
+        this.directory = directory;
+        this.baseName = baseName;
+        this.volumeSize = volumeSize;
+        this.listener = listener;
+    }
+
+    /**
+     * @return the file name suffix of a volume, e.g. ".001"
+     */
+    public static String volumeSuffix(int number) {
+        return String.format(".%03d", number);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (length > 0) {
+            if (current == null) {
+                openVolume();
+            }
+            int n = (int) Math.min(length, volumeSize - written);
+            current.write(data, offset, n);
+            digest.update(data, offset, n);
+            written += n;
+            offset += n;
+            length -= n;
+            if (written == volumeSize) {
+                finishVolume();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (current != null) {
+            current.flush();
+        }
+    }
+
+    /**
+     * Finishes the last volume. An empty stream still produces one empty volume.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (current == null && volumeCount == 0) {
+            openVolume();
+        }
+        if (current != null) {
+            finishVolume();
+        }
+    }
+
+    /**
+     * @return how many volumes were started so far
+     */
+    public int getVolumeCount() {
+        return volumeCount;
+    }
+
+    private void openVolume() throws IOException {
+        volumeCount++;
+        currentPath = directory.resolve(baseName + volumeSuffix(volumeCount));
+        current = new BufferedOutputStream(Files.newOutputStream(currentPath), WRITE_BUFFER_SIZE);
+        digest = sha256();
+        written = 0;
+    }
+
+    private void finishVolume() throws IOException {
+        current.close();
+        current = null;
+        listener.volumeFinished(new Volume(volumeCount, currentPath, written, HexFormat.of().formatHex(digest.digest())));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
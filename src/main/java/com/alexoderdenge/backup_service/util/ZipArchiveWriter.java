@@ -0,0 +1,355 @@
+package com.alexoderdenge.backup_service.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+
+/**
+ * Low-level ZIP writer for entries whose data has already been compressed elsewhere.
+ * <p>
+ * {@link java.util.zip.ZipOutputStream} always deflates the data it is given, which makes it unusable
+ * when entries are deflated concurrently on a thread pool. This writer only lays out the container:
+ * local headers, pre-compressed data, data descriptors, the central directory and ZIP64 records when
+ * sizes, offsets or the entry count exceed the classic limits. Entry names are written as UTF-8.
+ */
+public class ZipArchiveWriter implements AutoCloseable {
+
+    private static final long LOCAL_HEADER_SIG = 0x04034b50L;
+    private static final long DATA_DESCRIPTOR_SIG = 0x08074b50L;
+    private static final long CENTRAL_HEADER_SIG = 0x02014b50L;
+    private static final long ZIP64_END_SIG = 0x06064b50L;
+    private static final long ZIP64_LOCATOR_SIG = 0x07064b50L;
+    private static final long END_SIG = 0x06054b50L;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int DIRECTORY_ATTRIBUTE = 0x10;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CountingOutputStream out;
+    private final List<CentralRecord> centralDirectory = new ArrayList<>();
+    private CentralRecord openEntry;
+    private boolean finished;
+
+    public ZipArchiveWriter(OutputStream out) {
+        this.out = new CountingOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+    }
+
+    /**
+     * Writes a directory entry. A trailing '/' is appended to the name if missing.
+     */
+    public void writeDirectory(String name, long lastModifiedMillis) throws IOException {
+        String dirName = name.endsWith("/") ? name : name + "/";
+        CentralRecord record = new CentralRecord(encode(dirName), ZipEntry.STORED, dosTime(lastModifiedMillis),
+                0, out.getCount(), false);
+        record.directory = true;
+        writeLocalHeader(record);
+        centralDirectory.add(record);
+    }
+
+    /**
+     * Writes a complete entry whose CRC and sizes are already known.
+     *
+     * @param name               the entry name (forward slashes)
+     * @param lastModifiedMillis the modification time of the source file
+     * @param method             {@link ZipEntry#DEFLATED} for raw deflate data or {@link ZipEntry#STORED}
+     * @param crc                CRC-32 of the uncompressed data
+     * @param size               uncompressed size
+     * @param data               the (already compressed) entry data
+     */
+    public void writeEntry(String name, long lastModifiedMillis, int method, long crc, long size, byte[] data)
+            throws IOException {
+        CentralRecord record = new CentralRecord(encode(name), method, dosTime(lastModifiedMillis),
+                0, out.getCount(), false);
+        record.crc = crc;
+        record.size = size;
+        record.compressedSize = data.length;
+        writeLocalHeader(record);
+        out.write(data);
+        centralDirectory.add(record);
+    }
+
+    /**
+     * Starts an entry whose CRC and sizes are only known after its data has been written.
+     * The data is appended with {@link #writeEntryData} and the entry is closed with {@link #closeEntry}.
+     * Only deflated entries may be written this way, as most readers cannot delimit stored data otherwise.
+     */
+    public void startEntry(String name, long lastModifiedMillis) throws IOException {
+        if (openEntry != null) {
+            throw new IllegalStateException("Previous entry has not been closed");
+        }
+        CentralRecord record = new CentralRecord(encode(name), ZipEntry.DEFLATED, dosTime(lastModifiedMillis),
+                FLAG_DATA_DESCRIPTOR, out.getCount(), true);
+        writeLocalHeader(record);
+        openEntry = record;
+    }
+
+    /**
+     * Starts a stored entry whose CRC and size are known up front but whose data is too large to pass to
+     * {@link #writeEntry} at once. The data is appended with {@link #writeEntryData} and the entry is closed
+     * with {@link #closeStoredEntry}.
+     */
+    public void startStoredEntry(String name, long lastModifiedMillis, long crc, long size) throws IOException {
+        if (openEntry != null) {
+            throw new IllegalStateException("Previous entry has not been closed");
+        }
+        CentralRecord record = new CentralRecord(encode(name), ZipEntry.STORED, dosTime(lastModifiedMillis),
+                0, out.getCount(), false);
+        record.crc = crc;
+        record.size = size;
+        record.compressedSize = size;
+        writeLocalHeader(record);
+        record.compressedSize = 0; // Counts the data actually appended from here on
+        openEntry = record;
+    }
+
+    public void writeEntryData(byte[] data, int offset, int length) throws IOException {
+        if (openEntry == null) {
+            throw new IllegalStateException("No entry is open");
+        }
+        out.write(data, offset, length);
+        openEntry.compressedSize += length;
+    }
+
+    public void closeEntry(long crc, long size) throws IOException {
+        if (openEntry == null || !openEntry.descriptor) {
+            throw new IllegalStateException("No entry is open");
+        }
+        CentralRecord record = openEntry;
+        record.crc = crc;
+        record.size = size;
+
+        writeInt(DATA_DESCRIPTOR_SIG);
+        writeInt(crc);
+        // Same rule as ZipOutputStream: 8-byte sizes only once the actual sizes need them
+        if (record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC) {
+            writeLong(record.compressedSize);
+            writeLong(record.size);
+        } else {
+            writeInt(record.compressedSize);
+            writeInt(record.size);
+        }
+        centralDirectory.add(record);
+        openEntry = null;
+    }
+
+    /**
+     * Closes an entry started with {@link #startStoredEntry}.
+     *
+     * @throws IOException if the data written does not match the size announced in the local header
+     */
+    public void closeStoredEntry() throws IOException {
+        if (openEntry == null || openEntry.descriptor) {
+            throw new IllegalStateException("No stored entry is open");
+        }
+        CentralRecord record = openEntry;
+        if (record.compressedSize != record.size) {
+            throw new IOException("Stored entry " + new String(record.name, StandardCharsets.UTF_8) + " has "
+                    + record.compressedSize + " bytes instead of the announced " + record.size);
+        }
+        centralDirectory.add(record);
+        openEntry = null;
+    }
+
+    /**
+     * Writes the central directory and end records. The underlying stream is flushed but not closed,
+     * and neither is it by {@link #close()}.
+     *
+     * @param comment optional archive comment, may be null
+     */
+    public void finish(String comment) throws IOException {
+        if (finished) {
+            return;
+        }
+        if (openEntry != null) {
+            throw new IllegalStateException("Entry is still open: " + new String(openEntry.name, StandardCharsets.UTF_8));
+        }
+
+        long centralStart = out.getCount();
+        for (CentralRecord record : centralDirectory) {
+            writeCentralHeader(record);
+        }
+        long centralSize = out.getCount() - centralStart;
+        long entries = centralDirectory.size();
+
+        boolean zip64 = entries >= ZIP64_MAGIC_COUNT || centralStart >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC;
+        if (zip64) {
+            long zip64EndStart = out.getCount();
+            writeInt(ZIP64_END_SIG);
+            writeLong(44);
+            writeShort(VERSION_ZIP64);
+            writeShort(VERSION_ZIP64);
+            writeInt(0);
+            writeInt(0);
+            writeLong(entries);
+            writeLong(entries);
+            writeLong(centralSize);
+            writeLong(centralStart);
+
+            writeInt(ZIP64_LOCATOR_SIG);
+            writeInt(0);
+            writeLong(zip64EndStart);
+            writeInt(1);
+        }
+
+        byte[] commentBytes = comment == null ? new byte[0] : encode(comment);
+        writeInt(END_SIG);
+        writeShort(0);
+        writeShort(0);
+        writeShort((int) Math.min(entries, ZIP64_MAGIC_COUNT));
+        writeShort((int) Math.min(entries, ZIP64_MAGIC_COUNT));
+        writeInt(Math.min(centralSize, ZIP64_MAGIC));
+        writeInt(Math.min(centralStart, ZIP64_MAGIC));
+        writeShort(Math.min(commentBytes.length, 0xFFFF));
+        out.write(commentBytes, 0, Math.min(commentBytes.length, 0xFFFF));
+        out.flush();
+        finished = true;
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public long bytesWritten() {
+        return out.getCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish(null);
+    }
+
+    private void writeLocalHeader(CentralRecord record) throws IOException {
+        boolean zip64 = !record.descriptor && (record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC);
+
+        writeInt(LOCAL_HEADER_SIG);
+        writeShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        writeShort(record.flags);
+        writeShort(record.method);
+        writeInt(record.dosTime);
+        if (record.descriptor) {
+            writeInt(0);
+            writeInt(0);
+            writeInt(0);
+        } else {
+            writeInt(record.crc);
+            writeInt(zip64 ? ZIP64_MAGIC : record.compressedSize);
+            writeInt(zip64 ? ZIP64_MAGIC : record.size);
+        }
+        writeShort(record.name.length);
+        writeShort(zip64 ? 20 : 0);
+        out.write(record.name);
+        if (zip64) {
+            writeShort(0x0001);
+            writeShort(16);
+            writeLong(record.size);
+            writeLong(record.compressedSize);
+        }
+    }
+
+    private void writeCentralHeader(CentralRecord record) throws IOException {
+        boolean sizeOverflow = record.size >= ZIP64_MAGIC;
+        boolean compressedOverflow = record.compressedSize >= ZIP64_MAGIC;
+        boolean offsetOverflow = record.offset >= ZIP64_MAGIC;
+        int extraLength = (sizeOverflow ? 8 : 0) + (compressedOverflow ? 8 : 0) + (offsetOverflow ? 8 : 0);
+        boolean zip64 = extraLength > 0;
+
+        writeInt(CENTRAL_HEADER_SIG);
+        writeShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        writeShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        writeShort(record.flags);
+        writeShort(record.method);
+        writeInt(record.dosTime);
+        writeInt(record.crc);
+        writeInt(compressedOverflow ? ZIP64_MAGIC : record.compressedSize);
+        writeInt(sizeOverflow ? ZIP64_MAGIC : record.size);
+        writeShort(record.name.length);
+        writeShort(zip64 ? extraLength + 4 : 0);
+        writeShort(0); // comment length
+        writeShort(0); // disk number
+        writeShort(0); // internal attributes
+        writeInt(record.directory ? DIRECTORY_ATTRIBUTE : 0);
+        writeInt(offsetOverflow ? ZIP64_MAGIC : record.offset);
+        out.write(record.name);
+        if (zip64) {
+            writeShort(0x0001);
+            writeShort(extraLength);
+            if (sizeOverflow) {
+                writeLong(record.size);
+            }
+            if (compressedOverflow) {
+                writeLong(record.compressedSize);
+            }
+            if (offsetOverflow) {
+                writeLong(record.offset);
+            }
+        }
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xFFFF));
+        writeShort((int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt(value & 0xFFFFFFFFL);
+        writeInt(value >>> 32);
+    }
+
+    private static byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Converts epoch millis to the MS-DOS date/time format used by ZIP headers.
+     */
+    static int dosTime(long epochMillis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16); // 1980-01-01 00:00
+        }
+        return (time.getYear() - 1980) << 25
+                | time.getMonthValue() << 21
+                | time.getDayOfMonth() << 16
+                | time.getHour() << 11
+                | time.getMinute() << 5
+                | time.getSecond() >> 1;
+    }
+
+    private static class CentralRecord {
+        final byte[] name;
+        final int method;
+        final int dosTime;
+        final int flags;
+        final long offset;
+        final boolean descriptor;
+        boolean directory;
+        long crc;
+        long size;
+        long compressedSize;
+
+        CentralRecord(byte[] name, int method, int dosTime, int flags, long offset, boolean descriptor) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.flags = flags | FLAG_UTF8;
+            this.offset = offset;
+            this.descriptor = descriptor;
+        }
+    }
+}
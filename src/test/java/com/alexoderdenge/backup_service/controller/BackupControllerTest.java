@@ -0,0 +1,141 @@
+package com.alexoderdenge.backup_service.controller;
+
+import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.model.BackupEntryResult;
+import com.alexoderdenge.backup_service.model.BackupJob;
+import com.alexoderdenge.backup_service.service.BackupJobService;
+import com.alexoderdenge.backup_service.service.BackupService;
+import com.alexoderdenge.backup_service.service.RcloneValidator;
+import com.alexoderdenge.backup_service.service.RunJournal;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(BackupController.class)
+class BackupControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private BackupJobService backupJobService;
+
+    @MockitoBean
+    private BackupService backupService;
+
+    @MockitoBean
+    private RcloneValidator rcloneValidator;
+
+    @MockitoBean
+    private RunJournal runJournal;
+
+    @Test
+    void testRunBackupNow_ReturnsAcceptedWithJobId() throws Exception {
+        when(backupJobService.submit(true, "api")).thenReturn(new BackupJob("job-1", "api", true));
+
+        mockMvc.perform(post("/api/backup/run").param("force", "true"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.status").value("accepted"))
+                .andExpect(jsonPath("$.jobId").value("job-1"))
+                .andExpect(jsonPath("$.jobStatus").value("QUEUED"))
+                .andExpect(jsonPath("$.statusUrl").value("/api/backup/jobs/job-1"))
+                .andExpect(jsonPath("$.force").value(true))
+                .andExpect(jsonPath("$.timestamp").isString());
+    }
+
+    @Test
+    void testRunBackupNow_DefaultsToNotForced() throws Exception {
+        when(backupJobService.submit(false, "api")).thenReturn(new BackupJob("job-2", "api", false));
+
+        mockMvc.perform(post("/api/backup/run"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.jobId").value("job-2"))
+                .andExpect(jsonPath("$.force").value(false));
+
+        verify(backupJobService).submit(false, "api");
+    }
+
+    @Test
+    void testRunBackupNow_ReturnsErrorWhenJobCannotBeQueued() throws Exception {
+        when(backupJobService.submit(anyBoolean(), anyString())).thenThrow(new IllegalStateException("Job executor is shut down"));
+
+        mockMvc.perform(post("/api/backup/run"))
+                .andExpect(status().isInternalServerError())
+                .andExpect(jsonPath("$.status").value("error"))
+                .andExpect(jsonPath("$.message").value("Failed to queue backup job: Job executor is shut down"));
+    }
+
+    @Test
+    void testGetJob_ReturnsStatusEntriesBytesAndDurations() throws Exception {
+        BackupJob job = new BackupJob("job-1", "api", false);
+        job.setStatus(BackupJob.Status.COMPLETED);
+        job.setStartedAt(Instant.parse("2024-01-01T10:00:00Z"));
+        job.setFinishedAt(Instant.parse("2024-01-01T10:00:05Z"));
+        job.getEntries().add(result("/data/photos", "gdrive:photos.zip").succeeded(2048L));
+        job.getEntries().add(result("/data/docs", "gdrive:docs.zip").skipped("Source unchanged"));
+        when(backupJobService.getJob("job-1")).thenReturn(Optional.of(job));
+
+        mockMvc.perform(get("/api/backup/jobs/job-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value("job-1"))
+                .andExpect(jsonPath("$.trigger").value("api"))
+                .andExpect(jsonPath("$.status").value("COMPLETED"))
+                .andExpect(jsonPath("$.durationMillis").value(5000))
+                .andExpect(jsonPath("$.totalBytes").value(2048))
+                .andExpect(jsonPath("$.succeededEntries").value(1))
+                .andExpect(jsonPath("$.skippedEntries").value(1))
+                .andExpect(jsonPath("$.failedEntries").value(0))
+                .andExpect(jsonPath("$.entries", hasSize(2)))
+                .andExpect(jsonPath("$.entries[0].localPath").value("/data/photos"))
+                .andExpect(jsonPath("$.entries[0].status").value("SUCCEEDED"))
+                .andExpect(jsonPath("$.entries[0].bytes").value(2048))
+                .andExpect(jsonPath("$.entries[0].durationMillis").isNumber())
+                .andExpect(jsonPath("$.entries[1].status").value("SKIPPED"))
+                .andExpect(jsonPath("$.entries[1].message").value("Source unchanged"));
+    }
+
+    @Test
+    void testGetJob_ReturnsNotFoundForUnknownId() throws Exception {
+        when(backupJobService.getJob("missing")).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/api/backup/jobs/missing"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testGetJobs_ListsRecentJobs() throws Exception {
+        when(backupJobService.getJobs()).thenReturn(List.of(
+                new BackupJob("job-2", "schedule", false),
+                new BackupJob("job-1", "api", true)));
+
+        mockMvc.perform(get("/api/backup/jobs"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].id").value("job-2"))
+                .andExpect(jsonPath("$[0].trigger").value("schedule"))
+                .andExpect(jsonPath("$[1].force").value(true));
+    }
+
+    private static BackupEntryResult result(String localPath, String cloudPath) {
+        BackupConfig.BackupEntry entry = new BackupConfig.BackupEntry();
+        entry.setLocalPath(localPath);
+        entry.setCloudPath(cloudPath);
+        return BackupEntryResult.start(entry);
+    }
+}
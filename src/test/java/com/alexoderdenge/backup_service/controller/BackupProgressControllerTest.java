@@ -0,0 +1,98 @@
+package com.alexoderdenge.backup_service.controller;
+
+import com.alexoderdenge.backup_service.model.TransferProgress;
+import com.alexoderdenge.backup_service.service.TransferProgressTracker;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(BackupProgressController.class)
+class BackupProgressControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private TransferProgressTracker progressTracker;
+
+    @Test
+    void testGetCurrentProgress_ReturnsActiveTransfers() throws Exception {
+        TransferProgress progress = progress("gdrive:photos.zip");
+        progress.setTotalBytes(4096);
+        progress.setBytesPerSecond(512.5);
+        progress.setEtaSeconds(4L);
+        progress.setTransfers(1);
+        progress.setTotalTransfers(2);
+        progress.setStartedAt(Instant.parse("2024-01-01T10:00:00Z"));
+        when(progressTracker.getActiveTransfers()).thenReturn(List.of(progress));
+
+        mockMvc.perform(get("/api/backup/progress/current"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].destination").value("gdrive:photos.zip"))
+                .andExpect(jsonPath("$[0].state").value("RUNNING"))
+                .andExpect(jsonPath("$[0].bytes").value(1024))
+                .andExpect(jsonPath("$[0].totalBytes").value(4096))
+                .andExpect(jsonPath("$[0].bytesPerSecond").value(512.5))
+                .andExpect(jsonPath("$[0].etaSeconds").value(4))
+                .andExpect(jsonPath("$[0].transfers").value(1))
+                .andExpect(jsonPath("$[0].totalTransfers").value(2))
+                .andExpect(jsonPath("$[0].errors").value(0))
+                .andExpect(jsonPath("$[0].startedAt").value("2024-01-01T10:00:00Z"));
+    }
+
+    @Test
+    void testGetCurrentProgress_ReturnsEmptyListWhenIdle() throws Exception {
+        when(progressTracker.getActiveTransfers()).thenReturn(List.of());
+
+        mockMvc.perform(get("/api/backup/progress/current"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(0)));
+    }
+
+    @Test
+    void testStreamProgress_SendsProgressEvents() throws Exception {
+        SseEmitter emitter = new SseEmitter();
+        when(progressTracker.subscribe()).thenReturn(emitter);
+
+        MvcResult result = mockMvc.perform(get("/api/backup/progress").accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        emitter.send(SseEmitter.event().name("progress").data(progress("gdrive:photos.zip")));
+        emitter.complete();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(content().string(containsString("event:progress")))
+                .andExpect(content().string(containsString("\"destination\":\"gdrive:photos.zip\"")))
+                .andExpect(content().string(containsString("\"bytes\":1024")));
+    }
+
+    private static TransferProgress progress(String destination) {
+        TransferProgress progress = new TransferProgress();
+        progress.setDestination(destination);
+        progress.setBytes(1024);
+        return progress;
+    }
+}
@@ -0,0 +1,255 @@
+package com.alexoderdenge.backup_service.schedule;
+
+import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.model.BackupJob;
+import com.alexoderdenge.backup_service.service.BackupJobService;
+import com.alexoderdenge.backup_service.service.BackupService;
+import com.alexoderdenge.backup_service.service.RunJournal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BackupSchedulerTest {
+
+    private static final Instant MONDAY_NOON = Instant.parse("2024-06-03T12:00:00Z");
+    private static final RandomGenerator MAX_JITTER = new RandomGenerator() {
+        @Override
+        public long nextLong() {
+            return 0;
+        }
+
+        @Override
+        public long nextLong(long bound) {
+            return bound - 1;
+        }
+    };
+
+    @Mock
+    private BackupJobService backupJobService;
+
+    private final MutableClock clock = new MutableClock(MONDAY_NOON);
+    private final List<BackupJob> jobs = new ArrayList<>();
+
+    @Test
+    void testEntriesRunOnTheirOwnSchedules() {
+        BackupConfig.BackupEntry database = entry("/srv/db-dumps");
+        database.setInterval("1h");
+        BackupConfig.BackupEntry photos = entry("/home/user/photos");
+        photos.setSchedule("0 0 3 * * SUN");
+        BackupConfig.BackupEntry documents = entry("/home/user/documents"); // Global daily schedule
+        BackupScheduler scheduler = scheduler(config("0 0 0 * * *", null, database, photos, documents), MAX_JITTER);
+        stubSubmit();
+
+        assertEquals(MONDAY_NOON.plus(Duration.ofMinutes(1)), scheduler.runDue()); // Nothing due yet
+
+        clock.set(MONDAY_NOON.plus(Duration.ofHours(1)));
+        scheduler.runDue();
+        clock.set(Instant.parse("2024-06-04T00:00:00Z"));
+        finishJobs();
+        scheduler.runDue();
+
+        List<List<BackupConfig.BackupEntry>> submitted = submittedEntries(2);
+        assertEquals(List.of(database), submitted.get(0));
+        assertEquals(List.of(database, documents), submitted.get(1)); // Both due at midnight, one job
+    }
+
+    @Test
+    void testJitterDelaysTheStartButNotTheSchedule() {
+        BackupConfig.BackupEntry database = entry("/srv/db-dumps");
+        database.setInterval("1h");
+        database.setJitter("10m");
+        BackupScheduler scheduler = scheduler(config("-", null, database), MAX_JITTER);
+        stubSubmit();
+
+        clock.set(MONDAY_NOON.plus(Duration.ofHours(1)));
+        scheduler.runDue(); // Scheduled, but the jitter is still pending
+        verify(backupJobService, never()).submit(anyBoolean(), anyString(), any());
+        clock.set(MONDAY_NOON.plus(Duration.ofMinutes(70)));
+        scheduler.runDue();
+        finishJobs();
+
+        // The next start is 14:00 plus jitter, not 13:10 plus an hour plus jitter
+        clock.set(MONDAY_NOON.plus(Duration.ofMinutes(129)));
+        assertEquals(MONDAY_NOON.plus(Duration.ofMinutes(130)), scheduler.runDue());
+        clock.set(MONDAY_NOON.plus(Duration.ofMinutes(130)));
+        scheduler.runDue();
+
+        submittedEntries(2);
+    }
+
+    @Test
+    void testEntryWithUnfinishedJobSkipsItsTurn() {
+        BackupConfig.BackupEntry database = entry("/srv/db-dumps");
+        database.setInterval("1h");
+        BackupScheduler scheduler = scheduler(config("-", null, database), MAX_JITTER);
+        stubSubmit();
+
+        clock.set(MONDAY_NOON.plus(Duration.ofHours(1)));
+        scheduler.runDue();
+        clock.set(MONDAY_NOON.plus(Duration.ofHours(2)));
+        scheduler.runDue(); // The first job is still running
+        finishJobs();
+        clock.set(MONDAY_NOON.plus(Duration.ofHours(3)));
+        scheduler.runDue();
+
+        submittedEntries(2);
+    }
+
+    @Test
+    void testShortIntervalEntryRunsWhileLongJobOfOtherEntryIsRunning() throws InterruptedException {
+        BackupConfig.BackupEntry photos = entry("/home/user/photos");
+        photos.setSchedule("0 0 12 * * *");
+        BackupConfig.BackupEntry database = entry("/srv/db-dumps");
+        database.setInterval("15m");
+        BackupService backupService = mock(BackupService.class);
+        CountDownLatch release = new CountDownLatch(1);
+        when(backupService.runBackup(eq(List.of(photos)), anyBoolean(), any())).thenAnswer(invocation -> {
+            release.await(10, TimeUnit.SECONDS);
+            return List.of();
+        });
+        BackupJobService jobService = new BackupJobService(backupService, mock(RunJournal.class), 10);
+        clock.set(MONDAY_NOON.minusSeconds(1));
+        BackupScheduler scheduler = new BackupScheduler(jobService, config("-", null, photos, database),
+                "-", clock, MAX_JITTER);
+        try {
+            clock.set(MONDAY_NOON);
+            scheduler.runDue(); // The long photo backup starts
+            for (int quarter = 1; quarter <= 2; quarter++) {
+                clock.set(MONDAY_NOON.plus(Duration.ofMinutes(15L * quarter)));
+                scheduler.runDue();
+                awaitAllFinishedExcept(jobService, 1);
+            }
+
+            verify(backupService, times(2)).runBackup(eq(List.of(database)), anyBoolean(), any());
+            assertEquals(3, jobService.getJobs().size());
+            assertNull(jobService.getJobs().get(2).getFinishedAt(), "The photo backup is still running");
+        } finally {
+            release.countDown();
+            jobService.shutdown();
+        }
+    }
+
+    @Test
+    void testDisabledAndClassicCronSchedules() {
+        BackupConfig.BackupEntry manual = entry("/srv/manual");
+        manual.setSchedule("-");
+        BackupConfig.BackupEntry classic = entry("/srv/classic");
+        classic.setSchedule("30 12 * * *");
+        BackupScheduler scheduler = scheduler(config("0 0 0 * * *", null, manual, classic), MAX_JITTER);
+        stubSubmit();
+
+        clock.set(MONDAY_NOON.plus(Duration.ofMinutes(30)));
+        scheduler.runDue();
+
+        assertEquals(List.of(classic), submittedEntries(1).get(0));
+    }
+
+    @Test
+    void testInvalidScheduleFailsAtStartup() {
+        BackupConfig.BackupEntry broken = entry("/srv/broken");
+        broken.setSchedule("every day");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> scheduler(config(null, null, broken), MAX_JITTER));
+        assertTrue(e.getMessage().contains("/srv/broken"));
+        verify(backupJobService, never()).submit(anyBoolean(), anyString(), any());
+    }
+
+    private static void awaitAllFinishedExcept(BackupJobService jobService, int unfinished) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (jobService.getJobs().stream().filter(job -> job.getFinishedAt() == null).count() > unfinished) {
+            assertTrue(System.nanoTime() < deadline, "Jobs did not finish in time");
+            Thread.sleep(10);
+        }
+    }
+
+    private BackupScheduler scheduler(BackupConfig config, RandomGenerator random) {
+        return new BackupScheduler(backupJobService, config, "0 0 0 * * *", clock, random);
+    }
+
+    private void stubSubmit() {
+        when(backupJobService.submit(eq(false), eq("schedule"), any())).thenAnswer(invocation -> {
+            BackupJob job = new BackupJob("job-" + jobs.size(), "schedule", false);
+            jobs.add(job);
+            return job;
+        });
+    }
+
+    private void finishJobs() {
+        jobs.forEach(job -> job.setFinishedAt(clock.instant()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<BackupConfig.BackupEntry>> submittedEntries(int expectedJobs) {
+        ArgumentCaptor<List<BackupConfig.BackupEntry>> captor = ArgumentCaptor.forClass(List.class);
+        verify(backupJobService, times(expectedJobs)).submit(eq(false), eq("schedule"), captor.capture());
+        return captor.getAllValues();
+    }
+
+    private static BackupConfig config(String scheduleCron, String jitter, BackupConfig.BackupEntry... entries) {
+        BackupConfig config = new BackupConfig();
+        config.setScheduleCron(scheduleCron);
+        config.setScheduleJitter(jitter);
+        config.setBackupEntries(List.of(entries));
+        return config;
+    }
+
+    private static BackupConfig.BackupEntry entry(String localPath) {
+        BackupConfig.BackupEntry entry = new BackupConfig.BackupEntry();
+        entry.setLocalPath(localPath);
+        entry.setCloudPath("gdrive:/backup" + localPath);
+        return entry;
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void set(Instant time) {
+            now = time;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.model.BackupEntryResult;
+import com.alexoderdenge.backup_service.model.BackupJob;
+import com.alexoderdenge.backup_service.model.DedupSnapshot;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BackupJobServiceTest {
+
+    @Mock
+    private BackupService backupService;
+
+    @Mock
+    private RunJournal runJournal;
+
+    private BackupJobService backupJobService;
+
+    @BeforeEach
+    void setUp() {
+        backupJobService = new BackupJobService(backupService, runJournal, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        backupJobService.shutdown();
+    }
+
+    @Test
+    void testSubmitReturnsBeforeBackupCompletes() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        when(backupService.runBackup(eq(true), any())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        });
+
+        BackupJob job = backupJobService.submit(true, "api");
+
+        assertNotEquals(BackupJob.Status.COMPLETED, job.getStatus());
+        assertTrue(backupJobService.getJob(job.getId()).isPresent());
+
+        release.countDown();
+        awaitFinished(job);
+        assertEquals(BackupJob.Status.COMPLETED, job.getStatus());
+        assertNotNull(job.getDurationMillis());
+    }
+
+    @Test
+    void testJobCollectsEntryResults() throws InterruptedException {
+        when(backupService.runBackup(anyBoolean(), any())).thenAnswer(invocation -> {
+            Consumer<BackupEntryResult> listener = invocation.getArgument(1);
+            listener.accept(BackupEntryResult.start(entry("gdrive:/backup/a.zip")).succeeded(1024L));
+            listener.accept(BackupEntryResult.start(entry("gdrive:/backup/b.zip")).skipped("Source unchanged"));
+            listener.accept(BackupEntryResult.start(entry("gdrive:/backup/c")).failed("Remote not configured"));
+            return List.of();
+        });
+
+        BackupJob job = backupJobService.submit(false, "api");
+        awaitFinished(job);
+
+        assertEquals(3, job.getEntries().size());
+        assertEquals(1, job.getSucceededEntries());
+        assertEquals(1, job.getSkippedEntries());
+        assertEquals(1, job.getFailedEntries());
+        assertEquals(1024L, job.getTotalBytes());
+        for (BackupEntryResult result : job.getEntries()) {
+            verify(runJournal).record(job, result);
+        }
+    }
+
+    @Test
+    void testJobFailsWhenBackupThrows() throws InterruptedException {
+        when(backupService.runBackup(anyBoolean(), any())).thenThrow(new IllegalStateException("boom"));
+
+        BackupJob job = backupJobService.submit(false, "schedule");
+        awaitFinished(job);
+
+        assertEquals(BackupJob.Status.FAILED, job.getStatus());
+        assertEquals("boom", job.getError());
+    }
+
+    @Test
+    void testJobsOfDifferentEntriesRunConcurrently() throws InterruptedException {
+        BackupConfig.BackupEntry photos = entry("gdrive:/backup/photos");
+        BackupConfig.BackupEntry database = entry("gdrive:/backup/db");
+        CountDownLatch release = new CountDownLatch(1);
+        when(backupService.runBackup(eq(List.of(photos)), anyBoolean(), any())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        });
+        when(backupService.runBackup(eq(List.of(database)), anyBoolean(), any())).thenReturn(List.of());
+
+        BackupJob slow = backupJobService.submit(false, "schedule", List.of(photos));
+        BackupJob fast = backupJobService.submit(false, "schedule", List.of(database));
+        awaitFinished(fast);
+
+        assertEquals(BackupJob.Status.COMPLETED, fast.getStatus());
+        assertNull(slow.getFinishedAt(), "The first job is still running");
+        release.countDown();
+        awaitFinished(slow);
+    }
+
+    @Test
+    void testJobsSharingAnEntryRunOneAfterTheOther() throws InterruptedException {
+        BackupConfig.BackupEntry photos = entry("gdrive:/backup/photos");
+        BackupConfig.BackupEntry database = entry("gdrive:/backup/db");
+        CountDownLatch release = new CountDownLatch(1);
+        when(backupService.runBackup(eq(List.of(photos)), anyBoolean(), any())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        });
+        when(backupService.runBackup(eq(List.of(photos, database)), anyBoolean(), any())).thenReturn(List.of());
+
+        BackupJob first = backupJobService.submit(false, "schedule", List.of(photos));
+        BackupJob overlapping = backupJobService.submit(false, "api", List.of(photos, database));
+        BackupJob all = backupJobService.submit(false, "api");
+        Thread.sleep(100);
+
+        assertEquals(BackupJob.Status.QUEUED, overlapping.getStatus());
+        assertEquals(BackupJob.Status.QUEUED, all.getStatus());
+        release.countDown();
+        awaitFinished(first);
+        awaitFinished(overlapping);
+        awaitFinished(all);
+        assertFalse(overlapping.getStartedAt().isBefore(first.getFinishedAt()));
+        assertFalse(all.getStartedAt().isBefore(overlapping.getFinishedAt()));
+    }
+
+    @Test
+    void testRestoreRunsAsJob() throws Exception {
+        DedupSnapshot snapshot = new DedupSnapshot();
+        snapshot.setFileCount(3);
+        snapshot.setTotalBytes(4096);
+        when(backupService.restoreSnapshot("gdrive:/backups/vm", "snap-1", "/restore/vm")).thenReturn(snapshot);
+
+        BackupJob job = backupJobService.submitRestore("gdrive:/backups/vm", "snap-1", "/restore/vm");
+        awaitFinished(job);
+
+        assertEquals(BackupJob.Status.COMPLETED, job.getStatus());
+        assertEquals("restore", job.getTrigger());
+        assertEquals(1, job.getSucceededEntries());
+        assertEquals(4096L, job.getTotalBytes());
+        assertEquals("/restore/vm", job.getEntries().get(0).getLocalPath());
+        verifyNoInteractions(runJournal);
+    }
+
+    @Test
+    void testRestoreFailureFailsJob() throws Exception {
+        when(backupService.restoreSnapshot(any(), any(), any())).thenThrow(new IOException("Unknown snapshot snap-2"));
+
+        BackupJob job = backupJobService.submitRestore("gdrive:/backups/vm", "snap-2", "/restore/vm");
+        awaitFinished(job);
+
+        assertEquals(BackupJob.Status.FAILED, job.getStatus());
+        assertEquals("Unknown snapshot snap-2", job.getError());
+        assertEquals(1, job.getFailedEntries());
+    }
+
+    @Test
+    void testOldFinishedJobsAreEvicted() throws InterruptedException {
+        when(backupService.runBackup(anyBoolean(), any())).thenReturn(List.of());
+
+        BackupJob first = backupJobService.submit(false, "api");
+        awaitFinished(first);
+        BackupJob second = backupJobService.submit(false, "api");
+        awaitFinished(second);
+        BackupJob third = backupJobService.submit(false, "api");
+        awaitFinished(third);
+
+        assertTrue(backupJobService.getJob(first.getId()).isEmpty());
+        assertEquals(List.of(third, second), backupJobService.getJobs());
+    }
+
+    @Test
+    void testWatchSyncWaitsForScheduledJobOfSameEntry() throws Exception {
+        BackupConfig.BackupEntry photos = entry("gdrive:/backup/photos");
+        CountDownLatch release = new CountDownLatch(1);
+        when(backupService.runBackup(eq(List.of(photos)), anyBoolean(), any())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        });
+        when(backupService.syncChanges(eq(photos), eq(List.of("a.txt")), any())).thenAnswer(invocation -> {
+            Consumer<BackupEntryResult> listener = invocation.getArgument(2);
+            listener.accept(BackupEntryResult.start(photos).succeeded(10L));
+            return true;
+        });
+
+        BackupJob scheduled = backupJobService.submit(false, "schedule", List.of(photos));
+        CompletableFuture<BackupJob> watch = backupJobService.submitWatchSync(photos, List.of("a.txt"));
+        Thread.sleep(100);
+
+        assertFalse(watch.isDone());
+        release.countDown();
+        BackupJob job = watch.get(5, TimeUnit.SECONDS);
+        assertEquals(BackupJob.Status.COMPLETED, job.getStatus());
+        assertEquals("watch", job.getTrigger());
+        assertEquals(1, job.getSucceededEntries());
+        assertFalse(job.getStartedAt().isBefore(scheduled.getFinishedAt()));
+        verify(runJournal).record(eq(job), any());
+    }
+
+    @Test
+    void testWatchSyncBacksUpInFullWhenChangesCannotBeUploaded() throws Exception {
+        BackupConfig.BackupEntry photos = entry("gdrive:/backup/photos");
+        when(backupService.syncChanges(eq(photos), any(), any())).thenReturn(false);
+        when(backupService.runBackup(eq(List.of(photos)), eq(false), any())).thenReturn(List.of());
+
+        BackupJob job = backupJobService.submitWatchSync(photos, List.of("line\nbreak.txt")).get(5, TimeUnit.SECONDS);
+
+        assertEquals(BackupJob.Status.COMPLETED, job.getStatus());
+        verify(backupService).runBackup(eq(List.of(photos)), eq(false), any());
+    }
+
+    private static BackupConfig.BackupEntry entry(String cloudPath) {
+        BackupConfig.BackupEntry entry = new BackupConfig.BackupEntry();
+        entry.setLocalPath("/tmp/source");
+        entry.setCloudPath(cloudPath);
+        return entry;
+    }
+
+    private static void awaitFinished(BackupJob job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (job.getFinishedAt() == null || job.getStatus() == BackupJob.Status.RUNNING) {
+            assertTrue(System.nanoTime() < deadline, "Job did not finish in time");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.ArchiveFormat;
+import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.model.SourceFingerprint;
+import com.alexoderdenge.backup_service.util.SourceTree;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackupManifestStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private BackupManifestStore manifestStore;
+    private Path sourceDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        manifestStore = new BackupManifestStore(tempDir.resolve("state").toString());
+        sourceDir = tempDir.resolve("source");
+        Files.createDirectories(sourceDir.resolve("subdir"));
+        Files.writeString(sourceDir.resolve("file1.txt"), "Content of file 1");
+        Files.writeString(sourceDir.resolve("subdir/file2.txt"), "Content of file 2");
+    }
+
+    @Test
+    void testFingerprintIsStableForUnchangedSource() throws IOException {
+        SourceFingerprint first = manifestStore.computeFingerprint(sourceDir);
+        SourceFingerprint second = manifestStore.computeFingerprint(sourceDir);
+
+        assertEquals(first, second);
+        assertEquals(2, first.getFileCount());
+        assertEquals(34, first.getTotalSize());
+    }
+
+    @Test
+    void testFingerprintChangesWhenFileModified() throws IOException {
+        SourceFingerprint before = manifestStore.computeFingerprint(sourceDir);
+
+        Path file = sourceDir.resolve("file1.txt");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 5_000));
+
+        assertNotEquals(before, manifestStore.computeFingerprint(sourceDir));
+    }
+
+    @Test
+    void testFingerprintChangesWhenFileRenamed() throws IOException {
+        SourceFingerprint before = manifestStore.computeFingerprint(sourceDir);
+
+        Path file = sourceDir.resolve("file1.txt");
+        FileTime modified = Files.getLastModifiedTime(file);
+        Path renamed = Files.move(file, sourceDir.resolve("file3.txt"));
+        Files.setLastModifiedTime(renamed, modified);
+
+        SourceFingerprint after = manifestStore.computeFingerprint(sourceDir);
+        assertEquals(before.getFileCount(), after.getFileCount());
+        assertEquals(before.getTotalSize(), after.getTotalSize());
+        assertNotEquals(before.getDigest(), after.getDigest());
+    }
+
+    @Test
+    void testFingerprintChangesWithArchiveSettings() throws IOException {
+        BackupConfig.BackupEntry entry = new BackupConfig.BackupEntry();
+        SourceFingerprint before = manifestStore.computeFingerprint(SourceTree.live(sourceDir), entry);
+        assertEquals(before, manifestStore.computeFingerprint(SourceTree.live(sourceDir), new BackupConfig.BackupEntry()));
+
+        entry.setFormat(ArchiveFormat.TAR_GZ);
+        SourceFingerprint otherFormat = manifestStore.computeFingerprint(SourceTree.live(sourceDir), entry);
+        entry.getCompression().setLevel(9);
+        SourceFingerprint otherLevel = manifestStore.computeFingerprint(SourceTree.live(sourceDir), entry);
+        entry.getCompression().setStoreExtensions(Set.of("jpg"));
+        SourceFingerprint otherExtensions = manifestStore.computeFingerprint(SourceTree.live(sourceDir), entry);
+        entry.setVolumeSize("1GB");
+        SourceFingerprint otherVolumeSize = manifestStore.computeFingerprint(SourceTree.live(sourceDir), entry);
+
+        assertEquals(4, Set.of(otherFormat, otherLevel, otherExtensions, otherVolumeSize).size());
+        assertFalse(Set.of(otherFormat, otherLevel, otherExtensions, otherVolumeSize).contains(before));
+        assertEquals(before.getDigest(), otherVolumeSize.getDigest(), "The source itself did not change");
+    }
+
+    @Test
+    void testSaveAndLoadFingerprint() throws IOException {
+        BackupConfig.BackupEntry entry = new BackupConfig.BackupEntry();
+        entry.setLocalPath(sourceDir.toString());
+        entry.setCloudPath("gdrive:/backup/source.zip");
+
+        assertEquals(Optional.empty(), manifestStore.loadFingerprint(entry));
+
+        SourceFingerprint fingerprint = manifestStore.computeFingerprint(sourceDir);
+        manifestStore.saveFingerprint(entry, fingerprint);
+
+        assertEquals(Optional.of(fingerprint), manifestStore.loadFingerprint(entry));
+    }
+
+    @Test
+    void testManifestsAreKeptPerEntry() throws IOException {
+        BackupConfig.BackupEntry first = new BackupConfig.BackupEntry();
+        first.setLocalPath(sourceDir.toString());
+        first.setCloudPath("gdrive:/backup/source.zip");
+        BackupConfig.BackupEntry second = new BackupConfig.BackupEntry();
+        second.setLocalPath(sourceDir.toString());
+        second.setCloudPath("dropbox:/backup/source.zip");
+
+        manifestStore.saveFingerprint(first, manifestStore.computeFingerprint(sourceDir));
+
+        assertTrue(manifestStore.loadFingerprint(first).isPresent());
+        assertTrue(manifestStore.loadFingerprint(second).isEmpty());
+    }
+}
@@ -0,0 +1,58 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.BackupEntryResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackupMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final BackupMetrics metrics = new BackupMetrics(registry);
+
+    @Test
+    void testInFlightGaugeFollowsEntries() {
+        metrics.entryStarted();
+        metrics.entryStarted();
+        assertEquals(2, registry.get("backup.entries.in.flight").gauge().value());
+
+        metrics.entryFinished("/data", "gdrive", BackupEntryResult.Status.SUCCEEDED);
+        assertEquals(1, registry.get("backup.entries.in.flight").gauge().value());
+        assertEquals(1, registry.get("backup.entries")
+                .tags("entry", "/data", "remote", "gdrive", "status", "succeeded").counter().count());
+    }
+
+    @Test
+    void testStageTimersAreTaggedByStageAndOutcome() {
+        metrics.recordStage(BackupMetrics.Stage.UPLOAD, "/data", "gdrive", true, TimeUnit.SECONDS.toNanos(2));
+        metrics.recordStage(BackupMetrics.Stage.UPLOAD, "/data", "gdrive", false, TimeUnit.SECONDS.toNanos(1));
+
+        assertEquals(2.0, registry.get("backup.stage.duration")
+                .tags("stage", "upload", "outcome", "success").timer().totalTime(TimeUnit.SECONDS));
+        assertEquals(1, registry.get("backup.stage.duration")
+                .tags("stage", "upload", "outcome", "failure").timer().count());
+    }
+
+    @Test
+    void testCompressionSizesAndRatio() {
+        metrics.recordCompression("/data", "gdrive", 1000, 250);
+
+        assertEquals(1000, registry.get("backup.compression.input").summary().totalAmount());
+        assertEquals(250, registry.get("backup.compression.output").summary().totalAmount());
+        assertEquals(0.25, registry.get("backup.compression.ratio").summary().max());
+    }
+
+    @Test
+    void testUploadExitCodes() {
+        metrics.recordUploadExitCode("/data", "gdrive", 0);
+        metrics.recordUploadExitCode("/data", "gdrive", 7);
+        metrics.recordUploadExitCode("/data", "gdrive", null);
+
+        assertEquals(1, registry.get("backup.upload.exit").tag("exit_code", "0").counter().count());
+        assertEquals(1, registry.get("backup.upload.exit").tag("exit_code", "7").counter().count());
+        assertEquals(1, registry.get("backup.upload.exit").tag("exit_code", "none").counter().count());
+    }
+}
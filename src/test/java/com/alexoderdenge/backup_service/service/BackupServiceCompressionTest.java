@@ -1,20 +1,40 @@
 package com.alexoderdenge.backup_service.service;
 
 import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.model.BackupEntryResult;
+import com.alexoderdenge.backup_service.model.VolumeManifest;
 import com.alexoderdenge.backup_service.service.exception.CompressionException;
 import com.alexoderdenge.backup_service.service.exception.RcloneException;
+import com.alexoderdenge.backup_service.service.exception.RcloneNotInstalledException;
+import com.alexoderdenge.backup_service.util.SourceTree;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
-
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
@@ -30,6 +50,12 @@ class BackupServiceCompressionTest {
     @Mock
     private CompressionService compressionService;
 
+    @Mock
+    private DedupBackupService dedupBackupService;
+
+    @Mock
+    private FileHashCache fileHashCache;
+
     private BackupService backupService;
     private BackupConfig config;
 
@@ -39,7 +65,16 @@ class BackupServiceCompressionTest {
     @BeforeEach
     void setUp() {
         config = new BackupConfig();
-        backupService = new BackupService(cloudProvider, config, rcloneValidator, compressionService);
+        String stateDirectory = tempDir.resolve("state").toString();
+        backupService = new BackupService(cloudProvider, config, rcloneValidator, compressionService,
+                new BackupManifestStore(stateDirectory), new BackupMetrics(new SimpleMeterRegistry()),
+                dedupBackupService, new StagingManager(tempDir.resolve("staging").toString(), "0B", 1.0, Duration.ofHours(1)),
+                new RemoteCircuitBreaker(3, Duration.ofMinutes(10)), new SyncIndexStore(stateDirectory),
+                fileHashCache);
+        ReflectionTestUtils.setField(backupService, "configPath", "backup-config.json");
+        ReflectionTestUtils.setField(backupService, "rcloneConfigPath", "");
+        ReflectionTestUtils.setField(backupService, "retryMaxAttempts", 1);
+        lenient().when(rcloneValidator.extractRemoteName(anyString())).thenReturn("gdrive");
     }
 
     @Test
@@ -49,12 +84,6 @@ class BackupServiceCompressionTest {
         Files.createDirectories(sourceDir);
         Files.writeString(sourceDir.resolve("test.txt"), "test content");
 
-        // Create test compressed file
-        Path tempCompressDir = tempDir.resolve("temp-compress");
-        Files.createDirectories(tempCompressDir);
-        Path compressedFile = tempCompressDir.resolve("source_123.zip");
-        Files.writeString(compressedFile, "compressed content");
-
         // Setup backup entry with compression
         BackupConfig.BackupEntry entry = new BackupConfig.BackupEntry();
         entry.setLocalPath(sourceDir.toString());
@@ -65,17 +94,22 @@ class BackupServiceCompressionTest {
 
         // Mock behaviors
         doNothing().when(rcloneValidator).validateRcloneInstallation();
-        doNothing().when(compressionService).validateCloudPathForCompression(anyString(), anyBoolean());
-        when(compressionService.compressToZip(any(), any())).thenReturn(compressedFile);
-        doNothing().when(cloudProvider).backup(anyString(), anyString());
+        doNothing().when(compressionService).validateCloudPathForCompression(anyString(), anyBoolean(), any());
+        AtomicReference<Path> compressedFile = new AtomicReference<>();
+        when(compressionService.compress(any(SourceTree.class), any(), any(), any())).thenAnswer(invocation -> {
+            compressedFile.set(writeArchive(invocation.getArgument(1)));
+            return compressedFile.get();
+        });
+        doNothing().when(cloudProvider).backup(any(UploadRequest.class));
 
         // Execute
         backupService.runBackup();
 
-        // Verify compression service was called
-        verify(compressionService).validateCloudPathForCompression("gdrive:/backup/test.zip", true);
-        verify(compressionService).compressToZip(any(), any());
-        verify(cloudProvider).backup(eq(compressedFile.toString()), eq("gdrive:/backup/test.zip"));
+        // Verify compression service was called; the cloud path is moved under the backup-service root folder
+        verify(compressionService).validateCloudPathForCompression(eq("gdrive:backup-service/backup/test.zip"), eq(true), any());
+        verify(compressionService).compress(any(SourceTree.class), any(), any(), any());
+        verify(cloudProvider).backup(UploadRequest.file(compressedFile.get().toString(), "gdrive:backup-service/backup/test.zip"));
+        assertFalse(Files.exists(compressedFile.get()), "The temporary archive is deleted after the upload");
     }
 
     @Test
@@ -95,16 +129,20 @@ class BackupServiceCompressionTest {
 
         // Mock behaviors
         doNothing().when(rcloneValidator).validateRcloneInstallation();
-        doNothing().when(compressionService).validateCloudPathForCompression(anyString(), anyBoolean());
-        doNothing().when(cloudProvider).backup(anyString(), anyString());
+        doNothing().when(compressionService).validateCloudPathForCompression(anyString(), anyBoolean(), any());
+        doNothing().when(cloudProvider).backup(any(UploadRequest.class));
 
         // Execute
         backupService.runBackup();
 
         // Verify compression service validation was called but not compression
-        verify(compressionService).validateCloudPathForCompression("gdrive:/backup/test/", false);
-        verify(compressionService, never()).compressToZip(any(), any());
-        verify(cloudProvider).backup(eq(sourceDir.toString()), eq("gdrive:/backup/test/"));
+        verify(compressionService).validateCloudPathForCompression(eq("gdrive:backup-service/backup/test/"), eq(false), any());
+        verify(compressionService, never()).compress(any(SourceTree.class), any(), any(), any());
+        ArgumentCaptor<UploadRequest> request = ArgumentCaptor.forClass(UploadRequest.class);
+        verify(cloudProvider).backup(request.capture());
+        assertEquals(sourceDir.toString(), request.getValue().source());
+        assertEquals("gdrive:backup-service/backup/test/", request.getValue().destination());
+        assertFalse(request.getValue().isFile());
     }
 
     @Test
@@ -124,16 +162,16 @@ class BackupServiceCompressionTest {
 
         // Mock behaviors
         doNothing().when(rcloneValidator).validateRcloneInstallation();
-        doNothing().when(compressionService).validateCloudPathForCompression(anyString(), anyBoolean());
-        when(compressionService.compressToZip(any(), any()))
+        doNothing().when(compressionService).validateCloudPathForCompression(anyString(), anyBoolean(), any());
+        when(compressionService.compress(any(SourceTree.class), any(), any(), any()))
                 .thenThrow(new CompressionException("Compression failed"));
 
         // Execute
         backupService.runBackup();
 
         // Verify compression was attempted but backup was not called due to failure
-        verify(compressionService).compressToZip(any(), any());
-        verify(cloudProvider, never()).backup(anyString(), anyString());
+        verify(compressionService).compress(any(SourceTree.class), any(), any(), any());
+        verify(cloudProvider, never()).backup(any(UploadRequest.class));
     }
 
     @Test
@@ -153,14 +191,590 @@ class BackupServiceCompressionTest {
         // Mock behaviors
         doNothing().when(rcloneValidator).validateRcloneInstallation();
         doThrow(new IllegalArgumentException("Cloud path must end with '.zip'"))
-                .when(compressionService).validateCloudPathForCompression(anyString(), eq(true));
+                .when(compressionService).validateCloudPathForCompression(anyString(), eq(true), any());
 
         // Execute
         backupService.runBackup();
 
         // Verify validation was called but no backup occurred
-        verify(compressionService).validateCloudPathForCompression("gdrive:/backup/test/", true);
-        verify(compressionService, never()).compressToZip(any(), any());
-        verify(cloudProvider, never()).backup(anyString(), anyString());
+        verify(compressionService).validateCloudPathForCompression(eq("gdrive:backup-service/backup/test/"), eq(true), any());
+        verify(compressionService, never()).compress(any(SourceTree.class), any(), any(), any());
+        verify(cloudProvider, never()).backup(any(UploadRequest.class));
+    }
+
+    @Test
+    void testRunBackup_SkipsUnchangedCompressedEntry() throws Exception {
+        setUpCompressedEntry();
+
+        backupService.runBackup();
+        backupService.runBackup();
+
+        // The second run finds the fingerprint of the first one and neither compresses nor uploads
+        verify(compressionService, times(1)).compress(any(SourceTree.class), any(), any(), any());
+        verify(cloudProvider, times(1)).backup(any(UploadRequest.class));
+    }
+
+    @Test
+    void testRunBackup_BacksUpChangedCompressedEntry() throws Exception {
+        setUpCompressedEntry();
+
+        backupService.runBackup();
+        Files.writeString(tempDir.resolve("source").resolve("test.txt"), "changed test content");
+        backupService.runBackup();
+
+        verify(compressionService, times(2)).compress(any(SourceTree.class), any(), any(), any());
+        verify(cloudProvider, times(2)).backup(any(UploadRequest.class));
+    }
+
+    @Test
+    void testRunBackup_ForceBacksUpUnchangedEntry() throws Exception {
+        setUpCompressedEntry();
+
+        backupService.runBackup();
+        backupService.runBackup(true);
+
+        verify(compressionService, times(2)).compress(any(SourceTree.class), any(), any(), any());
+        verify(cloudProvider, times(2)).backup(any(UploadRequest.class));
+    }
+
+    @Test
+    void testRunBackup_FailedUploadIsNotRecordedAsBackedUp() throws Exception {
+        setUpCompressedEntry();
+        doThrow(new RcloneException("Upload failed")).doNothing()
+                .when(cloudProvider).backup(any(UploadRequest.class));
+
+        backupService.runBackup();
+        backupService.runBackup();
+
+        // The first upload failed, so the second run must not skip the entry
+        verify(cloudProvider, times(2)).backup(any(UploadRequest.class));
+    }
+
+    /**
+     * Configures one compressed entry whose compression writes a small archive into the temporary directory.
+     */
+    private void setUpCompressedEntry() throws Exception {
+        Path sourceDir = tempDir.resolve("source");
+        Files.createDirectories(sourceDir);
+        Files.writeString(sourceDir.resolve("test.txt"), "test content");
+
+        BackupConfig.BackupEntry entry = new BackupConfig.BackupEntry();
+        entry.setLocalPath(sourceDir.toString());
+        entry.setCloudPath("gdrive:/backup/test.zip");
+        entry.setCompress(true);
+        config.setBackupEntries(Arrays.asList(entry));
+
+        when(compressionService.compress(any(SourceTree.class), any(), any(), any()))
+                .thenAnswer(invocation -> writeArchive(invocation.getArgument(1)));
+    }
+
+    private static Path writeArchive(Path outputDirectory) throws IOException {
+        return Files.writeString(outputDirectory.resolve("source_123.zip"), "compressed content");
+    }
+
+    @Test
+    void testRunBackup_UploadsVolumesThenManifest() throws Exception {
+        setUpVolumeEntry();
+        List<String> destinations = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<VolumeManifest> manifest = new AtomicReference<>();
+        doAnswer(invocation -> {
+            UploadRequest request = invocation.getArgument(0);
+            destinations.add(request.destination());
+            if (request.destination().endsWith(".volumes.json")) {
+                Path manifestFile = Path.of(request.source());
+                manifest.set(new ObjectMapper().readValue(manifestFile.toFile(), VolumeManifest.class));
+            }
+            return null;
+        }).when(cloudProvider).backup(any(UploadRequest.class));
+
+        List<BackupEntryResult> results = backupService.runBackup();
+
+        assertEquals(BackupEntryResult.Status.SUCCEEDED, results.get(0).getStatus());
+        String archive = "gdrive:backup-service/backup/test.zip";
+        List<String> names = manifest.get().getVolumes().stream().map(VolumeManifest.Volume::getName).toList();
+        assertEquals(3, names.size());
+        assertTrue(names.get(0).matches("test\\.zip\\.\\d{8}-\\d{9}\\.001"), "Volumes are named after the run: " + names);
+        assertEquals(Set.copyOf(names.stream().map(name -> "gdrive:backup-service/backup/" + name).toList()),
+                Set.copyOf(destinations.subList(0, 3)));
+        assertEquals(List.of(archive + ".volumes.json"), destinations.subList(3, destinations.size()),
+                "The manifest is uploaded once, after every volume");
+        assertEquals(List.of(10L, 10L, 5L), manifest.get().getVolumes().stream().map(VolumeManifest.Volume::getSize).toList());
+        assertEquals(25, manifest.get().getTotalSize());
+        verify(cloudProvider, never()).deleteFiles(anyString(), anyString(), any());
+    }
+
+    @Test
+    void testRunBackup_DeletesPreviousVolumesAfterNewManifest() throws Exception {
+        setUpVolumeEntry();
+        doAnswer(invocation -> {
+            VolumeManifest previous = new VolumeManifest();
+            for (String name : List.of("test.zip.001", "test.zip.002", "test.zip.003", "test.zip.004")) {
+                VolumeManifest.Volume volume = new VolumeManifest.Volume();
+                volume.setName(name);
+                previous.getVolumes().add(volume);
+            }
+            new ObjectMapper().writeValue(Path.of(invocation.<String>getArgument(1)).toFile(), previous);
+            return null;
+        }).when(cloudProvider).download(eq("gdrive:backup-service/backup/test.zip.volumes.json"), anyString(), eq(true));
+        List<String> deleted = new ArrayList<>();
+        doAnswer(invocation -> deleted.addAll(Files.readAllLines(invocation.getArgument(2))))
+                .when(cloudProvider).deleteFiles(anyString(), anyString(), any());
+
+        List<BackupEntryResult> results = backupService.runBackup();
+
+        assertEquals(BackupEntryResult.Status.SUCCEEDED, results.get(0).getStatus());
+        InOrder order = inOrder(cloudProvider);
+        order.verify(cloudProvider).backup(argThat(request -> request.destination().endsWith(".volumes.json")));
+        order.verify(cloudProvider).deleteFiles(anyString(), eq("gdrive:backup-service/backup/"), any());
+        assertEquals(List.of("test.zip.001", "test.zip.002", "test.zip.003", "test.zip.004"), deleted,
+                "Every volume of the previous run goes, including those beyond the new volume count");
+    }
+
+    @Test
+    void testRunBackup_FailedVolumeFailsEntryWithoutManifest() throws Exception {
+        setUpVolumeEntry();
+        ReflectionTestUtils.setField(backupService, "volumeMaxAttempts", 1);
+        doThrow(new RcloneException("Upload failed"))
+                .when(cloudProvider).backup(argThat(request -> request.destination().endsWith(".002")));
+
+        List<BackupEntryResult> results = backupService.runBackup();
+
+        assertEquals(BackupEntryResult.Status.FAILED, results.get(0).getStatus());
+        verify(cloudProvider, never()).backup(argThat(request -> request.destination().endsWith(".volumes.json")));
+    }
+
+    @Test
+    void testRunBackup_FailedVolumeRunDeletesItsUploadedVolumes() throws Exception {
+        setUpVolumeEntry();
+        ReflectionTestUtils.setField(backupService, "volumeMaxAttempts", 1);
+        ReflectionTestUtils.setField(backupService, "volumeParallelUploads", 1);
+        List<String> uploaded = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            UploadRequest request = invocation.getArgument(0);
+            if (request.destination().endsWith(".002")) {
+                throw new RcloneException("Upload failed");
+            }
+            uploaded.add(request.destination().substring(request.destination().lastIndexOf('/') + 1));
+            return null;
+        }).when(cloudProvider).backup(any(UploadRequest.class));
+        List<String> deleted = new ArrayList<>();
+        doAnswer(invocation -> deleted.addAll(Files.readAllLines(invocation.getArgument(2))))
+                .when(cloudProvider).deleteFiles(anyString(), anyString(), any());
+
+        List<BackupEntryResult> results = backupService.runBackup();
+
+        assertEquals(BackupEntryResult.Status.FAILED, results.get(0).getStatus());
+        assertFalse(uploaded.isEmpty());
+        assertEquals(uploaded, deleted, "No manifest points to the volumes of a failed run");
+    }
+
+    /**
+     * Configures one compressed entry split into 10-byte volumes whose compression writes 25 bytes.
+     */
+    private void setUpVolumeEntry() throws Exception {
+        Path sourceDir = tempDir.resolve("source");
+        Files.createDirectories(sourceDir);
+        Files.writeString(sourceDir.resolve("test.txt"), "test content");
+
+        BackupConfig.BackupEntry entry = new BackupConfig.BackupEntry();
+        entry.setLocalPath(sourceDir.toString());
+        entry.setCloudPath("gdrive:/backup/test.zip");
+        entry.setCompress(true);
+        entry.setVolumeSize("10B");
+        config.setBackupEntries(Arrays.asList(entry));
+
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(1).write(new byte[25]);
+            return null;
+        }).when(compressionService).compressToStream(any(SourceTree.class), any(), any(), any());
+    }
+
+    @Test
+    void testRunBackup_NextEntryCompressesWhilePreviousUploads() throws Exception {
+        config.setBackupEntries(Arrays.asList(
+                compressedEntry("first", "gdrive:/backup/first.zip"),
+                compressedEntry("second", "gdrive:/backup/second.zip")));
+        AtomicInteger compressions = new AtomicInteger();
+        CountDownLatch secondCompressed = new CountDownLatch(1);
+        when(compressionService.compress(any(SourceTree.class), any(), any(), any())).thenAnswer(invocation -> {
+            Path archive = writeArchive(invocation.getArgument(1));
+            if (compressions.incrementAndGet() == 2) {
+                secondCompressed.countDown();
+            }
+            return archive;
+        });
+        AtomicReference<Boolean> overlapped = new AtomicReference<>();
+        doAnswer(invocation -> {
+            if (invocation.<UploadRequest>getArgument(0).destination().endsWith("first.zip")) {
+                // Holds the first upload until the second entry is compressed, which only happens if they overlap
+                overlapped.set(secondCompressed.await(5, TimeUnit.SECONDS));
+            }
+            return null;
+        }).when(cloudProvider).backup(any(UploadRequest.class));
+
+        List<BackupEntryResult> results = backupService.runBackup();
+
+        assertEquals(Boolean.TRUE, overlapped.get(), "The second entry was not compressed during the first upload");
+        results.forEach(result -> assertEquals(BackupEntryResult.Status.SUCCEEDED, result.getStatus()));
+    }
+
+    @Test
+    void testRunBackup_StagedArchivesAreCapped() throws Exception {
+        ReflectionTestUtils.setField(backupService, "pipelineMaxStagedArchives", 2);
+        ReflectionTestUtils.setField(backupService, "pipelineCompressWorkers", 2);
+        List<BackupConfig.BackupEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            entries.add(compressedEntry("source" + i, "gdrive:/backup/source" + i + ".zip"));
+        }
+        config.setBackupEntries(entries);
+        List<Path> archives = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger mostStaged = new AtomicInteger();
+        when(compressionService.compress(any(SourceTree.class), any(), any(), any())).thenAnswer(invocation -> {
+            Path archive = writeArchive(invocation.getArgument(1));
+            archives.add(archive);
+            mostStaged.accumulateAndGet(countExisting(archives), Math::max);
+            return archive;
+        });
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> release.await(10, TimeUnit.SECONDS))
+                .when(cloudProvider).backup(any(UploadRequest.class));
+
+        List<BackupEntryResult> results = Collections.synchronizedList(new ArrayList<>());
+        Thread run = new Thread(() -> results.addAll(backupService.runBackup()));
+        run.start();
+        awaitCompressions(2);
+        Thread.sleep(200); // Give a third compression the chance to start while both archives are staged
+        verify(compressionService, times(2)).compress(any(SourceTree.class), any(), any(), any());
+        release.countDown();
+        run.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertFalse(run.isAlive());
+        results.forEach(result -> assertEquals(BackupEntryResult.Status.SUCCEEDED, result.getStatus(), result.getMessage()));
+        verify(cloudProvider, times(5)).backup(any(UploadRequest.class));
+        assertTrue(mostStaged.get() <= 2, "Up to 2 archives may be staged, found " + mostStaged.get());
+    }
+
+    private BackupConfig.BackupEntry compressedEntry(String name, String cloudPath) throws IOException {
+        Path sourceDir = Files.createDirectories(tempDir.resolve(name));
+        Files.writeString(sourceDir.resolve("test.txt"), "test content");
+        BackupConfig.BackupEntry entry = new BackupConfig.BackupEntry();
+        entry.setLocalPath(sourceDir.toString());
+        entry.setCloudPath(cloudPath);
+        entry.setCompress(true);
+        return entry;
+    }
+
+    private static int countExisting(List<Path> archives) {
+        synchronized (archives) {
+            return (int) archives.stream().filter(Files::exists).count();
+        }
+    }
+
+    private void awaitCompressions(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mockingDetails(compressionService).getInvocations().stream()
+                .filter(invocation -> invocation.getMethod().getName().equals("compress")).count() < expected) {
+            assertTrue(System.nanoTime() < deadline, "Entries were not compressed in time");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void testRunBackup_RetriesFailedUpload() throws Exception {
+        setUpRetries(3);
+        setUpCompressedEntry();
+        doThrow(new RcloneException("Upload failed")).doNothing().when(cloudProvider).backup(any(UploadRequest.class));
+
+        List<BackupEntryResult> results = backupService.runBackup();
+
+        assertEquals(BackupEntryResult.Status.SUCCEEDED, results.get(0).getStatus());
+        verify(cloudProvider, times(2)).backup(any(UploadRequest.class));
+        verify(compressionService, times(1)).compress(any(SourceTree.class), any(), any(), any());
+    }
+
+    @Test
+    void testRunBackup_GivesUpAfterMaxAttempts() throws Exception {
+        setUpRetries(2);
+        setUpCompressedEntry();
+        doThrow(new RcloneException("Upload failed")).when(cloudProvider).backup(any(UploadRequest.class));
+
+        List<BackupEntryResult> results = backupService.runBackup();
+
+        assertEquals(BackupEntryResult.Status.FAILED, results.get(0).getStatus());
+        assertTrue(results.get(0).getMessage().contains("Upload failed"));
+        verify(cloudProvider, times(2)).backup(any(UploadRequest.class));
+    }
+
+    @Test
+    void testRunBackup_OpenCircuitFailsNextEntriesOfRemoteFast() throws Exception {
+        setUpRetries(3);
+        config.setMaxConcurrentPerRemote(1);
+        config.setBackupEntries(Arrays.asList(
+                compressedEntry("first", "gdrive:/backup/first.zip"),
+                compressedEntry("second", "gdrive:/backup/second.zip")));
+        when(compressionService.compress(any(SourceTree.class), any(), any(), any()))
+                .thenAnswer(invocation -> writeArchive(invocation.getArgument(1)));
+        doThrow(new RcloneException("Upload failed")).when(cloudProvider).backup(any(UploadRequest.class));
+
+        List<BackupEntryResult> results = backupService.runBackup();
+
+        // Three failed attempts of the first entry open the circuit, so the second entry is not tried
+        verify(cloudProvider, times(3)).backup(any(UploadRequest.class));
+        results.forEach(result -> assertEquals(BackupEntryResult.Status.FAILED, result.getStatus()));
+        assertTrue(results.stream().anyMatch(result -> result.getMessage().contains("'gdrive' is unavailable")),
+                "Expected an entry failed by the open circuit: " + results);
+    }
+
+    @Test
+    void testRunBackup_WaitingRetryLeavesRemoteSlotToNextEntry() throws Exception {
+        setUpRetries(2);
+        config.setMaxConcurrentPerRemote(1);
+        config.setBackupEntries(Arrays.asList(
+                compressedEntry("first", "gdrive:/backup/first.zip"),
+                compressedEntry("second", "gdrive:/backup/second.zip")));
+        AtomicInteger compressions = new AtomicInteger();
+        CountDownLatch secondCompressed = new CountDownLatch(1);
+        when(compressionService.compress(any(SourceTree.class), any(), any(), any())).thenAnswer(invocation -> {
+            Path archive = writeArchive(invocation.getArgument(1));
+            if (compressions.incrementAndGet() == 2) {
+                secondCompressed.countDown();
+            }
+            return archive;
+        });
+        List<String> uploads = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            String destination = ((UploadRequest) invocation.getArgument(0)).destination();
+            uploads.add(destination);
+            if (uploads.size() == 1) {
+                assertTrue(secondCompressed.await(5, TimeUnit.SECONDS));
+                Thread.sleep(100); // Lets the second entry queue up for the remote
+                throw new RcloneException("Upload failed");
+            }
+            return null;
+        }).when(cloudProvider).backup(any(UploadRequest.class));
+
+        List<BackupEntryResult> results = backupService.runBackup();
+
+        results.forEach(result -> assertEquals(BackupEntryResult.Status.SUCCEEDED, result.getStatus()));
+        assertEquals(List.of("gdrive:backup-service/backup/first.zip", "gdrive:backup-service/backup/second.zip",
+                "gdrive:backup-service/backup/first.zip"), uploads);
+    }
+
+    @Test
+    void testRunBackup_MissingRcloneDoesNotOpenCircuit() throws Exception {
+        config.setBackupEntries(Arrays.asList(
+                compressedEntry("first", "gdrive:/backup/first.zip"),
+                compressedEntry("second", "gdrive:/backup/second.zip"),
+                compressedEntry("third", "gdrive:/backup/third.zip"),
+                compressedEntry("fourth", "gdrive:/backup/fourth.zip")));
+        when(compressionService.compress(any(SourceTree.class), any(), any(), any()))
+                .thenAnswer(invocation -> writeArchive(invocation.getArgument(1)));
+        doThrow(new RcloneNotInstalledException()).when(cloudProvider).backup(any(UploadRequest.class));
+
+        List<BackupEntryResult> results = backupService.runBackup();
+
+        // A local setup problem says nothing about the remote, so every entry is still tried
+        verify(cloudProvider, times(4)).backup(any(UploadRequest.class));
+        assertTrue(results.stream().noneMatch(result -> result.getMessage().contains("unavailable")), results.toString());
+    }
+
+    private void setUpRetries(int maxAttempts) {
+        ReflectionTestUtils.setField(backupService, "retryMaxAttempts", maxAttempts);
+        ReflectionTestUtils.setField(backupService, "retryInitialDelay", Duration.ofMillis(1));
+        ReflectionTestUtils.setField(backupService, "retryMaxDelay", Duration.ofMillis(1));
+    }
+
+    @Test
+    void testRunBackup_SyncsOnlyChangedFilesAfterFirstSync() throws Exception {
+        Path sourceDir = setUpSyncEntry();
+        List<String> copied = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        doAnswer(invocation -> copied.addAll(Files.readAllLines(invocation.getArgument(2))))
+                .when(cloudProvider).copyFiles(anyString(), anyString(), any());
+        doAnswer(invocation -> deleted.addAll(Files.readAllLines(invocation.getArgument(2))))
+                .when(cloudProvider).deleteFiles(anyString(), anyString(), any());
+
+        backupService.runBackup();
+        Files.writeString(sourceDir.resolve("a.txt"), "changed content of a");
+        Files.delete(sourceDir.resolve("b.txt"));
+        Files.writeString(sourceDir.resolve("c.txt"), "content of c");
+        List<BackupEntryResult> results = backupService.runBackup();
+
+        assertEquals(BackupEntryResult.Status.SUCCEEDED, results.get(0).getStatus());
+        verify(cloudProvider, times(1)).backup(any(UploadRequest.class)); // Only the first run syncs in full
+        assertEquals(List.of("a.txt", "c.txt"), copied);
+        assertEquals(List.of("b.txt"), deleted);
+    }
+
+    @Test
+    void testRunBackup_UnchangedSyncUploadsNothing() throws Exception {
+        setUpSyncEntry();
+
+        backupService.runBackup();
+        backupService.runBackup();
+
+        verify(cloudProvider, times(1)).backup(any(UploadRequest.class));
+        verify(cloudProvider, never()).copyFiles(anyString(), anyString(), any());
+        verify(cloudProvider, never()).deleteFiles(anyString(), anyString(), any());
+    }
+
+    @Test
+    void testRunBackup_FailedIncrementalSyncIsRetriedNextRun() throws Exception {
+        Path sourceDir = setUpSyncEntry();
+        List<String> copied = new ArrayList<>();
+        doThrow(new RcloneException("Upload failed"))
+                .doAnswer(invocation -> copied.addAll(Files.readAllLines(invocation.getArgument(2))))
+                .when(cloudProvider).copyFiles(anyString(), anyString(), any());
+
+        backupService.runBackup();
+        Files.writeString(sourceDir.resolve("a.txt"), "changed content of a");
+        List<BackupEntryResult> failed = backupService.runBackup();
+        backupService.runBackup();
+
+        // The failed sync did not replace the index, so the next run still copies the change
+        assertEquals(BackupEntryResult.Status.FAILED, failed.get(0).getStatus());
+        assertEquals(List.of("a.txt"), copied);
+    }
+
+    @Test
+    void testRunBackup_SyncsInFullOnceFullSyncIntervalPassed() throws Exception {
+        setUpSyncEntry();
+        ReflectionTestUtils.setField(backupService, "fullSyncInterval", Duration.ZERO);
+
+        backupService.runBackup();
+        backupService.runBackup();
+
+        verify(cloudProvider, times(2)).backup(any(UploadRequest.class));
+        verify(cloudProvider, never()).copyFiles(anyString(), anyString(), any());
+    }
+
+    @Test
+    void testRunBackup_IncompleteScanKeepsRemoteFilesAndFails() throws Exception {
+        Path sourceDir = setUpSyncEntry();
+        Path locked = Files.createDirectory(sourceDir.resolve("locked"));
+        Files.writeString(locked.resolve("d.txt"), "content of d");
+        if (!locked.toFile().setReadable(false) || Files.isReadable(locked)) {
+            return; // Running as root, permissions are not enforced
+        }
+        try {
+            List<BackupEntryResult> results = backupService.runBackup();
+
+            assertEquals(BackupEntryResult.Status.FAILED, results.get(0).getStatus());
+            assertTrue(results.get(0).getMessage().contains("1 unreadable"));
+            ArgumentCaptor<UploadRequest> request = ArgumentCaptor.forClass(UploadRequest.class);
+            verify(cloudProvider).backup(request.capture());
+            assertTrue(request.getValue().keepUnlisted(), "Files missing from the scan are not deleted remotely");
+        } finally {
+            locked.toFile().setReadable(true);
+        }
+    }
+
+    @Test
+    void testRunBackup_IncompleteScanSendsNoDeletions() throws Exception {
+        Path sourceDir = setUpSyncEntry();
+        Path locked = Files.createDirectory(sourceDir.resolve("locked"));
+        Files.writeString(locked.resolve("d.txt"), "content of d");
+        backupService.runBackup();
+
+        Files.delete(sourceDir.resolve("b.txt"));
+        if (!locked.toFile().setReadable(false) || Files.isReadable(locked)) {
+            return; // Running as root, permissions are not enforced
+        }
+        try {
+            List<BackupEntryResult> results = backupService.runBackup();
+
+            assertEquals(BackupEntryResult.Status.FAILED, results.get(0).getStatus());
+            verify(cloudProvider, never()).deleteFiles(anyString(), anyString(), any());
+        } finally {
+            locked.toFile().setReadable(true);
+        }
+    }
+
+    @Test
+    void testSyncChanges_CopiesChangedAndDeletesVanishedFilesInBatches() throws Exception {
+        Path sourceDir = setUpSyncEntry();
+        Files.writeString(sourceDir.resolve("c.txt"), "content of c");
+        Files.createDirectories(sourceDir.resolve("dir"));
+        ReflectionTestUtils.setField(backupService, "watchBatchSize", 2);
+        List<List<String>> copied = new ArrayList<>();
+        List<List<String>> deleted = new ArrayList<>();
+        doAnswer(invocation -> copied.add(Files.readAllLines(invocation.getArgument(2))))
+                .when(cloudProvider).copyFiles(anyString(), anyString(), any());
+        doAnswer(invocation -> deleted.add(Files.readAllLines(invocation.getArgument(2))))
+                .when(cloudProvider).deleteFiles(anyString(), anyString(), any());
+        List<BackupEntryResult> results = new ArrayList<>();
+
+        assertTrue(backupService.syncChanges(config.getBackupEntries().get(0),
+                List.of("a.txt", "b.txt", "c.txt", "dir", "gone.txt"), results::add));
+
+        assertEquals(List.of(List.of("a.txt", "b.txt"), List.of("c.txt")), copied);
+        assertEquals(List.of(List.of("gone.txt")), deleted);
+        verify(cloudProvider, times(2)).copyFiles(eq(sourceDir.toString()), eq("gdrive:backup-service/backup/test/"), any());
+        verify(cloudProvider, never()).backup(any(UploadRequest.class));
+        assertEquals(BackupEntryResult.Status.SUCCEEDED, results.get(0).getStatus());
+        assertEquals(36L, results.get(0).getBytes());
+        try (var staging = Files.list(tempDir.resolve("staging"))) {
+            assertEquals(0, staging.count(), "The file lists are cleaned up");
+        }
+    }
+
+    @Test
+    void testSyncChanges_NamesThatCannotBeListedRequireFullBackup() throws Exception {
+        setUpSyncEntry();
+        List<BackupEntryResult> results = new ArrayList<>();
+
+        assertFalse(backupService.syncChanges(config.getBackupEntries().get(0),
+                List.of("a.txt", "line\nbreak.txt"), results::add));
+
+        assertTrue(results.isEmpty());
+        verifyNoInteractions(cloudProvider);
+    }
+
+    @Test
+    void testSyncChanges_UpdatesSyncIndexSoNextRunUploadsNothing() throws Exception {
+        Path sourceDir = setUpSyncEntry();
+        backupService.runBackup();
+        Files.writeString(sourceDir.resolve("a.txt"), "changed content of a");
+        Files.delete(sourceDir.resolve("b.txt"));
+
+        backupService.syncChanges(config.getBackupEntries().get(0), List.of("a.txt", "b.txt"), result -> { });
+        backupService.runBackup();
+
+        // The scheduled run finds nothing the watch upload did not already cover
+        verify(cloudProvider, times(1)).backup(any(UploadRequest.class));
+        verify(cloudProvider, times(1)).copyFiles(anyString(), anyString(), any());
+        verify(cloudProvider, times(1)).deleteFiles(anyString(), anyString(), any());
+    }
+
+    @Test
+    void testSyncChanges_OpenCircuitFailsFast() throws Exception {
+        setUpSyncEntry();
+        doThrow(new RcloneException("Upload failed")).when(cloudProvider).copyFiles(anyString(), anyString(), any());
+        List<BackupEntryResult> results = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            backupService.syncChanges(config.getBackupEntries().get(0), List.of("a.txt"), results::add);
+        }
+
+        // Three failures open the circuit, so the fourth upload is not tried
+        verify(cloudProvider, times(3)).copyFiles(anyString(), anyString(), any());
+        results.forEach(result -> assertEquals(BackupEntryResult.Status.FAILED, result.getStatus()));
+        assertTrue(results.get(3).getMessage().contains("'gdrive' is unavailable"));
+    }
+
+    /**
+     * Configures one uncompressed directory entry with the files a.txt and b.txt.
+     */
+    private Path setUpSyncEntry() throws IOException {
+        Path sourceDir = Files.createDirectories(tempDir.resolve("source"));
+        Files.writeString(sourceDir.resolve("a.txt"), "content of a");
+        Files.writeString(sourceDir.resolve("b.txt"), "content of b");
+
+        BackupConfig.BackupEntry entry = new BackupConfig.BackupEntry();
+        entry.setLocalPath(sourceDir.toString());
+        entry.setCloudPath("gdrive:/backup/test/");
+        entry.setCompress(false);
+        config.setBackupEntries(Arrays.asList(entry));
+        return sourceDir;
     }
 }
@@ -0,0 +1,205 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.BandwidthSchedule;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BandwidthSchedulerTest {
+
+    // A Monday
+    private static final LocalDateTime MORNING = LocalDateTime.of(2024, 6, 3, 9, 0);
+    private static final LocalDateTime NIGHT = LocalDateTime.of(2024, 6, 3, 23, 0);
+
+    @Test
+    void testWindowsApplyByTimeOfDayAndFallBackToDefault() {
+        BandwidthSchedule schedule = schedule("off", window("08:00", "19:00", "2MB", null));
+
+        assertEquals(2 * 1024 * 1024, schedule.limitAt(MORNING));
+        assertEquals(0, schedule.limitAt(NIGHT));
+        assertEquals(0, schedule.limitAt(MORNING.withHour(19)));
+    }
+
+    @Test
+    void testWindowSpanningMidnightBelongsToTheDayItStarted() {
+        BandwidthSchedule schedule = schedule("1MB", window("22:00", "06:00", "512KB/s", Set.of(DayOfWeek.FRIDAY)));
+
+        LocalDateTime fridayNight = LocalDateTime.of(2024, 6, 7, 23, 0);
+        assertEquals(512 * 1024, schedule.limitAt(fridayNight));
+        assertEquals(512 * 1024, schedule.limitAt(fridayNight.plusHours(3))); // Saturday 02:00
+        assertEquals(1024 * 1024, schedule.limitAt(fridayNight.plusDays(1))); // Saturday 23:00
+        assertEquals(1024 * 1024, schedule.limitAt(NIGHT));
+    }
+
+    @Test
+    void testValidateRejectsBrokenWindows() {
+        assertThrows(IllegalArgumentException.class, () -> schedule(null, window("08:00", null, "1MB", null)).validate());
+        assertThrows(IllegalArgumentException.class, () -> schedule(null, window("08:00", "08:00", "1MB", null)).validate());
+        assertThrows(IllegalArgumentException.class, () -> schedule("fast", window("08:00", "09:00", "1MB", null)).validate());
+        assertFalse(schedule("off").isEnabled());
+    }
+
+    @Test
+    void testLimitIsSplitAcrossTransfersAndRebalanced() throws InterruptedException {
+        BandwidthScheduler scheduler = new BandwidthScheduler(schedule("4MB"), clockAt(MORNING), Duration.ZERO);
+        AtomicLong first = new AtomicLong(-1);
+        AtomicLong second = new AtomicLong(-1);
+
+        BandwidthScheduler.Allocation a = scheduler.acquire("a", first::set);
+        assertEquals(4 * 1024 * 1024, a.rate());
+        assertEquals(4 * 1024 * 1024, first.get());
+
+        BandwidthScheduler.Allocation b = scheduler.acquire("b", second::set);
+        assertEquals(2 * 1024 * 1024, first.get());
+        assertEquals(2 * 1024 * 1024, second.get());
+
+        a.close();
+        assertEquals(4 * 1024 * 1024, second.get());
+        assertEquals(2 * 1024 * 1024, first.get()); // Closed allocations are left alone
+        b.close();
+    }
+
+    @Test
+    void testRefreshFollowsTheSchedule() throws InterruptedException {
+        MutableClock clock = new MutableClock(MORNING);
+        BandwidthScheduler scheduler = new BandwidthScheduler(
+                schedule("off", window("08:00", "19:00", "2MB", null)), clock, Duration.ZERO);
+        List<Long> rates = new ArrayList<>();
+
+        scheduler.acquire("a", rates::add);
+        clock.set(NIGHT);
+        scheduler.refresh();
+        clock.set(MORNING.plusDays(1));
+        scheduler.refresh();
+
+        assertEquals(List.of(2L * 1024 * 1024, 0L, 2L * 1024 * 1024), rates);
+        assertEquals(2 * 1024 * 1024, scheduler.currentLimit());
+    }
+
+    @Test
+    void testFailedListenerIsRetriedOnRefresh() throws InterruptedException {
+        BandwidthScheduler scheduler = new BandwidthScheduler(schedule("1MB"), clockAt(MORNING), Duration.ZERO);
+        AtomicBoolean ready = new AtomicBoolean(false);
+        AtomicLong applied = new AtomicLong(-1);
+
+        scheduler.acquire("a", rate -> {
+            if (!ready.get()) {
+                throw new IllegalStateException("not listening yet");
+            }
+            applied.set(rate);
+        });
+        assertEquals(-1, applied.get());
+
+        ready.set(true);
+        scheduler.refresh();
+        assertEquals(1024 * 1024, applied.get());
+    }
+
+    @Test
+    void testTransfersWaitWhileSharesWouldDropBelowMinimum() throws Exception {
+        BandwidthScheduler scheduler = new BandwidthScheduler(schedule("2KB"), clockAt(MORNING), Duration.ZERO);
+        BandwidthScheduler.Allocation a = scheduler.acquire("a", rate -> { });
+        BandwidthScheduler.Allocation b = scheduler.acquire("b", rate -> { });
+        CompletableFuture<BandwidthScheduler.Allocation> c = new CompletableFuture<>();
+        Thread waiting = new Thread(() -> {
+            try {
+                c.complete(scheduler.acquire("c", rate -> { }));
+            } catch (InterruptedException e) {
+                c.completeExceptionally(e);
+            }
+        });
+        waiting.start();
+
+        Thread.sleep(100);
+        assertFalse(c.isDone(), "A third share of 2 KiB/s would be below the minimum");
+        assertEquals(BandwidthScheduler.MIN_SHARE, b.rate());
+
+        a.close();
+        assertEquals(BandwidthScheduler.MIN_SHARE, c.get(5, TimeUnit.SECONDS).rate());
+        assertEquals(BandwidthScheduler.MIN_SHARE, b.rate());
+    }
+
+    @Test
+    void testLoweredLimitKeepsMinimumShareOfRunningTransfers() throws InterruptedException {
+        MutableClock clock = new MutableClock(MORNING);
+        BandwidthScheduler scheduler = new BandwidthScheduler(
+                schedule("1KB", window("08:00", "19:00", "2KB", null)), clock, Duration.ZERO);
+        scheduler.acquire("a", rate -> { });
+        BandwidthScheduler.Allocation b = scheduler.acquire("b", rate -> { });
+
+        clock.set(NIGHT);
+        scheduler.refresh();
+
+        // Running transfers cannot be paused, so their shares never drop to unlimited
+        assertEquals(BandwidthScheduler.MIN_SHARE, b.rate());
+    }
+
+    @Test
+    void testToRcloneRate() {
+        assertEquals("off", BandwidthScheduler.toRcloneRate(0));
+        assertEquals("2048K:off", BandwidthScheduler.toRcloneRate(2 * 1024 * 1024));
+        assertEquals("1K:off", BandwidthScheduler.toRcloneRate(100));
+    }
+
+    private static BandwidthSchedule schedule(String defaultLimit, BandwidthSchedule.Window... windows) {
+        BandwidthSchedule schedule = new BandwidthSchedule();
+        schedule.setDefaultLimit(defaultLimit);
+        schedule.setWindows(new ArrayList<>(List.of(windows)));
+        return schedule;
+    }
+
+    private static BandwidthSchedule.Window window(String from, String to, String limit, Set<DayOfWeek> days) {
+        BandwidthSchedule.Window window = new BandwidthSchedule.Window();
+        window.setFrom(from);
+        window.setTo(to);
+        window.setLimit(limit);
+        window.setDays(days);
+        return window;
+    }
+
+    private static Clock clockAt(LocalDateTime time) {
+        return Clock.fixed(time.toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+    }
+
+    private static class MutableClock extends Clock {
+        private volatile Instant now;
+
+        MutableClock(LocalDateTime time) {
+            set(time);
+        }
+
+        void set(LocalDateTime time) {
+            now = time.toInstant(ZoneOffset.UTC);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.alexoderdenge.backup_service.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testFindsChunksAfterGrowingAndReopening() throws IOException {
+        int chunks = 50_000;
+        try (ChunkIndex index = ChunkIndex.open(tempDir)) {
+            int first = index.addPack("pack-a");
+            int second = index.addPack("pack-b");
+            for (int i = 0; i < chunks; i++) {
+                index.add(hash(i), i % 2 == 0 ? first : second, i * 100L, 90, 100);
+            }
+            index.add(hash(7), first, 0, 1, 1); // Duplicates are ignored
+            assertEquals(chunks, index.size());
+        }
+
+        try (ChunkIndex index = ChunkIndex.open(tempDir)) {
+            assertEquals(chunks, index.size());
+            ChunkIndex.Location location = index.find(hash(12_345));
+            assertEquals(new ChunkIndex.Location("pack-b", 1_234_500L, 90, 100), location);
+            assertTrue(location.deflated());
+            assertEquals("pack-b", index.find(hash(7)).pack());
+            assertNull(index.find(hash(chunks + 1)));
+        }
+    }
+
+    @Test
+    void testDistinguishesHashesWithTheSamePrefix() throws IOException {
+        byte[] a = hash(1);
+        byte[] b = hash(1);
+        b[31] ^= 1; // Same first 8 bytes, different hash
+
+        try (ChunkIndex index = ChunkIndex.open(tempDir)) {
+            int pack = index.addPack("pack");
+            index.add(a, pack, 0, 10, 10);
+            assertFalse(index.contains(b));
+            index.add(b, pack, 10, 20, 20);
+            assertEquals(0, index.find(a).offset());
+            assertEquals(10, index.find(b).offset());
+        }
+    }
+
+    @Test
+    void testDropsTornRecordAfterCrash() throws IOException {
+        try (ChunkIndex index = ChunkIndex.open(tempDir)) {
+            int pack = index.addPack("pack");
+            index.add(hash(1), pack, 0, 10, 10);
+        }
+        Files.write(tempDir.resolve("chunks.idx"), new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (ChunkIndex index = ChunkIndex.open(tempDir)) {
+            assertEquals(1, index.size());
+            assertTrue(index.contains(hash(1)));
+        }
+    }
+
+    @Test
+    void testDropsRecordsOfPackLostInCrash() throws IOException {
+        try (ChunkIndex index = ChunkIndex.open(tempDir)) {
+            int first = index.addPack("pack-a");
+            index.add(hash(1), first, 0, 10, 10);
+            int second = index.addPack("pack-b");
+            index.add(hash(2), second, 0, 10, 10);
+            index.add(hash(3), second, 10, 10, 10);
+        }
+        // The second pack name was lost, and a third one only half written
+        Files.writeString(tempDir.resolve("packs.txt"), "pack-a\npack-");
+
+        try (ChunkIndex index = ChunkIndex.open(tempDir)) {
+            assertEquals(1, index.size());
+            assertEquals("pack-a", index.find(hash(1)).pack());
+            assertNull(index.find(hash(2)));
+            assertEquals(1, index.addPack("pack-c"));
+            index.add(hash(2), 1, 0, 10, 10);
+        }
+
+        try (ChunkIndex index = ChunkIndex.open(tempDir)) {
+            assertEquals(2, index.size());
+            assertEquals("pack-c", index.find(hash(2)).pack());
+        }
+        assertEquals("pack-a\npack-c\n", Files.readString(tempDir.resolve("packs.txt")));
+    }
+
+    @Test
+    void testImportsPackIndexFile() throws IOException {
+        Path packIndex = tempDir.resolve("remote.idx");
+        ChunkIndex.writePackIndex(packIndex, List.of(
+                new PackWriter.PackedChunk(hash(1), 0, 5, 8),
+                new PackWriter.PackedChunk(hash(2), 5, 8, 8)));
+
+        try (ChunkIndex index = ChunkIndex.open(tempDir.resolve("index"))) {
+            index.importPackIndex("remote", packIndex);
+            assertEquals(new ChunkIndex.Location("remote", 5, 8, 8), index.find(hash(2)));
+            assertTrue(index.find(hash(1)).deflated());
+        }
+    }
+
+    private static byte[] hash(int value) {
+        // Spread the value over the first bytes like a real digest would
+        ByteBuffer buffer = ByteBuffer.allocate(ChunkIndex.HASH_LENGTH);
+        buffer.putLong(value * 0x9E3779B97F4A7C15L).putLong(value);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,291 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.DedupSnapshot;
+import com.alexoderdenge.backup_service.service.exception.RcloneException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+class DedupBackupServiceTest {
+
+    private static final String REPOSITORY = "remote:backup-service/vm";
+
+    @TempDir
+    Path tempDir;
+
+    private Path remoteRoot;
+    private LocalDirectoryProvider cloudProvider;
+    private StagingManager stagingManager;
+    private DedupBackupService dedupService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        remoteRoot = Files.createDirectories(tempDir.resolve("remote"));
+        cloudProvider = new LocalDirectoryProvider(remoteRoot);
+        stagingManager = new StagingManager(tempDir.resolve("staging").toString(), "0B", 1.0, Duration.ofHours(1));
+        dedupService = new DedupBackupService(cloudProvider, stagingManager, tempDir.resolve("state").toString(),
+                2048, 8192, 32768, 64 * 1024);
+    }
+
+    @Test
+    void testSecondRunUploadsOnlyChangedChunks() throws IOException {
+        Path source = Files.createDirectories(tempDir.resolve("source"));
+        byte[] image = new byte[2 * 1024 * 1024];
+        new Random(1).nextBytes(image);
+        Files.write(source.resolve("disk.img"), image);
+        Files.writeString(source.resolve("notes.txt"), "hello ".repeat(10_000));
+
+        DedupSnapshot first = dedupService.backup(source, REPOSITORY, 6);
+        assertEquals(2, first.getFileCount());
+        assertTrue(first.getNewChunks() > 100);
+        assertEquals(0, first.getReusedChunks());
+        assertTrue(first.getUploadedBytes() < image.length + 70_000, "Text should be deflated");
+
+        image[image.length / 3] ^= 0x55; // One byte changed in the middle of the image
+        Files.write(source.resolve("disk.img"), image);
+
+        DedupSnapshot second = dedupService.backup(source, REPOSITORY, 6);
+        assertTrue(second.getNewChunks() <= 2, "New chunks: " + second.getNewChunks());
+        assertTrue(second.getUploadedBytes() < 70_000, "Uploaded bytes: " + second.getUploadedBytes());
+        long chunks = second.getNodes().stream().mapToLong(node -> node.getChunks().size()).sum();
+        assertEquals(chunks, second.getNewChunks() + second.getReusedChunks());
+        assertTrue(second.getReusedChunks() > 100);
+
+        Path restored = tempDir.resolve("restored");
+        dedupService.restore(REPOSITORY, second.getId(), restored);
+        assertArrayEquals(image, Files.readAllBytes(restored.resolve("disk.img")));
+        assertEquals("hello ".repeat(10_000), Files.readString(restored.resolve("notes.txt")));
+    }
+
+    @Test
+    void testRestoreWithoutLocalIndexRebuildsTreeExactly() throws IOException {
+        Path source = Files.createDirectories(tempDir.resolve("source"));
+        Files.createDirectories(source.resolve("nested/empty"));
+        byte[] data = new byte[300_000];
+        new Random(2).nextBytes(data);
+        Files.write(source.resolve("nested/data.bin"), data);
+        Files.write(source.resolve("copy.bin"), data); // Identical content is stored once
+        Files.writeString(source.resolve("empty.txt"), "");
+        Files.createSymbolicLink(source.resolve("link"), Path.of("copy.bin"));
+        Files.setLastModifiedTime(source.resolve("copy.bin"), FileTime.fromMillis(1_600_000_000_000L));
+
+        DedupSnapshot snapshot = dedupService.backup(source, REPOSITORY, 1);
+        assertTrue(snapshot.getReusedChunks() > 0);
+
+        // A fresh machine: same remote, empty state directory
+        DedupBackupService freshService = new DedupBackupService(cloudProvider, stagingManager, tempDir.resolve("other-state").toString(),
+                2048, 8192, 32768, 64 * 1024);
+        Path restored = tempDir.resolve("restored");
+        freshService.restore(REPOSITORY, snapshot.getId(), restored);
+
+        assertArrayEquals(data, Files.readAllBytes(restored.resolve("nested/data.bin")));
+        assertArrayEquals(data, Files.readAllBytes(restored.resolve("copy.bin")));
+        assertEquals(0, Files.size(restored.resolve("empty.txt")));
+        assertTrue(Files.isDirectory(restored.resolve("nested/empty")));
+        assertEquals(Path.of("copy.bin"), Files.readSymbolicLink(restored.resolve("link")));
+        assertEquals(1_600_000_000_000L, Files.getLastModifiedTime(restored.resolve("copy.bin")).toMillis());
+    }
+
+    @Test
+    void testSingleFileSourceAndLayout() throws IOException {
+        Path file = tempDir.resolve("dump.sql");
+        Files.writeString(file, "INSERT INTO t VALUES (1);\n".repeat(5000));
+
+        DedupSnapshot snapshot = dedupService.backup(file, REPOSITORY + "/", 6);
+
+        Path repository = remoteRoot.resolve("backup-service/vm");
+        assertTrue(Files.exists(repository.resolve("snapshots/" + snapshot.getId() + ".json.gz")));
+        try (Stream<Path> packs = Files.list(repository.resolve("packs"));
+             Stream<Path> indexes = Files.list(repository.resolve("index"))) {
+            assertEquals(1, packs.count());
+            assertEquals(1, indexes.count());
+        }
+
+        Path restored = tempDir.resolve("restored");
+        dedupService.restore(REPOSITORY, snapshot.getId(), restored);
+        assertEquals(Files.readString(file), Files.readString(restored.resolve("dump.sql")));
+    }
+
+    @Test
+    void testFailedUploadDoesNotRecordChunks() throws IOException {
+        Path file = tempDir.resolve("data.bin");
+        byte[] data = new byte[100_000];
+        new Random(3).nextBytes(data);
+        Files.write(file, data);
+
+        cloudProvider.failUploads = true;
+        assertThrows(RuntimeException.class, () -> dedupService.backup(file, REPOSITORY, 6));
+
+        cloudProvider.failUploads = false;
+        DedupSnapshot snapshot = dedupService.backup(file, REPOSITORY, 6);
+        assertEquals(0, snapshot.getReusedChunks(), "Chunks of the failed run must be uploaded again");
+    }
+
+    @Test
+    void testRestoreNeverWritesThroughSnapshotSymlinks() throws IOException {
+        Path source = Files.createDirectories(tempDir.resolve("source"));
+        Files.writeString(source.resolve("pwned.txt"), "payload");
+        DedupSnapshot snapshot = dedupService.backup(source, REPOSITORY, 6);
+        Path outside = Files.createDirectories(tempDir.resolve("outside"));
+
+        // A tampered snapshot: a link out of the target, then a file below the link
+        DedupSnapshot.Node file = snapshot.getNodes().get(0);
+        file.setPath("escape/pwned.txt");
+        DedupSnapshot.Node link = new DedupSnapshot.Node();
+        link.setPath("escape");
+        link.setType(DedupSnapshot.Node.SYMLINK);
+        link.setLinkTarget(outside.toString());
+        snapshot.getNodes().add(0, link);
+        rewriteSnapshot(snapshot);
+
+        assertThrows(IOException.class, () -> dedupService.restore(REPOSITORY, snapshot.getId(), tempDir.resolve("restored")));
+        assertFalse(Files.exists(outside.resolve("pwned.txt")));
+    }
+
+    @Test
+    void testRestoreReplacesExistingSymlinksInsteadOfFollowingThem() throws IOException {
+        Path source = Files.createDirectories(tempDir.resolve("source"));
+        Files.createDirectories(source.resolve("nested"));
+        Files.writeString(source.resolve("notes.txt"), "restored");
+        Files.writeString(source.resolve("nested/data.txt"), "restored");
+        DedupSnapshot snapshot = dedupService.backup(source, REPOSITORY, 6);
+
+        Path outside = Files.createDirectories(tempDir.resolve("outside"));
+        Path victim = Files.writeString(outside.resolve("victim.txt"), "untouched");
+        Path restored = Files.createDirectories(tempDir.resolve("restored"));
+        Files.createSymbolicLink(restored.resolve("notes.txt"), victim);
+        Files.createSymbolicLink(restored.resolve("nested"), outside);
+
+        IOException e = assertThrows(IOException.class, () -> dedupService.restore(REPOSITORY, snapshot.getId(), restored));
+        assertTrue(e.getMessage().contains("symbolic link"), e.getMessage());
+        assertFalse(Files.exists(outside.resolve("data.txt")));
+
+        Files.delete(restored.resolve("nested"));
+        dedupService.restore(REPOSITORY, snapshot.getId(), restored);
+        assertFalse(Files.isSymbolicLink(restored.resolve("notes.txt")));
+        assertEquals("restored", Files.readString(restored.resolve("notes.txt")));
+        assertEquals("untouched", Files.readString(victim));
+    }
+
+    @Test
+    void testRestoreReservesStagingSpaceForEveryPack() throws IOException {
+        Path file = tempDir.resolve("data.bin");
+        byte[] data = new byte[300_000];
+        new Random(4).nextBytes(data);
+        Files.write(file, data);
+        DedupSnapshot snapshot = dedupService.backup(file, REPOSITORY, 0);
+
+        StagingManager spiedStaging = spy(stagingManager);
+        DedupBackupService restoringService = new DedupBackupService(cloudProvider, spiedStaging,
+                tempDir.resolve("state").toString(), 2048, 8192, 32768, 64 * 1024);
+        restoringService.restore(REPOSITORY, snapshot.getId(), tempDir.resolve("restored"));
+
+        verify(spiedStaging, atLeastOnce()).allocate(eq("backup-restore-"), longThat(bytes -> bytes >= 64 * 1024));
+        try (Stream<Path> leftovers = Files.list(tempDir.resolve("staging"))) {
+            assertTrue(leftovers.noneMatch(path -> path.getFileName().toString().startsWith("backup-restore-")),
+                    "Pack staging directories are released after the restore");
+        }
+    }
+
+    @Test
+    void testRejectsInvalidSnapshotIds() {
+        assertThrows(IllegalArgumentException.class,
+                () -> dedupService.restore(REPOSITORY, "../escape", tempDir.resolve("restored")));
+    }
+
+    private void rewriteSnapshot(DedupSnapshot snapshot) throws IOException {
+        Path file = remoteRoot.resolve("backup-service/vm/snapshots/" + snapshot.getId() + ".json.gz");
+        ObjectMapper objectMapper = new ObjectMapper();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            assertEquals(snapshot.getId(), objectMapper.readValue(in, DedupSnapshot.class).getId());
+        }
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            objectMapper.writeValue(out, snapshot);
+        }
+    }
+
+    /**
+     * Stores "remote:path" under a local directory.
+     */
+    private static class LocalDirectoryProvider implements CloudProvider {
+
+        private final Path root;
+        private boolean failUploads;
+
+        LocalDirectoryProvider(Path root) {
+            this.root = root;
+        }
+
+        @Override
+        public void backup(UploadRequest request) {
+            if (failUploads) {
+                throw new RcloneException("Upload failed", 1);
+            }
+            copy(Path.of(request.source()), resolve(request.destination()));
+        }
+
+        @Override
+        public void download(String source, String destination, boolean isFile) {
+            copy(resolve(source), Path.of(destination));
+        }
+
+        @Override
+        public void copyFiles(String source, String destination, Path fileList) {
+            throw new UnsupportedOperationException("Not used by dedup backups");
+        }
+
+        @Override
+        public void deleteFiles(String source, String destination, Path fileList) {
+            throw new UnsupportedOperationException("Not used by dedup backups");
+        }
+
+        @Override
+        public void backupStream(ArchiveStreamWriter writer, String destination) {
+            throw new UnsupportedOperationException("Not used by dedup backups");
+        }
+
+        private Path resolve(String remotePath) {
+            return root.resolve(remotePath.substring(remotePath.indexOf(':') + 1));
+        }
+
+        private static void copy(Path from, Path to) {
+            try {
+                if (Files.isDirectory(from)) {
+                    Files.createDirectories(to);
+                    try (Stream<Path> files = Files.list(from)) {
+                        for (Path file : files.toList()) {
+                            copy(file, to.resolve(file.getFileName().toString()));
+                        }
+                    }
+                } else {
+                    Files.createDirectories(to.getParent());
+                    Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
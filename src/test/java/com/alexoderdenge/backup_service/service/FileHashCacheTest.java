@@ -0,0 +1,111 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.util.SourceTree;
+import com.alexoderdenge.backup_service.util.XxHash64;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileHashCacheTest {
+
+    private static final Duration MAX_AGE = Duration.ofDays(30);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testUnchangedFilesAreNotReadAgain() throws IOException {
+        Path source = Files.createDirectories(tempDir.resolve("source"));
+        write(source.resolve("a.txt"), "alpha");
+        write(source.resolve("b.txt"), "bravo");
+        FileHashCache cache = cache(Clock.systemUTC(), false);
+
+        assertEquals(12, cache.hashAll(SourceTree.live(source)));
+        assertEquals(0, cache.hashAll(SourceTree.live(source)));
+
+        write(source.resolve("b.txt"), "bravo!");
+        assertEquals(7, cache.hashAll(SourceTree.live(source)));
+        assertEquals(XxHash64.hash("bravo!\n".getBytes(StandardCharsets.UTF_8)), cache.hash(source.resolve("b.txt")).xxh64());
+    }
+
+    @Test
+    void testCacheSurvivesRestart() throws IOException {
+        Path source = Files.createDirectories(tempDir.resolve("source"));
+        write(source.resolve("a.txt"), "alpha");
+        FileHashCache cache = cache(Clock.systemUTC(), true);
+        FileHashCache.FileHashes hashes = cache.hash(source.resolve("a.txt"));
+        cache.save();
+
+        FileHashCache restarted = cache(Clock.systemUTC(), true);
+
+        assertEquals(0, restarted.hashAll(SourceTree.live(source)));
+        assertEquals(hashes, restarted.hash(source.resolve("a.txt")));
+        assertEquals("9f9f90dbe3e5ee1218c86b8839db1995", hashes.md5()); // MD5 of "alpha\n"
+        assertEquals(FileHashCache.RECORD_SIZE + 16, Files.size(tempDir.resolve("hash-cache.bin")));
+    }
+
+    @Test
+    void testFreshlyModifiedFilesAreNotCached() throws IOException {
+        Path file = tempDir.resolve("fresh.txt");
+        Files.writeString(file, "still being written");
+        FileHashCache cache = cache(Clock.systemUTC(), false);
+
+        cache.hash(file);
+
+        assertNull(cache.lookup(FileHashCache.stat(file)));
+    }
+
+    @Test
+    void testUnusedRecordsExpire() throws IOException {
+        Path source = Files.createDirectories(tempDir.resolve("source"));
+        write(source.resolve("old.txt"), "old");
+        FileHashCache cache = cache(Clock.systemUTC(), false);
+        cache.hash(source.resolve("old.txt"));
+        cache.save();
+
+        FileHashCache later = cache(Clock.offset(Clock.systemUTC(), MAX_AGE.plusDays(1)), false);
+        Path other = write(tempDir.resolve("other.txt"), "other");
+        later.hash(other);
+        later.save();
+
+        FileHashCache restarted = cache(Clock.systemUTC(), false);
+        assertNull(restarted.lookup(FileHashCache.stat(source.resolve("old.txt"))));
+        assertNotNull(restarted.lookup(FileHashCache.stat(other)));
+    }
+
+    @Test
+    void testCorruptCacheFileStartsEmpty() throws IOException {
+        Files.writeString(tempDir.resolve("hash-cache.bin"), "garbage");
+        Path file = write(tempDir.resolve("a.txt"), "alpha");
+
+        FileHashCache cache = cache(Clock.systemUTC(), false);
+
+        assertNull(cache.lookup(FileHashCache.stat(file)));
+        cache.hash(file);
+        cache.save();
+        assertNotNull(cache(Clock.systemUTC(), false).lookup(FileHashCache.stat(file)));
+    }
+
+    private FileHashCache cache(Clock clock, boolean md5) {
+        return new FileHashCache(tempDir.resolve("hash-cache.bin"), md5, 2, 0, MAX_AGE, clock);
+    }
+
+    /**
+     * Writes a file that was last modified a while ago, so its hash may be cached.
+     */
+    private static Path write(Path file, String content) throws IOException {
+        Files.writeString(file, content + "\n");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minusSeconds(60)));
+        return file;
+    }
+}
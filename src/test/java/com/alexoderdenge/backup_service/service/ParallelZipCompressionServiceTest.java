@@ -0,0 +1,240 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.CompressionPolicy;
+import com.alexoderdenge.backup_service.service.exception.CompressionException;
+import com.alexoderdenge.backup_service.util.FileTreeScanner;
+import com.alexoderdenge.backup_service.util.SourceTree;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelZipCompressionServiceTest {
+
+    private final ParallelZipCompressionService compressionService = new ParallelZipCompressionService(4);
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void tearDown() {
+        compressionService.close();
+    }
+
+    @Test
+    void testCompressDirectoryReadableByZipFile() throws IOException, CompressionException {
+        Path sourceDir = tempDir.resolve("source");
+        Map<String, byte[]> expected = createTree(sourceDir);
+
+        Path zipFile = compressionService.compressToZip(sourceDir, tempDir.resolve("output"));
+
+        assertEquals("source.zip", zipFile.getFileName().toString());
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            assertNotNull(zip.getEntry("subdir/"));
+            for (Map.Entry<String, byte[]> file : expected.entrySet()) {
+                ZipEntry entry = zip.getEntry(file.getKey());
+                assertNotNull(entry, "Missing entry " + file.getKey());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertArrayEquals(file.getValue(), in.readAllBytes(), "Content mismatch for " + file.getKey());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testCompressToStreamReadableByZipInputStream() throws IOException, CompressionException {
+        Path sourceDir = tempDir.resolve("source");
+        Map<String, byte[]> expected = createTree(sourceDir);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressionService.compressToStream(sourceDir, out);
+
+        Map<String, byte[]> actual = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    actual.put(entry.getName(), zis.readAllBytes());
+                }
+            }
+        }
+        assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((name, content) -> assertArrayEquals(content, actual.get(name), name));
+    }
+
+    @Test
+    void testCompressSingleFile() throws IOException, CompressionException {
+        Path sourceFile = tempDir.resolve("test.txt");
+        Files.writeString(sourceFile, "Test file content");
+
+        Path zipFile = compressionService.compressToZip(sourceFile, tempDir.resolve("output"));
+
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            ZipEntry entry = zip.getEntry("test.txt");
+            assertNotNull(entry);
+            try (InputStream in = zip.getInputStream(entry)) {
+                assertEquals("Test file content", new String(in.readAllBytes()));
+            }
+        }
+    }
+
+    @Test
+    void testCompressNonExistentSource() {
+        assertThrows(CompressionException.class, () ->
+                compressionService.compressToZip(tempDir.resolve("non-existent"), tempDir.resolve("output")));
+    }
+
+    @Test
+    void testCompressionPolicyStoresIncompressibleFiles() throws IOException, CompressionException {
+        Path sourceDir = tempDir.resolve("source");
+        Files.createDirectories(sourceDir);
+        byte[] largeRandom = randomBytes(ParallelZipCompressionService.BLOCK_SIZE * 2 + 123, 3);
+        byte[] video = randomBytes(5000, 4);
+        Files.write(sourceDir.resolve("large.bin"), largeRandom);
+        Files.write(sourceDir.resolve("clip.mp4"), video);
+        Files.writeString(sourceDir.resolve("notes.txt"), "compressible text ".repeat(1000));
+
+        CompressionPolicy policy = CompressionPolicy.defaults();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressionService.compressToStream(sourceDir, out, policy);
+
+        Map<String, byte[]> actual = new HashMap<>();
+        Map<String, Integer> methods = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                methods.put(entry.getName(), entry.getMethod());
+                actual.put(entry.getName(), zis.readAllBytes());
+            }
+        }
+        assertEquals(ZipEntry.STORED, methods.get("large.bin"));
+        assertEquals(ZipEntry.STORED, methods.get("clip.mp4"));
+        assertEquals(ZipEntry.DEFLATED, methods.get("notes.txt"));
+        assertArrayEquals(largeRandom, actual.get("large.bin"));
+        assertArrayEquals(video, actual.get("clip.mp4"));
+
+        Path zipFile = compressionService.compressToZip(sourceDir, tempDir.resolve("output"), policy);
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            assertTrue(zip.getComment().startsWith("deflated 1 files"), zip.getComment());
+        }
+    }
+
+    @Test
+    void testFilesChangedWhileArchivingKeepScannedSize() throws IOException, CompressionException {
+        Path sourceDir = tempDir.resolve("source");
+        Files.createDirectories(sourceDir);
+        int blockSize = ParallelZipCompressionService.BLOCK_SIZE;
+        byte[] storedLarge = randomBytes(blockSize * 2 + 123, 5);
+        byte[] storedGrown = randomBytes(blockSize * 2, 6);
+        byte[] text = "compressible text ".repeat(blockSize / 6).getBytes();
+        Files.write(sourceDir.resolve("large.bin"), storedLarge);
+        Files.write(sourceDir.resolve("grown.bin"), storedGrown);
+        Files.writeString(sourceDir.resolve("clip.mp4"), "first");
+        Files.write(sourceDir.resolve("notes.txt"), text);
+
+        // Every file changes after the tree handed out its attributes, just before it is archived
+        SourceTree live = SourceTree.live(sourceDir);
+        SourceTree changing = new SourceTree() {
+            @Override
+            public Path root() {
+                return sourceDir;
+            }
+
+            @Override
+            public void forEach(FileTreeScanner.EntryConsumer consumer) throws IOException {
+                live.forEach(entry -> {
+                    switch (entry.relativePath()) {
+                        case "large.bin" -> Files.write(entry.path(), Arrays.copyOf(storedLarge, 1000));
+                        case "grown.bin" -> Files.write(entry.path(), Arrays.copyOf(storedGrown, blockSize * 3));
+                        case "clip.mp4" -> Files.writeString(entry.path(), "first and more");
+                        case "notes.txt" -> Files.write(entry.path(), Arrays.copyOf(text, text.length + 10));
+                        default -> {
+                        }
+                    }
+                    consumer.accept(entry);
+                });
+            }
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressionService.compressToStream(changing, out, CompressionPolicy.defaults());
+
+        // ZipInputStream verifies the sizes and CRC of every entry while reading it
+        Map<String, byte[]> actual = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                actual.put(entry.getName(), zis.readAllBytes());
+            }
+        }
+        byte[] expectedLarge = new byte[storedLarge.length];
+        System.arraycopy(storedLarge, 0, expectedLarge, 0, 1000);
+        assertArrayEquals(expectedLarge, actual.get("large.bin"));
+        assertArrayEquals(storedGrown, actual.get("grown.bin"));
+        assertEquals("first", new String(actual.get("clip.mp4")));
+        assertArrayEquals(text, actual.get("notes.txt"));
+    }
+
+    @Test
+    void testCombineCrcMatchesCrcOfConcatenation() {
+        byte[] first = randomBytes(1000, 1);
+        byte[] second = randomBytes(3000, 2);
+
+        CRC32 whole = new CRC32();
+        whole.update(first);
+        whole.update(second);
+
+        assertEquals(whole.getValue(),
+                ParallelZipCompressionService.combineCrc(crc(first), crc(second), second.length));
+        assertEquals(crc(first), ParallelZipCompressionService.combineCrc(crc(first), 0, 0));
+    }
+
+    private Map<String, byte[]> createTree(Path sourceDir) throws IOException {
+        Files.createDirectories(sourceDir.resolve("subdir"));
+        Map<String, byte[]> files = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            files.put("file" + i + ".txt", ("Content of file " + i).repeat(i + 1).getBytes());
+        }
+        files.put("empty.txt", new byte[0]);
+        // Spans several blocks, mixing compressible text and random data
+        ByteArrayOutputStream large = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            large.write("compressible line of text\n".repeat(20_000).getBytes());
+            large.write(randomBytes(300_000, i));
+        }
+        files.put("subdir/large.bin", large.toByteArray());
+        files.put("subdir/exact-block.bin", randomBytes(ParallelZipCompressionService.BLOCK_SIZE * 2, 7));
+
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            Files.write(sourceDir.resolve(file.getKey()), file.getValue());
+        }
+        return files;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+}
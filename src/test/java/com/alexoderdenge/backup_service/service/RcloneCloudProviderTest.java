@@ -0,0 +1,63 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.BandwidthSchedule;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class RcloneCloudProviderTest {
+
+    @Test
+    void testUploadStartsAtItsShareWithPrivateRemoteControl() throws Exception {
+        BandwidthScheduler scheduler = new BandwidthScheduler(schedule("4MB"), Clock.systemUTC(), Duration.ZERO);
+        RcloneCloudProvider provider = provider(scheduler);
+        List<String> first = new ArrayList<>(List.of("rclone", "sync"));
+        List<String> second = new ArrayList<>(List.of("rclone", "rcat"));
+        Map<String, String> environment = new HashMap<>();
+
+        BandwidthScheduler.Allocation a = provider.shareBandwidth(first, new HashMap<>(), "gdrive:a");
+        BandwidthScheduler.Allocation b = provider.shareBandwidth(second, environment, "gdrive:b");
+
+        assertEquals("4096K:off", first.get(first.indexOf("--bwlimit") + 1));
+        assertEquals("2048K:off", second.get(second.indexOf("--bwlimit") + 1), "Started at its share of the limit");
+        assertTrue(second.contains("--rc"));
+        String address = second.get(second.indexOf("--rc-addr") + 1);
+        assertTrue(address.matches("127\\.0\\.0\\.1:\\d+"), address);
+        assertEquals("backup-service", environment.get("RCLONE_RC_USER"));
+        String password = environment.get("RCLONE_RC_PASS");
+        assertFalse(password == null || password.isEmpty());
+        assertFalse(second.contains(password), "Credentials stay out of the process list");
+        a.close();
+        b.close();
+    }
+
+    @Test
+    void testNoRemoteControlWithoutBandwidthLimit() throws Exception {
+        BandwidthScheduler scheduler = new BandwidthScheduler(schedule("off"), Clock.systemUTC(), Duration.ZERO);
+        List<String> command = new ArrayList<>(List.of("rclone", "sync"));
+        Map<String, String> environment = new HashMap<>();
+
+        assertNull(provider(scheduler).shareBandwidth(command, environment, "gdrive:a"));
+
+        assertEquals(List.of("rclone", "sync"), command);
+        assertTrue(environment.isEmpty());
+    }
+
+    private static RcloneCloudProvider provider(BandwidthScheduler scheduler) {
+        return new RcloneCloudProvider(mock(RcloneValidator.class), mock(TransferProgressTracker.class), scheduler);
+    }
+
+    private static BandwidthSchedule schedule(String limit) {
+        BandwidthSchedule schedule = new BandwidthSchedule();
+        schedule.setDefaultLimit(limit);
+        return schedule;
+    }
+}
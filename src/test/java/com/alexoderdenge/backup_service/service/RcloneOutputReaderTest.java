@@ -0,0 +1,68 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.TransferProgress;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RcloneOutputReaderTest {
+
+    private static final String DESTINATION = "gdrive:backup-service/documents";
+
+    private final TransferProgressTracker progressTracker =
+            new TransferProgressTracker(Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+    @AfterEach
+    void tearDown() {
+        progressTracker.shutdown();
+    }
+
+    @Test
+    void testStatsLinesUpdateProgress() throws InterruptedException {
+        String output = String.join("\n",
+                "{\"level\":\"info\",\"msg\":\"Copied (new)\",\"object\":\"file1.txt\",\"source\":\"operations/copy.go:1\"}",
+                "not json at all",
+                "{\"level\":\"info\",\"msg\":\"stats\",\"stats\":{\"bytes\":1048576,\"totalBytes\":4194304,"
+                        + "\"speed\":524288.5,\"eta\":6,\"transfers\":1,\"totalTransfers\":4,\"errors\":0}}",
+                "{\"level\":\"info\",\"msg\":\"stats\",\"stats\":{\"bytes\":2097152,\"totalBytes\":4194304,"
+                        + "\"speed\":1048576,\"eta\":null,\"transfers\":2,\"totalTransfers\":4,\"errors\":1,"
+                        + "\"lastError\":\"permission denied\"}}",
+                "");
+
+        progressTracker.started(DESTINATION);
+        Thread reader = RcloneOutputReader.start(
+                new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)), DESTINATION, progressTracker);
+        reader.join(5_000);
+
+        List<TransferProgress> active = progressTracker.getActiveTransfers();
+        assertEquals(1, active.size());
+        TransferProgress progress = active.get(0);
+        assertEquals(DESTINATION, progress.getDestination());
+        assertEquals(TransferProgress.State.RUNNING, progress.getState());
+        assertEquals(2_097_152, progress.getBytes());
+        assertEquals(4_194_304, progress.getTotalBytes());
+        assertEquals(1_048_576, progress.getBytesPerSecond());
+        assertNull(progress.getEtaSeconds());
+        assertEquals(2, progress.getTransfers());
+        assertEquals(1, progress.getErrors());
+        assertEquals("permission denied", progress.getLastError());
+        assertNotNull(progress.getStartedAt());
+    }
+
+    @Test
+    void testFinishedTransferIsNoLongerActive() {
+        progressTracker.started(DESTINATION);
+        new RcloneOutputReader(new ByteArrayInputStream(new byte[0]), DESTINATION, progressTracker)
+                .handleLine("{\"level\":\"info\",\"stats\":{\"bytes\":10,\"totalBytes\":10,\"eta\":0}}");
+
+        progressTracker.finished(DESTINATION, true);
+
+        assertTrue(progressTracker.getActiveTransfers().isEmpty());
+    }
+}
@@ -0,0 +1,322 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.TransferProgress;
+import com.alexoderdenge.backup_service.service.exception.CompressionException;
+import com.alexoderdenge.backup_service.service.exception.RcloneException;
+import com.alexoderdenge.backup_service.service.exception.RemoteNotConfiguredException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Exercises the provider against a local stub of the rclone remote control API.
+ */
+class RcloneRcCloudProviderTest {
+
+    private static final TypeReference<Map<String, Object>> REQUEST_BODY = new TypeReference<>() { };
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<String> calls = new CopyOnWriteArrayList<>();
+    private final Map<String, Map<String, Object>> requests = new ConcurrentHashMap<>();
+    private final AtomicInteger statusPolls = new AtomicInteger();
+    private final Map<String, String> uploads = new ConcurrentHashMap<>();
+    private final CountDownLatch uploadAttempted = new CountDownLatch(1);
+
+    private HttpServer server;
+    private RcloneRcCloudProvider provider;
+    private volatile boolean jobSucceeds = true;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String operation = exchange.getRequestURI().getPath().substring(1);
+            if ("operations/uploadfile".equals(operation)) {
+                receiveUpload(exchange);
+                return;
+            }
+            Map<String, Object> body = objectMapper.readValue(exchange.getRequestBody().readAllBytes(), REQUEST_BODY);
+            calls.add(operation);
+            requests.put(operation, body);
+
+            if (!"Basic dXNlcjpwYXNz".equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                respond(exchange, 401, Map.of("error", "unauthorized"));
+                return;
+            }
+
+            switch (operation) {
+                case "rc/noop" -> respond(exchange, 200, Map.of());
+                case "config/listremotes" -> respond(exchange, 200, Map.of("remotes", List.of("gdrive", "dropbox")));
+                case "operations/copyfile", "sync/sync", "sync/copy", "operations/delete" -> respond(exchange, 200, Map.of("jobid", 42));
+                case "operations/hashsum" -> respond(exchange, 200, Map.of("hashType", "md5", "hashsum", List.of(
+                        "9f9f90dbe3e5ee1218c86b8839db1995  docs/a.txt",
+                        "                                  docs/no-checksum.txt")));
+                case "core/stats" -> respond(exchange, 200, Map.of(
+                        "bytes", 1024 * statusPolls.get(), "totalBytes", 3072, "speed", 512.0,
+                        "transfers", 0, "totalTransfers", 1, "errors", 0));
+                case "job/status" -> {
+                    boolean finished = statusPolls.incrementAndGet() >= 3;
+                    respond(exchange, 200, Map.of(
+                            "finished", finished,
+                            "success", finished && jobSucceeds,
+                            "error", finished && !jobSucceeds ? "directory not found" : ""));
+                }
+                default -> respond(exchange, 404, Map.of("error", "unknown operation " + operation));
+            }
+        });
+        server.start();
+
+        provider = new RcloneRcCloudProvider("http://127.0.0.1:" + server.getAddress().getPort(),
+                "user", "pass", "", Duration.ofMillis(10), Duration.ofSeconds(5));
+        provider.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        provider.close();
+        server.stop(0);
+    }
+
+    @Test
+    void testBackupFileUsesCopyFileAndPollsJob() {
+        provider.backup(UploadRequest.file("/tmp/backup-compression-1/photos.zip", "gdrive:backup-service/photos.zip"));
+
+        Map<String, Object> request = requests.get("operations/copyfile");
+        assertEquals("/tmp/backup-compression-1", request.get("srcFs"));
+        assertEquals("photos.zip", request.get("srcRemote"));
+        assertEquals("gdrive:", request.get("dstFs"));
+        assertEquals("backup-service/photos.zip", request.get("dstRemote"));
+        assertEquals(true, request.get("_async"));
+        assertEquals(42, requests.get("job/status").get("jobid"));
+        assertEquals(3, statusPolls.get());
+    }
+
+    @Test
+    void testBackupDirectoryUsesSync() {
+        provider.backup(UploadRequest.directory("/home/user/documents", "dropbox:backup-service/documents/"));
+
+        Map<String, Object> request = requests.get("sync/sync");
+        assertEquals("/home/user/documents", request.get("srcFs"));
+        assertEquals("dropbox:backup-service/documents/", request.get("dstFs"));
+    }
+
+    @Test
+    void testBackupDirectoryWithFileListSyncsOnlyListedFiles() {
+        provider.backup(UploadRequest.directory("/home/user/documents", "dropbox:backup-service/documents/")
+                .withFilesFrom(Path.of("/tmp/backup-manifest-1/files-from.txt")));
+
+        Map<String, Object> request = requests.get("sync/sync");
+        assertEquals("/home/user/documents", request.get("srcFs"));
+        assertEquals(Map.of("FilesFromRaw", List.of("/tmp/backup-manifest-1/files-from.txt"), "DeleteExcluded", true),
+                request.get("_filter"));
+    }
+
+    @Test
+    void testBackupDirectoryKeepingUnlistedFilesDeletesNothingElse() {
+        provider.backup(UploadRequest.directory("/home/user/documents", "dropbox:backup-service/documents/")
+                .withFilesFrom(Path.of("/tmp/backup-manifest-1/files-from.txt"))
+                .keepingUnlisted());
+
+        assertEquals(Map.of("FilesFromRaw", List.of("/tmp/backup-manifest-1/files-from.txt"), "DeleteExcluded", false),
+                requests.get("sync/sync").get("_filter"));
+    }
+
+    @Test
+    void testCopyAndDeleteFilesOnlyTouchListedFiles() {
+        Path fileList = Path.of("/tmp/backup-watch-1/files.txt");
+        provider.copyFiles("/home/user/documents", "dropbox:backup-service/documents", fileList);
+        provider.deleteFiles("/home/user/documents", "dropbox:backup-service/documents", fileList);
+
+        Map<String, Object> copy = requests.get("sync/copy");
+        assertEquals("/home/user/documents", copy.get("srcFs"));
+        assertEquals(Map.of("FilesFromRaw", List.of(fileList.toString())), copy.get("_filter"));
+        assertEquals(Map.of("NoTraverse", true), copy.get("_config"));
+        Map<String, Object> delete = requests.get("operations/delete");
+        assertEquals("dropbox:backup-service/documents", delete.get("fs"));
+        assertEquals(Map.of("FilesFromRaw", List.of(fileList.toString())), delete.get("_filter"));
+        assertFalse(calls.contains("sync/sync"));
+    }
+
+    @Test
+    void testRemoteMd5SkipsFilesWithoutChecksum() {
+        Map<String, String> checksums = provider.remoteMd5("dropbox:backup-service/documents", Path.of("/tmp/list.txt"));
+
+        assertEquals(Map.of("docs/a.txt", "9f9f90dbe3e5ee1218c86b8839db1995"), checksums);
+        assertEquals("md5", requests.get("operations/hashsum").get("hashType"));
+    }
+
+    @Test
+    void testFailedJobThrowsRcloneException() {
+        jobSucceeds = false;
+
+        RcloneException exception = assertThrows(RcloneException.class, () ->
+                provider.backup(UploadRequest.directory("/home/user/documents", "gdrive:backup-service/documents/")));
+        assertTrue(exception.getMessage().contains("directory not found"));
+    }
+
+    @Test
+    void testUnknownRemoteThrowsRemoteNotConfigured() {
+        assertThrows(RemoteNotConfiguredException.class, () ->
+                provider.backup(UploadRequest.directory("/home/user/documents", "onedrive:backup-service/documents/")));
+        assertFalse(calls.contains("sync/sync"));
+    }
+
+    @Test
+    void testRemoteListIsCachedBetweenOperations() {
+        provider.backup(UploadRequest.directory("/home/user/documents", "dropbox:backup-service/documents/"));
+        provider.backup(UploadRequest.directory("/home/user/photos", "gdrive:backup-service/photos/"));
+
+        assertEquals(1, calls.stream().filter("config/listremotes"::equals).count());
+    }
+
+    @Test
+    void testUnknownRemoteRefreshesCachedList() {
+        provider.backup(UploadRequest.directory("/home/user/documents", "dropbox:backup-service/documents/"));
+        assertThrows(RemoteNotConfiguredException.class, () ->
+                provider.backup(UploadRequest.directory("/home/user/documents", "onedrive:backup-service/documents/")));
+
+        assertEquals(2, calls.stream().filter("config/listremotes"::equals).count());
+    }
+
+    @Test
+    void testListRemotes() {
+        assertEquals(List.of("gdrive", "dropbox"), provider.listRemotes());
+    }
+
+    @Test
+    void testBackupStreamUploadsMultipartFile() throws CompressionException {
+        provider.backupStream(out -> {
+            try {
+                out.write("archive content".getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new CompressionException("Write failed", e);
+            }
+        }, "gdrive:backup-service/photos.zip");
+
+        String body = uploads.get("fs=gdrive:&remote=backup-service");
+        assertNotNull(body, "Uploaded to the destination's directory: " + uploads.keySet());
+        assertTrue(body.contains("filename=\"photos.zip\""));
+        assertTrue(body.contains("\r\n\r\narchive content\r\n--"));
+    }
+
+    @Test
+    void testFailedStreamWriterCommitsNothing() throws InterruptedException {
+        assertThrows(CompressionException.class, () -> provider.backupStream(out -> {
+            try {
+                out.write(new byte[2 * 1024 * 1024]);
+            } catch (IOException e) {
+                throw new CompressionException("Write failed", e);
+            }
+            throw new CompressionException("Source vanished");
+        }, "gdrive:backup-service/photos.zip"));
+
+        assertTrue(uploadAttempted.await(5, TimeUnit.SECONDS));
+        assertTrue(uploads.isEmpty(), "A cut-off body is not a complete upload");
+    }
+
+    @Test
+    void testJobProgressIsPolledFromJobStatsGroup() {
+        TransferProgressTracker tracker = mock(TransferProgressTracker.class);
+        RcloneRcCloudProvider tracked = trackedProvider(tracker);
+
+        tracked.backup(UploadRequest.directory("/home/user/documents", "gdrive:backup-service/documents/"));
+
+        assertEquals(Map.of("group", "job/42"), requests.get("core/stats"));
+        ArgumentCaptor<TransferProgress> progress = ArgumentCaptor.forClass(TransferProgress.class);
+        InOrder inOrder = inOrder(tracker);
+        inOrder.verify(tracker).started("gdrive:backup-service/documents/");
+        inOrder.verify(tracker, times(3)).update(progress.capture());
+        inOrder.verify(tracker).finished("gdrive:backup-service/documents/", true);
+        TransferProgress last = progress.getValue();
+        assertEquals("gdrive:backup-service/documents/", last.getDestination());
+        assertEquals(3072, last.getBytes());
+        assertEquals(3072, last.getTotalBytes());
+        assertEquals(512.0, last.getBytesPerSecond());
+    }
+
+    @Test
+    void testFailedJobIsReportedAsFailed() {
+        TransferProgressTracker tracker = mock(TransferProgressTracker.class);
+        jobSucceeds = false;
+
+        assertThrows(RcloneException.class, () -> trackedProvider(tracker)
+                .backup(UploadRequest.directory("/home/user/documents", "gdrive:backup-service/documents/")));
+
+        verify(tracker).finished("gdrive:backup-service/documents/", false);
+    }
+
+    @Test
+    void testBackupStreamReportsStreamedBytes() throws CompressionException {
+        TransferProgressTracker tracker = mock(TransferProgressTracker.class);
+
+        trackedProvider(tracker).backupStream(out -> {
+            try {
+                out.write(new byte[100]);
+                Thread.sleep(20);
+                out.write(new byte[100]);
+            } catch (IOException | InterruptedException e) {
+                throw new CompressionException("Write failed", e);
+            }
+        }, "gdrive:backup-service/photos.zip");
+
+        ArgumentCaptor<TransferProgress> progress = ArgumentCaptor.forClass(TransferProgress.class);
+        InOrder inOrder = inOrder(tracker);
+        inOrder.verify(tracker).started("gdrive:backup-service/photos.zip");
+        inOrder.verify(tracker, atLeastOnce()).update(progress.capture());
+        inOrder.verify(tracker).finished("gdrive:backup-service/photos.zip", true);
+        assertEquals(200, progress.getValue().getBytes());
+    }
+
+    private RcloneRcCloudProvider trackedProvider(TransferProgressTracker tracker) {
+        RcloneRcCloudProvider tracked = new RcloneRcCloudProvider("http://127.0.0.1:" + server.getAddress().getPort(),
+                "user", "pass", "", Duration.ofMillis(10), Duration.ofSeconds(5), null, tracker);
+        tracked.start();
+        return tracked;
+    }
+
+    /**
+     * Records the body of an upload that arrived completely; a cut-off body fails to read.
+     */
+    private void receiveUpload(HttpExchange exchange) throws IOException {
+        try {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            if (body.endsWith("--\r\n")) {
+                uploads.put(exchange.getRequestURI().getQuery(), body);
+            }
+            respond(exchange, 200, Map.of());
+        } finally {
+            uploadAttempted.countDown();
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, Map<String, Object> body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -5,12 +5,21 @@ import com.alexoderdenge.backup_service.service.exception.RcloneNotInstalledExce
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Set;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class RcloneValidatorTest {
@@ -53,4 +62,67 @@ class RcloneValidatorTest {
             rcloneValidator.extractRemoteName("   ");
         });
     }
+
+    @Test
+    void validateRemoteConfiguration_UsesCachedRegistry(@TempDir Path tempDir) throws IOException {
+        RcloneValidator validator = cachingValidator(tempDir, Duration.ofMinutes(5));
+
+        validator.validateRemoteConfiguration("gdrive");
+        validator.validateRemoteConfiguration("dropbox");
+        validator.validateRemoteConfiguration("gdrive");
+
+        verify(validator, times(1)).listRemotes();
+    }
+
+    @Test
+    void validateRemoteConfiguration_UnknownRemote_ThrowsException(@TempDir Path tempDir) throws IOException {
+        RcloneValidator validator = cachingValidator(tempDir, Duration.ofMinutes(5));
+
+        RemoteNotConfiguredException exception = assertThrows(RemoteNotConfiguredException.class, () ->
+                validator.validateRemoteConfiguration("onedrive"));
+        assertEquals("onedrive", exception.getRemoteName());
+    }
+
+    @Test
+    void validateRemoteConfiguration_ReloadsWhenConfigFileChanges(@TempDir Path tempDir) throws IOException {
+        RcloneValidator validator = cachingValidator(tempDir, Duration.ofMinutes(5));
+        Path configFile = tempDir.resolve("rclone.conf");
+
+        validator.validateRemoteConfiguration("gdrive");
+        Files.setLastModifiedTime(configFile, FileTime.fromMillis(Files.getLastModifiedTime(configFile).toMillis() + 10_000));
+        doReturn(Set.of("gdrive", "dropbox", "onedrive")).when(validator).listRemotes();
+        validator.validateRemoteConfiguration("onedrive");
+
+        verify(validator, times(2)).listRemotes();
+    }
+
+    @Test
+    void validateRemoteConfiguration_ReloadsAfterTtl(@TempDir Path tempDir) throws IOException {
+        RcloneValidator validator = cachingValidator(tempDir, Duration.ZERO);
+
+        validator.validateRemoteConfiguration("gdrive");
+        validator.validateRemoteConfiguration("gdrive");
+
+        verify(validator, times(2)).listRemotes();
+    }
+
+    @Test
+    void invalidateRemoteCache_ForcesReload(@TempDir Path tempDir) throws IOException {
+        RcloneValidator validator = cachingValidator(tempDir, Duration.ofMinutes(5));
+
+        validator.validateRemoteConfiguration("gdrive");
+        validator.invalidateRemoteCache();
+        validator.validateRemoteConfiguration("gdrive");
+
+        verify(validator, times(2)).listRemotes();
+    }
+
+    private RcloneValidator cachingValidator(Path tempDir, Duration ttl) throws IOException {
+        Path configFile = Files.writeString(tempDir.resolve("rclone.conf"), "[gdrive]\ntype = drive\n");
+        RcloneValidator validator = spy(new RcloneValidator());
+        ReflectionTestUtils.setField(validator, "rcloneConfigPath", configFile.toString());
+        ReflectionTestUtils.setField(validator, "remoteCacheTtl", ttl);
+        doReturn(Set.of("gdrive", "dropbox")).when(validator).listRemotes();
+        return validator;
+    }
 }
@@ -0,0 +1,117 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.service.exception.CircuitOpenException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RemoteCircuitBreakerTest {
+
+    private final MutableClock clock = new MutableClock();
+    private final RemoteCircuitBreaker breaker = new RemoteCircuitBreaker(2, Duration.ofMinutes(10), clock);
+
+    @Test
+    void testOpensAfterConsecutiveFailures() {
+        failTransfer("gdrive");
+        breaker.acquire("gdrive"); // One failure is below the threshold
+        breaker.recordFailure("gdrive");
+
+        CircuitOpenException e = assertThrows(CircuitOpenException.class, () -> breaker.acquire("gdrive"));
+        assertEquals("gdrive", e.getRemoteName());
+        assertEquals(clock.instant().plus(Duration.ofMinutes(10)), e.getRetryAt());
+
+        breaker.acquire("dropbox"); // Other remotes are not affected
+    }
+
+    @Test
+    void testSuccessResetsTheFailureCount() {
+        failTransfer("gdrive");
+        breaker.acquire("gdrive");
+        breaker.recordSuccess("gdrive");
+        failTransfer("gdrive");
+
+        breaker.acquire("gdrive");
+    }
+
+    @Test
+    void testLetsOneProbeThroughAfterTheOpenDuration() {
+        failTransfer("gdrive");
+        failTransfer("gdrive");
+        clock.advance(Duration.ofMinutes(10));
+
+        breaker.acquire("gdrive");
+        assertThrows(CircuitOpenException.class, () -> breaker.acquire("gdrive")); // Probe still running
+
+        breaker.recordSuccess("gdrive");
+        breaker.acquire("gdrive");
+    }
+
+    @Test
+    void testFailedProbeOpensTheCircuitAgain() {
+        failTransfer("gdrive");
+        failTransfer("gdrive");
+        clock.advance(Duration.ofMinutes(10));
+
+        failTransfer("gdrive");
+
+        assertThrows(CircuitOpenException.class, () -> breaker.acquire("gdrive"));
+        clock.advance(Duration.ofMinutes(10));
+        breaker.acquire("gdrive");
+    }
+
+    @Test
+    void testIgnoredProbeLetsTheNextTransferProbe() {
+        failTransfer("gdrive");
+        failTransfer("gdrive");
+        clock.advance(Duration.ofMinutes(10));
+
+        breaker.acquire("gdrive");
+        breaker.recordIgnored("gdrive");
+
+        breaker.acquire("gdrive");
+    }
+
+    @Test
+    void testThresholdZeroDisablesTheBreaker() {
+        RemoteCircuitBreaker disabled = new RemoteCircuitBreaker(0, Duration.ofMinutes(10), clock);
+        for (int i = 0; i < 5; i++) {
+            disabled.acquire("gdrive");
+            disabled.recordFailure("gdrive");
+        }
+        disabled.acquire("gdrive");
+    }
+
+    private void failTransfer(String remote) {
+        breaker.acquire(remote);
+        breaker.recordFailure(remote);
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2024-06-03T09:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.alexoderdenge.backup_service.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.random.RandomGenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(5, Duration.ofSeconds(1), Duration.ofSeconds(5));
+
+    @Test
+    void testUpperBoundDoublesUntilTheMaximum() {
+        RandomGenerator max = new RandomGenerator() {
+            @Override
+            public long nextLong() {
+                return 0;
+            }
+
+            @Override
+            public long nextLong(long bound) {
+                return bound - 1;
+            }
+        };
+
+        assertEquals(1000, policy.delayMillis(1, max));
+        assertEquals(2000, policy.delayMillis(2, max));
+        assertEquals(4000, policy.delayMillis(3, max));
+        assertEquals(5000, policy.delayMillis(4, max));
+        assertEquals(5000, policy.delayMillis(30, max));
+    }
+
+    @Test
+    void testDelaysAreSpreadBetweenZeroAndTheBound() {
+        Random random = new Random(42);
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.delayMillis(2, random);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+
+        assertTrue(min >= 0 && min < 200, "min " + min);
+        assertTrue(max <= 2000 && max > 1800, "max " + max);
+    }
+}
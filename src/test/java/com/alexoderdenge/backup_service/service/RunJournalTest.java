@@ -0,0 +1,125 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.BackupEntryResult;
+import com.alexoderdenge.backup_service.model.BackupJob;
+import com.alexoderdenge.backup_service.model.RunHistory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunJournalTest {
+
+    private static final Instant T0 = Instant.parse("2024-06-03T00:00:00Z");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRecordsAreQueryableWithAggregates() throws Exception {
+        RunJournal journal = new RunJournal(tempDir, 16, 100, 4);
+        BackupJob job = new BackupJob("run-1", "api", false);
+        for (int i = 1; i <= 20; i++) {
+            journal.record(job, result("/data/a", BackupEntryResult.Status.SUCCEEDED, T0.plusSeconds(i), i * 100L));
+        }
+        journal.record(job, result("/data/a", BackupEntryResult.Status.SKIPPED, T0.plusSeconds(30), 0));
+        journal.record(job, result("/data/b", BackupEntryResult.Status.FAILED, T0.plusSeconds(31), 50));
+        assertTrue(journal.flush(Duration.ofSeconds(5)));
+
+        RunHistory history = journal.query("/data/a", null, null, 5);
+
+        RunHistory.Summary summary = history.getSummary();
+        assertEquals(21, summary.getRuns());
+        assertEquals(20, summary.getSucceeded());
+        assertEquals(1, summary.getSkipped());
+        assertEquals(1000L, summary.getP50DurationMillis());
+        assertEquals(1900L, summary.getP95DurationMillis());
+        assertEquals(2000L, summary.getMaxDurationMillis());
+        assertEquals(21 * 4096, summary.getSourceBytes());
+        assertEquals(5, history.getRecords().size());
+        assertEquals(BackupEntryResult.Status.SKIPPED, history.getRecords().get(0).getResult().getStatus());
+        assertEquals("run-1", history.getRecords().get(0).getRunId());
+        assertEquals(Long.valueOf(7), history.getRecords().get(1).getResult().getStageMillis().get("upload"));
+        journal.shutdown();
+    }
+
+    @Test
+    void testTimeRangeUsesTheIndexAfterReopening() throws Exception {
+        RunJournal journal = new RunJournal(tempDir, 3, 100, 4);
+        BackupJob job = new BackupJob("run-1", "schedule", false);
+        for (int i = 0; i < 50; i++) {
+            journal.record(job, result("/data/a", BackupEntryResult.Status.SUCCEEDED, T0.plusSeconds(i * 60L), 10));
+        }
+        assertTrue(journal.flush(Duration.ofSeconds(5)));
+        journal.shutdown();
+
+        RunJournal reopened = new RunJournal(tempDir, 3, 100, 4);
+        RunHistory history = reopened.query(null, T0.plusSeconds(10 * 60), T0.plusSeconds(19 * 60), 100);
+
+        assertEquals(10, history.getSummary().getRuns());
+        assertEquals(T0.plusSeconds(19 * 60), history.getRecords().get(0).getResult().getFinishedAt());
+        assertEquals(T0.plusSeconds(10 * 60), history.getRecords().get(9).getResult().getFinishedAt());
+        assertEquals(0, reopened.query(null, T0.plusSeconds(3600), null, 100).getSummary().getRuns());
+        reopened.shutdown();
+    }
+
+    @Test
+    void testUnfinishedLineFromACrashIsCutOff() throws Exception {
+        RunJournal journal = new RunJournal(tempDir, 16, 100, 4);
+        BackupJob job = new BackupJob("run-1", "api", false);
+        journal.record(job, result("/data/a", BackupEntryResult.Status.SUCCEEDED, T0, 10));
+        assertTrue(journal.flush(Duration.ofSeconds(5)));
+        journal.shutdown();
+        Path file = tempDir.resolve(RunJournal.FILE_NAME);
+        long intact = Files.size(file);
+        Files.writeString(file, "{\"runId\":\"run-2\",\"res", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        RunJournal reopened = new RunJournal(tempDir, 16, 100, 4);
+        assertEquals(intact, Files.size(file));
+
+        reopened.record(new BackupJob("run-3", "api", false),
+                result("/data/a", BackupEntryResult.Status.SUCCEEDED, T0.plusSeconds(1), 10));
+        assertTrue(reopened.flush(Duration.ofSeconds(5)));
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(2, lines.size());
+        assertEquals(2, reopened.query(null, null, null, 10).getSummary().getRuns());
+        reopened.shutdown();
+    }
+
+    @Test
+    void testQueryOnEmptyJournal() throws IOException {
+        RunJournal journal = new RunJournal(tempDir.resolve("missing"), 16, 100, 4);
+
+        RunHistory history = journal.query(null, T0, null, 10);
+
+        assertEquals(0, history.getSummary().getRuns());
+        assertNull(history.getSummary().getP50DurationMillis());
+        assertTrue(history.getRecords().isEmpty());
+        journal.shutdown();
+    }
+
+    private static BackupEntryResult result(String localPath, BackupEntryResult.Status status, Instant finishedAt,
+                                            long durationMillis) {
+        BackupEntryResult result = new BackupEntryResult();
+        result.setLocalPath(localPath);
+        result.setCloudPath("gdrive:backup-service" + localPath);
+        result.setStatus(status);
+        result.setStartedAt(finishedAt.minusMillis(durationMillis));
+        result.setFinishedAt(finishedAt);
+        result.setDurationMillis(durationMillis);
+        if (status != BackupEntryResult.Status.FAILED) {
+            result.setSourceBytes(4096L);
+            result.addStageTime("upload", 7);
+        }
+        return result;
+    }
+}
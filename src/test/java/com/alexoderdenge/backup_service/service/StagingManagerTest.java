@@ -0,0 +1,116 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.service.exception.InsufficientStagingSpaceException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StagingManagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testAllocateCreatesDirectoryWithOwnerMarker() throws IOException {
+        StagingManager manager = new StagingManager(tempDir.toString(), "0B", 1.0, Duration.ofHours(1));
+
+        StagingManager.StagingArea area = manager.allocate("backup-compression-", 1024);
+
+        assertTrue(Files.isDirectory(area.directory()));
+        assertEquals(tempDir, area.directory().getParent());
+        Path marker = area.directory().resolveSibling(area.directory().getFileName() + StagingManager.OWNER_SUFFIX);
+        assertTrue(Files.readString(marker).startsWith(ProcessHandle.current().pid() + " "));
+
+        assertTrue(manager.release(area));
+        assertFalse(Files.exists(area.directory()));
+        assertFalse(Files.exists(marker));
+    }
+
+    @Test
+    void testSmallEntriesUseLimitedRootAndLargeEntriesTheNext() throws IOException {
+        Path fast = tempDir.resolve("fast");
+        Path large = tempDir.resolve("large");
+        StagingManager manager = new StagingManager(fast + "=1MB, " + large, "0B", 1.0, Duration.ofHours(1));
+
+        assertEquals(fast, manager.allocate("backup-compression-", 1024).directory().getParent());
+        assertEquals(large, manager.allocate("backup-compression-", 2 * 1024 * 1024).directory().getParent());
+    }
+
+    @Test
+    void testFailsWhenNoRootHasRoom() {
+        long usable = tempDir.toFile().getUsableSpace();
+        StagingManager manager = new StagingManager(tempDir.toString(), "0B", 1.0, Duration.ofHours(1));
+
+        InsufficientStagingSpaceException e = assertThrows(InsufficientStagingSpaceException.class,
+                () -> manager.allocate("backup-compression-", usable + 1024L * 1024 * 1024));
+        assertTrue(e.getMessage().contains(tempDir.toString()));
+    }
+
+    @Test
+    void testReservationsCountAgainstFreeSpace() throws IOException {
+        long half = tempDir.toFile().getUsableSpace() / 2 + 1024L * 1024;
+        StagingManager manager = new StagingManager(tempDir.toString(), "0B", 1.0, Duration.ofHours(1));
+
+        StagingManager.StagingArea first = manager.allocate("backup-compression-", half);
+        assertThrows(InsufficientStagingSpaceException.class, () -> manager.allocate("backup-compression-", half));
+
+        manager.release(first);
+        assertDoesNotThrow(() -> manager.release(manager.allocate("backup-compression-", half)));
+    }
+
+    @Test
+    void testWrittenBytesAreNotCountedTwice() throws IOException {
+        long mib = 1024L * 1024;
+        long keepFree = tempDir.toFile().getUsableSpace() - 16 * mib;
+        StagingManager manager = new StagingManager(tempDir.toString(), keepFree + "B", 1.0, Duration.ofHours(1));
+
+        StagingManager.StagingArea first = manager.allocate("backup-compression-", 12 * mib);
+        assertThrows(InsufficientStagingSpaceException.class, () -> manager.allocate("backup-compression-", 8 * mib));
+
+        // Once written, the archive shrinks the usable space instead of its reservation
+        Files.write(first.directory().resolve("archive.zip"), new byte[(int) (12 * mib)]);
+        assertDoesNotThrow(() -> manager.release(manager.allocate("backup-compression-", 2 * mib)));
+        manager.release(first);
+    }
+
+    @Test
+    void testReaperRemovesDirectoriesOfDeadOwnersOnly() throws IOException {
+        StagingManager manager = new StagingManager(tempDir.toString(), "0B", 1.0, Duration.ofHours(1));
+        StagingManager.StagingArea live = manager.allocate("backup-compression-", 0);
+
+        Path dead = Files.createDirectories(tempDir.resolve("backup-compression-dead"));
+        Files.writeString(dead.resolve("archive.zip"), "partial");
+        Files.writeString(tempDir.resolve("backup-compression-dead" + StagingManager.OWNER_SUFFIX), Long.MAX_VALUE + " 0");
+
+        Path legacy = Files.createDirectories(tempDir.resolve("backup-compression-legacy"));
+        Files.setLastModifiedTime(legacy, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+        Path recentLegacy = Files.createDirectories(tempDir.resolve("backup-dedup-recent"));
+        Path unrelated = Files.createDirectories(tempDir.resolve("something-else"));
+        Files.setLastModifiedTime(unrelated, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+
+        assertEquals(2, manager.reapOrphans());
+
+        assertTrue(Files.exists(live.directory()));
+        assertFalse(Files.exists(dead));
+        assertFalse(Files.exists(tempDir.resolve("backup-compression-dead" + StagingManager.OWNER_SUFFIX)));
+        assertFalse(Files.exists(legacy));
+        assertTrue(Files.exists(recentLegacy));
+        assertTrue(Files.exists(unrelated));
+    }
+
+    @Test
+    void testEstimateArchiveSize() {
+        StagingManager manager = new StagingManager("", "1GB", 0.5, Duration.ofHours(1));
+
+        assertEquals(50, manager.estimateArchiveSize(100));
+        assertEquals(0, manager.estimateArchiveSize(0));
+    }
+}
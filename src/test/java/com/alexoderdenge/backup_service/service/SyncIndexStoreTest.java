@@ -0,0 +1,141 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.util.SourceManifest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyncIndexStoreTest {
+
+    private static final Instant FULL_SYNC = Instant.parse("2024-06-01T00:00:00Z");
+
+    @TempDir
+    Path tempDir;
+
+    private Path source;
+    private Path work;
+    private SyncIndexStore store;
+    private BackupConfig.BackupEntry entry;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        source = Files.createDirectories(tempDir.resolve("source"));
+        work = Files.createDirectories(tempDir.resolve("work"));
+        store = new SyncIndexStore(tempDir.resolve("state").toString());
+        entry = new BackupConfig.BackupEntry();
+        entry.setLocalPath(source.toString());
+        entry.setCloudPath("remote:/docs");
+    }
+
+    @Test
+    void testDeltaContainsAddedChangedAndDeletedFiles() throws IOException {
+        write("a.txt", "a");
+        write("b.txt", "b");
+        write("sub/c.txt", "c");
+        write("z.txt", "z");
+        commitFullSync();
+
+        write("b.txt", "changed");
+        Files.delete(source.resolve("sub/c.txt"));
+        Files.delete(source.resolve("z.txt"));
+        write("new/d.txt", "d");
+
+        SyncIndexStore.Delta delta = diff();
+
+        assertEquals(List.of("b.txt", Path.of("new", "d.txt").toString()), Files.readAllLines(delta.copyList()));
+        assertEquals(2, delta.copies());
+        assertEquals("changed\n".length() + "d\n".length(), delta.copyBytes());
+        assertEquals(List.of(Path.of("sub", "c.txt").toString(), "z.txt"), Files.readAllLines(delta.deleteList()));
+        assertEquals(2, delta.deletions());
+
+        store.commit(entry, delta.index());
+        assertTrue(diff().isEmpty());
+        assertEquals(FULL_SYNC, store.lastFullSync(entry).orElseThrow()); // Kept until the next full sync
+    }
+
+    @Test
+    void testTouchedFileIsCopiedAgain() throws IOException {
+        write("a.txt", "a");
+        commitFullSync();
+
+        Files.setLastModifiedTime(source.resolve("a.txt"), FileTime.from(FULL_SYNC));
+
+        assertEquals(List.of("a.txt"), Files.readAllLines(diff().copyList()));
+    }
+
+    @Test
+    void testTouchedFileWithSameContentIsSkippedWhenComparingHashes() throws IOException {
+        SyncIndexStore.ContentHash contentHash = file -> Files.readString(file).trim();
+        write("same.txt", "same");
+        write("edited.txt", "old");
+        try (SourceManifest manifest = SourceManifest.scan(source, () -> work, 1000)) {
+            store.commit(entry, store.writeIndex(manifest, work, FULL_SYNC, contentHash));
+        }
+
+        Files.setLastModifiedTime(source.resolve("same.txt"), FileTime.from(FULL_SYNC));
+        write("edited.txt", "new");
+        Files.setLastModifiedTime(source.resolve("edited.txt"), FileTime.from(FULL_SYNC));
+
+        try (SourceManifest manifest = SourceManifest.scan(source, () -> work, 1000)) {
+            SyncIndexStore.Delta delta = store.diff(entry, manifest, work, contentHash);
+            assertEquals(List.of("edited.txt"), Files.readAllLines(delta.copyList()));
+        }
+    }
+
+    @Test
+    void testUnlistableNamesHaveNoDelta() throws IOException {
+        write("a.txt", "a");
+        commitFullSync();
+        write("tab\tname.txt", "x");
+
+        assertNull(diff());
+        try (SourceManifest manifest = SourceManifest.scan(source, () -> work, 1000)) {
+            assertNull(store.writeIndex(manifest, work, FULL_SYNC, null));
+        }
+    }
+
+    @Test
+    void testMissingOrCorruptIndexMeansFullSync() throws IOException {
+        assertTrue(store.lastFullSync(entry).isEmpty());
+
+        write("a.txt", "a");
+        commitFullSync();
+        assertEquals(FULL_SYNC, store.lastFullSync(entry).orElseThrow());
+
+        try (var files = Files.list(tempDir.resolve("state").resolve("sync-index"))) {
+            Files.writeString(files.findFirst().orElseThrow(), "not gzip");
+        }
+        assertTrue(store.lastFullSync(entry).isEmpty());
+
+        store.discard(entry);
+        assertTrue(store.lastFullSync(entry).isEmpty());
+    }
+
+    private void commitFullSync() throws IOException {
+        try (SourceManifest manifest = SourceManifest.scan(source, () -> work, 1000)) {
+            store.commit(entry, store.writeIndex(manifest, work, FULL_SYNC, null));
+        }
+    }
+
+    private SyncIndexStore.Delta diff() throws IOException {
+        try (SourceManifest manifest = SourceManifest.scan(source, () -> work, 1000)) {
+            return store.diff(entry, manifest, work, null);
+        }
+    }
+
+    private void write(String relativePath, String content) throws IOException {
+        Path file = source.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content + "\n");
+    }
+}
@@ -0,0 +1,228 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.ArchiveFormat;
+import com.alexoderdenge.backup_service.model.CompressionPolicy;
+import com.alexoderdenge.backup_service.service.exception.CompressionException;
+import com.alexoderdenge.backup_service.util.TarArchiveWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TarGzCompressionServiceTest {
+
+    private final TarGzCompressionService compressionService = new TarGzCompressionService(2);
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void tearDown() {
+        compressionService.close();
+    }
+
+    @Test
+    void testCompressDirectoryKeepsTreeAndPermissions() throws IOException, CompressionException {
+        Path sourceDir = tempDir.resolve("source");
+        Files.createDirectories(sourceDir.resolve("bin"));
+        Files.writeString(sourceDir.resolve("notes.txt"), "Content of file 1");
+        Path script = sourceDir.resolve("bin/run.sh");
+        Files.writeString(script, "#!/bin/sh\necho hi\n");
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-x---"));
+        Files.createSymbolicLink(sourceDir.resolve("link"), Path.of("notes.txt"));
+
+        Path archive = compressionService.compress(sourceDir, tempDir.resolve("output"), new CompressionPolicy());
+
+        assertEquals("source.tar.gz", archive.getFileName().toString());
+        Map<String, TarEntry> entries = readTarGz(Files.readAllBytes(archive));
+        assertEquals("Content of file 1", entries.get("notes.txt").content());
+        assertEquals('5', entries.get("bin/").type());
+        assertEquals("#!/bin/sh\necho hi\n", entries.get("bin/run.sh").content());
+        assertEquals(0750, entries.get("bin/run.sh").mode());
+        assertEquals('2', entries.get("link").type());
+        assertEquals("notes.txt", entries.get("link").linkName());
+    }
+
+    @Test
+    void testLongNamesUsePaxHeaders() throws IOException, CompressionException {
+        Path sourceDir = tempDir.resolve("source");
+        String longDir = "d".repeat(90) + "/" + "e".repeat(60);
+        Files.createDirectories(sourceDir.resolve(longDir));
+        Files.writeString(sourceDir.resolve(longDir + "/notes.txt"), "long");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressionService.compressToStream(sourceDir, out, new CompressionPolicy());
+
+        Map<String, TarEntry> entries = readTarGz(out.toByteArray());
+        assertEquals("long", entries.get(longDir + "/notes.txt").content());
+        assertTrue(entries.containsKey(longDir + "/"));
+    }
+
+    @Test
+    void testCompressToStreamLeavesStreamOpen() throws IOException, CompressionException {
+        Path file = tempDir.resolve("single.txt");
+        Files.writeString(file, "x".repeat(3 * 1024 * 1024));
+        CloseTrackingStream out = new CloseTrackingStream();
+
+        compressionService.compressToStream(file, out, new CompressionPolicy());
+
+        assertFalse(out.closed);
+        Map<String, TarEntry> entries = readTarGz(out.toByteArray());
+        assertEquals(3 * 1024 * 1024, entries.get("single.txt").content().length());
+        assertTrue(out.size() < 64 * 1024);
+    }
+
+    @Test
+    void testFileChangedAfterScanKeepsAnnouncedSize() throws IOException {
+        Path grown = tempDir.resolve("grown.log");
+        Files.writeString(grown, "first");
+        BasicFileAttributes grownAttrs = Files.readAttributes(grown, BasicFileAttributes.class);
+        Files.writeString(grown, "first and more");
+        Path shrunk = tempDir.resolve("shrunk.log");
+        Files.writeString(shrunk, "complete");
+        BasicFileAttributes shrunkAttrs = Files.readAttributes(shrunk, BasicFileAttributes.class);
+        Files.writeString(shrunk, "comp");
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(archive)) {
+            TarArchiveWriter tar = new TarArchiveWriter(gzip);
+            compressionService.writeEntry(tar, grown, "grown.log", grownAttrs);
+            compressionService.writeEntry(tar, shrunk, "shrunk.log", shrunkAttrs);
+            tar.finish();
+        }
+
+        Map<String, TarEntry> entries = readTarGz(archive.toByteArray());
+        assertEquals("first", entries.get("grown.log").content());
+        assertEquals("comp\0\0\0\0", entries.get("shrunk.log").content());
+    }
+
+    @Test
+    void testMissingSourceFails() {
+        assertThrows(CompressionException.class, () ->
+                compressionService.compress(tempDir.resolve("missing"), tempDir, new CompressionPolicy()));
+    }
+
+    @Test
+    void testArchiveServiceRoutesByFormat() throws IOException, CompressionException {
+        ArchiveCompressionService archiveService =
+                new ArchiveCompressionService(new ZipCompressionService(), compressionService);
+        Path file = tempDir.resolve("data.txt");
+        Files.writeString(file, "data");
+
+        Path tarGz = archiveService.compress(file, tempDir.resolve("out"), ArchiveFormat.TAR_GZ, new CompressionPolicy());
+        Path zip = archiveService.compress(file, tempDir.resolve("out"), ArchiveFormat.ZIP, new CompressionPolicy());
+
+        assertEquals("data.txt.tar.gz", tarGz.getFileName().toString());
+        assertEquals("data.txt.zip", zip.getFileName().toString());
+        assertEquals("data", readTarGz(Files.readAllBytes(tarGz)).get("data.txt").content());
+    }
+
+    @Test
+    void testCloudPathValidationUsesFormatExtension() {
+        ArchiveCompressionService archiveService =
+                new ArchiveCompressionService(new ZipCompressionService(), compressionService);
+
+        assertDoesNotThrow(() -> archiveService.validateCloudPathForCompression("remote:backups/docs.tar.gz", true, ArchiveFormat.TAR_GZ));
+        assertThrows(IllegalArgumentException.class, () ->
+                archiveService.validateCloudPathForCompression("remote:backups/docs.zip", true, ArchiveFormat.TAR_GZ));
+        assertThrows(IllegalArgumentException.class, () ->
+                archiveService.validateCloudPathForCompression("remote:backups/docs.tar.gz", true, ArchiveFormat.ZIP));
+        assertDoesNotThrow(() -> archiveService.validateCloudPathForCompression("remote:backups/docs", false, ArchiveFormat.TAR_GZ));
+    }
+
+    @Test
+    void testFormatParsesConfigValues() {
+        assertEquals(ArchiveFormat.TAR_GZ, ArchiveFormat.fromId("tar.gz"));
+        assertEquals(ArchiveFormat.TAR_GZ, ArchiveFormat.fromId("TGZ"));
+        assertEquals(ArchiveFormat.ZIP, ArchiveFormat.fromId("zip"));
+        assertThrows(IllegalArgumentException.class, () -> ArchiveFormat.fromId("rar"));
+    }
+
+    private record TarEntry(char type, int mode, String linkName, String content) {
+    }
+
+    /**
+     * Minimal tar reader: ustar headers plus the pax 'path' and 'linkpath' records.
+     */
+    private static Map<String, TarEntry> readTarGz(byte[] archive) throws IOException {
+        Map<String, TarEntry> entries = new LinkedHashMap<>();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(archive))) {
+            Map<String, String> pax = new LinkedHashMap<>();
+            while (true) {
+                byte[] header = in.readNBytes(512);
+                assertEquals(512, header.length, "Archive must end with zero blocks");
+                if (header[0] == 0) {
+                    break;
+                }
+                verifyChecksum(header);
+                char type = (char) header[156];
+                long size = Long.parseLong(field(header, 124, 12).trim(), 8);
+                byte[] data = in.readNBytes((int) size);
+                in.readNBytes((int) ((512 - size % 512) % 512));
+
+                if (type == 'x') {
+                    parsePax(new String(data, StandardCharsets.UTF_8), pax);
+                    continue;
+                }
+                String name = pax.getOrDefault("path", field(header, 0, 100));
+                String linkName = pax.getOrDefault("linkpath", field(header, 157, 100));
+                int mode = Integer.parseInt(field(header, 100, 8).trim(), 8);
+                entries.put(name, new TarEntry(type, mode, linkName, new String(data, StandardCharsets.UTF_8)));
+                pax.clear();
+            }
+        }
+        return entries;
+    }
+
+    private static void parsePax(String data, Map<String, String> pax) {
+        int position = 0;
+        while (position < data.length()) {
+            int space = data.indexOf(' ', position);
+            String record = data.substring(space + 1, data.indexOf('\n', space));
+            int equals = record.indexOf('=');
+            pax.put(record.substring(0, equals), record.substring(equals + 1));
+            position = data.indexOf('\n', space) + 1;
+        }
+    }
+
+    private static void verifyChecksum(byte[] header) {
+        long expected = Long.parseLong(field(header, 148, 8).trim(), 8);
+        long actual = 0;
+        for (int i = 0; i < 512; i++) {
+            actual += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+        }
+        assertEquals(expected, actual, "Header checksum");
+    }
+
+    private static String field(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static class CloseTrackingStream extends ByteArrayOutputStream {
+        private boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.TransferProgress;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferProgressTrackerTest {
+
+    private final List<RecordingEmitter> emitters = new ArrayList<>();
+    private boolean nextEmitterFails;
+
+    // Publishing is driven by the tests, the scheduled publisher never gets a turn
+    private final TransferProgressTracker tracker = new TransferProgressTracker(Duration.ofHours(1), Duration.ofMinutes(30)) {
+        @Override
+        SseEmitter newEmitter(Duration timeout) {
+            RecordingEmitter emitter = new RecordingEmitter(nextEmitterFails);
+            emitters.add(emitter);
+            return emitter;
+        }
+    };
+
+    @AfterEach
+    void tearDown() {
+        tracker.shutdown();
+    }
+
+    @Test
+    void testCoalescesUpdatesToLatestSnapshotPerDestination() {
+        RecordingEmitter emitter = subscribe();
+        tracker.started("gdrive:photos");
+        tracker.update(progress("gdrive:photos", 10));
+        tracker.update(progress("gdrive:photos", 20));
+        tracker.update(progress("gdrive:documents", 5));
+
+        tracker.publishPendingEvents();
+
+        assertEquals(2, emitter.received.size());
+        assertEquals(20, emitter.latest("gdrive:photos").getBytes());
+        assertEquals(5, emitter.latest("gdrive:documents").getBytes());
+
+        tracker.publishPendingEvents();
+        assertEquals(2, emitter.received.size(), "Unchanged snapshots are not sent again");
+    }
+
+    @Test
+    void testKeepsStartTimeAcrossUpdates() {
+        tracker.started("gdrive:photos");
+        TransferProgress started = tracker.getActiveTransfers().get(0);
+
+        tracker.update(progress("gdrive:photos", 10));
+
+        TransferProgress updated = tracker.getActiveTransfers().get(0);
+        assertEquals(10, updated.getBytes());
+        assertEquals(started.getStartedAt(), updated.getStartedAt());
+    }
+
+    @Test
+    void testPublishesFinishedStateOnceAndForgetsTransfer() {
+        RecordingEmitter emitter = subscribe();
+        tracker.started("gdrive:photos");
+        TransferProgress last = progress("gdrive:photos", 100);
+        last.setTotalBytes(100);
+        last.setBytesPerSecond(50);
+        tracker.update(last);
+
+        tracker.finished("gdrive:photos", true);
+        tracker.publishPendingEvents();
+
+        assertEquals(1, emitter.received.size(), "The running snapshot is replaced by the finished one");
+        TransferProgress finished = emitter.latest("gdrive:photos");
+        assertEquals(TransferProgress.State.SUCCEEDED, finished.getState());
+        assertEquals(100, finished.getBytes());
+        assertEquals(0, finished.getBytesPerSecond());
+        assertEquals(0L, finished.getEtaSeconds());
+        assertTrue(tracker.getActiveTransfers().isEmpty());
+
+        tracker.publishPendingEvents();
+        assertEquals(1, emitter.received.size());
+    }
+
+    @Test
+    void testPublishesFailedState() {
+        RecordingEmitter emitter = subscribe();
+        tracker.started("gdrive:photos");
+
+        tracker.finished("gdrive:photos", false);
+        tracker.publishPendingEvents();
+
+        TransferProgress finished = emitter.latest("gdrive:photos");
+        assertEquals(TransferProgress.State.FAILED, finished.getState());
+        assertNull(finished.getEtaSeconds());
+    }
+
+    @Test
+    void testNewSubscriberReceivesRunningTransfers() {
+        tracker.started("gdrive:photos");
+
+        RecordingEmitter emitter = subscribe();
+
+        assertEquals(1, emitter.received.size());
+        assertEquals(TransferProgress.State.RUNNING, emitter.latest("gdrive:photos").getState());
+    }
+
+    @Test
+    void testRemovesSubscriberWhenEmitterCompletes() {
+        RecordingEmitter completed = subscribe();
+        RecordingEmitter remaining = subscribe();
+
+        completed.completionCallbacks.forEach(Runnable::run);
+        tracker.update(progress("gdrive:photos", 10));
+        tracker.publishPendingEvents();
+
+        assertTrue(completed.received.isEmpty());
+        assertEquals(1, remaining.received.size());
+    }
+
+    @Test
+    void testRemovesSubscriberWhenEmitterTimesOut() {
+        RecordingEmitter timedOut = subscribe();
+        RecordingEmitter remaining = subscribe();
+
+        timedOut.timeoutCallbacks.forEach(Runnable::run);
+        tracker.update(progress("gdrive:photos", 10));
+        tracker.publishPendingEvents();
+
+        assertTrue(timedOut.received.isEmpty());
+        assertEquals(1, remaining.received.size());
+    }
+
+    @Test
+    void testDropsSubscriberWhoseSendFails() {
+        nextEmitterFails = true;
+        RecordingEmitter broken = subscribe();
+        nextEmitterFails = false;
+        RecordingEmitter remaining = subscribe();
+
+        tracker.update(progress("gdrive:photos", 10));
+        tracker.publishPendingEvents();
+        tracker.update(progress("gdrive:photos", 20));
+        tracker.publishPendingEvents();
+
+        assertEquals(1, broken.attempts, "A broken subscriber is not sent to again");
+        assertEquals(2, remaining.received.size());
+    }
+
+    private RecordingEmitter subscribe() {
+        tracker.subscribe();
+        return emitters.get(emitters.size() - 1);
+    }
+
+    private static TransferProgress progress(String destination, long bytes) {
+        TransferProgress progress = new TransferProgress();
+        progress.setDestination(destination);
+        progress.setBytes(bytes);
+        return progress;
+    }
+
+    /**
+     * Records sent snapshots and registered callbacks instead of writing to a response.
+     */
+    private static class RecordingEmitter extends SseEmitter {
+
+        private final boolean fails;
+        private final List<TransferProgress> received = new CopyOnWriteArrayList<>();
+        private final List<Runnable> completionCallbacks = new CopyOnWriteArrayList<>();
+        private final List<Runnable> timeoutCallbacks = new CopyOnWriteArrayList<>();
+        private int attempts;
+
+        RecordingEmitter(boolean fails) {
+            this.fails = fails;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            attempts++;
+            if (fails) {
+                throw new IOException("Broken pipe");
+            }
+            builder.build().stream()
+                    .map(DataWithMediaType::getData)
+                    .filter(TransferProgress.class::isInstance)
+                    .map(TransferProgress.class::cast)
+                    .forEach(received::add);
+        }
+
+        @Override
+        public synchronized void onCompletion(Runnable callback) {
+            completionCallbacks.add(callback);
+            super.onCompletion(callback);
+        }
+
+        @Override
+        public synchronized void onTimeout(Runnable callback) {
+            timeoutCallbacks.add(callback);
+            super.onTimeout(callback);
+        }
+
+        TransferProgress latest(String destination) {
+            TransferProgress latest = null;
+            for (TransferProgress progress : received) {
+                if (progress.getDestination().equals(destination)) {
+                    latest = progress;
+                }
+            }
+            return latest;
+        }
+    }
+}
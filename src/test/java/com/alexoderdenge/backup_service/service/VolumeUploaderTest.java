@@ -0,0 +1,83 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.service.exception.RcloneException;
+import com.alexoderdenge.backup_service.util.VolumeOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class VolumeUploaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+    @Test
+    void testFailedVolumeIsRetriedOnItsOwn() throws IOException {
+        CloudProvider provider = mock(CloudProvider.class);
+        doAnswer(invocation -> {
+            String destination = invocation.<UploadRequest>getArgument(0).destination();
+            int attempt = attempts.computeIfAbsent(destination, key -> new AtomicInteger()).incrementAndGet();
+            if (destination.endsWith(".002") && attempt < 3) {
+                throw new RcloneException("Network glitch", 1);
+            }
+            return null;
+        }).when(provider).backup(any(UploadRequest.class));
+
+        List<VolumeOutputStream.Volume> uploaded;
+        try (VolumeUploader uploader = new VolumeUploader(provider, "remote:a.zip", 2,
+                new RetryPolicy(3, Duration.ofMillis(1), Duration.ofMillis(1)), 2)) {
+            for (int i = 1; i <= 4; i++) {
+                uploader.submit(volume(i));
+            }
+            uploaded = uploader.awaitCompletion();
+        }
+
+        assertEquals(List.of(1, 2, 3, 4), uploaded.stream().map(VolumeOutputStream.Volume::number).toList());
+        assertEquals(3, attempts.get("remote:a.zip.002").get());
+        assertEquals(1, attempts.get("remote:a.zip.001").get());
+        assertEquals(1, attempts.get("remote:a.zip.004").get());
+        assertFalse(Files.exists(tempDir.resolve("v.001")), "Uploaded volumes are deleted");
+    }
+
+    @Test
+    void testPermanentFailureStopsFurtherVolumes() throws IOException {
+        CloudProvider provider = mock(CloudProvider.class);
+        doAnswer(invocation -> {
+            attempts.computeIfAbsent(invocation.<UploadRequest>getArgument(0).destination(), key -> new AtomicInteger())
+                    .incrementAndGet();
+            throw new RcloneException("Quota exceeded", 7);
+        }).when(provider).backup(any(UploadRequest.class));
+
+        try (VolumeUploader uploader = new VolumeUploader(provider, "remote:a.zip", 1,
+                new RetryPolicy(2, Duration.ofMillis(1), Duration.ofMillis(1)), 1)) {
+            uploader.submit(volume(1));
+            // The single pending slot frees up only once volume 1 has failed for good
+            assertThrows(IOException.class, () -> uploader.submit(volume(2)));
+            RcloneException error = assertThrows(RcloneException.class, uploader::awaitCompletion);
+            assertTrue(error.getMessage().contains("volume 1"));
+        }
+        assertEquals(2, attempts.get("remote:a.zip.001").get());
+        assertNull(attempts.get("remote:a.zip.002"));
+    }
+
+    private VolumeOutputStream.Volume volume(int number) throws IOException {
+        Path file = tempDir.resolve("v" + VolumeOutputStream.volumeSuffix(number));
+        Files.writeString(file, "volume " + number);
+        return new VolumeOutputStream.Volume(number, file, Files.size(file), "");
+    }
+}
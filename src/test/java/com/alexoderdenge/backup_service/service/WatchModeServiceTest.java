@@ -0,0 +1,63 @@
+package com.alexoderdenge.backup_service.service;
+
+import com.alexoderdenge.backup_service.model.BackupConfig;
+import com.alexoderdenge.backup_service.model.BackupEntryResult;
+import com.alexoderdenge.backup_service.model.BackupJob;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class WatchModeServiceTest {
+
+    private BackupJobService jobService;
+    private WatchModeService service;
+    private final BackupConfig.BackupEntry entry = new BackupConfig.BackupEntry();
+
+    @BeforeEach
+    void setUp() {
+        entry.setLocalPath("/tmp/source");
+        entry.setCloudPath("gdrive:/backup/docs");
+        jobService = mock(BackupJobService.class);
+        service = new WatchModeService(jobService, new BackupConfig(),
+                Duration.ofSeconds(1), Duration.ofSeconds(5), 100, Duration.ofSeconds(1));
+    }
+
+    @Test
+    void testChangesAreUploadedAsJob() throws Exception {
+        BackupJob job = finishedJob(BackupJob.Status.COMPLETED, BackupEntryResult.start(entry).succeeded(10L));
+        when(jobService.submitWatchSync(entry, List.of("a.txt"))).thenReturn(CompletableFuture.completedFuture(job));
+
+        assertTrue(service.upload(entry, List.of("a.txt")));
+    }
+
+    @Test
+    void testFailedEntryRequiresFullBackup() throws Exception {
+        BackupJob job = finishedJob(BackupJob.Status.COMPLETED, BackupEntryResult.start(entry).failed("Upload failed"));
+        when(jobService.submitWatchSync(entry, List.of("a.txt"))).thenReturn(CompletableFuture.completedFuture(job));
+
+        assertFalse(service.upload(entry, List.of("a.txt")));
+    }
+
+    @Test
+    void testFailedJobRequiresFullBackup() throws Exception {
+        BackupJob job = finishedJob(BackupJob.Status.FAILED, null);
+        when(jobService.submitWatchSync(entry, null)).thenReturn(CompletableFuture.completedFuture(job));
+
+        assertFalse(service.upload(entry, null));
+    }
+
+    private static BackupJob finishedJob(BackupJob.Status status, BackupEntryResult result) {
+        BackupJob job = new BackupJob("job-1", "watch", false);
+        if (result != null) {
+            job.getEntries().add(result);
+        }
+        job.setStatus(status);
+        return job;
+    }
+}
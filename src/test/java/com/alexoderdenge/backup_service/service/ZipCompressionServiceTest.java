@@ -1,13 +1,24 @@
 package com.alexoderdenge.backup_service.service;
 
+import com.alexoderdenge.backup_service.model.CompressionPolicy;
 import com.alexoderdenge.backup_service.service.exception.CompressionException;
+import com.alexoderdenge.backup_service.util.FileTreeScanner;
+import com.alexoderdenge.backup_service.util.SourceTree;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -75,6 +86,43 @@ class ZipCompressionServiceTest {
         }
     }
 
+    @Test
+    void testCompressToStream() throws IOException, CompressionException {
+        Path sourceDir = tempDir.resolve("source");
+        Files.createDirectories(sourceDir.resolve("subdir"));
+        Files.writeString(sourceDir.resolve("file1.txt"), "Content of file 1");
+        Files.writeString(sourceDir.resolve("subdir/file2.txt"), "Content of file 2");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                fail("Stream must not be closed by the compression service");
+            }
+        };
+
+        compressionService.compressToStream(sourceDir, out);
+
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            int files = 0;
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    files++;
+                }
+            }
+            assertEquals(2, files);
+        }
+    }
+
+    @Test
+    void testCompressToStreamNonExistentSource() {
+        Path nonExistent = tempDir.resolve("non-existent");
+
+        assertThrows(CompressionException.class, () -> {
+            compressionService.compressToStream(nonExistent, new ByteArrayOutputStream());
+        });
+    }
+
     @Test
     void testCompressNonExistentSource() {
         Path nonExistent = tempDir.resolve("non-existent");
@@ -137,4 +185,102 @@ class ZipCompressionServiceTest {
             compressionService.validateCloudPathForCompression("gdrive:/backup/test.Zip", true);
         });
     }
+
+    @Test
+    void testCompressionPolicyStoresIncompressibleFiles() throws IOException, CompressionException {
+        Path sourceDir = tempDir.resolve("source");
+        Files.createDirectories(sourceDir);
+        byte[] random = new byte[200_000];
+        new Random(1).nextBytes(random);
+        Files.write(sourceDir.resolve("photo.JPG"), "not really a jpeg, but compressible ".repeat(1000).getBytes());
+        Files.write(sourceDir.resolve("data.bin"), random);
+        Files.writeString(sourceDir.resolve("notes.txt"), "compressible text ".repeat(1000));
+
+        Path zipFile = compressionService.compressToZip(sourceDir, tempDir.resolve("output"), CompressionPolicy.defaults());
+
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            assertEquals(ZipEntry.STORED, zip.getEntry("photo.JPG").getMethod());
+            assertEquals(ZipEntry.STORED, zip.getEntry("data.bin").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("notes.txt").getMethod());
+            assertArrayEquals(random, zip.getInputStream(zip.getEntry("data.bin")).readAllBytes());
+            assertTrue(zip.getComment().contains("1 by extension"), zip.getComment());
+            assertTrue(zip.getComment().contains("1 by sampling (200000 bytes)"), zip.getComment());
+        }
+    }
+
+    @Test
+    void testStoredEntriesReadableFromStream() throws IOException, CompressionException {
+        Path sourceDir = tempDir.resolve("source");
+        Files.createDirectories(sourceDir);
+        Files.writeString(sourceDir.resolve("movie.mp4"), "movie data");
+        Files.writeString(sourceDir.resolve("notes.txt"), "notes");
+
+        CompressionPolicy policy = new CompressionPolicy();
+        policy.setLevel(9);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressionService.compressToStream(sourceDir, out, policy);
+
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            int files = 0;
+            while ((entry = zis.getNextEntry()) != null) {
+                String content = new String(zis.readAllBytes());
+                assertEquals(entry.getName().equals("movie.mp4") ? "movie data" : "notes", content);
+                files++;
+            }
+            assertEquals(2, files);
+        }
+    }
+
+    @Test
+    void testStoredFilesChangedWhileArchivingKeepScannedSize() throws IOException, CompressionException {
+        Path sourceDir = tempDir.resolve("source");
+        Files.createDirectories(sourceDir);
+        Files.writeString(sourceDir.resolve("grown.mp4"), "first");
+        Files.writeString(sourceDir.resolve("shrunk.mp4"), "complete");
+        byte[] large = new byte[FileSnapshot.IN_MEMORY_LIMIT + 4096];
+        new Random(2).nextBytes(large);
+        Files.write(sourceDir.resolve("large.mp4"), large);
+
+        // Every file changes after the tree handed out its attributes, just before it is archived
+        SourceTree live = SourceTree.live(sourceDir);
+        SourceTree changing = new SourceTree() {
+            @Override
+            public Path root() {
+                return sourceDir;
+            }
+
+            @Override
+            public void forEach(FileTreeScanner.EntryConsumer consumer) throws IOException {
+                live.forEach(entry -> {
+                    String name = entry.relativePath();
+                    if (name.equals("grown.mp4")) {
+                        Files.writeString(entry.path(), "first and more");
+                    } else if (name.equals("shrunk.mp4")) {
+                        Files.writeString(entry.path(), "comp");
+                    } else if (name.equals("large.mp4")) {
+                        Files.write(entry.path(), Arrays.copyOf(large, 1000));
+                    }
+                    consumer.accept(entry);
+                });
+            }
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressionService.compressToStream(changing, out, new CompressionPolicy());
+
+        // ZipInputStream verifies the sizes and CRC of every entry while reading it
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                entries.put(entry.getName(), zis.readAllBytes());
+            }
+        }
+        assertEquals("first", new String(entries.get("grown.mp4")));
+        assertEquals("comp\0\0\0\0", new String(entries.get("shrunk.mp4")));
+        byte[] expectedLarge = new byte[large.length];
+        System.arraycopy(large, 0, expectedLarge, 0, 1000);
+        assertArrayEquals(expectedLarge, entries.get("large.mp4"));
+    }
 }
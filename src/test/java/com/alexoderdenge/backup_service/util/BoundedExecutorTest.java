@@ -0,0 +1,107 @@
+package com.alexoderdenge.backup_service.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedExecutorTest {
+
+    @Test
+    void testRespectsWorkerLimit() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        try (BoundedExecutor executor = new BoundedExecutor(2, 4, "test-stage-")) {
+            for (int i = 0; i < 20; i++) {
+                executor.execute(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleep(5);
+                    running.decrementAndGet();
+                });
+            }
+        }
+
+        assertTrue(maxRunning.get() <= 2, "Worker limit exceeded: " + maxRunning.get());
+        assertEquals(0, running.get());
+    }
+
+    @Test
+    void testExecuteBlocksWhileQueueIsFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean thirdQueued = new AtomicBoolean();
+
+        try (BoundedExecutor executor = new BoundedExecutor(1, 1, "test-stage-")) {
+            executor.execute(() -> await(release)); // Running
+            executor.execute(() -> { });            // Queued
+
+            Thread producer = new Thread(() -> {
+                executor.execute(() -> { });
+                thirdQueued.set(true);
+            });
+            producer.start();
+            producer.join(200);
+            assertFalse(thirdQueued.get(), "Third task should wait for room in the queue");
+
+            release.countDown();
+            producer.join(5000);
+            assertTrue(thirdQueued.get(), "Third task should be queued once the first one finished");
+        }
+    }
+
+    @Test
+    void testFailingTaskReleasesItsSlot() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+
+        try (BoundedExecutor executor = new BoundedExecutor(1, 0, "test-stage-")) {
+            executor.execute(() -> {
+                throw new IllegalStateException("boom");
+            });
+            executor.execute(ran::countDown);
+
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testCloseWaitsForQueuedTasks() {
+        AtomicInteger completed = new AtomicInteger();
+
+        try (BoundedExecutor executor = new BoundedExecutor(1, 3, "test-stage-")) {
+            for (int i = 0; i < 4; i++) {
+                executor.execute(() -> {
+                    sleep(10);
+                    completed.incrementAndGet();
+                });
+            }
+        }
+
+        assertEquals(4, completed.get());
+    }
+
+    @Test
+    void testInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new BoundedExecutor(0, 1, "w-"));
+        assertThrows(IllegalArgumentException.class, () -> new BoundedExecutor(1, -1, "w-"));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.alexoderdenge.backup_service.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FastCdcChunkerTest {
+
+    private final FastCdcChunker chunker = new FastCdcChunker(1024, 4096, 16384);
+
+    @Test
+    void testChunksCoverInputAndRespectSizeLimits() throws IOException {
+        byte[] data = randomBytes(1_000_000, 1);
+        List<byte[]> chunks = split(data);
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] chunk = chunks.get(i);
+            assertTrue(chunk.length <= 16384, "Chunk larger than the maximum: " + chunk.length);
+            if (i < chunks.size() - 1) {
+                assertTrue(chunk.length >= 1024, "Chunk smaller than the minimum: " + chunk.length);
+            }
+            joined.write(chunk);
+        }
+        assertArrayEquals(data, joined.toByteArray());
+
+        double average = (double) data.length / chunks.size();
+        assertTrue(average > 2048 && average < 8192, "Average chunk size was " + average);
+    }
+
+    @Test
+    void testInsertionOnlyChangesNearbyChunks() throws IOException {
+        byte[] original = randomBytes(1_000_000, 2);
+        byte[] edited = new byte[original.length + 3];
+        int insertAt = original.length / 2;
+        System.arraycopy(original, 0, edited, 0, insertAt);
+        edited[insertAt] = 1;
+        edited[insertAt + 1] = 2;
+        edited[insertAt + 2] = 3;
+        System.arraycopy(original, insertAt, edited, insertAt + 3, original.length - insertAt);
+
+        Set<String> before = new HashSet<>();
+        split(original).forEach(chunk -> before.add(Arrays.toString(chunk)));
+        List<byte[]> after = split(edited);
+        long changed = after.stream().filter(chunk -> !before.contains(Arrays.toString(chunk))).count();
+
+        assertTrue(changed <= 3, changed + " of " + after.size() + " chunks changed after a 3 byte insertion");
+    }
+
+    @Test
+    void testSmallAndEmptyInputs() throws IOException {
+        assertTrue(split(new byte[0]).isEmpty());
+        List<byte[]> chunks = split(new byte[100]);
+        assertEquals(1, chunks.size());
+        assertEquals(100, chunks.get(0).length);
+    }
+
+    @Test
+    void testRejectsInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new FastCdcChunker(0, 4096, 8192));
+        assertThrows(IllegalArgumentException.class, () -> new FastCdcChunker(8192, 4096, 16384));
+        assertThrows(IllegalArgumentException.class, () -> new FastCdcChunker(1024, 4096, 2048));
+    }
+
+    private List<byte[]> split(byte[] data) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        long total = chunker.split(new ByteArrayInputStream(data),
+                (buffer, offset, length) -> chunks.add(Arrays.copyOfRange(buffer, offset, offset + length)));
+        assertEquals(data.length, total);
+        return chunks;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,176 @@
+package com.alexoderdenge.backup_service.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+class FileTreeScannerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileTreeScanner scanner;
+
+    @BeforeEach
+    void setUp() {
+        // A tiny queue makes the list tasks wait on the consumer all the time
+        scanner = new FileTreeScanner(4, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scanner.close();
+    }
+
+    @Test
+    void testScanReportsEveryEntryWithDirectoriesBeforeTheirContents() throws IOException {
+        Path root = createTree(tempDir.resolve("source"), 3, 4);
+        Set<String> expected = new HashSet<>();
+        try (var paths = Files.walk(root)) {
+            paths.filter(path -> !path.equals(root))
+                    .forEach(path -> expected.add(root.relativize(path).toString().replace('\\', '/')));
+        }
+
+        List<String> seen = new ArrayList<>();
+        scanner.scan(root, entry -> {
+            String parent = entry.relativePath().contains("/")
+                    ? entry.relativePath().substring(0, entry.relativePath().lastIndexOf('/')) : null;
+            assertTrue(parent == null || seen.contains(parent), "Parent of " + entry.relativePath() + " not seen yet");
+            assertEquals(Files.isDirectory(entry.path()), entry.isDirectory());
+            seen.add(entry.relativePath());
+        });
+
+        assertEquals(expected.size(), seen.size());
+        assertEquals(expected, new HashSet<>(seen));
+    }
+
+    @Test
+    void testScanOfFileReportsTheFileItself() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("single.txt"), "content");
+        List<FileTreeScanner.Entry> entries = new ArrayList<>();
+
+        scanner.scan(file, entries::add);
+
+        assertEquals(1, entries.size());
+        assertEquals("single.txt", entries.get(0).relativePath());
+        assertEquals(7, entries.get(0).attributes().size());
+    }
+
+    @Test
+    void testConsumerFailureStopsTheScan() throws IOException {
+        Path root = createTree(tempDir.resolve("source"), 3, 5);
+        AtomicInteger consumed = new AtomicInteger();
+
+        IOException e = assertThrows(IOException.class, () -> scanner.scan(root, entry -> {
+            if (consumed.incrementAndGet() == 10) {
+                throw new IOException("disk full");
+            }
+        }));
+
+        assertEquals("disk full", e.getMessage());
+        assertEquals(10, consumed.get());
+        // The scanner is still usable afterwards
+        AtomicInteger second = new AtomicInteger();
+        scanner.scan(root, entry -> second.incrementAndGet());
+        assertTrue(second.get() > 10);
+    }
+
+    @Test
+    void testEntriesDeletedDuringScanAreSkipped() throws IOException {
+        Path root = createTree(tempDir.resolve("source"), 3, 8);
+        Set<String> seen = new HashSet<>();
+
+        // Each directory is deleted as soon as it is reported, racing the task that lists it
+        assertDoesNotThrow(() -> scanner.scan(root, entry -> {
+            seen.add(entry.relativePath());
+            if (entry.isDirectory()) {
+                scanner.deleteTree(entry.path());
+            }
+        }));
+
+        assertTrue(seen.contains("dir0"));
+        assertTrue(seen.contains("file7.txt"));
+    }
+
+    @Test
+    void testUnreadableDirectoryIsSkipped() throws IOException {
+        Path root = createTree(tempDir.resolve("source"), 2, 2);
+        Path locked = root.resolve("dir0");
+        Files.setPosixFilePermissions(locked, PosixFilePermissions.fromString("---------"));
+        try {
+            assumeFalse(Files.isReadable(locked), "Permissions are not enforced for this user");
+            List<String> seen = new ArrayList<>();
+
+            int unreadable = scanner.scan(root, entry -> seen.add(entry.relativePath()));
+
+            assertEquals(1, unreadable);
+            assertTrue(seen.contains("dir0"));
+            assertTrue(seen.contains("dir1/file0.txt"));
+            assertFalse(seen.contains("dir0/file0.txt"));
+        } finally {
+            Files.setPosixFilePermissions(locked, PosixFilePermissions.fromString("rwx------"));
+        }
+    }
+
+    @Test
+    void testSymbolicLinksAreNotFollowed() throws IOException {
+        Path outside = Files.createDirectories(tempDir.resolve("outside"));
+        Files.writeString(outside.resolve("keep.txt"), "keep");
+        Path root = Files.createDirectories(tempDir.resolve("source"));
+        Files.createSymbolicLink(root.resolve("link"), outside);
+        List<FileTreeScanner.Entry> entries = new ArrayList<>();
+
+        scanner.scan(root, entries::add);
+
+        assertEquals(1, entries.size());
+        assertTrue(entries.get(0).attributes().isSymbolicLink());
+
+        scanner.deleteTree(root);
+        assertFalse(Files.exists(root));
+        assertTrue(Files.exists(outside.resolve("keep.txt")), "Deletion must not follow links");
+    }
+
+    @Test
+    void testDeleteTreeRemovesEverything() throws IOException {
+        Path root = createTree(tempDir.resolve("source"), 4, 3);
+
+        scanner.deleteTree(root);
+
+        assertFalse(Files.exists(root));
+        assertDoesNotThrow(() -> scanner.deleteTree(root), "A missing root is not an error");
+    }
+
+    @Test
+    void testInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new FileTreeScanner(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new FileTreeScanner(1, 0));
+    }
+
+    /**
+     * Creates a tree of the given depth with {@code width} files and subdirectories per directory.
+     */
+    private static Path createTree(Path directory, int depth, int width) throws IOException {
+        Files.createDirectories(directory);
+        for (int i = 0; i < width; i++) {
+            Files.writeString(directory.resolve("file" + i + ".txt"), "data " + i);
+            if (depth > 1) {
+                createTree(directory.resolve("dir" + i), depth - 1, width);
+            }
+        }
+        return directory;
+    }
+}
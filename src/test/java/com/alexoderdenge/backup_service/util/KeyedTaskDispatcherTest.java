@@ -0,0 +1,96 @@
+package com.alexoderdenge.backup_service.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyedTaskDispatcherTest {
+
+    @Test
+    void testRespectsGlobalAndPerKeyLimits() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Map<String, AtomicInteger> runningPerKey = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> maxPerKey = new ConcurrentHashMap<>();
+
+        try (KeyedTaskDispatcher dispatcher = new KeyedTaskDispatcher(3, 2, "test-worker-")) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                String key = i % 2 == 0 ? "gdrive" : "dropbox";
+                futures.add(dispatcher.submit(key, () -> {
+                    AtomicInteger keyCounter = runningPerKey.computeIfAbsent(key, k -> new AtomicInteger());
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    maxPerKey.computeIfAbsent(key, k -> new AtomicInteger())
+                            .accumulateAndGet(keyCounter.incrementAndGet(), Math::max);
+                    sleep(10);
+                    keyCounter.decrementAndGet();
+                    running.decrementAndGet();
+                }));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        }
+
+        assertTrue(maxRunning.get() <= 3, "Global limit exceeded: " + maxRunning.get());
+        assertTrue(maxPerKey.get("gdrive").get() <= 2, "Per-key limit exceeded for gdrive");
+        assertTrue(maxPerKey.get("dropbox").get() <= 2, "Per-key limit exceeded for dropbox");
+    }
+
+    @Test
+    void testBusyKeyDoesNotStarveOtherKeys() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherKeyRan = new CountDownLatch(1);
+
+        try (KeyedTaskDispatcher dispatcher = new KeyedTaskDispatcher(2, 1, "test-worker-")) {
+            dispatcher.submit("slow", () -> await(release));
+            dispatcher.submit("slow", () -> await(release));
+            dispatcher.submit("fast", otherKeyRan::countDown);
+
+            assertTrue(otherKeyRan.await(5, TimeUnit.SECONDS), "Task on another key should not wait behind the slow key");
+            release.countDown();
+        }
+    }
+
+    @Test
+    void testFailingTaskCompletesExceptionallyAndReleasesSlot() {
+        try (KeyedTaskDispatcher dispatcher = new KeyedTaskDispatcher(1, 1, "test-worker-")) {
+            CompletableFuture<Void> failing = dispatcher.submit("remote", () -> {
+                throw new IllegalStateException("boom");
+            });
+            CompletableFuture<Void> next = dispatcher.submit("remote", () -> { });
+
+            assertThrows(Exception.class, failing::join);
+            assertDoesNotThrow(() -> next.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new KeyedTaskDispatcher(0, 1, "w-"));
+        assertThrows(IllegalArgumentException.class, () -> new KeyedTaskDispatcher(1, 0, "w-"));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
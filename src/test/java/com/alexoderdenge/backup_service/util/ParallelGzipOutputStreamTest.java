@@ -0,0 +1,93 @@
+package com.alexoderdenge.backup_service.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelGzipOutputStreamTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testMultipleBlocksDecompressAsOneStream() throws IOException {
+        byte[] data = new byte[10 * 4096 + 123];
+        Random random = new Random(42);
+        for (int i = 0; i < data.length; i++) {
+            // Half compressible text, half random bytes to exercise the stored fallback
+            data[i] = i < data.length / 2 ? (byte) ('a' + i % 7) : (byte) random.nextInt();
+        }
+
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(target, executor, 6, 4096, 2)) {
+            gzip.write(data, 0, 1000);
+            gzip.write(data[1000]);
+            gzip.flush();
+            gzip.write(data, 1001, data.length - 1001);
+        }
+
+        assertArrayEquals(data, gunzip(target.toByteArray()));
+        assertTrue(target.size() < data.length, "Compressible half should shrink the output");
+    }
+
+    @Test
+    void testFinishLeavesUnderlyingStreamOpen() throws IOException {
+        CloseTrackingStream target = new CloseTrackingStream();
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(target, executor, -1, 1024, 4);
+        gzip.write("hello gzip".getBytes());
+        gzip.finish();
+
+        assertFalse(target.closed);
+        assertEquals("hello gzip", new String(gunzip(target.toByteArray())));
+        assertThrows(IOException.class, () -> gzip.write(1));
+    }
+
+    @Test
+    void testEmptyInputIsValidGzip() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(target, executor, 6, 1024, 1).close();
+
+        assertEquals(0, gunzip(target.toByteArray()).length);
+    }
+
+    @Test
+    void testIncompressibleBlockIsStored() throws IOException {
+        byte[] data = new byte[8192];
+        new Random(7).nextBytes(data);
+
+        byte[] member = ParallelGzipOutputStream.compressMember(data, data.length, 9);
+
+        // Stored deflate blocks add 5 bytes per block on top of the 18 byte gzip header and trailer
+        assertTrue(member.length <= data.length + 18 + 10, "Stored member was " + member.length + " bytes");
+        assertArrayEquals(data, gunzip(member));
+    }
+
+    private static byte[] gunzip(byte[] gzip) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static class CloseTrackingStream extends ByteArrayOutputStream {
+        private boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
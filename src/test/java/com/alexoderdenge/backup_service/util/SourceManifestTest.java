@@ -0,0 +1,163 @@
+package com.alexoderdenge.backup_service.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SourceManifestTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testScanListsEntriesSortedWithStats() throws IOException {
+        Path root = createTree(tempDir.resolve("source"));
+
+        try (SourceManifest manifest = SourceManifest.scan(root, () -> tempDir, 1000)) {
+            assertFalse(manifest.isSpilled());
+            assertTrue(manifest.isDirectory());
+            assertEquals(List.of("a", "a/x.txt", "a/y.txt", "b", "b/c", "b/c/z.txt", "top.txt"), paths(manifest));
+            assertEquals(4, manifest.fileCount());
+            assertEquals(3, manifest.directoryCount());
+            assertEquals(1 + 22 + 333 + 4444, manifest.totalSize());
+            assertEquals(2_000_000_000_000L, manifest.maxModified());
+        }
+    }
+
+    @Test
+    void testSpilledManifestMatchesInMemoryManifest() throws IOException {
+        Path root = tempDir.resolve("source");
+        for (int i = 0; i < 30; i++) {
+            Path directory = Files.createDirectories(root.resolve("dir" + (i % 7)));
+            Files.writeString(directory.resolve("file" + i + ".txt"), "x".repeat(i));
+        }
+        Path work = Files.createDirectory(tempDir.resolve("work"));
+
+        List<FileTreeScanner.Entry> inMemory = new ArrayList<>();
+        List<FileTreeScanner.Entry> spilled = new ArrayList<>();
+        try (SourceManifest memoryManifest = SourceManifest.scan(root, () -> work, 1000);
+             SourceManifest spilledManifest = SourceManifest.scan(root, () -> work, 4)) {
+            assertTrue(spilledManifest.isSpilled());
+            memoryManifest.forEach(inMemory::add);
+            spilledManifest.forEach(spilled::add);
+            assertEquals(memoryManifest.totalSize(), spilledManifest.totalSize());
+            assertEquals(memoryManifest.fileCount(), spilledManifest.fileCount());
+
+            // Replaying twice gives the same entries
+            List<FileTreeScanner.Entry> again = new ArrayList<>();
+            spilledManifest.forEach(again::add);
+            assertEquals(spilled.size(), again.size());
+        }
+
+        assertEquals(37, inMemory.size());
+        for (int i = 0; i < inMemory.size(); i++) {
+            FileTreeScanner.Entry expected = inMemory.get(i);
+            FileTreeScanner.Entry actual = spilled.get(i);
+            assertEquals(expected.relativePath(), actual.relativePath());
+            assertEquals(expected.path(), actual.path());
+            assertEquals(expected.isDirectory(), actual.isDirectory());
+            assertEquals(expected.attributes().size(), actual.attributes().size());
+            assertEquals(expected.attributes().lastModifiedTime(), actual.attributes().lastModifiedTime());
+        }
+        try (var leftovers = Files.list(work)) {
+            assertEquals(0, leftovers.count(), "Spilled runs are deleted on close");
+        }
+    }
+
+    @Test
+    void testWriteFileListHasRegularFilesOnly() throws IOException {
+        Path root = createTree(tempDir.resolve("source"));
+        Path fileList = tempDir.resolve("files.txt");
+
+        try (SourceManifest manifest = SourceManifest.scan(root, () -> tempDir, 2)) {
+            assertTrue(manifest.writeFileList(fileList));
+        }
+
+        assertEquals(List.of("a/x.txt", "a/y.txt", "b/c/z.txt", "top.txt"), Files.readAllLines(fileList));
+    }
+
+    @Test
+    void testScanOfFileHasTheFileItself() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("single.txt"), "content");
+
+        try (SourceManifest manifest = SourceManifest.scan(file, () -> tempDir, 10)) {
+            assertFalse(manifest.isDirectory());
+            assertEquals(1, manifest.fileCount());
+            assertEquals(7, manifest.totalSize());
+            List<FileTreeScanner.Entry> entries = new ArrayList<>();
+            manifest.forEach(entries::add);
+            assertEquals(1, entries.size());
+            assertEquals(file, entries.get(0).path());
+            assertEquals("single.txt", entries.get(0).relativePath());
+            assertThrows(IllegalStateException.class, () -> manifest.writeFileList(tempDir.resolve("files.txt")));
+        }
+    }
+
+    @Test
+    void testMissingOrUnreadableSourceIsReported() throws IOException {
+        assertThrows(NoSuchFileException.class,
+                () -> SourceManifest.scan(tempDir.resolve("missing"), () -> tempDir, 10));
+
+        Path locked = Files.createDirectory(tempDir.resolve("locked"));
+        Files.writeString(locked.resolve("secret.txt"), "secret");
+        if (!locked.toFile().setReadable(false) || Files.isReadable(locked)) {
+            return; // Running as root, permissions are not enforced
+        }
+        try {
+            assertThrows(AccessDeniedException.class, () -> SourceManifest.scan(locked, () -> tempDir, 10));
+        } finally {
+            locked.toFile().setReadable(true);
+        }
+    }
+
+    @Test
+    void testUnreadableSubdirectoryMakesManifestIncomplete() throws IOException {
+        Path root = createTree(tempDir.resolve("source"));
+        try (SourceManifest manifest = SourceManifest.scan(root, () -> tempDir, 10)) {
+            assertTrue(manifest.isComplete());
+        }
+
+        Path locked = Files.createDirectory(root.resolve("locked"));
+        Files.writeString(locked.resolve("secret.txt"), "secret");
+        if (!locked.toFile().setReadable(false) || Files.isReadable(locked)) {
+            return; // Running as root, permissions are not enforced
+        }
+        try (SourceManifest manifest = SourceManifest.scan(root, () -> tempDir, 10)) {
+            assertFalse(manifest.isComplete());
+            assertEquals(1, manifest.unreadableCount());
+            assertTrue(paths(manifest).contains("locked"));
+        } finally {
+            locked.toFile().setReadable(true);
+        }
+    }
+
+    private static List<String> paths(SourceManifest manifest) throws IOException {
+        List<String> paths = new ArrayList<>();
+        manifest.forEach(entry -> paths.add(entry.relativePath()));
+        return paths;
+    }
+
+    private static Path createTree(Path root) throws IOException {
+        Files.createDirectories(root.resolve("a"));
+        Files.createDirectories(root.resolve("b/c"));
+        Files.writeString(root.resolve("top.txt"), "1");
+        Files.writeString(root.resolve("a/y.txt"), "2".repeat(22));
+        Files.writeString(root.resolve("a/x.txt"), "3".repeat(333));
+        Path newest = Files.writeString(root.resolve("b/c/z.txt"), "4".repeat(4444));
+        Files.setLastModifiedTime(newest, FileTime.fromMillis(2_000_000_000_000L));
+        for (String other : List.of("top.txt", "a/y.txt", "a/x.txt")) {
+            Files.setLastModifiedTime(root.resolve(other), FileTime.fromMillis(1_000_000_000_000L));
+        }
+        return root;
+    }
+}
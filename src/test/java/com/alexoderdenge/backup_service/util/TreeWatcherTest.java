@@ -0,0 +1,78 @@
+package com.alexoderdenge.backup_service.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TreeWatcherTest {
+
+    private static final Duration DEBOUNCE = Duration.ofMillis(300);
+    private static final Duration MAX_WAIT = Duration.ofSeconds(10);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testCollectsChangedFilesInNestedDirectories() throws Exception {
+        Files.createDirectories(tempDir.resolve("docs"));
+        try (TreeWatcher watcher = new TreeWatcher(tempDir, 100)) {
+            Files.writeString(tempDir.resolve("a.txt"), "a");
+            Files.writeString(tempDir.resolve("docs").resolve("b.txt"), "b");
+
+            TreeWatcher.Changes changes = watcher.awaitChanges(DEBOUNCE, MAX_WAIT);
+
+            assertFalse(changes.rescan());
+            assertTrue(changes.paths().containsAll(Set.of("a.txt", Path.of("docs", "b.txt").toString())),
+                    changes.paths().toString());
+        }
+    }
+
+    @Test
+    void testNewDirectoriesAreWatchedAndTheirFilesReported() throws Exception {
+        try (TreeWatcher watcher = new TreeWatcher(tempDir, 100)) {
+            Path nested = Files.createDirectories(tempDir.resolve("new").resolve("deeper"));
+            Files.writeString(nested.resolve("c.txt"), "c");
+            watcher.awaitChanges(DEBOUNCE, MAX_WAIT);
+
+            Files.writeString(nested.resolve("d.txt"), "d");
+            TreeWatcher.Changes changes = watcher.awaitChanges(DEBOUNCE, MAX_WAIT);
+
+            assertFalse(changes.rescan());
+            assertTrue(changes.paths().contains(Path.of("new", "deeper", "d.txt").toString()), changes.paths().toString());
+        }
+    }
+
+    @Test
+    void testDeletedDirectoryRequestsRescan() throws Exception {
+        Path docs = Files.createDirectories(tempDir.resolve("docs"));
+        Files.writeString(docs.resolve("b.txt"), "b");
+        try (TreeWatcher watcher = new TreeWatcher(tempDir, 100)) {
+            FileUtils.deleteDirectoryRecursively(docs);
+
+            TreeWatcher.Changes changes = watcher.awaitChanges(DEBOUNCE, MAX_WAIT);
+
+            assertTrue(changes.rescan());
+            assertTrue(changes.paths().isEmpty());
+        }
+    }
+
+    @Test
+    void testTooManyChangesRequestRescan() throws Exception {
+        try (TreeWatcher watcher = new TreeWatcher(tempDir, 5)) {
+            for (int i = 0; i < 20; i++) {
+                Files.writeString(tempDir.resolve("file-" + i + ".txt"), "x");
+            }
+
+            TreeWatcher.Changes changes = watcher.awaitChanges(DEBOUNCE, MAX_WAIT);
+
+            assertTrue(changes.rescan());
+            assertTrue(changes.paths().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.alexoderdenge.backup_service.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VolumeOutputStreamTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testVolumesConcatenateToOriginal() throws IOException {
+        byte[] data = new byte[10_500];
+        new Random(1).nextBytes(data);
+        List<VolumeOutputStream.Volume> volumes = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+
+        try (VolumeOutputStream out = new VolumeOutputStream(tempDir, "archive.zip", 4096, volume -> {
+            volumes.add(volume);
+            contents.add(Files.readAllBytes(volume.file())); // Complete when handed over
+        })) {
+            out.write(data, 0, 100);
+            out.write(data[100]);
+            out.write(data, 101, data.length - 101);
+            assertEquals(2, volumes.size(), "Full volumes are handed over before the stream is closed");
+        }
+
+        assertEquals(3, volumes.size());
+        assertEquals(tempDir.resolve("archive.zip.001"), volumes.get(0).file());
+        assertEquals(tempDir.resolve("archive.zip.003"), volumes.get(2).file());
+        assertEquals(4096, volumes.get(1).size());
+        assertEquals(10_500 - 8192, volumes.get(2).size());
+        assertEquals(64, volumes.get(0).sha256().length());
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        contents.forEach(joined::writeBytes);
+        assertArrayEquals(data, joined.toByteArray());
+    }
+
+    @Test
+    void testExactMultipleDoesNotCreateEmptyTrailingVolume() throws IOException {
+        List<VolumeOutputStream.Volume> volumes = new ArrayList<>();
+        try (VolumeOutputStream out = new VolumeOutputStream(tempDir, "a", 10, volumes::add)) {
+            out.write(new byte[20]);
+        }
+        assertEquals(2, volumes.size());
+    }
+
+    @Test
+    void testEmptyStreamProducesOneEmptyVolume() throws IOException {
+        List<VolumeOutputStream.Volume> volumes = new ArrayList<>();
+        new VolumeOutputStream(tempDir, "a", 10, volumes::add).close();
+        assertEquals(1, volumes.size());
+        assertEquals(0, volumes.get(0).size());
+    }
+}
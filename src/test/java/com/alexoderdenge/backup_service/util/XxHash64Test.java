@@ -0,0 +1,38 @@
+package com.alexoderdenge.backup_service.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XxHash64Test {
+
+    @Test
+    void testMatchesReferenceValues() {
+        assertEquals(0xEF46DB3751D8E999L, hash(""));
+        assertEquals(0xD24EC4F1A98C6E5BL, hash("a"));
+        assertEquals(0x44BC2CF5AD770999L, hash("abc"));
+        assertEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    void testStreamingMatchesOneShot() {
+        byte[] data = new byte[10_000];
+        new Random(42).nextBytes(data);
+        long expected = XxHash64.hash(data);
+
+        for (int step : new int[]{1, 7, 31, 32, 33, 1000}) {
+            XxHash64 hash = new XxHash64();
+            for (int offset = 0; offset < data.length; offset += step) {
+                hash.update(data, offset, Math.min(step, data.length - offset));
+            }
+            assertEquals(expected, hash.getValue(), "step " + step);
+        }
+    }
+
+    private static long hash(String text) {
+        return XxHash64.hash(text.getBytes(StandardCharsets.UTF_8));
+    }
+}